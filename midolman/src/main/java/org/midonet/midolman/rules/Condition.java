@@ -198,7 +198,8 @@ public class Condition extends BaseConfig {
         FlowMatch pktMatch = pktCtx.wcmatch();
         // Matching on fragmentPolicy is unaffected by conjunctionInv,
         // so that gets tested separately.
-        if (!fragmentPolicy.accepts(pktMatch.getIpFragmentType()))
+        if (fragmentPolicy != FragmentPolicy.ANY &&
+            !fragmentPolicy.accepts(pktMatch.getIpFragmentType()))
             return false;
 
         /*
@@ -213,6 +214,11 @@ public class Condition extends BaseConfig {
          * any x_iInv x_i(P) evaluates to false and we then return the value
          * of 'conjunctionInv'.  If the conjunction evaluates to true, then
          * we return 'NOT conjunctionInv'.
+         *
+         * The packet fields are only read for the sub-conditions that are
+         * set, and the addresses are only read up to the prefix of the
+         * subnets, because reading a field marks it as seen and the flow
+         * installed for the packet matches exactly the fields seen.
          */
         if (matchForwardFlow && !pktCtx.isForwardFlow())
             return conjunctionInv;
@@ -232,8 +238,6 @@ public class Condition extends BaseConfig {
                 return conjunctionInv;
         }
 
-        IPAddr pmSrcIP = pktMatch.getNetworkSrcIP();
-        IPAddr pmDstIP = pktMatch.getNetworkDstIP();
         if (!matchPortGroup(pktCtx.portGroups(), portGroup, invPortGroup))
             return conjunctionInv;
         if (!matchPortGroup(pktCtx.inPortGroups(), inPortGroup, invInPortGroup))
@@ -245,31 +249,46 @@ public class Condition extends BaseConfig {
             return conjunctionInv;
         if (!matchPort(this.outPortIds, outPortId, this.outPortInv))
             return conjunctionInv;
-        if (!matchField(unsignShort(etherType),
+        if (etherType != null &&
+            !matchField(unsignShort(etherType),
                         Unsigned.unsign(pktMatch.getEtherType()), invDlType))
             return conjunctionInv;
-        if (!matchMAC(ethSrc, pktMatch.getEthSrc(), ethSrcMask, invDlSrc))
+        if (ethSrc != null &&
+            !matchMAC(ethSrc, pktMatch.getEthSrc(), ethSrcMask, invDlSrc))
             return conjunctionInv;
-        if (!matchMAC(ethDst, pktMatch.getEthDst(),
+        if (ethDst != null &&
+            !matchMAC(ethDst, pktMatch.getEthDst(),
                       dlDstMask, invDlDst))
             return conjunctionInv;
-        if (!matchField(nwTos, pktMatch.getNetworkTOS(), nwTosInv))
+        if (nwTos != null &&
+            !matchField(nwTos, pktMatch.getNetworkTOS(), nwTosInv))
             return conjunctionInv;
-        if (!matchField(
+        if (nwProto != null &&
+            !matchField(
                 nwProto, pktMatch.getNetworkProto(), nwProtoInv))
             return conjunctionInv;
-        if (!matchIP(nwSrcIp, pmSrcIP, nwSrcInv))
+        if (nwSrcIp != null &&
+            !matchIP(nwSrcIp, pktMatch.getNetworkSrcIP(nwSrcIp.getPrefixLen()),
+                     nwSrcInv))
             return conjunctionInv;
-        if (!matchIP(nwDstIp, pmDstIP, nwDstInv))
+        if (nwDstIp != null &&
+            !matchIP(nwDstIp, pktMatch.getNetworkDstIP(nwDstIp.getPrefixLen()),
+                     nwDstInv))
             return conjunctionInv;
-        if (!matchRange(tpSrc, pktMatch.getSrcPort(), tpSrcInv))
+        if (tpSrc != null &&
+            !matchRange(tpSrc, pktMatch.getSrcPort(), tpSrcInv))
             return conjunctionInv;
-        if (!matchRange(
+        if (tpDst != null &&
+            !matchRange(
                 tpDst, pktMatch.getDstPort(), tpDstInv))
             return conjunctionInv;
-        if (!matchIpToGroup(ipAddrGroupSrc, pmSrcIP, invIpAddrGroupIdSrc))
+        if (ipAddrGroupSrc != null &&
+            !matchIpToGroup(ipAddrGroupSrc, pktMatch.getNetworkSrcIP(),
+                            invIpAddrGroupIdSrc))
             return conjunctionInv;
-        if (!matchIpToGroup(ipAddrGroupDst, pmDstIP, invIpAddrGroupIdDst))
+        if (ipAddrGroupDst != null &&
+            !matchIpToGroup(ipAddrGroupDst, pktMatch.getNetworkDstIP(),
+                            invIpAddrGroupIdDst))
             return conjunctionInv;
         if (!matchTraversedDevice(pktCtx))
             return conjunctionInv;
@@ -65,6 +65,14 @@ public class FlowStateTransaction<K, V> {
         return keys.size() + refs.size();
     }
 
+    /**
+     * Indicates whether the ongoing transaction contains no changes.
+     */
+    public boolean isEmpty() {
+        return keys.isEmpty() && refs.isEmpty() && deletes.isEmpty() &&
+               touchKeys.isEmpty();
+    }
+
     /**
      * Discards the ongoing transaction, clearing all state in it.
      */
@@ -0,0 +1,368 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.state
+
+import java.nio.{BufferUnderflowException, ByteBuffer}
+import java.util.UUID
+
+import scala.collection.mutable
+import scala.collection.mutable.ArrayBuffer
+
+import org.apache.commons.codec.binary.Base64
+
+import org.midonet.midolman.layer3.Route
+import org.midonet.midolman.layer3.Route.NextHop
+
+/**
+ * A batch of learned routes published as a single state value of the
+ * [[org.midonet.cluster.services.MidonetBackend.RouteBatchesKey]] key of a
+ * port. A publisher writes, for a given epoch, a sequence of batches that are
+ * either snapshot chunks or deltas:
+ *
+ *  - A snapshot with sequence number `seq` contains the complete set of routes
+ *    after applying all deltas up to and including `seq`. Because a z-node
+ *    name must fit in a single ZooKeeper request, large snapshots are split
+ *    into `count` chunks of at most [[RouteBatch.MaxChunkRoutes]] routes.
+ *  - A delta with sequence number `seq` contains the routes added and removed
+ *    since the delta `seq - 1`.
+ *
+ * The epoch identifies a publisher instance, such that a reader discards the
+ * batches of a previous instance of the same publisher (e.g. after an agent
+ * restart, while the ephemeral nodes of the old session have not expired).
+ *
+ * The value is a 41-character header followed by the URL-safe Base64
+ * encoding of the batch body, such that readers can order and group batches
+ * without decoding their routes:
+ *
+ *   1 char  - kind: `s` for a snapshot chunk, `d` for a delta
+ *  16 chars - epoch (64 bits)
+ *  16 chars - sequence number (64 bits)
+ *   4 chars - chunk index (16 bits)
+ *   4 chars - chunk count (16 bits)
+ *
+ * The body stores the router identifier and the next hop ports once, followed
+ * by 19 bytes for every added and removed route:
+ *
+ *  16 bytes - router identifier
+ *   1 byte  - number of next hop ports N
+ *  16N bytes - next hop port identifiers
+ *   4 bytes - number of added routes
+ *   4 bytes - number of removed routes
+ *  for every route:
+ *   4 bytes - destination IPv4 address
+ *   1 byte  - destination prefix length
+ *   4 bytes - source IPv4 address
+ *   1 byte  - source prefix length
+ *   4 bytes - next hop IPv4 address
+ *   4 bytes - metric
+ *   1 byte  - next hop port index
+ *
+ * Compared with the per-route hex serialization of the [[RoutingTableStorage]],
+ * this reduces the size of a route from 100 to about 26 characters and the
+ * number of z-nodes by a factor of up to 4096.
+ */
+case class RouteBatch(kind: Char, epoch: Long, seq: Long, index: Int,
+                      count: Int, value: String) {
+
+    def isSnapshot = kind == RouteBatch.SnapshotKind
+
+    /** Decodes the routes of this batch, returning the added and removed
+      * routes, or `None` if the value is malformed. */
+    def routes: Option[(Seq[Route], Seq[Route])] = {
+        RouteBatch.decodeBody(value)
+    }
+
+    override def toString =
+        s"RouteBatch[kind=$kind epoch=$epoch seq=$seq index=$index " +
+        s"count=$count]"
+}
+
+object RouteBatch {
+
+    final val SnapshotKind = 's'
+    final val DeltaKind = 'd'
+
+    final val MaxChunkRoutes = 4096
+    final val MaxPorts = 255
+
+    private final val HeaderLength = 41
+    private final val RouteLength = 19
+
+    /** Encodes the given routes as the snapshot chunks for the specified
+      * epoch and sequence number. An empty route set is encoded as a single
+      * empty chunk. All routes must belong to the same router. */
+    def snapshot(epoch: Long, seq: Long, routerId: UUID,
+                 routes: Iterable[Route]): Seq[String] = {
+        val chunks = routes.grouped(MaxChunkRoutes).toSeq
+        val count = Math.max(chunks.size, 1)
+        if (count > 0xFFFF) {
+            throw new IllegalArgumentException(
+                s"Too many routes for a snapshot: ${routes.size}")
+        }
+        if (chunks.isEmpty) {
+            Seq(encode(SnapshotKind, epoch, seq, 0, 1, routerId, Nil, Nil))
+        } else {
+            for ((chunk, index) <- chunks.zipWithIndex) yield {
+                encode(SnapshotKind, epoch, seq, index, count, routerId,
+                       chunk, Nil)
+            }
+        }
+    }
+
+    /** Encodes the given added and removed routes as the delta for the
+      * specified epoch and sequence number. */
+    def delta(epoch: Long, seq: Long, routerId: UUID, added: Iterable[Route],
+              removed: Iterable[Route]): String = {
+        encode(DeltaKind, epoch, seq, 0, 1, routerId, added, removed)
+    }
+
+    /** Decodes the header of a batch value, or returns `None` if the value
+      * is not a valid batch. */
+    def decode(value: String): Option[RouteBatch] = {
+        if (value.length < HeaderLength) return None
+        val kind = value.charAt(0)
+        if (kind != SnapshotKind && kind != DeltaKind) return None
+        try {
+            Some(RouteBatch(kind,
+                            java.lang.Long.parseUnsignedLong(value.substring(1, 17), 16),
+                            java.lang.Long.parseUnsignedLong(value.substring(17, 33), 16),
+                            Integer.parseInt(value.substring(33, 37), 16),
+                            Integer.parseInt(value.substring(37, 41), 16),
+                            value))
+        } catch {
+            case e: NumberFormatException => None
+        }
+    }
+
+    private def encode(kind: Char, epoch: Long, seq: Long, index: Int,
+                       count: Int, routerId: UUID, added: Iterable[Route],
+                       removed: Iterable[Route]): String = {
+        val ports = new mutable.LinkedHashMap[UUID, Int]
+        for (route <- added.iterator ++ removed.iterator) {
+            if (route.nextHop != NextHop.PORT) {
+                throw new IllegalArgumentException(
+                    s"Route next hop ${route.nextHop} not supported")
+            }
+            if (route.routerId != routerId) {
+                throw new IllegalArgumentException(
+                    s"Route $route does not belong to router $routerId")
+            }
+            if (!ports.contains(route.nextHopPort)) {
+                if (ports.size == MaxPorts) {
+                    throw new IllegalArgumentException(
+                        s"Too many next hop ports for a route batch")
+                }
+                ports.put(route.nextHopPort, ports.size)
+            }
+        }
+
+        val buffer = ByteBuffer.allocate(
+            25 + 16 * ports.size + RouteLength * (added.size + removed.size))
+        buffer.putLong(routerId.getMostSignificantBits)
+        buffer.putLong(routerId.getLeastSignificantBits)
+        buffer.put(ports.size.toByte)
+        for (portId <- ports.keys) {
+            buffer.putLong(portId.getMostSignificantBits)
+            buffer.putLong(portId.getLeastSignificantBits)
+        }
+        buffer.putInt(added.size)
+        buffer.putInt(removed.size)
+        for (route <- added.iterator ++ removed.iterator) {
+            buffer.putInt(route.dstNetworkAddr)
+            buffer.put(route.dstNetworkLength.toByte)
+            buffer.putInt(route.srcNetworkAddr)
+            buffer.put(route.srcNetworkLength.toByte)
+            buffer.putInt(route.nextHopGateway)
+            buffer.putInt(route.weight)
+            buffer.put(ports(route.nextHopPort).toByte)
+        }
+
+        val builder = new java.lang.StringBuilder(
+            HeaderLength + (buffer.capacity() + 2) / 3 * 4)
+        builder.append(kind)
+        appendHex(builder, epoch, 16)
+        appendHex(builder, seq, 16)
+        appendHex(builder, index, 4)
+        appendHex(builder, count, 4)
+        builder.append(Base64.encodeBase64URLSafeString(buffer.array()))
+        builder.toString
+    }
+
+    private def decodeBody(value: String): Option[(Seq[Route], Seq[Route])] = {
+        try {
+            val buffer = ByteBuffer.wrap(
+                Base64.decodeBase64(value.substring(HeaderLength)))
+            val routerId = new UUID(buffer.getLong(), buffer.getLong())
+            val ports = new Array[UUID](buffer.get() & 0xFF)
+            for (index <- ports.indices) {
+                ports(index) = new UUID(buffer.getLong(), buffer.getLong())
+            }
+            val addedCount = buffer.getInt()
+            val removedCount = buffer.getInt()
+            if (addedCount < 0 || removedCount < 0 ||
+                buffer.remaining() <
+                    RouteLength.toLong * (addedCount + removedCount)) {
+                return None
+            }
+            val added = new ArrayBuffer[Route](addedCount)
+            for (_ <- 0 until addedCount) {
+                added += decodeRoute(buffer, routerId, ports)
+            }
+            val removed = new ArrayBuffer[Route](removedCount)
+            for (_ <- 0 until removedCount) {
+                removed += decodeRoute(buffer, routerId, ports)
+            }
+            Some((added, removed))
+        } catch {
+            case e @ (_: BufferUnderflowException |
+                      _: ArrayIndexOutOfBoundsException) => None
+        }
+    }
+
+    @inline private def decodeRoute(buffer: ByteBuffer, routerId: UUID,
+                                    ports: Array[UUID]): Route = {
+        val dstNetworkAddr = buffer.getInt()
+        val dstNetworkLength = buffer.get() & 0xFF
+        val srcNetworkAddr = buffer.getInt()
+        val srcNetworkLength = buffer.get() & 0xFF
+        val nextHopGateway = buffer.getInt()
+        val weight = buffer.getInt()
+        val nextHopPort = ports(buffer.get() & 0xFF)
+        new Route(srcNetworkAddr, srcNetworkLength, dstNetworkAddr,
+                  dstNetworkLength, NextHop.PORT, nextHopPort, nextHopGateway,
+                  weight, "", routerId, true)
+    }
+
+    private def appendHex(builder: java.lang.StringBuilder, value: Long,
+                          digits: Int): Unit = {
+        var shift = (digits - 1) * 4
+        while (shift >= 0) {
+            builder.append(Character.forDigit(((value >>> shift) & 0xF).toInt,
+                                              16))
+            shift -= 4
+        }
+    }
+}
+
+/**
+ * Computes incrementally the routes learned by a port from the batches of
+ * the port's [[org.midonet.cluster.services.MidonetBackend.RouteBatchesKey]]
+ * key. On every update of the key values, the reader selects the latest epoch
+ * and:
+ *
+ *  - if there is a complete snapshot newer than the last applied sequence
+ *    number, or the epoch changed, it rebuilds the route set from the snapshot
+ *    and the following contiguous deltas, and returns the difference with the
+ *    current route set;
+ *  - otherwise, it applies only the contiguous deltas following the last
+ *    applied sequence number.
+ *
+ * The headers of the batches are cached, such that an update decodes only the
+ * routes of the batches that are applied. This class is not thread-safe.
+ */
+class RouteBatchReader {
+
+    private val routes = new mutable.HashSet[Route]
+    private val batches = new mutable.HashMap[String, RouteBatch]
+    private var epoch = -1L
+    private var applied = -1L
+
+    /** Returns the current set of routes. */
+    def currentRoutes: collection.Set[Route] = routes
+
+    /** Updates the reader with the current values of the route batches key
+      * and returns the routes that were added and removed. */
+    def update(values: Set[String]): (Set[Route], Set[Route]) = {
+        batches.retain((value, _) => values.contains(value))
+        for (value <- values if !batches.contains(value)) {
+            RouteBatch.decode(value) match {
+                case Some(batch) => batches.put(value, batch)
+                case None =>
+            }
+        }
+
+        if (batches.isEmpty) {
+            val removed = routes.toSet
+            routes.clear()
+            epoch = -1L
+            applied = -1L
+            return (Set.empty, removed)
+        }
+
+        val latestEpoch = batches.valuesIterator.map(_.epoch).max
+        val current = batches.valuesIterator.filter(_.epoch == latestEpoch)
+                                            .toSeq
+        val deltas = current.filterNot(_.isSnapshot).map(b => b.seq -> b).toMap
+        val snapshots = current.filter(_.isSnapshot).groupBy(_.seq).filter {
+            case (_, chunks) =>
+                chunks.map(_.index).distinct.size == chunks.head.count
+        }
+        val snapshotSeq = if (snapshots.isEmpty) -1L else snapshots.keys.max
+
+        if (snapshotSeq >= 0 &&
+            (latestEpoch != epoch || snapshotSeq > applied)) {
+            val target = new mutable.HashSet[Route]
+            for (chunk <- snapshots(snapshotSeq);
+                 (added, _) <- chunk.routes) {
+                target ++= added
+            }
+            epoch = latestEpoch
+            applied = applyDeltas(target, deltas, snapshotSeq, null, null)
+
+            val added = target.filterNot(routes.contains).toSet
+            val removed = routes.filterNot(target.contains).toSet
+            routes --= removed
+            routes ++= added
+            (added, removed)
+        } else if (latestEpoch == epoch) {
+            val added = new mutable.HashSet[Route]
+            val removed = new mutable.HashSet[Route]
+            applied = applyDeltas(routes, deltas, applied, added, removed)
+            (added.toSet, removed.toSet)
+        } else {
+            // Wait for the first complete snapshot of the new epoch.
+            (Set.empty, Set.empty)
+        }
+    }
+
+    /** Applies to the route set the contiguous deltas following the given
+      * sequence number, and returns the last applied sequence number. If the
+      * added and removed sets are not null, they accumulate the net change of
+      * the route set. */
+    private def applyDeltas(set: mutable.Set[Route],
+                            deltas: Map[Long, RouteBatch], from: Long,
+                            added: mutable.Set[Route],
+                            removed: mutable.Set[Route]): Long = {
+        var seq = from
+        var delta = deltas.get(seq + 1)
+        while (delta.isDefined) {
+            for ((deltaAdded, deltaRemoved) <- delta.get.routes) {
+                for (route <- deltaRemoved if set.remove(route)) {
+                    if ((added ne null) && !added.remove(route))
+                        removed += route
+                }
+                for (route <- deltaAdded if set.add(route)) {
+                    if ((removed ne null) && !removed.remove(route))
+                        added += route
+                }
+            }
+            seq += 1
+            delta = deltas.get(seq + 1)
+        }
+        seq
+    }
+}
@@ -26,7 +26,7 @@ import rx.Observable
 
 import org.midonet.cluster.data.storage.{MultiValueKey, StateResult, StateStorage}
 import org.midonet.cluster.models.Topology.Port
-import org.midonet.cluster.services.MidonetBackend.RoutesKey
+import org.midonet.cluster.services.MidonetBackend.{RouteBatchesKey, RoutesKey}
 import org.midonet.cluster.state.RoutingTableStorage._
 import org.midonet.cluster.util.UUIDUtil._
 import org.midonet.midolman.layer3.Route
@@ -36,6 +36,7 @@ import org.midonet.util.functors._
 object RoutingTableStorage {
 
     private final val NoRoutes = Set.empty[Route]
+    private final val NoValues = Set.empty[String]
 
     implicit def asRoutingTable(store: StateStorage): RoutingTableStorage = {
         new RoutingTableStorage(store)
@@ -180,6 +181,12 @@ object RoutingTableStorage {
  *
  * TODO: Asynchronous addition with parallel read via observable
  *
+ * Alternatively, a publisher may store its learned routes as [[RouteBatch]]
+ * values of the [[RouteBatchesKey]] key, where every value is either a chunk
+ * of a snapshot of the routing table or a delta batch of added and removed
+ * routes. Readers apply the batches incrementally using a
+ * [[RouteBatchReader]]. For the same benchmark, converging a 100K routes
+ * table takes one request per 4096 routes instead of one per route.
  */
 class RoutingTableStorage(val store: StateStorage) extends AnyVal {
 
@@ -245,4 +252,41 @@ class RoutingTableStorage(val store: StateStorage) extends AnyVal {
         }
     }
 
+    /** Adds a [[RouteBatch]] value to the state of the specified port. */
+    def addRouteBatch(portId: UUID, value: String): Observable[StateResult] = {
+        store.addValue(classOf[Port], portId, RouteBatchesKey, value)
+    }
+
+    /** Removes a [[RouteBatch]] value from the state of the specified port. */
+    def removeRouteBatch(portId: UUID, value: String)
+    : Observable[StateResult] = {
+        store.removeValue(classOf[Port], portId, RouteBatchesKey, value)
+    }
+
+    /** Fetches the set of routes published as [[RouteBatch]] values for the
+      * given port using the state for the specified host. */
+    def getPortRouteBatches(portId: UUID, hostId: UUID)
+    : Observable[Set[Route]] = {
+        store.getKey(hostId.asNullableString, classOf[Port], portId,
+                     RouteBatchesKey) map makeFunc1 {
+            case MultiValueKey(_, values) =>
+                val reader = new RouteBatchReader
+                reader.update(values)
+                reader.currentRoutes.toSet
+            case _ => NoRoutes
+        }
+    }
+
+    /** Provides an observable for the [[RouteBatch]] values of a given port
+      * using the state for the last host emitted by the `hostIds` observable.
+      * The values should be applied using a [[RouteBatchReader]]. */
+    def portRouteBatchesObservable(portId: UUID, hostIds: Observable[UUID])
+    : Observable[Set[String]] = {
+        store.keyObservable(hostIds.map[String](makeFunc1 { _.asNullableString }),
+                            classOf[Port], portId, RouteBatchesKey) map makeFunc1 {
+            case MultiValueKey(_, values) => values
+            case _ => NoValues
+        }
+    }
+
 }
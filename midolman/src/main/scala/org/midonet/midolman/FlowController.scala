@@ -64,7 +64,7 @@ trait FlowController extends FlowIndexer with FlowTagIndexer
         Util.findNextPositivePowerOfTwo(maxFlows))
     private var mask = indexToFlow.length - 1
 
-    val meters = new MeterRegistry(maxFlows)
+    val meters = new MeterRegistry()
     Metering.registerAsMXBean(meters)
 
     private val managedFlowPool = new ArrayObjectPool[ManagedFlow](
@@ -134,7 +134,7 @@ trait FlowController extends FlowIndexer with FlowTagIndexer
     override def registerFlow(flow: ManagedFlow): Unit = {
         super.registerFlow(flow)
         indexFlow(flow)
-        meters.trackFlow(flow.flowMatch, flow.tags)
+        meters.trackFlow(flow)
         var flowsAdded = 1
         if (flow.linkedFlow ne null) {
             indexFlow(flow.linkedFlow)
@@ -202,7 +202,7 @@ trait FlowController extends FlowIndexer with FlowTagIndexer
             case _ =>
                 log.error(s"Failed to delete ${req.managedFlow}", req.failure)
         }
-        meters.forgetFlow(req.managedFlow.flowMatch)
+        meters.forgetFlow(req.managedFlow)
         req.clear()
     }
 
@@ -215,10 +215,9 @@ trait FlowController extends FlowIndexer with FlowTagIndexer
 
     private def flowDeleteSucceeded(req: FlowOperation): Unit = {
         val flowMetadata = req.flowMetadata
-        val flowMatch = req.managedFlow.flowMatch
         log.debug(s"DP confirmed removal of ${req.managedFlow}")
-        meters.updateFlow(flowMatch, flowMetadata.getStats)
-        meters.forgetFlow(flowMatch)
+        meters.updateFlow(req.managedFlow, flowMetadata.getStats)
+        meters.forgetFlow(req.managedFlow)
         req.clear()
     }
 
@@ -18,7 +18,7 @@ package org.midonet.midolman
 
 import java.nio.channels.spi.SelectorProvider
 import java.util.UUID
-import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
 
 import scala.collection.IndexedSeq
 import scala.concurrent.{ExecutionContext, Future}
@@ -80,9 +80,12 @@ class MidolmanModule(injector: Injector,
 
         bind(classOf[MetricRegistry]).toInstance(metricRegistry)
 
-        // We add an extra slot so that channels can return tokens
-        // they obtained due to the multiplier effect but didn't use.
-        val counter = new StatisticalCounter(config.simulationThreads + 1)
+        // We add extra slots so that channels can return tokens they
+        // obtained due to the multiplier effect but didn't use. The slots
+        // are striped across the channels to avoid contention among the
+        // input threads.
+        val counter = new StatisticalCounter(config.simulationThreads +
+                                             htbReturnStripes)
         val policy = htbPolicy(counter)
         bind(classOf[StatisticalCounter]).toInstance(counter)
         bind(classOf[TokenBucketPolicy]).toInstance(policy)
@@ -179,8 +182,14 @@ class MidolmanModule(injector: Injector,
     protected def hostId() =
         HostIdGenerator.getHostId
 
+    protected def htbReturnStripes = Runtime.getRuntime.availableProcessors
+
     protected def htbPolicy(counter: StatisticalCounter) = {
         val multiplier = 8
+        // The number of tokens a channel takes at a time from its bucket.
+        val refill = 4
+        val stripes = htbReturnStripes
+        val stripe = new AtomicInteger()
         // Here we check whether increments to our slot in the StatisticalCounter
         // should be atomic or not, depending on whether multiple threads will
         // be accessing it (true in the one_to_one" configuration setting).
@@ -195,7 +204,10 @@ class MidolmanModule(injector: Injector,
             config,
             new TokenBucketSystemRate(counter, multiplier),
             multiplier,
-            tb => new Bucket(tb, multiplier, counter, config.simulationThreads, atomic))
+            tb => new Bucket(tb, multiplier, refill, counter,
+                             config.simulationThreads +
+                             stripe.getAndIncrement() % stripes,
+                             atomic))
     }
 
     protected def netlinkChannelFactory() =
@@ -237,7 +249,9 @@ class MidolmanModule(injector: Injector,
             SelectorProvider.provider,
             backChannel,
             new DatapathMetrics(metricRegistry),
-            NanoClock.DEFAULT)
+            NanoClock.DEFAULT,
+            maxDeleteBatchSize = config.datapath.flowDeleteBatchSize,
+            maxDeletesPerRound = config.datapath.flowDeleteRoundLimit)
 
     protected def createProcessors(
             ringBuffer: RingBuffer[PacketContextHolder],
@@ -27,6 +27,12 @@ import org.midonet.Util
 
 trait PacketWorker {
     def submit(packet: Packet): Boolean
+
+    /** The number of packets waiting in the worker's queue. */
+    def queueDepth: Int = 0
+
+    /** The capacity of the worker's queue, or zero if unknown. */
+    def queueCapacity: Int = 0
 }
 
 object DisruptorPacketWorker {
@@ -73,6 +79,11 @@ class DisruptorPacketWorker(packetWorkflow: PacketWorkflow,
         }
     }
 
+    override def queueDepth: Int =
+        (ringBuffer.getBufferSize - ringBuffer.remainingCapacity()).toInt
+
+    override def queueCapacity: Int = ringBuffer.getBufferSize
+
     def isRunning() = eventProcessor.isRunning
 
     def shutdown(): Unit =
@@ -84,7 +95,8 @@ class DisruptorPacketWorker(packetWorkflow: PacketWorkflow,
     }
 
     override def run(): Unit =
-        eventProcessor.run()
+        try eventProcessor.run()
+        finally packetWorkflow.shutdown()
 
     override def handleEventException(e: Throwable, sequence: Long,
                                       event: Object): Unit = {
@@ -33,12 +33,14 @@ import org.slf4j.{LoggerFactory, MDC}
 import org.midonet.midolman.HostRequestProxy.FlowStateBatch
 import org.midonet.midolman.config.MidolmanConfig
 import org.midonet.midolman.datapath.{DatapathChannel, FlowProcessor}
-import org.midonet.midolman.flows.FlowExpirationIndexer
+import org.midonet.midolman.flows.{FlowExpirationIndexer, RouteFlowIndex}
 import org.midonet.midolman.flows.FlowExpirationIndexer.Expiration
 import org.midonet.midolman.logging.FlowTracingContext
 import org.midonet.midolman.logging.MidolmanLogging
 import org.midonet.midolman.management.PacketTracing
 import org.midonet.midolman.monitoring.FlowRecorder
+import org.midonet.midolman.management.SimulationProfiling
+import org.midonet.midolman.monitoring.SimulationProfiler
 import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
 import org.midonet.midolman.openstack.metadata.MetadataServiceWorkflow
 import org.midonet.midolman.routingprotocols.RoutingWorkflow
@@ -60,7 +62,7 @@ import org.midonet.packets._
 import org.midonet.sdn.flows.FlowTagger
 import org.midonet.sdn.flows.FlowTagger._
 import org.midonet.sdn.state.{FlowStateTable, FlowStateTransaction}
-import org.midonet.util.collection.{IPv4InvalidationArray, Reducer}
+import org.midonet.util.collection.Reducer
 import org.midonet.util.concurrent._
 import org.midonet.util.logging.Logger
 
@@ -256,6 +258,9 @@ class PacketWorkflow(
                                         (simulationExpireMillis millis).toNanos)
 
     private val contextPool = new ArrayDeque[PacketContext](maxPooledContexts)
+
+    val profiler = new SimulationProfiler(config.simulationProfilingRate)
+    SimulationProfiling.registerAsMXBean(profiler)
     private val processingRoom = new ArrayDeque[PacketContext]()
 
     private var lastExpiration = System.nanoTime()
@@ -278,6 +283,10 @@ class PacketWorkflow(
 
     protected val arpBroker = new ArpRequestBroker(config, backChannel)
 
+    private val dhcpCache = new DhcpReplyCache(vt.store)
+
+    private val invalidatedDestinations = new java.util.HashSet[IPAddr]()
+
     private val invalidateExpiredConnTrackKeys =
         new Reducer[ConnTrackKey, ConnTrackValue, Unit]() {
             override def apply(u: Unit, k: ConnTrackKey, v: ConnTrackValue) {
@@ -293,6 +302,11 @@ class PacketWorkflow(
             }
         }
 
+    /** Releases the resources of the workflow when its worker stops. */
+    def shutdown(): Unit = {
+        SimulationProfiling.unregister(profiler)
+    }
+
     override def onEvent(event: PacketRef, sequence: Long,
                          endOfBatch: Boolean): Unit = {
         handlePacket(event.packet)
@@ -322,25 +336,40 @@ class PacketWorkflow(
     private def shouldExpire =
         System.nanoTime() - lastExpiration > maxWithoutExpiration
 
-    private def invalidateRoutedFlows(msg: InvalidateFlows) {
+    /**
+     * Invalidates the flows of the deleted routes, and the flows overshadowed
+     * by the added routes. The destinations of the overshadowed flows are
+     * first collected for all added routes, such that the index is not
+     * modified while iterating, and every destination is invalidated once.
+     */
+    private def invalidateRoutedFlows(msg: InvalidateFlows): Unit = {
         val InvalidateFlows(id, added, deleted) = msg
+        val startTime = System.nanoTime()
+        val flowsRemoved = metrics.dpFlowsRemovedMetric.getCount
 
         for (route <- deleted) {
             invalidateFlowsFor(FlowTagger.tagForRoute(route))
         }
 
+        val index = RouteFlowIndex.current
         for (route <- added) {
-            log.debug(s"Calculate flows invalidated by new route " +
-            s"${route.getDstNetworkAddr}/${route.dstNetworkLength}")
-
-            val deletions = IPv4InvalidationArray.current.deletePrefix(
-                route.dstNetworkAddr, route.dstNetworkLength).iterator()
-            while (deletions.hasNext) {
-                val ip = IPv4Addr.fromInt(deletions.next)
-                log.debug(s"Got the following destination to invalidate $ip")
-                invalidateFlowsFor(FlowTagger.tagForDestinationIp(id, ip))
-            }
+            val count = index.overshadowed(
+                id, new IPv4Subnet(route.dstNetworkAddr, route.dstNetworkLength),
+                invalidatedDestinations)
+            log.debug(s"Route ${route.getDstNetworkAddr}/" +
+                      s"${route.dstNetworkLength} overshadows flows to " +
+                      s"$count destinations")
+        }
+        val iterator = invalidatedDestinations.iterator()
+        while (iterator.hasNext) {
+            invalidateFlowsFor(FlowTagger.tagForDestinationIp(id, iterator.next()))
         }
+        invalidatedDestinations.clear()
+
+        metrics.routeInvalidation.update(System.nanoTime() - startTime,
+                                         TimeUnit.NANOSECONDS)
+        metrics.routeInvalidatedFlows.update(
+            metrics.dpFlowsRemovedMetric.getCount - flowsRemoved)
     }
 
     private def handle(msg: BackChannelMessage): Unit = msg match {
@@ -417,16 +446,21 @@ class PacketWorkflow(
         while (processingRoom.peek() != null &&
                    processingRoom.peek().isProcessed) {
             metrics.contextsBeingProcessed.dec()
-            returnContext(processingRoom.remove())
+            val context = processingRoom.remove()
+            if (context.ingressed)
+                metrics.recordStages(context)
+            returnContext(context)
         }
 
     /**
      * Deal with an incomplete workflow that could not complete because it found
      * a NotYet on the way.
      */
-    private def postponeOn(pktCtx: PacketContext, f: Future[_]): Unit = {
+    private def postponeOn(pktCtx: PacketContext, f: Future[_],
+                           cause: NotYetException): Unit = {
         val cookie = pktCtx.cookie
-        pktCtx.postpone()
+        endSimulation(pktCtx)
+        pktCtx.postpone(cause, invalidations)
         f.onComplete { res =>
             val error = res match {
                 case Failure(ex) => ex
@@ -443,6 +477,9 @@ class PacketWorkflow(
     private def restart(cookie: Long, pktCtx: PacketContext, error: Throwable): Unit =
         if (pktCtx.cookie == cookie && pktCtx.idle) {
             metrics.packetsOnHold.dec()
+            val now = NanoClock.DEFAULT.tick
+            pktCtx.waitNanos += now - pktCtx.stageStartNanos
+            pktCtx.stageStartNanos = now
             pktCtx.log.debug("Restarting workflow")
             MDC.put("cookie", pktCtx.cookieStr)
             if (error eq null) {
@@ -483,13 +520,19 @@ class PacketWorkflow(
 
         handoff(pktCtx)
 
+        metrics.simulationSteps.update(
+            pktCtx.devicesSimulated + pktCtx.devicesTraversed)
+
         if (pktCtx.ingressed) {
             val latency = NanoClock.DEFAULT.tick - pktCtx.packet.startTimeNanos
             metrics.packetsProcessed.update(latency.toInt,
                                             TimeUnit.NANOSECONDS)
         }
 
-        meters.recordPacket(pktCtx.packet.packetLen, pktCtx.flowTags)
+        if (pktCtx.flow ne null)
+            meters.recordPacket(pktCtx.packet.packetLen, pktCtx.flow)
+        else
+            meters.recordPacket(pktCtx.packet.packetLen, pktCtx.flowTags)
         flowRecorder.record(pktCtx, simRes)
     }
 
@@ -509,6 +552,7 @@ class PacketWorkflow(
                               waiting: Boolean): Unit = {
         if (waiting)
             waitingRoom leave pktCtx
+        profiler.end(pktCtx)
         ex match {
             case ArpTimeoutException(router, ip) =>
                 pktCtx.log.debug(s"ARP timeout at router $router for address $ip")
@@ -526,6 +570,10 @@ class PacketWorkflow(
         try {
             MDC.put("cookie", context.cookieStr)
             context.log.debug(s"New cookie for new match ${context.origMatch}")
+            val now = NanoClock.DEFAULT.tick
+            if (context.packet.startTimeNanos != 0L)
+                context.queueNanos = now - context.packet.startTimeNanos
+            context.stageStartNanos = now
             runWorkflow(context)
         } finally {
             if (context.ingressed)
@@ -536,7 +584,11 @@ class PacketWorkflow(
 
     protected def runWorkflow(pktCtx: PacketContext): Unit =
         try {
-            complete(pktCtx, start(pktCtx))
+            profiler.begin(pktCtx)
+            val simRes =
+                if (pktCtx.isResumable) resume(pktCtx)
+                else start(pktCtx)
+            complete(pktCtx, simRes)
             flushTransactions()
         } catch {
             case TraceRequiredException =>
@@ -545,9 +597,9 @@ class PacketWorkflow(
                         s" ${pktCtx.origMatch}, and rerunning simulation")
                 pktCtx.prepareForSimulationWithTracing()
                 runWorkflow(pktCtx)
-            case NotYetException(f, msg) =>
+            case e @ NotYetException(f, msg) =>
                 pktCtx.log.debug(s"Postponing simulation because: $msg")
-                postponeOn(pktCtx, f)
+                postponeOn(pktCtx, f, e)
             case NonFatal(ex) =>
                 handleErrorOn(pktCtx, ex, pktCtx.runs > 1)
         }
@@ -579,6 +631,26 @@ class PacketWorkflow(
             handlePacketEgress(context)
     }
 
+    /**
+     * Resumes a postponed simulation from the point where it was suspended,
+     * or restarts it if any of the devices traversed before the suspension
+     * have changed, or any of the flow tags collected before the suspension
+     * were invalidated, in the meantime.
+     */
+    protected[midolman] def resume(context: PacketContext): SimulationResult = {
+        if (context.canResume(invalidations)) {
+            context.prepareForResume()
+            context.log.debug(s"Resuming processing, attempt: ${context.runs}")
+            metrics.packetsResumed.mark()
+            processSimulationResult(context, Simulator.resume(context))
+        } else {
+            context.log.debug("Traversed devices or flow tags changed " +
+                              "while the simulation was postponed")
+            context.discardSimulation()
+            start(context)
+        }
+    }
+
     protected def addTranslatedFlow(context: PacketContext,
                                     expiration: Expiration): SimulationResult =
         if (context.packet.getReason == Packet.Reason.FlowActionUserspace) {
@@ -654,6 +726,7 @@ class PacketWorkflow(
     protected def processSimulationResult(context: PacketContext,
                                         result: SimulationResult)
     : SimulationResult = {
+        endSimulation(context)
         val res = result match {
             case AddVirtualWildcardFlow =>
                 concludeSimulation(context)
@@ -685,8 +758,21 @@ class PacketWorkflow(
         res
     }
 
+    /**
+      * Ends the simulation stage of the packet, which starts the next stage:
+      * the translation of the flow actions or the wait on a NotYet.
+      */
+    private def endSimulation(context: PacketContext): Unit = {
+        val now = NanoClock.DEFAULT.tick
+        context.simulationNanos += now - context.stageStartNanos
+        context.stageStartNanos = now
+        profiler.end(context)
+    }
+
     private def concludeSimulation(context: PacketContext): SimulationResult = {
         translateActions(context)
+        context.translationNanos =
+            NanoClock.DEFAULT.tick - context.stageStartNanos
         if (context.ingressed) {
             val expiration =
                 if (context.containsFlowState) {
@@ -735,7 +821,8 @@ class PacketWorkflow(
                             dhcp: DHCP): Boolean = {
         val srcMac = context.origMatch.getEthSrc
         DhcpImpl(vt, inPort, dhcp, srcMac,
-                 DatapathController.minMtu, config.dhcpMtu, context.log) match {
+                 DatapathController.minMtu, config.dhcpMtu, context.log,
+                 dhcpCache) match {
             case Some(dhcpReply) =>
                 context.log.debug(
                     "sending DHCP reply {} to port {}", dhcpReply, inPort.id)
@@ -88,6 +88,11 @@ class MidolmanConfig(config: Config, val schema: Config = ConfigFactory.empty(),
 
     def lockMemory = getBoolean(s"$PREFIX.midolman.lock_memory")
 
+    def topologyPrefetchDepth = getInt(s"$PREFIX.midolman.topology_prefetch_depth")
+
+    def simulationProfilingRate =
+        getDouble(s"$PREFIX.midolman.simulation_profiling_rate")
+
     val bridge = new BridgeConfig(conf, schema)
     val router = new RouterConfig(conf, schema)
     val zookeeper =
@@ -112,6 +117,7 @@ class MidolmanConfig(config: Config, val schema: Config = ConfigFactory.empty(),
 class HostConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
     def waitTimeForUniqueId: Long = Try(getDuration("agent.host.wait_time_gen_id", TimeUnit.MILLISECONDS)).getOrElse(1000L)
     def retriesForUniqueId = Try(getInt("agent.host.retries_gen_id")).getOrElse(300)
+    def interfaceUpdateInterval: Long = Try(getDuration("agent.host.interface_update_interval", TimeUnit.MILLISECONDS)).getOrElse(500L)
 }
 
 class BridgeConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
@@ -122,6 +128,11 @@ class RouterConfig(val conf: Config, val schema: Config) extends TypeFailureFall
     val PREFIX = "agent.router"
     def maxBgpPeerRoutes = conf.getInt(s"$PREFIX.max_bgp_peer_routes")
     def bgpZookeeperHoldtime = conf.getDuration(s"$PREFIX.bgp_zookeeper_holdtime", TimeUnit.SECONDS)
+    def bgpRouteBatching = conf.getBoolean(s"$PREFIX.bgp_route_batching")
+    def bgpRouteBatchInterval = conf.getDuration(s"$PREFIX.bgp_route_batch_interval", TimeUnit.MILLISECONDS)
+    def bgpRouteSnapshotInterval = conf.getInt(s"$PREFIX.bgp_route_snapshot_interval")
+    def bgpRouteBatchMaxRoutes = conf.getInt(s"$PREFIX.bgp_route_batch_max_routes")
+    def bgpRouteDampeningHalfLife = conf.getDuration(s"$PREFIX.bgp_route_dampening_half_life", TimeUnit.MILLISECONDS)
 }
 
 class DatapathConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
@@ -131,7 +142,15 @@ class DatapathConfig(val conf: Config, val schema: Config) extends TypeFailureFa
     def sendBufferPoolMaxSize = getInt(s"$PREFIX.send_buffer_pool_max_size")
     def sendBufferPoolBufSizeKb = getInt(s"$PREFIX.send_buffer_pool_buf_size_kb")
 
+    def upcallBatchSize = getInt(s"$PREFIX.upcall_batch_size")
+
+    def upcallAdmissionControl = getBoolean(s"$PREFIX.upcall_admission_control")
+    def upcallAdmissionInterval = getDuration(s"$PREFIX.upcall_admission_interval", TimeUnit.MILLISECONDS)
+    def upcallAdmissionTargetLatency = getDuration(s"$PREFIX.upcall_admission_target_latency", TimeUnit.MILLISECONDS)
+
     def maxFlowCount = getInt(s"$PREFIX.max_flow_count")
+    def flowDeleteBatchSize = getInt(s"$PREFIX.flow_delete_batch_size")
+    def flowDeleteRoundLimit = getInt(s"$PREFIX.flow_delete_round_limit")
 
     def vxlanVtepUdpPort = getInt(s"$PREFIX.vxlan_vtep_udp_port")
     def vxlanOverlayUdpPort = getInt(s"$PREFIX.vxlan_overlay_udp_port")
@@ -182,6 +201,8 @@ class HealthMonitorConfig(val conf: Config, val schema: Config) extends TypeFail
     def enable = getBoolean(s"$PREFIX.health_monitor_enable")
     def namespaceCleanup = getBoolean(s"$PREFIX.namespace_cleanup")
     def haproxyFileLoc = getString(s"$PREFIX.haproxy_file_loc")
+    def pollInterval = getDuration(s"$PREFIX.poll_interval", TimeUnit.MILLISECONDS) millis
+    def pollThreads = getInt(s"$PREFIX.poll_threads")
 }
 
 
@@ -201,6 +222,11 @@ class MetadataConfig(val conf: Config, val schema: Config)
     def novaMetadataUrl =
         getString("agent.openstack.metadata.nova_metadata_url")
     def sharedSecret = getString("agent.openstack.metadata.shared_secret")
+    def cacheTtl = getDuration("agent.openstack.metadata.cache_ttl",
+                               TimeUnit.MILLISECONDS) millis
+    def maxConnections = getInt("agent.openstack.metadata.max_connections")
+    def requestTimeout = getDuration("agent.openstack.metadata.request_timeout",
+                                     TimeUnit.MILLISECONDS) millis
 }
 
 class FlowHistoryConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
@@ -288,7 +314,8 @@ class RuleLoggingConfig(val conf: Config, val schema: Config)
     def rotationFrequency = getString(s"$prefix.rotation_frequency")
 }
 
-class Fip64Config(val conf: Config, val schema: Config) {
+class Fip64Config(val conf: Config, val schema: Config)
+    extends TypeFailureFallback {
     val vtepUdpPort: Short = 5321
     val vtepVppAddr = IPv4Subnet.fromCidr("169.254.124.1/30")
     val vtepKernAddr = IPv4Subnet.fromCidr("169.254.124.2/30")
@@ -297,4 +324,7 @@ class Fip64Config(val conf: Config, val schema: Config) {
     val portVppMac = MAC.fromString("de:ad:be:ef:00:03")
 
     val vppInternalGateway = IPv4Addr.fromString("172.16.0.1")
+
+    def vppRequestsInFlight =
+        Try(getInt("agent.fip64.vpp_requests_in_flight")).getOrElse(32)
 }
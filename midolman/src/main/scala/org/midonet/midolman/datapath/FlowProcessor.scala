@@ -79,7 +79,9 @@ class FlowProcessor(dpState: DatapathState,
                     selectorProvider: SelectorProvider,
                     backChannel: SimulationBackChannel,
                     datapathMetrics: DatapathMetrics,
-                    clock: NanoClock)
+                    clock: NanoClock,
+                    maxDeleteBatchSize: Int = 1,
+                    maxDeletesPerRound: Int = Int.MaxValue)
     extends EventPoller.Handler[PacketContextHolder]
     with DisruptorBackChannel
     with LifecycleAware {
@@ -115,7 +117,8 @@ class FlowProcessor(dpState: DatapathState,
         maxPendingRequests,
         maxRequestSize,
         BytesUtil.instance.allocateDirect(64 * 1024),
-        clock)
+        clock,
+        maxBatchSize = maxDeleteBatchSize)
     private val timeoutMillis = broker.timeout.toMillis
 
     private val flowMask = new FlowMask()
@@ -131,6 +134,7 @@ class FlowProcessor(dpState: DatapathState,
             // We use the same index for linked flows: if there is a problem
             // with any of them, we remove both.
             val index = context.flow.mark
+            val startTime = NanoClock.DEFAULT.tick
             try {
                 createFlow(context.origMatch, context.flowActions, context, index)
                 datapathMetrics.flowsCreated.mark()
@@ -144,6 +148,7 @@ class FlowProcessor(dpState: DatapathState,
             } catch { case t: Throwable =>
                 context.log.error("Failed to create datapath flow", t)
             }
+            context.flowCreateNanos = NanoClock.DEFAULT.tick - startTime
 
             lastSequence = sequence
         }
@@ -237,9 +242,14 @@ class FlowProcessor(dpState: DatapathState,
     override def shouldProcess(): Boolean =
         broker.hasRequestsToWrite
 
+    /**
+     * Writes the pending flow deletions in batches, up to a limit per round
+     * such that the creation of the flows polled between rounds is not
+     * delayed by a large invalidation.
+     */
     override def process(): Unit = {
         if (broker.hasRequestsToWrite) {
-            val bytes = broker.writePublishedRequests()
+            val bytes = broker.writePublishedRequests(maxDeletesPerRound)
             log.debug(s"Wrote flow deletion requests ($bytes bytes)")
         }
     }
@@ -175,8 +175,11 @@ sealed class PacketExecutor(dpState: DatapathState,
                 try {
                     clampMss(context, log)
                     maybeExecuteStatePacket(datapathId, context)
+                    val startTime = NanoClock.DEFAULT.tick
                     executePacket(datapathId, packet, actions)
-                    val latency = NanoClock.DEFAULT.tick - packet.startTimeNanos
+                    val endTime = NanoClock.DEFAULT.tick
+                    context.executeNanos = endTime - startTime
+                    val latency = endTime - packet.startTimeNanos
                     metrics.packetsExecuted.update(latency.toInt,
                                                    TimeUnit.NANOSECONDS)
                     context.log.debug(s"Executed packet")
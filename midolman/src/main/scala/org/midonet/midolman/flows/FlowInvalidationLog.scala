@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.flows
+
+import java.util.ArrayList
+
+import org.midonet.sdn.flows.FlowTagger.FlowTag
+
+object FlowInvalidationLog {
+    final val DefaultCapacity = 1024
+}
+
+/**
+ * A bounded log of the most recent flow tags invalidated by a packet worker.
+ * Every invalidation advances the sequence of the log, such that a postponed
+ * simulation can record the sequence when it is suspended and later check
+ * whether any of the tags it collected so far were invalidated in the
+ * meantime. Those tags identify the decisions taken before the suspension,
+ * such as the port a bridge learned for a MAC.
+ *
+ * The log is not thread-safe and must only be used by the thread of the
+ * packet worker that owns it.
+ */
+final class FlowInvalidationLog(capacity: Int =
+                                    FlowInvalidationLog.DefaultCapacity) {
+
+    private val tags = new Array[FlowTag](capacity)
+    private var next = 0L
+
+    /** The sequence number of the next invalidation. */
+    def sequence: Long = next
+
+    def record(tag: FlowTag): Unit = {
+        tags((next % capacity).toInt) = tag
+        next += 1
+    }
+
+    /**
+     * Indicates whether any of the given tags were invalidated since the
+     * given sequence number. When the log no longer holds all invalidations
+     * since that sequence number, the method conservatively returns true.
+     */
+    def invalidatedSince(sequence: Long, flowTags: ArrayList[FlowTag])
+    : Boolean = {
+        if (next - sequence > capacity)
+            return true
+        var seq = sequence
+        while (seq < next) {
+            if (flowTags.contains(tags((seq % capacity).toInt)))
+                return true
+            seq += 1
+        }
+        false
+    }
+}
@@ -20,10 +20,22 @@ import java.util._
 
 import org.midonet.midolman.logging.MidolmanLogging
 
+import org.midonet.sdn.flows.FlowTagRegistry
 import org.midonet.sdn.flows.FlowTagger.FlowTag
 
+/**
+ * Indexes the flows by their tags. The tags interned in the
+ * [[FlowTagRegistry]] are indexed in an array by their identifier, which
+ * avoids hashing the tag when registering and removing a flow, whereas the
+ * remaining tags, such as the flow state keys, are indexed in a hash map.
+ * Every invalidated tag is recorded in the [[FlowInvalidationLog]] of the
+ * indexer.
+ */
 trait FlowTagIndexer extends FlowIndexer with MidolmanLogging {
+    val invalidations = new FlowInvalidationLog()
+
     private val tagToFlows = new HashMap[FlowTag, Set[ManagedFlow]]()
+    private var idToFlows = new Array[Set[ManagedFlow]](1024)
 
     abstract override def registerFlow(flow: ManagedFlow): Unit = {
         super.registerFlow(flow)
@@ -41,18 +53,19 @@ trait FlowTagIndexer extends FlowIndexer with MidolmanLogging {
         var i = 0
         while (i < numTags) {
             val tag = flow.tags.get(i)
-            val flows = tagToFlows.get(tag)
+            val flows = flowsFor(tag)
             if (flows ne null) {
                 flows.remove(flow)
                 if (flows.size() == 0)
-                    tagToFlows.remove(tag)
+                    remove(tag)
             }
             i += 1
         }
     }
 
     def invalidateFlowsFor(tag: FlowTag): Unit = {
-        val flows = tagToFlows.remove(tag)
+        invalidations.record(tag)
+        val flows = remove(tag)
         log.debug(s"Invalidating ${if (flows ne null) flows.size() else 0} flows for tag $tag")
         if (flows ne null) {
             val it = flows.iterator()
@@ -62,14 +75,40 @@ trait FlowTagIndexer extends FlowIndexer with MidolmanLogging {
         }
     }
 
-    def flowsFor(tag: FlowTag): Set[ManagedFlow] =
-        tagToFlows.get(tag)
+    def flowsFor(tag: FlowTag): Set[ManagedFlow] = {
+        val id = tag.tagId
+        if (id == FlowTagRegistry.NoTagId) tagToFlows.get(tag)
+        else if (id < idToFlows.length) idToFlows(id)
+        else null
+    }
+
+    private def remove(tag: FlowTag): Set[ManagedFlow] = {
+        val id = tag.tagId
+        if (id == FlowTagRegistry.NoTagId) {
+            tagToFlows.remove(tag)
+        } else if (id < idToFlows.length) {
+            val flows = idToFlows(id)
+            idToFlows(id) = null
+            flows
+        } else null
+    }
 
     private def getOrAdd(tag: FlowTag): Set[ManagedFlow] = {
-        var set = tagToFlows.get(tag)
+        val id = tag.tagId
+        var set = if (id == FlowTagRegistry.NoTagId) tagToFlows.get(tag)
+                  else if (id < idToFlows.length) idToFlows(id)
+                  else null
         if (set eq null) {
             set = Collections.newSetFromMap(new IdentityHashMap())
-            tagToFlows.put(tag, set)
+            if (id == FlowTagRegistry.NoTagId) {
+                tagToFlows.put(tag, set)
+            } else {
+                if (id >= idToFlows.length) {
+                    idToFlows = Arrays.copyOf(idToFlows,
+                        Math.max(idToFlows.length * 2, id + 1))
+                }
+                idToFlows(id) = set
+            }
         }
         set
     }
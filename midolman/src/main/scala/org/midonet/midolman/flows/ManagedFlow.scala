@@ -15,10 +15,11 @@
  */
 package org.midonet.midolman.flows
 
-import java.util.ArrayList
+import java.util.{ArrayList, Arrays}
 
 import org.midonet.midolman.flows.FlowExpirationIndexer.Expiration
 import org.midonet.odp.FlowMatch
+import org.midonet.odp.flows.FlowStats
 import org.midonet.sdn.flows.FlowTagger.FlowTag
 import org.midonet.util.collection.{ArrayListUtil, ObjectPool, PooledObject}
 import org.midonet.util.functors.Callback0
@@ -43,6 +44,11 @@ final class ManagedFlow(override val pool: ObjectPool[ManagedFlow])
     var mark = 0
     var removed = true
     var linkedFlow: ManagedFlow = null
+    // The meter slots of the flow in the meter registry of its worker, and
+    // the datapath statistics of the flow already accounted to the meters.
+    var meterSlots = new Array[Int](4)
+    var meterCount = 0
+    val meteredStats = new FlowStats()
 
     def reset(flowMatch: FlowMatch, flowTags: ArrayList[FlowTag],
               flowRemovedCallbacks: ArrayList[Callback0], sequence: Long,
@@ -64,10 +70,19 @@ final class ManagedFlow(override val pool: ObjectPool[ManagedFlow])
         }
     }
 
+    def addMeter(slot: Int): Unit = {
+        if (meterCount == meterSlots.length) {
+            meterSlots = Arrays.copyOf(meterSlots, meterSlots.length * 2)
+        }
+        meterSlots(meterCount) = slot
+        meterCount += 1
+    }
+
     override def clear(): Unit = {
         flowMatch.clear()
         callbacks.clear()
         tags.clear()
+        meterCount = 0
     }
 
     override def toString: String =
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.flows
+
+import java.lang.{Long => JLong}
+import java.util
+import java.util.{Comparator, UUID}
+
+import javax.annotation.concurrent.NotThreadSafe
+
+import org.midonet.packets._
+
+object RouteFlowIndex {
+
+    /** The match length of a flow that did not match any route. */
+    final val NoRoute = -1
+
+    private def newIndex = new ThreadLocal[RouteFlowIndex] {
+        override def initialValue = new RouteFlowIndex
+    }
+
+    @volatile private var index = newIndex
+
+    /** Discards the indices of all threads. */
+    def reset(): Unit = {
+        index = newIndex
+    }
+
+    /** Returns the index of the current packet worker thread. */
+    def current: RouteFlowIndex = index.get()
+
+    /** Orders the IPv6 addresses as unsigned 128-bit integers. */
+    private val Ipv6Order = new Comparator[IPv6Addr] {
+        override def compare(a: IPv6Addr, b: IPv6Addr): Int = {
+            val upper = JLong.compareUnsigned(a.upperWord, b.upperWord)
+            if (upper != 0) upper
+            else JLong.compareUnsigned(a.lowerWord, b.lowerWord)
+        }
+    }
+
+    /**
+     * A destination address of the routed flows, with the number of flows for
+     * every prefix length of the route that decided them. A destination has
+     * few distinct lengths, such that they are stored in small arrays.
+     */
+    private[flows] final class Destination(val address: IPAddr) {
+        private var lengths = new Array[Int](2)
+        private var refs = new Array[Int](2)
+        private var size = 0
+        private var total = 0
+
+        def refCount: Int = total
+
+        def isEmpty: Boolean = size == 0
+
+        def ref(length: Int): Int = {
+            var index = 0
+            while (index < size && lengths(index) != length) index += 1
+            if (index == size) {
+                if (size == lengths.length) {
+                    lengths = util.Arrays.copyOf(lengths, size * 2)
+                    refs = util.Arrays.copyOf(refs, size * 2)
+                }
+                lengths(size) = length
+                refs(size) = 0
+                size += 1
+            }
+            refs(index) += 1
+            total += 1
+            total
+        }
+
+        def unref(length: Int): Int = {
+            var index = 0
+            while (index < size && lengths(index) != length) index += 1
+            if (index == size) {
+                return -1
+            }
+            refs(index) -= 1
+            total -= 1
+            if (refs(index) == 0) {
+                size -= 1
+                lengths(index) = lengths(size)
+                refs(index) = refs(size)
+            }
+            total
+        }
+
+        /** Returns the shortest match length of the current flows. */
+        def minLength: Int = {
+            var min = Int.MaxValue
+            var index = 0
+            while (index < size) {
+                if (lengths(index) < min) min = lengths(index)
+                index += 1
+            }
+            min
+        }
+    }
+
+    /** The destinations of the flows routed by a router. */
+    private final class RouterFlows {
+        val ipv4 = new util.TreeMap[JLong, Destination]()
+        val ipv6 = new util.TreeMap[IPv6Addr, Destination](Ipv6Order)
+
+        def isEmpty = ipv4.isEmpty && ipv6.isEmpty
+    }
+
+    @inline private def ipv4Key(address: IPv4Addr): JLong =
+        JLong.valueOf(address.toInt & 0xffffffffL)
+}
+
+/**
+ * An index of the flows routed by every router, by destination address and
+ * by the prefix length of the route that decided the flow. When a route is
+ * added to a router, the index returns the destinations under the route's
+ * prefix whose flows matched a route at most as specific, or no route at
+ * all, since only these flows may now be routed differently. A route with
+ * the same prefix length may change the next hop of a flow, for instance a
+ * new ECMP member or a route with a better weight.
+ *
+ * Flows that matched a host route are not indexed, as a new route never
+ * overshadows them: such flows only become invalid when their route is
+ * deleted, which is handled with the route's flow tag.
+ *
+ * The destinations are stored in sorted maps per router and address family,
+ * such that finding the destinations under a prefix only visits the indexed
+ * destinations in that prefix. The index is confined to a packet worker
+ * thread, where the flows are created and removed.
+ */
+@NotThreadSafe
+final class RouteFlowIndex {
+
+    import RouteFlowIndex._
+
+    private val routers = new util.HashMap[UUID, RouterFlows]()
+
+    /**
+     * Adds a flow to a destination of the specified router, which matched a
+     * route with the given prefix length, or [[NoRoute]]. Returns the number
+     * of flows to the destination, or zero if the flow is not indexed.
+     */
+    def ref(routerId: UUID, dst: IPAddr, matchLength: Int): Int = {
+        if (!isIndexed(dst, matchLength)) {
+            return 0
+        }
+        var router = routers.get(routerId)
+        if (router eq null) {
+            router = new RouterFlows
+            routers.put(routerId, router)
+        }
+        var destination = get(router, dst)
+        if (destination eq null) {
+            destination = new Destination(dst)
+            dst match {
+                case ip: IPv4Addr => router.ipv4.put(ipv4Key(ip), destination)
+                case ip: IPv6Addr => router.ipv6.put(ip, destination)
+            }
+        }
+        destination.ref(matchLength)
+    }
+
+    /**
+     * Removes a flow from a destination of the specified router. Returns the
+     * number of remaining flows to the destination, or -1 if the flow is not
+     * indexed.
+     */
+    def unref(routerId: UUID, dst: IPAddr, matchLength: Int): Int = {
+        if (!isIndexed(dst, matchLength)) {
+            return -1
+        }
+        val router = routers.get(routerId)
+        if (router eq null) {
+            return -1
+        }
+        val destination = get(router, dst)
+        if (destination eq null) {
+            return -1
+        }
+        val count = destination.unref(matchLength)
+        if (destination.isEmpty) {
+            dst match {
+                case ip: IPv4Addr => router.ipv4.remove(ipv4Key(ip))
+                case ip: IPv6Addr => router.ipv6.remove(ip)
+            }
+            if (router.isEmpty) {
+                routers.remove(routerId)
+            }
+        }
+        count
+    }
+
+    /** Returns the number of flows to a destination of the router. */
+    def countRefs(routerId: UUID, dst: IPAddr): Int = {
+        val router = routers.get(routerId)
+        val destination = if (router ne null) get(router, dst) else null
+        if (destination ne null) destination.refCount else 0
+    }
+
+    /**
+     * Adds to the given collection the destinations under the prefix of a
+     * new route of the specified router, with at least one flow that matched
+     * a route at most as specific. Returns the number of added destinations.
+     */
+    def overshadowed(routerId: UUID, prefix: IPSubnet[_],
+                     destinations: util.Collection[IPAddr]): Int = {
+        val router = routers.get(routerId)
+        if (router eq null) {
+            return 0
+        }
+        val range = prefix match {
+            case subnet: IPv4Subnet =>
+                router.ipv4.subMap(ipv4Key(subnet.toNetworkAddress), true,
+                                   ipv4Key(subnet.toBroadcastAddress), true)
+            case subnet: IPv6Subnet =>
+                router.ipv6.subMap(subnet.toNetworkAddress, true,
+                                   subnet.toBroadcastAddress, true)
+        }
+        val length = prefix.getPrefixLen
+        var count = 0
+        val iterator = range.values.iterator()
+        while (iterator.hasNext) {
+            val destination = iterator.next()
+            if (destination.minLength <= length) {
+                destinations.add(destination.address)
+                count += 1
+            }
+        }
+        count
+    }
+
+    private def isIndexed(dst: IPAddr, matchLength: Int): Boolean = dst match {
+        case _: IPv4Addr => matchLength < 32
+        case _: IPv6Addr => matchLength < 128
+        case _ => false
+    }
+
+    private def get(router: RouterFlows, dst: IPAddr): Destination = dst match {
+        case ip: IPv4Addr => router.ipv4.get(ipv4Key(ip))
+        case ip: IPv6Addr => router.ipv6.get(ip)
+        case _ => null
+    }
+}
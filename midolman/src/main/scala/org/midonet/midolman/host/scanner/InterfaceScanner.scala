@@ -19,8 +19,48 @@ package org.midonet.midolman.host.scanner
 import rx.{Observer, Scheduler, Subscription}
 
 import org.midonet.midolman.host.interfaces.InterfaceDescription
+import org.midonet.midolman.host.scanner.InterfaceScanner.{InterfaceChanges, InterfaceChangesObserver}
 import org.midonet.netlink.rtnetlink.AbstractRtnetlinkConnection
 
+object InterfaceScanner {
+
+    /**
+     * A change of the L2 Ethernet interfaces on the host.
+     *
+     * @param interfaces The set of all interfaces after the change.
+     * @param updated The interfaces added or modified by the change.
+     * @param removed The interfaces removed by the change.
+     */
+    case class InterfaceChanges(interfaces: Set[InterfaceDescription],
+                                updated: Set[InterfaceDescription],
+                                removed: Set[InterfaceDescription]) {
+        def isEmpty: Boolean = updated.isEmpty && removed.isEmpty
+    }
+
+    /**
+     * Computes the [[InterfaceChanges]] from the sets of interfaces published
+     * by a scanner, by comparing every set with the previous one.
+     */
+    private class InterfaceChangesObserver(observer: Observer[InterfaceChanges])
+        extends Observer[Set[InterfaceDescription]] {
+
+        private var previous = Set.empty[InterfaceDescription]
+
+        override def onNext(interfaces: Set[InterfaceDescription]): Unit = {
+            val updated = interfaces -- previous
+            val indices = updated.map(_.getIfindex)
+            val removed = (previous -- interfaces)
+                .filterNot(i => indices.contains(i.getIfindex))
+            previous = interfaces
+            observer.onNext(InterfaceChanges(interfaces, updated, removed))
+        }
+
+        override def onCompleted(): Unit = observer.onCompleted()
+
+        override def onError(e: Throwable): Unit = observer.onError(e)
+    }
+}
+
 /**
  * Interface data scanning API. It's job is scan and find out the
  * current list of interface data from the local system and notify
@@ -38,6 +78,21 @@ trait InterfaceScanner extends AbstractRtnetlinkConnection {
      */
     def subscribe(obs: Observer[Set[InterfaceDescription]],
                   scheduler: Option[Scheduler] = None): Subscription
+
+    /**
+     * Let an Observer subscribe the changes of the interfaces on the host.
+     * Unlike `subscribe`, the notifications include the interfaces that were
+     * added, modified or removed, such that observers need not compare the
+     * complete sets of interfaces.
+     *
+     * The default implementation computes the changes from the sets of
+     * interfaces notified to `subscribe`.
+     */
+    def subscribeChanges(obs: Observer[InterfaceChanges],
+                         scheduler: Option[Scheduler] = None): Subscription = {
+        subscribe(new InterfaceChangesObserver(obs), scheduler)
+    }
+
     /**
      * Start scanning and notifying the interfaces on the host.
      */
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.host.scanner
+
+import java.net.InetAddress
+import java.util
+
+import scala.collection.JavaConversions._
+import scala.collection.mutable
+
+import org.midonet.midolman.host.interfaces.InterfaceDescription
+import org.midonet.midolman.host.scanner.InterfaceScanner.InterfaceChanges
+import org.midonet.netlink.rtnetlink.{Addr, Link}
+import org.midonet.packets.MAC
+
+object InterfaceTable {
+
+    private def linkType(link: Link): InterfaceDescription.Type =
+        link.ifi.`type` match {
+            case Link.Type.ARPHRD_ETHER |
+                 Link.Type.ARPHRD_EETHER |
+                 Link.Type.ARPHRD_IEEE802 |
+                 Link.Type.ARPHRD_DLCI |
+                 Link.Type.ARPHRD_ATM |
+                 Link.Type.ARPHRD_IEEE1394 |
+                 Link.Type.ARPHRD_X25 |
+                 Link.Type.ARPHRD_FDDI |
+                 Link.Type.ARPHRD_FCPP |
+                 Link.Type.ARPHRD_FCAL |
+                 Link.Type.ARPHRD_FCPL |
+                 Link.Type.ARPHRD_FCFABRIC |
+                 Link.Type.ARPHRD_IEEE80211 =>
+                InterfaceDescription.Type.PHYS
+            case Link.Type.ARPHRD_NETROM |
+                 Link.Type.ARPHRD_LOOPBACK =>
+                InterfaceDescription.Type.VIRT
+            case Link.Type.ARPHRD_TUNNEL |
+                 Link.Type.ARPHRD_TUNNEL6 |
+                 Link.Type.ARPHRD_IPDDP |
+                 Link.Type.ARPHRD_IPGRE |
+                 Link.Type.ARPHRD_IP6GRE =>
+                InterfaceDescription.Type.TUNN
+            case _ =>
+                InterfaceDescription.Type.UNKNOWN
+        }
+
+    private def linkEndpoint(link: Link): InterfaceDescription.Endpoint = {
+        val endpoint: Option[InterfaceDescription.Endpoint] =
+            link.info.kind match {
+                case Link.NestedAttrValue.LinkInfo.KIND_TUN =>
+                    Some(InterfaceDescription.Endpoint.TUNTAP)
+                case null =>
+                    if  (link.ifi.`type` == Link.Type.ARPHRD_LOOPBACK) {
+                        Some(InterfaceDescription.Endpoint.LOCALHOST)
+                    } else {
+                        Some(InterfaceDescription.Endpoint.DATAPATH)
+                    }
+                case _ =>
+                    None
+            }
+        endpoint.getOrElse(link.ifi.`type` match {
+            case Link.Type.ARPHRD_IPGRE | Link.Type.ARPHRD_IP6GRE =>
+                InterfaceDescription.Endpoint.GRE
+            // Workaround to fit with the current logic of other components.
+            case _ =>
+                InterfaceDescription.Endpoint.UNKNOWN
+        })
+    }
+
+    private def linkToDesc(link: Link,
+                           desc: InterfaceDescription): InterfaceDescription = {
+        val clone = cloneIfDesc(desc)
+        clone.setName(link.getName)
+        clone.setType(linkType(link))
+        clone.setMac(link.mac)
+        clone.setUp((link.ifi.flags & Link.Flag.IFF_UP) == 1)
+        clone.setHasLink(link.link != link.ifi.index)
+        clone.setMtu(link.mtu)
+        clone.setEndpoint(linkEndpoint(link))
+        clone
+    }
+
+    private def addrToDesc(addr: Addr,
+                           desc: InterfaceDescription): InterfaceDescription = {
+        val clone = cloneIfDesc(desc)
+        val existingInetAddresses = clone.getInetAddresses
+        addr.ipv4.foreach { ipv4 =>
+            val inetAddr = InetAddress.getByAddress(ipv4.toBytes)
+            if (!existingInetAddresses.contains(inetAddr)) {
+                clone.setInetAddress(inetAddr)
+            }
+        }
+        addr.ipv6.foreach { ipv6 =>
+            val inetAddr = InetAddress.getByName(ipv6.toString)
+            if (!existingInetAddresses.contains(inetAddr)) {
+                clone.setInetAddress(inetAddr)
+            }
+        }
+        clone
+    }
+
+    private def cloneIfDesc(ifdesc: InterfaceDescription): InterfaceDescription = {
+        val clone = new InterfaceDescription(ifdesc.getName, ifdesc.getIfindex)
+        clone.setEndpoint(ifdesc.getEndpoint)
+        ifdesc.getInetAddresses foreach clone.setInetAddress
+        clone.setHasLink(ifdesc.hasLink)
+        if (ifdesc.getMac eq null) {
+            clone.setMac(null.asInstanceOf[MAC])
+        } else {
+            clone.setMac(MAC.fromAddress(ifdesc.getMac.getAddress))
+        }
+        clone.setMtu(ifdesc.getMtu)
+        clone.setPortType(ifdesc.getPortType)
+        clone.setType(ifdesc.getType)
+        clone.setProperties(new util.HashMap(ifdesc.getProperties))
+        clone.setUp(ifdesc.isUp)
+        clone
+    }
+}
+
+/**
+ * An indexed table of the interfaces on the host, which applies the link and
+ * address notifications from rtnetlink as deltas. The table holds all links,
+ * but it exposes only the L2 Ethernet interfaces, the interfaces with a MAC
+ * address.
+ *
+ * For every notification that modifies an exposed interface, the table
+ * returns the [[InterfaceChanges]] with the added, modified or removed
+ * interface, and the new set of all exposed interfaces. The set is immutable
+ * and it shares its structure with the previous set, such that the cost of a
+ * notification does not depend on the number of interfaces on the host. A
+ * notification that does not modify an exposed interface, such as a NEWLINK
+ * with only statistics changes or a NEWADDR for a link without a MAC address,
+ * returns no changes.
+ *
+ * This class is not thread-safe, except for the `interfaces` method which may
+ * be called from any thread.
+ */
+class InterfaceTable {
+
+    import InterfaceTable._
+
+    // Mapping from an ifindex to a link.
+    private val links = mutable.HashMap.empty[Int, Link]
+    // Mapping from an ifindex to a set of addresses of a link associated with
+    // the ifindex.
+    private val addrs = mutable.HashMap.empty[Int, mutable.Set[Addr]]
+    // Mapping from an ifindex to the description of all interfaces.
+    private val descriptions = mutable.HashMap.empty[Int, InterfaceDescription]
+
+    // The exposed interfaces, indexed by ifindex and as a set.
+    private var exposed = Map.empty[Int, InterfaceDescription]
+    @volatile private var current = Set.empty[InterfaceDescription]
+
+    /** Returns the current set of L2 Ethernet interfaces. */
+    def interfaces: Set[InterfaceDescription] = current
+
+    /** Returns the number of links in the table, including the links without
+      * a MAC address. */
+    def size: Int = descriptions.size
+
+    /**
+     * Loads the links and addresses returned by the initial dump requests,
+     * and returns all exposed interfaces as updated. This is the only
+     * operation whose cost is proportional to the number of interfaces.
+     */
+    def load(links: Set[Link], addrs: Set[Addr]): InterfaceChanges = {
+        for (link <- links) {
+            val index = link.ifi.index
+            this.links(index) = link
+            descriptions(index) = linkToDesc(link, description(index))
+        }
+        for (addr <- addrs) {
+            val index = addr.ifa.index
+            this.addrs.getOrElseUpdate(index, mutable.Set.empty) += addr
+            descriptions(index) = addrToDesc(addr, description(index))
+        }
+        exposed = descriptions.filter(_._2.getMac ne null).toMap
+        current = exposed.values.toSet
+        InterfaceChanges(current, current, Set.empty)
+    }
+
+    /** Applies a RTM_NEWLINK notification. */
+    def newLink(link: Link): Option[InterfaceChanges] = {
+        val index = link.ifi.index
+        links.get(index) match {
+            case Some(previous) if link == previous => None
+            case _ =>
+                links(index) = link
+                descriptions(index) = linkToDesc(link, description(index))
+                publish(index)
+        }
+    }
+
+    /** Applies a RTM_DELLINK notification. */
+    def delLink(link: Link): Option[InterfaceChanges] = {
+        val index = link.ifi.index
+        if (links.remove(index).isDefined) {
+            addrs -= index
+            descriptions -= index
+            publish(index)
+        } else {
+            None
+        }
+    }
+
+    /** Applies a RTM_NEWADDR notification. Addresses of unknown links are
+      * ignored. */
+    def newAddr(addr: Addr): Option[InterfaceChanges] = {
+        val index = addr.ifa.index
+        descriptions.get(index) match {
+            case Some(desc) =>
+                val addrSet = addrs.getOrElseUpdate(index, mutable.Set.empty)
+                if (addrSet.add(addr)) {
+                    descriptions(index) = addrToDesc(addr, desc)
+                    publish(index)
+                } else {
+                    None
+                }
+            case None =>
+                addrs -= index
+                None
+        }
+    }
+
+    /** Applies a RTM_DELADDR notification. */
+    def delAddr(addr: Addr): Option[InterfaceChanges] = {
+        val index = addr.ifa.index
+        descriptions.get(index) match {
+            case Some(desc) if addrs.get(index).exists(_.remove(addr)) =>
+                val clone = cloneIfDesc(desc)
+                addr.ipv4.foreach(ipv4 =>
+                    clone.getInetAddresses.remove(
+                        InetAddress.getByAddress(ipv4.toBytes)))
+                addr.ipv6.foreach(ipv6 =>
+                    clone.getInetAddresses.remove(
+                        InetAddress.getByName(ipv6.toString)))
+                descriptions(index) = clone
+                publish(index)
+            case Some(_) => None
+            case None =>
+                addrs -= index
+                None
+        }
+    }
+
+    private def description(index: Int): InterfaceDescription = {
+        descriptions.getOrElse(index,
+                               new InterfaceDescription(index.toString, index))
+    }
+
+    /** Updates the exposed interfaces for the given ifindex, and returns the
+      * changes if the exposed description has changed. */
+    private def publish(index: Int): Option[InterfaceChanges] = {
+        val previous = exposed.get(index)
+        val next = descriptions.get(index).filter(_.getMac ne null)
+        if (previous == next) {
+            return None
+        }
+        var set = current
+        previous foreach { set -= _ }
+        next match {
+            case Some(desc) =>
+                exposed += index -> desc
+                set += desc
+            case None =>
+                exposed -= index
+        }
+        current = set
+        Some(InterfaceChanges(set, next.toSet,
+                              if (next.isEmpty) previous.toSet else Set.empty))
+    }
+}
@@ -17,7 +17,7 @@
 package org.midonet.midolman.host.services
 
 import java.net.{InetAddress, UnknownHostException}
-import java.util.concurrent.atomic.AtomicReference
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicReference}
 import java.util.concurrent.{CountDownLatch, TimeUnit, TimeoutException}
 import java.util.{UUID, ConcurrentModificationException}
 import javax.annotation.Nullable
@@ -47,6 +47,7 @@ import org.midonet.midolman.Midolman
 import org.midonet.midolman.config.MidolmanConfig
 import org.midonet.midolman.host.interfaces.InterfaceDescription
 import org.midonet.midolman.host.scanner.InterfaceScanner
+import org.midonet.midolman.host.scanner.InterfaceScanner.InterfaceChanges
 import org.midonet.midolman.logging.MidolmanLogging
 import org.midonet.midolman.serialization.SerializationException
 import org.midonet.packets.MAC
@@ -102,7 +103,7 @@ class HostService (config: MidolmanConfig,
 
     private val interfacesLatch = new CountDownLatch(1)
     @volatile private var currentInterfaces: Set[InterfaceDescription] = null
-    @volatile private var oldInterfaces: Set[InterfaceDescription] = null
+    private val updatePending = new AtomicBoolean()
     @volatile private var scannerSubscription: Subscription = null
 
     private val aliveState = new AtomicReference(OwnershipState.Released)
@@ -143,7 +144,8 @@ class HostService (config: MidolmanConfig,
         log.info("Starting MidoNet agent host service")
         try {
             scanner.start()
-            scanner.subscribe(new Observer[Set[InterfaceDescription]] {
+            scannerSubscription = scanner.subscribeChanges(
+                new Observer[InterfaceChanges] {
                 override def onCompleted(): Unit = {
                     log.debug("Interface updating is completed.")
                 }
@@ -152,17 +154,16 @@ class HostService (config: MidolmanConfig,
                         log.error("Unhandled interface scanner error", t)
                     }
                 }
-                override def onNext(data: Set[InterfaceDescription]): Unit = {
-                    oldInterfaces = currentInterfaces
-                    currentInterfaces = data
+                override def onNext(changes: InterfaceChanges): Unit = {
+                    currentInterfaces = changes.interfaces
                     interfacesLatch.countDown()
                     // Do not update if the interfaces have not changed or if the
                     // service has not yet acquired the host ownership.
-                    if ((oldInterfaces == currentInterfaces) ||
+                    if (changes.isEmpty ||
                         (aliveState.get != OwnershipState.Acquired)) {
                         return
                     }
-                    updateInterfaces()
+                    scheduleUpdateInterfaces()
                 }
             })
             identifyHost()
@@ -373,6 +374,28 @@ class HostService (config: MidolmanConfig,
             .subscribe(aliveObserver)
     }
 
+    /**
+     * Updates the host interfaces after the configured update interval, such
+     * that all interface changes during the interval, like those of a tap
+     * device created and brought up when a VM boots, are written to storage
+     * once. A zero interval updates the interfaces immediately.
+     */
+    private def scheduleUpdateInterfaces(): Unit = {
+        val interval = config.host.interfaceUpdateInterval
+        if (interval <= 0) {
+            updateInterfaces()
+        } else if (updatePending.compareAndSet(false, true)) {
+            reactor.schedule(new Runnable {
+                override def run(): Unit = {
+                    updatePending.set(false)
+                    if (aliveState.get == OwnershipState.Acquired) {
+                        updateInterfaces()
+                    }
+                }
+            }, interval, TimeUnit.MILLISECONDS)
+        }
+    }
+
     /**
      * Updates the host with the current set of interfaces in V2.x storage.
      */
@@ -16,9 +16,8 @@
 
 package org.midonet.midolman.io
 
-import java.util.concurrent.locks.ReentrantLock
-
-import scala.collection.mutable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
 
 import org.slf4j.{Logger, LoggerFactory}
 
@@ -29,7 +28,9 @@ import org.midonet.util.{Bucket, TokenBucketFillRate, TokenBucket}
 /**
  * This class contains a policy to assign token buckets to datapath ports.
  * Depending on the port type, token buckets are linked at different levels
- * in the hierarchy.
+ * in the hierarchy. Linking and unlinking ports do not take a lock, such
+ * that the channels of different ports can be set up concurrently without
+ * stalling the token distribution.
  */
 class TokenBucketPolicy(config: MidolmanConfig,
                         tbRate: TokenBucketFillRate,
@@ -46,66 +47,80 @@ class TokenBucketPolicy(config: MidolmanConfig,
 
     private val vmBuckets = root.link(0, "vms")
 
-    private val tokenBuckets = mutable.Map[String, Bucket]()
-    private val lock = new ReentrantLock
+    private val tokenBuckets = new ConcurrentHashMap[String, Bucket]()
+    private val minimumSystemTokens = new AtomicInteger()
 
-    def calculateMinimumSystemTokens: Int =
-        tokenBuckets.foldLeft(0)(_ + _._2.underlyingTokenBucket().getCapacity)
+    def calculateMinimumSystemTokens: Int = minimumSystemTokens.get
 
     def link(port: DpPort, t: ChannelType): Bucket = {
-        lock.lock()
-        try {
-            if (tokenBuckets.contains(port.getName)) {
-                return tokenBuckets(port.getName)
-            }
-
-            val tb = factory(t match {
-                case OverlayTunnel if config.datapath.tunnelIncomingBurstCapacity > 0 =>
-                    root.link(adjust(config.datapath.tunnelIncomingBurstCapacity), port.getName)
-                case VtepTunnel if config.datapath.vtepIncomingBurstCapacity > 0 =>
-                    root.link(adjust(config.datapath.vtepIncomingBurstCapacity), port.getName)
-                case VirtualMachine if config.datapath.vmIncomingBurstCapacity > 0 =>
-                    vmBuckets.link(adjust(config.datapath.vmIncomingBurstCapacity), port.getName)
-                case _ =>
-                    return null
-            })
-
-            tokenBuckets.put(port.getName, tb)
-            val curMax = root.getCapacity
-            val newMax = calculateMinimumSystemTokens
-            if (newMax > curMax) {
-                root.setCapacity(newMax)
-                root.addTokens(newMax - curMax)
-            }
-
-            log.info("HTB updated")
-            root.dumpToLog()
-            tb
-        } finally {
-            lock.unlock()
+        val existing = tokenBuckets.get(port.getName)
+        if (existing ne null) {
+            return existing
+        }
+
+        val tb = factory(t match {
+            case OverlayTunnel if config.datapath.tunnelIncomingBurstCapacity > 0 =>
+                root.link(adjust(config.datapath.tunnelIncomingBurstCapacity), port.getName)
+            case VtepTunnel if config.datapath.vtepIncomingBurstCapacity > 0 =>
+                root.link(adjust(config.datapath.vtepIncomingBurstCapacity), port.getName)
+            case VirtualMachine if config.datapath.vmIncomingBurstCapacity > 0 =>
+                vmBuckets.link(adjust(config.datapath.vmIncomingBurstCapacity), port.getName)
+            case _ =>
+                return null
+        })
+
+        val current = tokenBuckets.putIfAbsent(port.getName, tb)
+        if (current ne null) {
+            // The port was linked concurrently.
+            tb.underlyingTokenBucket().unlink()
+            return current
+        }
+
+        val newMax = minimumSystemTokens.addAndGet(
+            tb.underlyingTokenBucket().getCapacity)
+        var curMax = root.getCapacity
+        while (newMax > curMax && !root.compareAndSetCapacity(curMax, newMax)) {
+            curMax = root.getCapacity
         }
+        if (newMax > curMax) {
+            root.addTokens(newMax - curMax)
+        }
+
+        log.info("HTB updated")
+        root.dumpToLog()
+        tb
     }
 
     def unlink(port: DpPort): Unit = {
-        lock.lock()
-        try {
-            tokenBuckets.remove(port.getName) match {
-                case Some(tb) =>
-                    val tokens = tb.underlyingTokenBucket().unlink()
-                    val newMax = calculateMinimumSystemTokens
-                    if (newMax >= adjust(config.datapath.globalIncomingBurstCapacity))
-                        root.setCapacity(newMax)
-                    else
-                        root.addTokens(tokens)
-
-                    log.info("HTB updated")
-                    root.dumpToLog()
-                case None =>
-                    log.warn("Port was deleted but not found in HTB: {}", port.getName)
-            }
-        } finally {
-            lock.unlock()
+        tokenBuckets.remove(port.getName) match {
+            case null =>
+                log.warn("Port was deleted but not found in HTB: {}", port.getName)
+            case tb =>
+                val bucket = tb.underlyingTokenBucket()
+                val tokens = bucket.unlink()
+                minimumSystemTokens.addAndGet(-bucket.getCapacity)
+                if (!shrinkRoot())
+                    root.addTokens(tokens)
+
+                log.info("HTB updated")
+                root.dumpToLog()
+        }
+    }
+
+    /* Sets the capacity of the root to the minimum number of system tokens,
+     * if not below the global burst capacity, retrying when the capacity
+     * changes concurrently, such that a concurrent link always wins.
+     */
+    private def shrinkRoot(): Boolean = {
+        while (true) {
+            val newMax = minimumSystemTokens.get
+            val curMax = root.getCapacity
+            if (newMax < adjust(config.datapath.globalIncomingBurstCapacity))
+                return false
+            if (newMax >= curMax || root.compareAndSetCapacity(curMax, newMax))
+                return true
         }
+        false
     }
 
     private def adjust(tokens: Int): Int = Math.max(1, tokens / multiplier)
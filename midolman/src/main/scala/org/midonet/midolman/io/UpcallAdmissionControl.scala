@@ -0,0 +1,428 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.io
+
+import java.util.concurrent.atomic.AtomicLong
+
+import scala.collection.IndexedSeq
+
+import com.codahale.metrics.MetricRegistry.name
+import com.codahale.metrics.{Gauge, Meter, MetricRegistry}
+
+import org.slf4j.LoggerFactory
+
+import org.midonet.midolman.PacketWorker
+import org.midonet.midolman.config.DatapathConfig
+import org.midonet.midolman.monitoring.metrics.{PacketPipelineGauge, PacketPipelineMeter}
+import org.midonet.midolman.state.FlowState
+import org.midonet.odp.Packet
+import org.midonet.packets.{ARP, ICMPv6, IPv4, IPv6, TCP, UDP}
+import org.midonet.util.concurrent.NanoClock
+
+/**
+ * The priority class of an upcall packet. Under overload, the admission
+ * control sheds the packets of the lowest classes first.
+ */
+sealed abstract class PacketClass(val name: String)
+
+/** Flow state packets, which arrive from the tunnel ports and are never
+  * shed. */
+case object FlowStatePacket extends PacketClass("flow-state")
+/** ARP, neighbor discovery, DHCP and BGP packets. Since any port may send
+  * them, they are only capped on the ports that are shedding load. */
+case object ControlPacket extends PacketClass("control")
+/** Packets that are neither control packets nor new TCP connections. */
+case object DefaultPacket extends PacketClass("default")
+/** TCP SYN packets, which are shed first from the noisiest ports. */
+case object NewConnectionPacket extends PacketClass("new-connection")
+
+object UpcallAdmissionControl {
+
+    /** The per-interval limit of a port without shedding. */
+    final val Unlimited = Int.MaxValue
+    /** The minimum per-interval limit of a shedding port. */
+    final val MinLimit = 8
+    /** The per-interval limit above which a port stops shedding. */
+    final val UnlimitedThreshold = 1 << 20
+    /** The fraction of the worker queues above which the workers are
+      * overloaded. */
+    final val QueueThreshold = 0.25
+    /** The minimum queue depth for which the queueing latency is considered,
+      * such that a few queued packets in an idle interval are not mistaken
+      * for an overload. */
+    final val MinQueueDepth = 64
+
+    private final val BgpPort = 179
+    private final val DhcpServerPort = 67
+    private final val DhcpClientPort = 68
+    private final val Dhcpv6ClientPort = 546
+    private final val Dhcpv6ServerPort = 547
+    private final val NdpFirstType = 133 // Router solicitation
+    private final val NdpLastType = 137 // Redirect
+
+    /**
+     * Returns the admission control for the given configuration and workers,
+     * or null if the admission control is disabled.
+     */
+    def apply(config: DatapathConfig, workers: IndexedSeq[PacketWorker],
+              registry: MetricRegistry): UpcallAdmissionControl = {
+        if (config.upcallAdmissionControl)
+            new UpcallAdmissionControl(
+                workers, config.upcallAdmissionInterval * 1000000L,
+                config.upcallAdmissionTargetLatency * 1000000L, registry,
+                NanoClock.DEFAULT)
+        else null
+    }
+
+    /**
+     * Classifies an upcall packet. The method does not mark the inspected
+     * fields as seen, such that they do not affect the flow's wildcards.
+     */
+    def classify(packet: Packet): PacketClass = {
+        val fmatch = packet.getMatch
+        fmatch.doNotTrackSeenFields()
+        try {
+            if (FlowState.isStateMessage(fmatch))
+                return FlowStatePacket
+            fmatch.getEtherType match {
+                case ARP.ETHERTYPE => ControlPacket
+                case IPv4.ETHERTYPE => fmatch.getNetworkProto match {
+                    case UDP.PROTOCOL_NUMBER
+                        if fmatch.getDstPort == DhcpServerPort ||
+                           fmatch.getDstPort == DhcpClientPort => ControlPacket
+                    case TCP.PROTOCOL_NUMBER => classifyTcp(packet)
+                    case _ => DefaultPacket
+                }
+                case IPv6.ETHERTYPE => fmatch.getNetworkProto match {
+                    case UDP.PROTOCOL_NUMBER
+                        if fmatch.getDstPort == Dhcpv6ServerPort ||
+                           fmatch.getDstPort == Dhcpv6ClientPort => ControlPacket
+                    case TCP.PROTOCOL_NUMBER => classifyTcp(packet)
+                    case ICMPv6.PROTOCOL_NUMBER if isNdp(packet) => ControlPacket
+                    case _ => DefaultPacket
+                }
+                case _ => DefaultPacket
+            }
+        } finally {
+            fmatch.doTrackSeenFields()
+        }
+    }
+
+    private def classifyTcp(packet: Packet): PacketClass = {
+        val fmatch = packet.getMatch
+        if (fmatch.getSrcPort == BgpPort || fmatch.getDstPort == BgpPort)
+            ControlPacket
+        else if (isSyn(packet))
+            NewConnectionPacket
+        else
+            DefaultPacket
+    }
+
+    private def isSyn(packet: Packet): Boolean = {
+        val eth = packet.getEthernet
+        (eth ne null) && (eth.getPayload match {
+            case ip: IPv4 => isSyn(ip.getPayload)
+            case ip: IPv6 => isSyn(ip.getPayload)
+            case _ => false
+        })
+    }
+
+    private def isSyn(payload: AnyRef): Boolean = payload match {
+        case tcp: TCP => tcp.getFlag(TCP.Flag.Syn) && !tcp.getFlag(TCP.Flag.Ack)
+        case _ => false
+    }
+
+    /** The datapath flow match does not include the ICMPv6 type, which is
+      * read from the packet. The parser sign-extends the type, which must
+      * be masked. */
+    private def isNdp(packet: Packet): Boolean = {
+        val eth = packet.getEthernet
+        (eth ne null) && (eth.getPayload match {
+            case ip: IPv6 => ip.getPayload match {
+                case icmp: ICMPv6 =>
+                    val icmpType = icmp.getType & 0xff
+                    icmpType >= NdpFirstType && icmpType <= NdpLastType
+                case _ => false
+            }
+            case _ => false
+        })
+    }
+
+    /**
+     * The admission state of a datapath port. The packet counters are only
+     * written by the thread reading the port's upcall channel, and they are
+     * read without synchronization when adapting the limits, which only
+     * requires an approximate count.
+     */
+    private[io] final class PortState(val portNo: Int, val portName: String,
+                                      val dropped: Meter) {
+        /** The packets allowed in every interval, other than flow state. */
+        @volatile var limit = Unlimited
+        /** The interval of the `admittedInInterval` and `controlInInterval`
+          * counters. */
+        var interval = 0L
+        var admittedInInterval = 0
+        var controlInInterval = 0
+        /** Cumulative counters of packets other than flow state, and of all
+          * packets submitted to the workers. */
+        var arrivals = 0
+        var submitted = 0
+        /** The counters at the last adaptation. */
+        var lastArrivals = 0
+        var lastSubmitted = 0
+    }
+}
+
+/**
+ * An admission control stage between the upcall channels and the packet
+ * workers. The stage classifies the upcall packets in [[PacketClass]]es, and
+ * it limits the number of packets from every datapath port that are admitted
+ * during an interval.
+ *
+ * At the end of every interval, the stage compares the depth of the worker
+ * queues and the estimated queueing latency with their thresholds. When the
+ * workers are overloaded, it halves the limits of the noisiest ports, that
+ * is the ports sending at least the fair share of packets, otherwise it
+ * increases the limits of the shedding ports until they become unlimited.
+ * Within its limit, a port may only use half for new TCP connections.
+ * Control packets count towards the noise of a port, but they have a
+ * separate budget equal to the port's limit, such that a flood of spoofed
+ * control packets cannot starve the other classes, nor escape shedding.
+ * Flow state packets are always admitted.
+ *
+ * The stage exposes the number of dropped packets per class and per port.
+ */
+class UpcallAdmissionControl(workers: IndexedSeq[PacketWorker],
+                             intervalNanos: Long,
+                             targetLatencyNanos: Long,
+                             registry: MetricRegistry,
+                             clock: NanoClock) {
+
+    import UpcallAdmissionControl._
+
+    private val log = LoggerFactory.getLogger("org.midonet.io.admission")
+
+    @volatile private var ports = new Array[PortState](0)
+    private val nextAdaptation = new AtomicLong(clock.tick + intervalNanos)
+    @volatile private var interval = 0L
+    private var lastDepth = 0
+
+    @volatile private var overloaded = false
+    @volatile private var latencyNanos = 0L
+
+    val droppedControl = registry.meter(name(
+        classOf[PacketPipelineMeter], "admission", ControlPacket.name,
+        "dropped"))
+    val droppedDefault = registry.meter(name(
+        classOf[PacketPipelineMeter], "admission", DefaultPacket.name,
+        "dropped"))
+    val droppedNewConnection = registry.meter(name(
+        classOf[PacketPipelineMeter], "admission", NewConnectionPacket.name,
+        "dropped"))
+
+    registerGauge("overloaded", new Gauge[Boolean] {
+        override def getValue: Boolean = overloaded
+    })
+    registerGauge("queueLatencyNanos", new Gauge[Long] {
+        override def getValue: Long = latencyNanos
+    })
+
+    /** Indicates whether the workers were overloaded at the last interval. */
+    def isOverloaded: Boolean = overloaded
+
+    /** Returns the current packet limit per interval of the given port. */
+    def limit(portNo: Int): Int = {
+        val state = portState(portNo)
+        if (state ne null) state.limit else Unlimited
+    }
+
+    /** Starts the admission control for a datapath port. */
+    def register(portNo: Int, portName: String): Unit = synchronized {
+        if (portNo < 0) return
+        val dropped = registry.meter(portMetric(portName))
+        val current = ports
+        val updated =
+            if (portNo < current.length) current.clone()
+            else java.util.Arrays.copyOf(current, portNo + 1)
+        updated(portNo) = new PortState(portNo, portName, dropped)
+        ports = updated
+    }
+
+    /** Stops the admission control for a datapath port. */
+    def unregister(portNo: Int): Unit = synchronized {
+        val current = ports
+        if (portNo < 0 || portNo >= current.length ||
+            (current(portNo) eq null)) return
+        registry.remove(portMetric(current(portNo).portName))
+        val updated = current.clone()
+        updated(portNo) = null
+        ports = updated
+    }
+
+    /**
+     * Decides whether a packet is admitted to the workers. The method must be
+     * called from the thread reading the upcall channel of the packet's port.
+     * A packet from a port that is not registered is always admitted.
+     */
+    def admit(packet: Packet, packetClass: PacketClass): Boolean = {
+        val now = clock.tick
+        val next = nextAdaptation.get
+        if (now >= next && nextAdaptation.compareAndSet(next, now + intervalNanos)) {
+            adapt()
+        }
+
+        val fmatch = packet.getMatch
+        fmatch.doNotTrackSeenFields()
+        val state = portState(fmatch.getInputPortNumber)
+        fmatch.doTrackSeenFields()
+        if (state eq null) {
+            return true
+        }
+        if (packetClass eq FlowStatePacket) {
+            state.submitted += 1
+            return true
+        }
+
+        if (state.interval != interval) {
+            state.interval = interval
+            state.admittedInInterval = 0
+            state.controlInInterval = 0
+        }
+        state.arrivals += 1
+        val limit = state.limit
+        if (packetClass eq ControlPacket) {
+            if (limit == Unlimited || state.controlInInterval < limit) {
+                state.controlInInterval += 1
+                state.submitted += 1
+                true
+            } else {
+                state.dropped.mark()
+                droppedControl.mark()
+                false
+            }
+        } else {
+            val max =
+                if (packetClass eq NewConnectionPacket) limit >> 1 else limit
+            if (state.admittedInInterval < max) {
+                state.admittedInInterval += 1
+                state.submitted += 1
+                true
+            } else {
+                state.dropped.mark()
+                if (packetClass eq NewConnectionPacket)
+                    droppedNewConnection.mark()
+                else droppedDefault.mark()
+                false
+            }
+        }
+    }
+
+    private def portState(portNo: Int): PortState = {
+        val current = ports
+        if (portNo >= 0 && portNo < current.length) current(portNo) else null
+    }
+
+    private def registerGauge(gaugeName: String, gauge: Gauge[_]): Unit = {
+        val gaugeFullName =
+            name(classOf[PacketPipelineGauge], "admission", gaugeName)
+        registry.remove(gaugeFullName)
+        registry.register(gaugeFullName, gauge)
+    }
+
+    private def portMetric(portName: String): String =
+        name(classOf[PacketPipelineMeter], "admission", "port", portName,
+             "dropped")
+
+    /**
+     * Adapts the port limits to the load of the workers. This method is
+     * called by a single upcall thread at the end of every interval.
+     */
+    private def adapt(): Unit = {
+        var depth = 0
+        var capacity = 0
+        var index = 0
+        while (index < workers.length) {
+            depth += workers(index).queueDepth
+            capacity += workers(index).queueCapacity
+            index += 1
+        }
+
+        val current = ports
+        var totalArrivals = 0L
+        var submitted = 0L
+        var active = 0
+        index = 0
+        while (index < current.length) {
+            val state = current(index)
+            if (state ne null) {
+                val arrivals = state.arrivals - state.lastArrivals
+                if (arrivals > 0) active += 1
+                totalArrivals += arrivals
+                submitted += state.submitted - state.lastSubmitted
+            }
+            index += 1
+        }
+
+        // Estimate the queueing latency from the packets drained during the
+        // last interval.
+        val drained = submitted - (depth - lastDepth)
+        lastDepth = depth
+        latencyNanos =
+            if (depth == 0) 0L
+            else if (drained > 0) depth * intervalNanos / drained
+            else Long.MaxValue
+        val wasOverloaded = overloaded
+        overloaded =
+            (capacity > 0 && depth > capacity * QueueThreshold) ||
+            (depth >= MinQueueDepth && latencyNanos > targetLatencyNanos)
+
+        val fairShare = if (active > 0) totalArrivals / active else 0L
+        index = 0
+        while (index < current.length) {
+            val state = current(index)
+            if (state ne null) {
+                val arrivals = state.arrivals - state.lastArrivals
+                state.lastArrivals = state.arrivals
+                state.lastSubmitted = state.submitted
+                if (overloaded) {
+                    if (arrivals > MinLimit && arrivals >= fairShare) {
+                        val limit = Math.max(MinLimit,
+                                             Math.min(state.limit, arrivals) / 2)
+                        if (state.limit == Unlimited) {
+                            log.debug("Shedding load from port {}",
+                                      state.portName)
+                        }
+                        state.limit = limit
+                    }
+                } else if (state.limit != Unlimited) {
+                    val limit = state.limit.toLong * 3 / 2 + MinLimit
+                    state.limit =
+                        if (limit >= UnlimitedThreshold) Unlimited
+                        else limit.toInt
+                }
+            }
+            index += 1
+        }
+        if (overloaded != wasOverloaded) {
+            log.info(s"Packet workers " +
+                     s"${if (overloaded) "overloaded" else "recovered"}: " +
+                     s"queue depth $depth capacity $capacity latency " +
+                     s"${latencyNanos / 1000} us")
+        }
+        interval += 1
+    }
+}
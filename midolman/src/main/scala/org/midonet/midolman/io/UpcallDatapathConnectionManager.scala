@@ -31,7 +31,7 @@ import org.midonet.ErrorCode.{EBUSY, EEXIST, EADDRINUSE}
 import org.midonet.midolman.config.MidolmanConfig
 import org.midonet.midolman.state.FlowState
 import org.midonet.midolman.{PacketWorker, NetlinkCallbackDispatcher}
-import org.midonet.netlink.BufferPool
+import org.midonet.netlink.{AbstractNetlinkConnection, BufferPool, MessageRing}
 import org.midonet.netlink.exceptions.NetlinkException
 import org.midonet.odp._
 import org.midonet.odp.protos.OvsDatapathConnection
@@ -78,6 +78,20 @@ abstract class UpcallDatapathConnectionManagerBase(
 
     protected def makeBufferPool() = new BufferPool(1, 8, 8*1024)
 
+    /**
+     * The admission control shared by the upcall handlers of all channels, or
+     * null to admit all upcall packets.
+     */
+    protected def admissionControl: UpcallAdmissionControl = null
+
+    /**
+     * Returns the ring into which a new upcall connection reads batches of
+     * packets, or null to read one packet at a time. By default, every
+     * connection gets its own ring, since it is read from its own thread.
+     */
+    protected def makeReadRing(): MessageRing =
+        AbstractNetlinkConnection.createReadRing(config.datapath.upcallBatchSize)
+
     def getDispatcher()(implicit as: ActorSystem) =
         NetlinkCallbackDispatcher.makeBatchCollector()
 
@@ -101,10 +115,15 @@ abstract class UpcallDatapathConnectionManagerBase(
 
         val dpConn = conn.getConnection
         dpConn setCallbackDispatcher getDispatcher()
+        dpConn setReadRing makeReadRing()
         setUpcallHandler(dpConn)
         ensurePortPid(port, datapath, dpConn) andThen {
             case Success((createdPort, _)) =>
                 portToChannel.put((datapath, createdPort.getPortNo.intValue), conn)
+                if (admissionControl ne null) {
+                    admissionControl.register(createdPort.getPortNo.intValue,
+                                              createdPort.getName)
+                }
             case Failure(e) =>
                 log.error("failed to create or retrieve datapath port "
                               + port.getName, e)
@@ -146,6 +165,9 @@ abstract class UpcallDatapathConnectionManagerBase(
                              + port.getName, ex)
                     port
                 } map { v =>
+                    if (admissionControl ne null) {
+                        admissionControl.unregister(port.getPortNo.intValue)
+                    }
                     stopConnection(conn)
                     tbPolicy.unlink(port)
                 }
@@ -156,6 +178,7 @@ abstract class UpcallDatapathConnectionManagerBase(
 
             val NUM_WORKERS = workers.length
             val log = LoggerFactory.getLogger("PacketInHook")
+            val admission = admissionControl
 
             override def endBatch() {
                 // noop
@@ -166,6 +189,11 @@ abstract class UpcallDatapathConnectionManagerBase(
 
                 data.startTimeNanos = NanoClock.DEFAULT.tick
 
+                if ((admission ne null) &&
+                    !admission.admit(data, UpcallAdmissionControl.classify(data))) {
+                    return false
+                }
+
                 if (FlowState.isStateMessage(data.getMatch)) {
                     var i = 0
 
@@ -205,6 +233,9 @@ class OneToOneDpConnManager(c: MidolmanConfig,
 
     protected override val log = LoggerFactory.getLogger(this.getClass)
 
+    protected override lazy val admissionControl =
+        UpcallAdmissionControl(config.datapath, workers, metrics)
+
     override def makeConnection(name: String, bucket: Bucket,
                                 channelType: ChannelType) =
         new SelectorBasedDatapathConnection(name, config, true, bucket,
@@ -239,6 +270,15 @@ class OneToManyDpConnManager(c: MidolmanConfig,
 
     private var upcallHandler: BatchCollector[Packet] = null
 
+    protected override lazy val admissionControl =
+        UpcallAdmissionControl(config.datapath, workers, metrics)
+
+    // All connections are read from the same thread, and they share the
+    // ring, which bounds the memory used for batched reads.
+    private lazy val readRing = super.makeReadRing()
+
+    override protected def makeReadRing(): MessageRing = readRing
+
     override def makeConnection(name: String, bucket: Bucket,
                                 channelType: ChannelType) = {
         if (!threadPair.isRunning)
@@ -18,11 +18,11 @@ package org.midonet.midolman.l4lb
 import java.io._
 import java.nio.ByteBuffer
 import java.nio.channels.spi.SelectorProvider
+import java.nio.charset.StandardCharsets
 import java.util.UUID
 
 import scala.collection.JavaConversions._
 import scala.collection.mutable
-import scala.concurrent.duration._
 import scala.util.control.NonFatal
 
 import akka.actor._
@@ -35,7 +35,7 @@ import org.midonet.cluster.models.Topology._
 import org.midonet.cluster.util.SequenceDispenser.OverlayTunnelKey
 import org.midonet.cluster.util.UUIDUtil._
 import org.midonet.cluster.util.{IPAddressUtil, IPSubnetUtil, SequenceDispenser}
-import org.midonet.midolman.l4lb.HaproxyHealthMonitor.{CheckHealth, ConfigUpdate, _}
+import org.midonet.midolman.l4lb.HaproxyHealthMonitor.{ConfigUpdate, _}
 import org.midonet.midolman.logging.ActorLogWithoutPath
 import org.midonet.netlink.NetlinkSelectorProvider
 import org.midonet.packets.{IPv4Addr, IPv4Subnet, MAC}
@@ -60,9 +60,11 @@ import org.midonet.util.process.ProcessHelper
 */
 object HaproxyHealthMonitor {
     def props(config: PoolConfig, manager: ActorRef, routerId: UUID,
-              store: Storage, hostId: UUID, sequenceDispenser: SequenceDispenser):
+              store: Storage, hostId: UUID, sequenceDispenser: SequenceDispenser,
+              statsPoller: HaproxyStatsPoller):
         Props = Props(new HaproxyHealthMonitor(config, manager, routerId,
-                                               store, hostId, sequenceDispenser))
+                                               store, hostId, sequenceDispenser,
+                                               statsPoller))
 
     sealed trait HHMMessage
     // This is a way of alerting the manager that setup has failed
@@ -72,8 +74,11 @@ object HaproxyHealthMonitor {
     case object SockReadFailure extends HHMMessage
     // Tells this actor that the config for the health monitor has changed.
     case class ConfigUpdate(conf: PoolConfig) extends HHMMessage
-    // Tells this actor to poll haproxy once for health info.
-    case object CheckHealth extends HHMMessage
+    // Tells this actor the UP and DOWN members polled from haproxy.
+    case class MembersHealth(upNodes: Set[UUID], downNodes: Set[UUID])
+        extends HHMMessage
+    // Tells this actor that polling haproxy for health info failed.
+    case class HealthCheckFailed(e: Throwable) extends HHMMessage
     // Tells this actor that its router has been removed
     case object RouterRemoved
     // Tells this actor that it now has a router
@@ -134,31 +139,116 @@ object HaproxyHealthMonitor {
      * backend_id,name_of_server,0,0,0,0,,0,0,0,,0,,0,0,0,0,DOWN,1,1,0,0,1,
      * 2411,2411,,1,2,2,,0,,2,0,,0,L4CON,,1999,,,,,,,0,,,,0,0,
      */
-    def parseResponse(resp: String): (Set[UUID], Set[UUID]) = {
-        val upNodes = new mutable.HashSet[UUID]()
-        val downNodes = new mutable.HashSet[UUID]()
-
-        def isMemberEntry(entry: Array[String]): Boolean =
-            entry.length > StatusPos &&
-              entry(NamePos) != Backend &&
-              entry(NamePos) != Frontend &&
-              entry(NamePos) != FieldName
-
-        def isUp(entry: Array[String]) =
-            isMemberEntry(entry) && entry(StatusPos) == StatusUp
-
-        def isDown(entry: Array[String]) =
-            isMemberEntry(entry) && entry(StatusPos) == StatusDown
-
-        val entries = resp split "\n" map (_.split(","))
-        entries foreach {
-            case entry if isUp(entry) =>
-                upNodes add UUID.fromString(entry(NamePos))
-            case entry if isDown(entry) =>
-                downNodes add UUID.fromString(entry(NamePos))
-            case _ => // Nothing we care about
+    def parseResponse(resp: String): (Set[UUID], Set[UUID]) =
+        parseResponse(ByteBuffer.wrap(resp.getBytes(StandardCharsets.US_ASCII)))
+
+    /*
+     * Same as above, but parses the response from the remaining bytes of
+     * the buffer. The lines are scanned in place for the name and status
+     * fields, without splitting the response into strings.
+     */
+    def parseResponse(buf: ByteBuffer): (Set[UUID], Set[UUID]) = {
+        val upNodes = Set.newBuilder[UUID]
+        val downNodes = Set.newBuilder[UUID]
+
+        var lineStart = buf.position()
+        while (lineStart < buf.limit()) {
+            var nameStart = -1
+            var nameEnd = -1
+            var statusStart = -1
+            var statusEnd = -1
+            var field = 0
+            var fieldStart = lineStart
+            var pos = lineStart
+            while (pos < buf.limit() && buf.get(pos) != '\n') {
+                if (buf.get(pos) == ',') {
+                    if (field == NamePos) {
+                        nameStart = fieldStart
+                        nameEnd = pos
+                    } else if (field == StatusPos) {
+                        statusStart = fieldStart
+                        statusEnd = pos
+                    }
+                    field += 1
+                    fieldStart = pos + 1
+                }
+                pos += 1
+            }
+            if (field == StatusPos) {
+                statusStart = fieldStart
+                statusEnd = pos
+            }
+
+            if (statusStart >= 0 && statusEnd > statusStart &&
+                !equalsAscii(buf, nameStart, nameEnd, Backend) &&
+                !equalsAscii(buf, nameStart, nameEnd, Frontend) &&
+                !equalsAscii(buf, nameStart, nameEnd, FieldName)) {
+                if (equalsAscii(buf, statusStart, statusEnd, StatusUp)) {
+                    upNodes += parseUuid(buf, nameStart, nameEnd)
+                } else if (equalsAscii(buf, statusStart, statusEnd,
+                                       StatusDown)) {
+                    downNodes += parseUuid(buf, nameStart, nameEnd)
+                }
+            }
+            lineStart = pos + 1
+        }
+        (upNodes.result(), downNodes.result())
+    }
+
+    private def equalsAscii(buf: ByteBuffer, start: Int, end: Int,
+                            value: String): Boolean = {
+        if (end - start != value.length) {
+            return false
+        }
+        var index = 0
+        while (index < value.length) {
+            if (buf.get(start + index) != value.charAt(index)) {
+                return false
+            }
+            index += 1
         }
-        (upNodes.toSet, downNodes.toSet)
+        true
+    }
+
+    /*
+     * Parses a UUID in the canonical form from the buffer, falling back to
+     * UUID.fromString for any other form.
+     */
+    private def parseUuid(buf: ByteBuffer, start: Int, end: Int): UUID = {
+        // Returns the value of the hex digits, or -1 if there is any
+        // invalid digit.
+        def parseHex(from: Int, to: Int): Long = {
+            var result = 0L
+            var pos = from
+            while (pos < to) {
+                val digit = Character.digit(buf.get(pos).toChar, 16)
+                if (digit < 0) {
+                    return -1L
+                }
+                result = (result << 4) | digit
+                pos += 1
+            }
+            result
+        }
+        if (end - start == 36 && buf.get(start + 8) == '-' &&
+            buf.get(start + 13) == '-' && buf.get(start + 18) == '-' &&
+            buf.get(start + 23) == '-') {
+            val g1 = parseHex(start, start + 8)
+            val g2 = parseHex(start + 9, start + 13)
+            val g3 = parseHex(start + 14, start + 18)
+            val g4 = parseHex(start + 19, start + 23)
+            val g5 = parseHex(start + 24, start + 36)
+            if (g1 >= 0 && g2 >= 0 && g3 >= 0 && g4 >= 0 && g5 >= 0) {
+                return new UUID((g1 << 32) | (g2 << 16) | g3, (g4 << 48) | g5)
+            }
+        }
+        val bytes = new Array[Byte](end - start)
+        var index = 0
+        while (index < bytes.length) {
+            bytes(index) = buf.get(start + index)
+            index += 1
+        }
+        UUID.fromString(new String(bytes, StandardCharsets.US_ASCII))
     }
 }
 
@@ -167,7 +257,8 @@ class HaproxyHealthMonitor(var config: PoolConfig,
                            var routerId: UUID,
                            val store: Storage,
                            val hostId: UUID,
-                           val seqDispenser: SequenceDispenser)
+                           val seqDispenser: SequenceDispenser,
+                           val statsPoller: HaproxyStatsPoller)
     extends Actor with ActorLogWithoutPath with Stash {
 
 
@@ -211,7 +302,7 @@ class HaproxyHealthMonitor(var config: PoolConfig,
             hookNamespaceToRouter()
             restartHaproxy(healthMonitorName, config.haproxyConfFileLoc,
                            config.haproxyPidFileLoc)
-            system.scheduler.scheduleOnce(1 second, self, CheckHealth)
+            startHealthCheck()
             setPoolMappingStatus(config.id, ACTIVE, rethrowException = true)
         } catch {
             case NonFatal(e) =>
@@ -223,6 +314,7 @@ class HaproxyHealthMonitor(var config: PoolConfig,
     }
 
     override def postStop(): Unit = {
+        statsPoller.unregister(config.id)
         unhookNamespaceFromRouter()
         HealthMonitor.cleanAndDeleteNamespace(healthMonitorName,
                                               config.nsPostFix,
@@ -272,24 +364,29 @@ class HaproxyHealthMonitor(var config: PoolConfig,
                 config = conf
             }
 
-        case CheckHealth =>
+        case MembersHealth(upNodes, downNodes) =>
             try {
-                val statusInfo = getHaproxyStatus(config.haproxySockFileLoc)
-                val (upNodes, downNodes) = parseResponse(statusInfo)
                 val newUpNodes = upNodes diff currentUpNodes
                 val newDownNodes = downNodes diff currentDownNodes
 
-                setMembersStatus(newUpNodes, newDownNodes)
+                if (newUpNodes.nonEmpty || newDownNodes.nonEmpty) {
+                    setMembersStatus(newUpNodes, newDownNodes)
+                }
                 currentUpNodes = upNodes
                 currentDownNodes = downNodes
             } catch {
                 case NonFatal(e) =>
-                    log.info("Unable to retrieve health information for "
+                    log.info("Unable to update the member status for "
                               + config.haproxySockFileLoc)
                     setPoolMappingStatus(config.id, ERROR)
                     manager ! SockReadFailure
             }
-            system.scheduler.scheduleOnce(1 second, self, CheckHealth)
+
+        case HealthCheckFailed(e) =>
+            log.info("Unable to retrieve health information for "
+                      + config.haproxySockFileLoc)
+            setPoolMappingStatus(config.id, ERROR)
+            manager ! SockReadFailure
 
         case RouterAdded(newRouterId) =>
             routerId = newRouterId
@@ -314,6 +411,23 @@ class HaproxyHealthMonitor(var config: PoolConfig,
             }
     }
 
+    /**
+      * Registers the pool with the stats poller, which notifies this actor
+      * whenever the status of the pool members changes.
+      */
+    private def startHealthCheck(): Unit = {
+        val monitor = self
+        statsPoller.register(config.id, config.haproxySockFileLoc,
+                             new HaproxyStatsPoller.Listener {
+            override def onStatus(upNodes: Set[UUID],
+                                  downNodes: Set[UUID]): Unit =
+                monitor ! MembersHealth(upNodes, downNodes)
+
+            override def onFailure(e: Throwable): Unit =
+                monitor ! HealthCheckFailed(e)
+        })
+    }
+
     /**
       * Sets the health status of active and inactive pool members.
       */
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.l4lb
+
+import java.io.{File, IOException}
+import java.net.SocketTimeoutException
+import java.nio.ByteBuffer
+import java.nio.channels.{ClosedChannelException, ClosedSelectorException,
+                          SelectionKey, Selector}
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.TimeUnit
+
+import scala.concurrent.duration._
+
+import org.midonet.netlink.{Netlink, UnixDomainChannel}
+import org.midonet.util.AfUnix
+
+object HaproxyStatsConnection {
+    final val Prompt = "prompt\n"
+    final val InitialBufferSize = 16384
+    final val DefaultTimeout = 5 seconds
+
+    private val PromptBytes = Prompt.getBytes(StandardCharsets.US_ASCII)
+    private val ShowStatBytes =
+        HaproxyHealthMonitor.ShowStat.getBytes(StandardCharsets.US_ASCII)
+}
+
+/**
+ * A persistent connection to the stats socket of an haproxy instance. By
+ * default, haproxy closes the stats connection after every command, and the
+ * connection enters the interactive mode with the `prompt` command, such that
+ * it remains open, and haproxy terminates the output of every command with a
+ * new line and the `> ` prompt.
+ *
+ * The connection is opened on the first request, and it is re-opened once if
+ * a request on an existing connection fails, since haproxy closes idle
+ * connections after the stats timeout. A request fails with a
+ * [[SocketTimeoutException]] if haproxy does not reply within the `timeout`,
+ * in which case the connection is not re-opened.
+ *
+ * This class is not thread-safe, except for the [[close()]] method, which
+ * may be called from any thread to abort a pending request.
+ */
+class HaproxyStatsConnection(path: String,
+                             timeout: FiniteDuration =
+                                 HaproxyStatsConnection.DefaultTimeout) {
+
+    import HaproxyStatsConnection._
+
+    @volatile private var channel: UnixDomainChannel = null
+    @volatile private var selector: Selector = null
+    private var buffer = ByteBuffer.allocate(InitialBufferSize)
+
+    def isConnected: Boolean = channel ne null
+
+    /**
+     * Requests the statistics from haproxy. The returned buffer contains the
+     * CSV output of the `show stat` command, without the prompt, and it is
+     * valid until the next call.
+     */
+    @throws[IOException]
+    def showStat(): ByteBuffer = {
+        if (isConnected) {
+            try {
+                return request(ShowStatBytes)
+            } catch {
+                case e: SocketTimeoutException =>
+                    close()
+                    throw e
+                case e: IOException => close()
+            }
+        }
+        connect()
+        try {
+            request(ShowStatBytes)
+        } catch {
+            case e: IOException =>
+                close()
+                throw e
+        }
+    }
+
+    /** Closes the connection, aborting a pending request. */
+    def close(): Unit = {
+        val current = channel
+        val currentSelector = selector
+        channel = null
+        selector = null
+        if (current ne null) {
+            try current.close()
+            catch { case e: IOException => }
+        }
+        if (currentSelector ne null) {
+            try currentSelector.close()
+            catch { case e: IOException => }
+        }
+    }
+
+    @throws[IOException]
+    private def connect(): Unit = {
+        val channel = Netlink.selectorProvider()
+            .openUnixDomainSocketChannel(AfUnix.Type.SOCK_STREAM)
+        this.channel = channel
+        try {
+            channel.connect(
+                new AfUnix.Address(new File(path).getAbsolutePath))
+            channel.configureBlocking(false)
+            val selector = Netlink.selectorProvider().openSelector()
+            this.selector = selector
+            channel.register(selector, SelectionKey.OP_READ)
+            request(PromptBytes)
+        } catch {
+            case e: IOException =>
+                close()
+                throw e
+        }
+    }
+
+    /** Writes a command and reads its output until the prompt, waiting for
+      * the output at most until the timeout. */
+    @throws[IOException]
+    private def request(command: Array[Byte]): ByteBuffer = {
+        val deadline = System.nanoTime() + timeout.toNanos
+        val channel = this.channel
+        val selector = this.selector
+        if ((channel eq null) || (selector eq null)) {
+            throw new ClosedChannelException
+        }
+        val wb = ByteBuffer.wrap(command)
+        while (wb.hasRemaining) {
+            if (channel.write(wb) < 0) {
+                throw new IOException("Failed to write to the haproxy " +
+                                      s"stats socket $path")
+            }
+            checkDeadline(deadline)
+        }
+
+        buffer.clear()
+        while (!endsWithPrompt) {
+            if (!buffer.hasRemaining) {
+                val larger = ByteBuffer.allocate(buffer.capacity * 2)
+                buffer.flip()
+                larger.put(buffer)
+                buffer = larger
+            }
+            val read = channel.read(buffer)
+            if (read < 0) {
+                throw new IOException(s"Haproxy closed the stats socket $path")
+            } else if (read == 0) {
+                try {
+                    selector.select(Math.max(checkDeadline(deadline), 1L))
+                    selector.selectedKeys().clear()
+                } catch {
+                    case e: ClosedSelectorException =>
+                        throw new ClosedChannelException
+                }
+            }
+        }
+        buffer.flip()
+        buffer.limit(buffer.limit - 2)
+        buffer
+    }
+
+    /** Returns the milliseconds until the deadline, or throws a
+      * [[SocketTimeoutException]] if the deadline has passed. */
+    @throws[SocketTimeoutException]
+    private def checkDeadline(deadline: Long): Long = {
+        val remaining = deadline - System.nanoTime()
+        if (remaining <= 0) {
+            throw new SocketTimeoutException(
+                s"Haproxy did not reply on the stats socket $path within " +
+                s"$timeout")
+        }
+        TimeUnit.NANOSECONDS.toMillis(remaining)
+    }
+
+    private def endsWithPrompt: Boolean = {
+        val position = buffer.position
+        position >= 2 && buffer.get(position - 2) == '>' &&
+            buffer.get(position - 1) == ' ' &&
+            (position == 2 || buffer.get(position - 3) == '\n')
+    }
+}
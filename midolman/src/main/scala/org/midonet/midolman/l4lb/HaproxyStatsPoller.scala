@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.l4lb
+
+import java.util.UUID
+import java.util.concurrent._
+
+import scala.collection.JavaConverters._
+import scala.concurrent.duration._
+import scala.util.control.NonFatal
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+
+import org.midonet.midolman.l4lb.HaproxyHealthMonitor.parseResponse
+
+object HaproxyStatsPoller {
+
+    /** The minimum time to wait for the reply of haproxy. */
+    final val MinTimeout = 1 second
+
+    /** Receives the member status of a pool from the poller. The methods are
+      * called from the poller threads. */
+    trait Listener {
+        /** Called with the UP and DOWN members of the pool, on the first
+          * successful poll and whenever the status of the members changes. */
+        def onStatus(upNodes: Set[UUID], downNodes: Set[UUID]): Unit
+
+        /** Called when a poll fails. The poller keeps polling the pool, and
+          * it notifies the status on the next successful poll. */
+        def onFailure(e: Throwable): Unit
+    }
+}
+
+/**
+ * Polls the stats sockets of the haproxy instances of all pools from a small
+ * pool of threads. Every pool keeps a persistent [[HaproxyStatsConnection]],
+ * and it is polled with a fixed delay of `interval`, starting after a random
+ * jitter such that the polls of many pools are spread over the interval. The
+ * poller notifies a pool listener only when the member status changes.
+ *
+ * A poll fails if haproxy does not reply within the interval, or within
+ * [[MinTimeout]] for shorter intervals, such that a hung haproxy instance does
+ * not block a poller thread shared with other pools.
+ */
+class HaproxyStatsPoller(threads: Int, interval: FiniteDuration) {
+
+    import HaproxyStatsPoller._
+
+    private val timeout = interval max MinTimeout
+
+    /**
+      * The poll of a pool. The poll runs on one poller thread at a time, and
+      * it may be cancelled from any thread: cancelling closes the connection
+      * without waiting for a pending request, which then fails.
+      */
+    private class Poll(path: String, listener: Listener) extends Runnable {
+        private val connection = new HaproxyStatsConnection(path, timeout)
+        private var upNodes: Set[UUID] = null
+        private var downNodes: Set[UUID] = null
+        @volatile private var cancelled = false
+        @volatile var future: ScheduledFuture[_] = null
+
+        override def run(): Unit = {
+            val status = synchronized {
+                if (cancelled) {
+                    return
+                }
+                try {
+                    val response = connection.showStat()
+                    if (cancelled) {
+                        connection.close()
+                        return
+                    }
+                    val (up, down) = parseResponse(response)
+                    if (up != upNodes || down != downNodes) {
+                        upNodes = up
+                        downNodes = down
+                        Right((up, down))
+                    } else {
+                        return
+                    }
+                } catch {
+                    case NonFatal(e) if cancelled =>
+                        return
+                    case NonFatal(e) =>
+                        connection.close()
+                        upNodes = null
+                        downNodes = null
+                        Left(e)
+                }
+            }
+            status match {
+                case Right((up, down)) => listener.onStatus(up, down)
+                case Left(e) => listener.onFailure(e)
+            }
+        }
+
+        def cancel(): Unit = {
+            if (future ne null) {
+                future.cancel(false)
+            }
+            cancelled = true
+            connection.close()
+        }
+    }
+
+    private val executor = new ScheduledThreadPoolExecutor(
+        threads, new ThreadFactoryBuilder()
+            .setNameFormat("haproxy-stats-poller-%d")
+            .setDaemon(true)
+            .build())
+    executor.setRemoveOnCancelPolicy(true)
+
+    private val polls = new ConcurrentHashMap[UUID, Poll]()
+
+    /**
+     * Starts polling the haproxy stats socket at the given path for the
+     * specified pool. The first poll happens after one interval plus a
+     * random jitter, giving haproxy the time to start. If the pool is
+     * already registered, the previous registration is cancelled.
+     */
+    def register(poolId: UUID, path: String, listener: Listener): Unit = {
+        val poll = new Poll(path, listener)
+        val previous = polls.put(poolId, poll)
+        if (previous ne null) {
+            previous.cancel()
+        }
+        val period = Math.max(interval.toMillis, 1L)
+        val jitter = ThreadLocalRandom.current().nextLong(period)
+        poll.future = executor.scheduleWithFixedDelay(
+            poll, period + jitter, period, TimeUnit.MILLISECONDS)
+    }
+
+    /** Stops polling the haproxy instance of the specified pool. */
+    def unregister(poolId: UUID): Unit = {
+        val poll = polls.remove(poolId)
+        if (poll ne null) {
+            poll.cancel()
+        }
+    }
+
+    /** Returns the number of polled pools. */
+    def size: Int = polls.size
+
+    /** Stops polling all pools and shuts down the poller threads. */
+    def shutdown(): Unit = {
+        for (poll <- polls.values.asScala) {
+            poll.cancel()
+        }
+        polls.clear()
+        executor.shutdownNow()
+    }
+}
@@ -210,6 +210,9 @@ class HealthMonitor @Inject() (config: MidolmanConfig,
 
     val seqDispenser = new SequenceDispenser(curator, backendCfg)
 
+    val statsPoller = new HaproxyStatsPoller(config.healthMonitor.pollThreads,
+                                             config.healthMonitor.pollInterval)
+
     private var watcher: ActorRef = null
 
     val ipCom = HealthMonitor.ipCommand
@@ -243,6 +246,10 @@ class HealthMonitor @Inject() (config: MidolmanConfig,
         }
     }
 
+    override def postStop(): Unit = {
+        statsPoller.shutdown()
+    }
+
     override def preStart(): Unit = {
         if (config.healthMonitor.namespaceCleanup) {
             cleanupNamespaces()
@@ -345,7 +352,7 @@ class HealthMonitor @Inject() (config: MidolmanConfig,
         context.actorOf(
             Props(
                 new HaproxyHealthMonitor(config, self, routerId, store, hostId,
-                                         seqDispenser)
+                                         seqDispenser, statsPoller)
             ).withDispatcher(context.props.dispatcher),
             config.id.toString)
     }
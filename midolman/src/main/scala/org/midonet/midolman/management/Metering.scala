@@ -31,8 +31,7 @@ object Metering extends MeteringMXBean {
     private val Log =
         Logger(LoggerFactory.getLogger("org.midonet.midolman.management"))
 
-    private var registries = List[MeterRegistry]()
-    @volatile private var flowMeters: Array[FlowMeters] = _
+    @volatile private var registries = List[MeterRegistry]()
 
     override def listMeters = {
         val keys = new util.HashSet[String]
@@ -42,7 +41,7 @@ object Metering extends MeteringMXBean {
 
     override def getMeter(name: String) = {
         registries.foldLeft(new FlowStats()) { (acc, r) =>
-            val meter = r.meters.get(name)
+            val meter = r.meter(name)
             if (meter ne null)
                 acc.add(meter)
             acc
@@ -50,16 +49,12 @@ object Metering extends MeteringMXBean {
     }
 
     override def getMeters: Array[FlowMeters] = {
-        var meters = flowMeters
         val r = registries
-        if ((meters eq null) || meters.length < r.length) {
-            meters = new Array[FlowMeters](r.length)
-            var index = 0
-            while (index < meters.length) {
-                meters(index) = new FlowMeters(index, r(index).meters)
-                index += 1
-            }
-            flowMeters = meters
+        val meters = new Array[FlowMeters](r.length)
+        var index = 0
+        while (index < meters.length) {
+            meters(index) = new FlowMeters(index, r(index).meters)
+            index += 1
         }
         meters
     }
@@ -23,22 +23,6 @@ import scala.beans.BeanProperty
 import org.midonet.odp.FlowMatch
 import org.midonet.packets.{IPAddr, MAC}
 
-object FieldMatch {
-    def apply[T](v: T): FieldMatch[T] = if (v == null) UnsetMatch else SetMatch(v)
-}
-
-abstract class FieldMatch[+T] {
-    def apply[U >: T](value: U): Boolean
-}
-
-case class SetMatch[+T](expected: T) extends FieldMatch[T] {
-    override def apply[U >: T](value: U) = expected == value
-}
-
-case object UnsetMatch extends FieldMatch[Nothing] {
-    override def apply[T >: Nothing](value: T) = true
-}
-
 case class PacketTracer @ConstructorProperties(
         Array("etherType", "srcMac", "dstMac", "ipProto",
               "ipSrc", "ipDst", "srcPort", "dstPort", "level", "limit")) (
@@ -53,14 +37,10 @@ case class PacketTracer @ConstructorProperties(
         @BeanProperty level: LogLevel = LogLevel.DEBUG,
         @BeanProperty limit: Int = 1) {
 
-    val etherTypeMatch = FieldMatch(etherType)
-    val srcMacMatch = FieldMatch(if (srcMac ne null) MAC.fromString(srcMac) else null)
-    val dstMacMatch = FieldMatch(if (dstMac ne null) MAC.fromString(dstMac) else null)
-    val ipProtoMatch = FieldMatch(ipProto)
-    val ipSrcMatch = FieldMatch(if (ipSrc ne null) IPAddr.fromString(ipSrc) else null)
-    val ipDstMatch = FieldMatch(if (ipDst ne null) IPAddr.fromString(ipDst) else null)
-    val srcPortMatch = FieldMatch(srcPort)
-    val dstPortMatch = FieldMatch(dstPort)
+    val srcMacAddr = if (srcMac ne null) MAC.fromString(srcMac) else null
+    val dstMacAddr = if (dstMac ne null) MAC.fromString(dstMac) else null
+    val ipSrcAddr = if (ipSrc ne null) IPAddr.fromString(ipSrc) else null
+    val ipDstAddr = if (ipDst ne null) IPAddr.fromString(ipDst) else null
 
     private val matches = new AtomicInteger(0)
 
@@ -68,16 +48,21 @@ case class PacketTracer @ConstructorProperties(
 
     def isAlive: Boolean = matches.get() < limit
 
+    /**
+      * Tests whether the tracer is alive and matches the given flow match,
+      * comparing only the fields set in the tracer, without boxing the
+      * fields of the flow match.
+      */
     def matches(wmatch: FlowMatch): Boolean = {
         isAlive &&
-        etherTypeMatch(wmatch.getEtherType) &&
-        srcMacMatch(wmatch.getEthSrc) &&
-        dstMacMatch(wmatch.getEthDst) &&
-        ipProtoMatch(wmatch.getNetworkProto) &&
-        ipSrcMatch(wmatch.getNetworkSrcIP) &&
-        ipDstMatch(wmatch.getNetworkDstIP) &&
-        srcPortMatch(wmatch.getSrcPort) &&
-        dstPortMatch(wmatch.getDstPort)
+        ((etherType eq null) || etherType.shortValue == wmatch.getEtherType) &&
+        ((srcMacAddr eq null) || srcMacAddr == wmatch.getEthSrc) &&
+        ((dstMacAddr eq null) || dstMacAddr == wmatch.getEthDst) &&
+        ((ipProto eq null) || ipProto.byteValue == wmatch.getNetworkProto) &&
+        ((ipSrcAddr eq null) || ipSrcAddr == wmatch.getNetworkSrcIP) &&
+        ((ipDstAddr eq null) || ipDstAddr == wmatch.getNetworkDstIP) &&
+        ((srcPort eq null) || srcPort.intValue == wmatch.getSrcPort) &&
+        ((dstPort eq null) || dstPort.intValue == wmatch.getDstPort)
     }
 
 
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.management
+
+import java.util.{Arrays, HashMap => JHashMap, TreeMap => JTreeMap}
+
+import org.midonet.odp.FlowMatch
+
+object PacketTracerMatcher {
+
+    private final val NoMatch = Int.MaxValue
+
+    val Empty = new PacketTracerMatcher(List.empty)
+
+    /**
+      * The tracer indices of a bucket, in ascending order, such that the
+      * first tracer of a bucket matching a packet is the bucket's first.
+      */
+    private def add[K](buckets: java.util.Map[K, Array[Int]], key: K,
+                       index: Int): Unit = {
+        val bucket = buckets.get(key)
+        buckets.put(key, if (bucket eq null) Array(index) else bucket :+ index)
+    }
+
+    /**
+      * The buckets of a transport port field, stored as a sorted array of
+      * ports and the tracer indices of each port, which are looked up with
+      * a binary search to avoid boxing the port.
+      */
+    private class PortBuckets(ports: JTreeMap[Integer, Array[Int]]) {
+        val keys = new Array[Int](ports.size)
+        val buckets = new Array[Array[Int]](ports.size)
+
+        {
+            var i = 0
+            val it = ports.entrySet.iterator
+            while (it.hasNext) {
+                val entry = it.next()
+                keys(i) = entry.getKey
+                buckets(i) = entry.getValue
+                i += 1
+            }
+        }
+
+        def apply(port: Int): Array[Int] = {
+            val i = Arrays.binarySearch(keys, port)
+            if (i >= 0) buckets(i) else null
+        }
+    }
+}
+
+/**
+  * Matches packets against a set of packet tracers, which are compiled into
+  * buckets indexed by one of their fields when the set changes: the network
+  * source or destination address, the source or destination MAC address, or
+  * the source or destination transport port, in this order of preference.
+  * A packet is only tested against the tracers in the buckets of its field
+  * values and the tracers that set none of these fields, such that the cost
+  * of matching a packet does not grow with the number of tracers for other
+  * flows. Matching does not allocate, and it is a single check when there
+  * are no tracers.
+  *
+  * When several tracers match a packet, the matcher returns the first in the
+  * order of the given list, as testing the tracers one by one would.
+  */
+final class PacketTracerMatcher(tracers: List[PacketTracer]) {
+
+    import PacketTracerMatcher._
+
+    private val all = tracers.toArray
+
+    private val ipSrcBuckets = new JHashMap[AnyRef, Array[Int]]()
+    private val ipDstBuckets = new JHashMap[AnyRef, Array[Int]]()
+    private val srcMacBuckets = new JHashMap[AnyRef, Array[Int]]()
+    private val dstMacBuckets = new JHashMap[AnyRef, Array[Int]]()
+    private val srcPorts = new JTreeMap[Integer, Array[Int]]()
+    private val dstPorts = new JTreeMap[Integer, Array[Int]]()
+    private var others = Array.empty[Int]
+
+    {
+        var index = 0
+        while (index < all.length) {
+            val tracer = all(index)
+            if (tracer.ipSrcAddr ne null)
+                add(ipSrcBuckets, tracer.ipSrcAddr, index)
+            else if (tracer.ipDstAddr ne null)
+                add(ipDstBuckets, tracer.ipDstAddr, index)
+            else if (tracer.srcMacAddr ne null)
+                add(srcMacBuckets, tracer.srcMacAddr, index)
+            else if (tracer.dstMacAddr ne null)
+                add(dstMacBuckets, tracer.dstMacAddr, index)
+            else if (tracer.srcPort ne null)
+                add(srcPorts, tracer.srcPort, index)
+            else if (tracer.dstPort ne null)
+                add(dstPorts, tracer.dstPort, index)
+            else
+                others :+= index
+            index += 1
+        }
+    }
+
+    private val srcPortBuckets = new PortBuckets(srcPorts)
+    private val dstPortBuckets = new PortBuckets(dstPorts)
+    private val unindexed = others
+
+    private val hasIpSrc = !ipSrcBuckets.isEmpty
+    private val hasIpDst = !ipDstBuckets.isEmpty
+    private val hasSrcMac = !srcMacBuckets.isEmpty
+    private val hasDstMac = !dstMacBuckets.isEmpty
+    private val hasSrcPort = srcPortBuckets.keys.length > 0
+    private val hasDstPort = dstPortBuckets.keys.length > 0
+
+    /** Whether the matcher has no tracers. */
+    val isEmpty: Boolean = all.isEmpty
+
+    /** The number of tracers of the matcher. */
+    def size: Int = all.length
+
+    /**
+      * Returns the first live tracer matching the given flow match, or null
+      * if no tracer matches. The fields read by the matcher, that is the
+      * indexed fields and the fields compared by the tracers of the matching
+      * buckets, are marked as seen, such that the flow of a packet that a
+      * tracer does not match does not include the packets it matches. When
+      * there are no tracers, no field is read.
+      */
+    def matchFor(fmatch: FlowMatch): PacketTracer = {
+        if (isEmpty)
+            return null
+
+        var first = firstIn(unindexed, fmatch, NoMatch)
+        if (hasIpSrc)
+            first = firstIn(ipSrcBuckets.get(fmatch.getNetworkSrcIP),
+                            fmatch, first)
+        if (hasIpDst)
+            first = firstIn(ipDstBuckets.get(fmatch.getNetworkDstIP),
+                            fmatch, first)
+        if (hasSrcMac)
+            first = firstIn(srcMacBuckets.get(fmatch.getEthSrc), fmatch, first)
+        if (hasDstMac)
+            first = firstIn(dstMacBuckets.get(fmatch.getEthDst), fmatch, first)
+        if (hasSrcPort)
+            first = firstIn(srcPortBuckets(fmatch.getSrcPort), fmatch, first)
+        if (hasDstPort)
+            first = firstIn(dstPortBuckets(fmatch.getDstPort), fmatch, first)
+        if (first == NoMatch) null else all(first)
+    }
+
+    private def firstIn(bucket: Array[Int], fmatch: FlowMatch,
+                        first: Int): Int = {
+        if (bucket eq null)
+            return first
+        var i = 0
+        while (i < bucket.length && bucket(i) < first) {
+            if (all(bucket(i)).matches(fmatch))
+                return bucket(i)
+            i += 1
+        }
+        first
+    }
+}
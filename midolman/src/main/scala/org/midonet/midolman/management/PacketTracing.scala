@@ -31,48 +31,63 @@ object PacketTracing extends PacketTracingMXBean {
     val log = Logger(LoggerFactory.getLogger("org.midonet.midolman.management"))
 
     @volatile
-    var tracers: List[PacketTracer] = List.empty
+    private var matcher = PacketTracerMatcher.Empty
+
+    @volatile
+    private var _tracers: List[PacketTracer] = List.empty
+
+    def tracers: List[PacketTracer] = _tracers
+
+    /**
+      * Replaces the tracers, compiling them into the matcher used by the
+      * packet workers. The tracers are only changed through JMX, so the
+      * matcher is rebuilt rarely.
+      */
+    private def tracers_=(tracers: List[PacketTracer]): Unit = synchronized {
+        _tracers = tracers
+        matcher = new PacketTracerMatcher(tracers)
+    }
 
     override def getLiveTracers = tracers.filter(_.isAlive).toArray
 
     override def getTracers = tracers.toArray
 
-    override def addTracer(tracer: PacketTracer) {
+    override def addTracer(tracer: PacketTracer): Unit = synchronized {
         tracers ::= tracer
     }
 
-    override def removeTracer(tracer: PacketTracer) = {
+    override def removeTracer(tracer: PacketTracer) = synchronized {
         val oldSize = tracers.size
         tracers = tracers filterNot { _ == tracer }
         oldSize - tracers.size
     }
 
-    override def flush() = {
+    override def flush() = synchronized {
         val num = tracers.size
         tracers = List.empty
         num
     }
 
-    override def flushDeadTracers() = {
+    override def flushDeadTracers() = synchronized {
         val oldSize = tracers.size
         tracers = tracers filter { _.isAlive }
         oldSize - tracers.size
     }
 
     def loggerFor(wcmatch: FlowMatch): Logger = {
-        val it = tracers.iterator
-        while (it.hasNext) {
-            val tracer = it.next()
-            if (tracer.matches(wcmatch)) {
-                tracer.matched()
-                return tracer.level match {
-                    case LogLevel.DEBUG => PacketContext.debugLog
-                    case LogLevel.TRACE => PacketContext.traceLog
-                }
-            }
+        val current = matcher
+        if (current.isEmpty)
+            return PacketContext.defaultLog
+
+        val tracer = current.matchFor(wcmatch)
+        if (tracer eq null)
+            return PacketContext.defaultLog
+
+        tracer.matched()
+        tracer.level match {
+            case LogLevel.DEBUG => PacketContext.debugLog
+            case LogLevel.TRACE => PacketContext.traceLog
         }
-
-        PacketContext.defaultLog
     }
 
     /* this flag prevents multiple registrations on the same jvm. this would
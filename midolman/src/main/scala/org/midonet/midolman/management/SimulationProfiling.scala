@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.management
+
+import java.lang.management._
+import java.util
+
+import javax.management._
+
+import com.typesafe.scalalogging.Logger
+
+import org.slf4j.LoggerFactory
+
+import org.midonet.management.{DeviceCost, SimulationProfilingMXBean}
+import org.midonet.midolman.monitoring.SimulationProfiler
+
+object SimulationProfiling extends SimulationProfilingMXBean {
+    private val Log =
+        Logger(LoggerFactory.getLogger("org.midonet.midolman.management"))
+
+    @volatile private var profilers = List[SimulationProfiler]()
+    @volatile private var samplingRate = 0.0
+    private var registered = false
+
+    override def getSamplingRate: Double = samplingRate
+
+    override def setSamplingRate(rate: Double): Unit = this.synchronized {
+        samplingRate = Math.max(0.0, Math.min(1.0, rate))
+        profilers foreach { _.samplingRate = samplingRate }
+        Log.info(s"Simulation profiling sampling rate set to $samplingRate")
+    }
+
+    override def getTopDevices(count: Int): Array[DeviceCost] =
+        SimulationProfiler.top(merge(_.deviceCosts(_)), count)
+
+    override def getTopRules(count: Int): Array[DeviceCost] =
+        SimulationProfiler.top(merge(_.ruleCosts(_)), count)
+
+    override def reset(): Unit = profilers foreach { _.reset() }
+
+    private def merge(read: (SimulationProfiler, util.ArrayList[DeviceCost]) => Unit)
+    : util.ArrayList[DeviceCost] = {
+        val costs = new util.ArrayList[DeviceCost]()
+        val merged = new util.HashMap[String, DeviceCost]()
+        for (profiler <- profilers) {
+            costs.clear()
+            read(profiler, costs)
+            val iterator = costs.iterator()
+            while (iterator.hasNext) {
+                val cost = iterator.next()
+                val total = merged.get(cost.id)
+                if (total eq null) {
+                    merged.put(cost.id, cost)
+                } else {
+                    total.add(cost.invocations, cost.nanos)
+                }
+            }
+        }
+        new util.ArrayList[DeviceCost](merged.values())
+    }
+
+    /**
+      * Adds a profiler to the JMX bean, registering the bean with the first
+      * profiler. The profiler samples at the current rate of the bean, which
+      * is initialized from the first profiler.
+      */
+    def registerAsMXBean(profiler: SimulationProfiler) = this.synchronized {
+        if (registered) {
+            profiler.samplingRate = samplingRate
+        } else {
+            samplingRate = profiler.samplingRate
+        }
+        profilers :+= profiler
+        if (!registered) try {
+            registered = true
+            ManagementFactory.getPlatformMBeanServer.registerMBean(this,
+                new ObjectName(SimulationProfilingMXBean.NAME))
+        } catch {
+            case e: Exception =>
+                Log.error("Failed to register simulation profiling JMX bean", e)
+        }
+    }
+
+    /** Removes the profiler of a stopped packet worker from the JMX bean. */
+    def unregister(profiler: SimulationProfiler): Unit = this.synchronized {
+        profilers = profilers filterNot { _ eq profiler }
+    }
+}
@@ -15,116 +15,240 @@
  */
 package org.midonet.midolman.monitoring
 
-import java.util.concurrent.ConcurrentHashMap
-import java.util.{ArrayList, HashMap => JHashMap}
+import java.util.{ArrayList, Arrays, HashMap => JHashMap, Map => JMap}
 
 import com.typesafe.scalalogging.Logger
 
 import org.slf4j.LoggerFactory
 
-import org.midonet.odp.FlowMatch
+import org.midonet.management.{FlowStats => JmxFlowStats}
+import org.midonet.midolman.flows.ManagedFlow
 import org.midonet.odp.flows.FlowStats
 import org.midonet.sdn.flows.FlowTagger.{FlowTag, MeterTag}
-import org.midonet.util.collection.ArrayObjectPool
-import org.midonet.management.{FlowStats => JmxFlowStats}
 
-class MeterRegistry(val maxFlows: Int) {
-    val log = Logger(LoggerFactory.getLogger("org.midonet.metering"))
+object MeterRegistry {
+
+    private final val InitialMeters = 64
+    private final val InitialTags = 1024
+
+    /**
+      * The counters of the meters of a registry, indexed by meter slot. The
+      * counters are only written by the thread of the registry, and they are
+      * replaced with larger copies when the registry discovers more meters
+      * than their capacity.
+      */
+    private final class Counters(val names: Array[String],
+                                 val packets: Array[Long],
+                                 val bytes: Array[Long]) {
+        def this(capacity: Int) =
+            this(new Array[String](capacity), new Array[Long](capacity),
+                 new Array[Long](capacity))
+
+        def capacity = names.length
+
+        def grow(): Counters =
+            new Counters(Arrays.copyOf(names, capacity * 2),
+                         Arrays.copyOf(packets, capacity * 2),
+                         Arrays.copyOf(bytes, capacity * 2))
+    }
+
+}
 
-    class FlowData {
-        val meters = new ArrayList[MeterTag](8)
-        val stats = new FlowStats()
+/**
+  * Accounts the packets and the bytes of the flows of a packet worker to the
+  * meters of their tags. The registry resolves the meter tags of a flow to
+  * meter slots when the flow is created, and keeps the slots and the last
+  * accounted statistics with the [[ManagedFlow]], such that recording the
+  * packets of a flow and folding in the statistics of a removed flow only
+  * index the counters by slot, without hashing the flow match or the meter
+  * names.
+  *
+  * The registry is owned by the packet worker thread, and it does not lock:
+  * the readers, such as the metering JMX bean, aggregate the counters into
+  * a map of meters when they call [[meters]], and they may observe counters
+  * that lag slightly behind the worker.
+  */
+class MeterRegistry {
+
+    import MeterRegistry._
 
-        def reset() {
-            stats.bytes = 0
-            stats.packets = 0
-            meters.clear()
-        }
-    }
+    val log = Logger(LoggerFactory.getLogger("org.midonet.metering"))
+
+    @volatile private var counters = new Counters(InitialMeters)
+    @volatile private var meterCount = 0
 
-    private val metadataPool = new ArrayObjectPool[FlowData]((maxFlows * 1.1).toInt,
-                                                              pool => new FlowData())
+    // The meter slot plus one of the meter tags resolved so far, indexed by
+    // the tag identifier, and the meter slots by meter name.
+    private var slotByTagId = new Array[Int](InitialTags)
+    private val slotByName = new JHashMap[String, Integer]()
 
-    val meters = new ConcurrentHashMap[String, JmxFlowStats]()
-    private val trackedFlows = new JHashMap[FlowMatch, FlowData]()
     private val DELTA = new FlowStats()
 
-    def trackFlow(flowMatch: FlowMatch, tags: ArrayList[FlowTag]): Unit = {
-        if (trackedFlows.containsKey(flowMatch))
-            return
+    /**
+      * Returns a snapshot of the meters of this registry, by meter name.
+      */
+    def meters: JMap[String, JmxFlowStats] = {
+        val count = meterCount
+        val current = counters
+        val meters = new JHashMap[String, JmxFlowStats](count * 2)
+        var slot = 0
+        while (slot < count) {
+            meters.put(current.names(slot),
+                       new JmxFlowStats(current.packets(slot),
+                                        current.bytes(slot)))
+            slot += 1
+        }
+        meters
+    }
 
-        var metadata = metadataPool.take
-        if (metadata eq null)
-            metadata = metadataPool.factory(metadataPool)
+    /**
+      * Returns the stats of the given meter, or null if the registry has not
+      * discovered the meter.
+      */
+    def meter(name: String): JmxFlowStats = {
+        val count = meterCount
+        val current = counters
+        var slot = 0
+        while (slot < count) {
+            if (current.names(slot) == name)
+                return new JmxFlowStats(current.packets(slot),
+                                        current.bytes(slot))
+            slot += 1
+        }
+        null
+    }
 
-        metadata.reset()
+    /** The number of meters discovered by this registry. */
+    def size: Int = meterCount
 
+    /**
+      * Resolves the meter tags of a new flow to meter slots, which are kept
+      * with the flow for the lifetime of the flow.
+      */
+    def trackFlow(flow: ManagedFlow): Unit = {
+        flow.meterCount = 0
+        flow.meteredStats.packets = 0
+        flow.meteredStats.bytes = 0
+
+        val tags = flow.tags
         var i = 0
         while (i < tags.size()) {
             tags.get(i) match {
-                case meter: MeterTag =>
-                    metadata.meters add meter
-                    if (meters.containsKey(meter.meterName)) {
-                        log.debug(s"tracking a new flow for meter ${meter.meterName}")
-                    } else {
-                        meters.put(meter.meterName, new JmxFlowStats())
-                        log.debug(s"discovered a new meter: ${meter.meterName}")
-                    }
+                case meter: MeterTag => flow.addMeter(slotOf(meter))
                 case _ => // Do nothing
             }
             i += 1
         }
+        log.debug(s"new flow is associated with ${flow.meterCount} meters")
+    }
 
-        log.debug(s"new flow is associated with ${metadata.meters.size} meters")
-        if (metadata.meters.size() > 0)
-            trackedFlows.put(flowMatch, metadata)
-        else
-            metadataPool.offer(metadata)
+    /**
+      * Records a packet of a flow to the meters of the flow.
+      */
+    def recordPacket(packetLen: Int, flow: ManagedFlow): Unit = {
+        val current = counters
+        val slots = flow.meterSlots
+        var i = 0
+        while (i < flow.meterCount) {
+            val slot = slots(i)
+            current.packets(slot) += 1
+            current.bytes(slot) += packetLen
+            i += 1
+        }
     }
 
+    /**
+      * Records a packet that did not install a flow to the meters of the
+      * given tags.
+      */
     def recordPacket(packetLen: Int, tags: ArrayList[FlowTag]): Unit = {
-        DELTA.packets = 1
-        DELTA.bytes = packetLen
-
         var i = 0
         while (i < tags.size()) {
             tags.get(i) match {
                 case meter: MeterTag =>
-                    if (meters.containsKey(meter.meterName)) {
-                        log.debug(s"adding a packet to meter: ${meter.meterName}")
-                        meters.get(meter.meterName).add(DELTA.packets, DELTA.bytes)
-                    } else {
-                        meters.put(meter.meterName, new JmxFlowStats(DELTA.packets, DELTA.bytes))
-                        log.debug(s"discovered a new meter: ${meter.meterName}")
-                    }
+                    val slot = slotOf(meter)
+                    val current = counters
+                    current.packets(slot) += 1
+                    current.bytes(slot) += packetLen
                 case _ => // Do nothing
             }
             i += 1
         }
     }
 
-    def updateFlow(flowMatch: FlowMatch, stats: FlowStats): Unit = {
-        val metadata = trackedFlows.get(flowMatch)
-        if (metadata ne null) {
-            metadata.stats.updateAndGetDelta(stats, DELTA)
-            if (DELTA.packets < 0) {
-                metadata.stats.packets = 0
-                metadata.stats.bytes = 0
-                metadata.stats.updateAndGetDelta(stats, DELTA)
-            }
-            var i = 0
-            while (i < metadata.meters.size()) {
-                val meterName = metadata.meters.get(i).meterName
-                log.debug(s"meter $meterName got ${DELTA.bytes} bytes / ${DELTA.packets} packets")
-                meters.get(meterName).add(DELTA.packets, DELTA.bytes)
-                i += 1
-            }
+    /**
+      * Folds the datapath statistics of a flow into its meters, accounting
+      * the difference since the last statistics of the flow.
+      */
+    def updateFlow(flow: ManagedFlow, stats: FlowStats): Unit = {
+        if (flow.meterCount == 0)
+            return
+
+        flow.meteredStats.updateAndGetDelta(stats, DELTA)
+        if (DELTA.packets < 0) {
+            flow.meteredStats.packets = 0
+            flow.meteredStats.bytes = 0
+            flow.meteredStats.updateAndGetDelta(stats, DELTA)
+        }
+        val current = counters
+        val slots = flow.meterSlots
+        var i = 0
+        while (i < flow.meterCount) {
+            val slot = slots(i)
+            current.packets(slot) += DELTA.packets
+            current.bytes(slot) += DELTA.bytes
+            i += 1
         }
     }
 
-    def forgetFlow(flowMatch: FlowMatch) {
-        val metadata = trackedFlows.remove(flowMatch)
-        if (metadata ne null)
-            metadataPool.offer(metadata)
+    /**
+      * Stops accounting the statistics of the flow to its meters.
+      */
+    def forgetFlow(flow: ManagedFlow): Unit = {
+        flow.meterCount = 0
+    }
+
+    /**
+      * Returns the meter slot of the meter tag. The slot is cached by tag
+      * identifier, and the cached slot is validated with the name of the
+      * meter, since the identifier of a collected tag may be reused.
+      */
+    private def slotOf(meter: MeterTag): Int = {
+        val canonical = meter.canonical.asInstanceOf[MeterTag]
+        val id = canonical.tagId
+        val name = canonical.meterName
+        if (id < slotByTagId.length) {
+            val slot = slotByTagId(id) - 1
+            if (slot >= 0 && (counters.names(slot) eq name))
+                return slot
+        } else {
+            slotByTagId = Arrays.copyOf(slotByTagId,
+                                        Math.max(slotByTagId.length * 2, id + 1))
+        }
+        val slot = slotOf(name)
+        slotByTagId(id) = slot + 1
+        slot
+    }
+
+    private def slotOf(name: String): Int = {
+        val existing = slotByName.get(name)
+        if (existing ne null) {
+            // Keep the name instance of the canonical tag, such that the
+            // next lookups of the tag validate the slot by reference.
+            counters.names(existing) = name
+            return existing
+        }
+
+        val slot = meterCount
+        var current = counters
+        if (slot == current.capacity) {
+            current = current.grow()
+            counters = current
+        }
+        current.names(slot) = name
+        slotByName.put(name, slot)
+        meterCount = slot + 1
+        log.debug(s"discovered a new meter: $name")
+        slot
     }
 }
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.monitoring
+
+import java.util.concurrent.ThreadLocalRandom
+import java.util.{ArrayList, Collections, Comparator, UUID}
+
+import org.midonet.management.DeviceCost
+import org.midonet.midolman.simulation.PacketContext
+import org.midonet.util.concurrent.NanoClock
+
+object SimulationProfiler {
+
+    final val Port: Byte = 0
+    final val Bridge: Byte = 1
+    final val Router: Byte = 2
+    final val Chain: Byte = 3
+    final val Rule: Byte = 4
+
+    final val TypeNames = Array("port", "bridge", "router", "chain", "rule")
+
+    final val NoSlot = -1
+
+    private final val DefaultCapacity = 16384
+
+    private val ByNanos = new Comparator[DeviceCost] {
+        override def compare(a: DeviceCost, b: DeviceCost): Int =
+            java.lang.Long.compare(b.nanos, a.nanos)
+    }
+
+    /**
+      * Returns the given number of costs with the highest time.
+      */
+    def top(costs: ArrayList[DeviceCost], count: Int): Array[DeviceCost] = {
+        Collections.sort(costs, ByNanos)
+        val result = new Array[DeviceCost](Math.min(count, costs.size()))
+        var index = 0
+        while (index < result.length) {
+            result(index) = costs.get(index)
+            index += 1
+        }
+        result
+    }
+
+    /**
+      * An open addressing table of the invocations and the time spent per
+      * device or rule identifier, using parallel primitive arrays such that
+      * recording a cost does not allocate. The table has a fixed capacity,
+      * and the identifiers that do not fit are not tracked. The table is
+      * updated by a single thread, while other threads may read approximate
+      * costs.
+      */
+    private[monitoring] class CostTable(capacity: Int) {
+        private val mask = capacity - 1
+        private val maxSize = capacity * 3 / 4
+        private val msbs = new Array[Long](capacity)
+        private val lsbs = new Array[Long](capacity)
+        // The device type plus one, or zero if the slot is empty.
+        private val types = new Array[Byte](capacity)
+        private val invocations = new Array[Long](capacity)
+        private val nanos = new Array[Long](capacity)
+        private var count = 0
+
+        require(Integer.bitCount(capacity) == 1,
+                "The capacity must be a power of two")
+
+        def size: Int = count
+
+        /** Returns the slot of the identifier, or [[NoSlot]] if the table
+          * is full. */
+        def slot(id: UUID, deviceType: Byte): Int = {
+            val msb = id.getMostSignificantBits
+            val lsb = id.getLeastSignificantBits
+            val hash = msb ^ lsb
+            var index = ((hash ^ (hash >>> 32)).toInt * 0x9E3779B9) & mask
+            while (types(index) != 0) {
+                if (msbs(index) == msb && lsbs(index) == lsb)
+                    return index
+                index = (index + 1) & mask
+            }
+            if (count >= maxSize)
+                return NoSlot
+            msbs(index) = msb
+            lsbs(index) = lsb
+            types(index) = (deviceType + 1).toByte
+            count += 1
+            index
+        }
+
+        def record(slot: Int, invocations: Long, nanos: Long): Unit = {
+            this.invocations(slot) += invocations
+            this.nanos(slot) += nanos
+        }
+
+        def addTo(costs: ArrayList[DeviceCost]): Unit = {
+            var index = 0
+            while (index < capacity) {
+                val deviceType = types(index)
+                if (deviceType != 0) {
+                    costs.add(new DeviceCost(
+                        new UUID(msbs(index), lsbs(index)).toString,
+                        TypeNames(deviceType - 1), invocations(index),
+                        nanos(index)))
+                }
+                index += 1
+            }
+        }
+
+        def clear(): Unit = {
+            java.util.Arrays.fill(types, 0.toByte)
+            java.util.Arrays.fill(invocations, 0L)
+            java.util.Arrays.fill(nanos, 0L)
+            count = 0
+        }
+    }
+
+}
+
+/**
+  * A sampling profiler of the simulation of a packet worker, which
+  * accumulates the invocations and the time spent per virtual device and per
+  * chain rule. The profiler samples the given fraction of the simulations:
+  * for a sampled packet, the context references the profiler and the
+  * devices notify when the simulation enters them. The time between two
+  * notifications is attributed to the device entered first, such that the
+  * time of a device excludes the devices it forwards the packet to. The time
+  * of a chain includes the time of its rules.
+  *
+  * The profiler is used by the thread of its packet worker, except for the
+  * sampling rate, the reset and the reads of the accumulated costs, which
+  * may be called from any thread.
+  */
+class SimulationProfiler(initialSamplingRate: Double,
+                         capacity: Int = SimulationProfiler.DefaultCapacity) {
+
+    import SimulationProfiler._
+
+    @volatile private var rate = initialSamplingRate
+    @volatile private var resetRequested = false
+
+    @volatile private var devices: CostTable = _
+    @volatile private var rules: CostTable = _
+
+    private var current = NoSlot
+    private var mark = 0L
+
+    def samplingRate: Double = rate
+
+    def samplingRate_=(rate: Double): Unit = {
+        this.rate = Math.max(0.0, Math.min(1.0, rate))
+    }
+
+    /**
+      * Starts profiling the simulation of the packet, if sampled.
+      */
+    def begin(context: PacketContext): Unit = {
+        if (context.profiler eq this) {
+            end(context)
+        }
+        val rate = this.rate
+        if (rate > 0.0 &&
+            (rate >= 1.0 || ThreadLocalRandom.current().nextDouble() < rate)) {
+            if (devices eq null) {
+                rules = new CostTable(capacity)
+                devices = new CostTable(capacity)
+            }
+            if (resetRequested) {
+                resetRequested = false
+                devices.clear()
+                rules.clear()
+            }
+            context.profiler = this
+            current = NoSlot
+            mark = NanoClock.DEFAULT.tick
+        }
+    }
+
+    /**
+      * Stops profiling the simulation of the packet, attributing the time
+      * since the last notification to the current device.
+      */
+    def end(context: PacketContext): Unit = {
+        if (context.profiler eq this) {
+            if (current != NoSlot) {
+                devices.record(current, 0L, NanoClock.DEFAULT.tick - mark)
+            }
+            current = NoSlot
+            context.profiler = null
+        }
+    }
+
+    /**
+      * Notifies that the simulation enters the given device, and returns the
+      * slot of the previous device, which can be used to resume it.
+      */
+    def enter(id: UUID, deviceType: Byte): Int = {
+        val now = NanoClock.DEFAULT.tick
+        val previous = current
+        if (previous != NoSlot) {
+            devices.record(previous, 0L, now - mark)
+        }
+        current = devices.slot(id, deviceType)
+        if (current != NoSlot) {
+            devices.record(current, 1L, 0L)
+        }
+        mark = now
+        previous
+    }
+
+    /**
+      * Notifies that the simulation returns to the device at the given slot,
+      * such as when a chain returns to the device that applied it.
+      */
+    def resume(previous: Int): Unit = {
+        val now = NanoClock.DEFAULT.tick
+        if (current != NoSlot) {
+            devices.record(current, 0L, now - mark)
+        }
+        current = previous
+        mark = now
+    }
+
+    /**
+      * Records the time spent processing a chain rule.
+      */
+    def rule(id: UUID, nanos: Long): Unit = {
+        val slot = rules.slot(id, Rule)
+        if (slot != NoSlot) {
+            rules.record(slot, 1L, nanos)
+        }
+    }
+
+    /** Discards the accumulated costs before the next sampled packet. */
+    def reset(): Unit = {
+        resetRequested = true
+    }
+
+    def deviceCosts(costs: ArrayList[DeviceCost]): Unit = {
+        val table = devices
+        if ((table ne null) && !resetRequested) table.addTo(costs)
+    }
+
+    def ruleCosts(costs: ArrayList[DeviceCost]): Unit = {
+        val table = rules
+        if ((table ne null) && !resetRequested) table.addTo(costs)
+    }
+
+    def topDevices(count: Int): Array[DeviceCost] = {
+        val costs = new ArrayList[DeviceCost]()
+        deviceCosts(costs)
+        top(costs, count)
+    }
+
+    def topRules(count: Int): Array[DeviceCost] = {
+        val costs = new ArrayList[DeviceCost]()
+        ruleCosts(costs)
+        top(costs, count)
+    }
+}
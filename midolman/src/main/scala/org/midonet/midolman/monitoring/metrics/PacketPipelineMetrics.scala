@@ -18,12 +18,30 @@ package org.midonet.midolman.monitoring.metrics
 
 import java.util.concurrent.TimeUnit
 
-import com.codahale.metrics.{Clock, Gauge, MetricRegistry, Timer}
+import com.codahale.metrics.{Clock, Gauge, Histogram, MetricRegistry, Timer}
 import com.codahale.metrics.MetricRegistry.name
 
-import org.midonet.util.metrics.HdrHistogramSlidingTimeWindowReservoir
+import org.midonet.midolman.simulation.PacketContext
+import org.midonet.util.metrics.{HdrHistogramMergingReservoir, HdrHistogramSlidingTimeWindowReservoir}
+
+object PacketPipelineMetrics {
+
+    private final val MaxStageNanos = 3600000000L
+
+    /**
+      * The latency histogram of a packet pipeline stage across all packet
+      * workers, which merges the histograms of the workers when read.
+      */
+    private class MergedHistogram(val reservoir: HdrHistogramMergingReservoir)
+        extends Histogram(reservoir) {
+        override def getCount: Long = reservoir.size
+    }
+
+}
 
 class PacketPipelineMetrics(val registry: MetricRegistry, workerId: Int) {
+    import PacketPipelineMetrics._
+
     val workerTag = s"worker-$workerId"
 
     val packetsOnHold = registry.counter(
@@ -41,6 +59,9 @@ class PacketPipelineMetrics(val registry: MetricRegistry, workerId: Int) {
     val contextsBeingProcessed = registry.counter(name(
         classOf[PacketPipelineCounter], "contextsBeingProcessed"))
 
+    val packetsResumed = registry.meter(
+        name(classOf[PacketPipelineMeter], workerTag, "packetsResumed"))
+
     val packetsDropped = registry.meter(
         name(classOf[PacketPipelineMeter], workerTag, "packetsDropped"))
 
@@ -53,6 +74,14 @@ class PacketPipelineMetrics(val registry: MetricRegistry, workerId: Int) {
                       5, TimeUnit.MINUTES, 10, TimeUnit.SECONDS,
                       Clock.defaultClock)))
 
+    // The number of devices simulated per packet, across all the
+    // simulation attempts of the packet.
+    val simulationSteps = registry.register(
+        name(classOf[PacketPipelineHistogram], workerTag, "simulationSteps"),
+        new Histogram(new HdrHistogramSlidingTimeWindowReservoir(
+                          5, TimeUnit.MINUTES, 10, TimeUnit.SECONDS,
+                          Clock.defaultClock)))
+
     val currentDpFlowsMetric = registry.register(
         name(classOf[FlowTablesGauge], workerTag, "currentDatapathFlows"),
         new Gauge[Long] {
@@ -66,13 +95,84 @@ class PacketPipelineMetrics(val registry: MetricRegistry, workerId: Int) {
     val dpFlowsRemovedMetric = registry.meter(
         name(classOf[FlowTablesMeter], workerTag, "datapathFlowsRemoved"))
 
+    // The latency to invalidate the flows overshadowed by the routes added
+    // to a router, and the number of flows removed per route change.
+    val routeInvalidation = registry.register(
+        name(classOf[PacketPipelineHistogram], workerTag, "routeInvalidation"),
+        new Timer(new HdrHistogramSlidingTimeWindowReservoir(
+                      5, TimeUnit.MINUTES, 10, TimeUnit.SECONDS,
+                      Clock.defaultClock)))
+
+    val routeInvalidatedFlows = registry.register(
+        name(classOf[PacketPipelineHistogram], workerTag, "routeInvalidatedFlows"),
+        new Histogram(new HdrHistogramSlidingTimeWindowReservoir(
+                          5, TimeUnit.MINUTES, 10, TimeUnit.SECONDS,
+                          Clock.defaultClock)))
+
     val workerQueueOverflow = registry.meter(
         name(classOf[PacketPipelineMeter], workerTag, "packetQueue", "overflow"))
 
+    // The latency, in nanoseconds, of every stage of the packet pipeline:
+    // the time waiting in the worker queue, the parsing of the upcall, the
+    // simulation, the wait on a NotYet, the translation of the virtual flow
+    // actions, and the creation of the flow and execution of the packet in
+    // the datapath. The worker histograms are also merged on read into the
+    // histograms of all workers.
+    val queueLatency = stageHistogram("queue")
+    val parseLatency = stageHistogram("parse")
+    val simulationLatency = stageHistogram("simulation")
+    val waitLatency = stageHistogram("wait")
+    val translationLatency = stageHistogram("translation")
+    val flowCreateLatency = stageHistogram("flowCreate")
+    val executeLatency = stageHistogram("execute")
+
     def packetPostponed() {
         packetsPostponed.mark()
         packetsOnHold.inc()
     }
+
+    /**
+      * Records the latency of the pipeline stages of a processed packet. The
+      * stages the packet did not go through, such as the wait for a NotYet
+      * or the flow creation, are not recorded.
+      */
+    def recordStages(context: PacketContext): Unit = {
+        recordStage(queueLatency, context.queueNanos)
+        recordStage(parseLatency, context.packet.parseNanos)
+        recordStage(simulationLatency, context.simulationNanos)
+        recordStage(waitLatency, context.waitNanos)
+        recordStage(translationLatency, context.translationNanos)
+        recordStage(flowCreateLatency, context.flowCreateNanos)
+        recordStage(executeLatency, context.executeNanos)
+    }
+
+    @inline
+    private def recordStage(histogram: Histogram, nanos: Long): Unit = {
+        if (nanos > 0L && nanos < MaxStageNanos) {
+            histogram.update(nanos)
+        }
+    }
+
+    private def stageHistogram(stage: String): Histogram = {
+        val reservoir = new HdrHistogramSlidingTimeWindowReservoir(
+            5, TimeUnit.MINUTES, 10, TimeUnit.SECONDS, Clock.defaultClock)
+        mergedReservoir(stage).add(reservoir)
+        registry.register(
+            name(classOf[PacketPipelineHistogram], workerTag, "stages", stage),
+            new Histogram(reservoir))
+    }
+
+    private def mergedReservoir(stage: String): HdrHistogramMergingReservoir =
+        registry.synchronized {
+            val metricName = name(classOf[PacketPipelineHistogram], "stages",
+                                  stage)
+            registry.getMetrics.get(metricName) match {
+                case histogram: MergedHistogram => histogram.reservoir
+                case _ =>
+                    registry.register(metricName, new MergedHistogram(
+                        new HdrHistogramMergingReservoir)).reservoir
+            }
+        }
 }
 
 class PacketExecutorMetrics(val registry: MetricRegistry, executorId: Int) {
@@ -100,6 +100,13 @@ class VirtualTopologyMetrics(registry: MetricRegistry,
     val deviceLifetimeHistogram =
         registry.histogram(name(classOf[VirtualTopologyHistogram], "deviceLifetime"))
 
+    val prefetchCounter =
+        registry.counter(name(classOf[VirtualTopologyCounter], "prefetch"))
+    val prefetchDevicesCounter =
+        registry.counter(name(classOf[VirtualTopologyCounter], "prefetchDevices"))
+    val prefetchLatencyHistogram =
+        registry.histogram(name(classOf[VirtualTopologyHistogram], "prefetchLatency"))
+
     val deviceClasses: Map[Class[_], DeviceClassMetrics] =
         classes.map { case c => c -> new DeviceClassMetrics(registry, c) }.toMap
 
@@ -154,6 +161,12 @@ class VirtualTopologyMetrics(registry: MetricRegistry,
         }
     }
 
+    def prefetchComplete(devices: Int, latency: Long): Unit = {
+        prefetchCounter.inc()
+        prefetchDevicesCounter.inc(devices)
+        prefetchLatencyHistogram.update(latency)
+    }
+
     private def gauge(f: => Long): Gauge[Long] = {
         new Gauge[Long] { override def getValue = f }
     }
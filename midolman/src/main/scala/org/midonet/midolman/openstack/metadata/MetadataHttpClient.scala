@@ -0,0 +1,286 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.openstack.metadata
+
+import java.io.IOException
+import java.net.{InetSocketAddress, URI}
+import java.util.concurrent.{ScheduledFuture, TimeUnit, TimeoutException}
+
+import scala.concurrent.duration.FiniteDuration
+import scala.concurrent.{Future, Promise}
+import scala.util.Failure
+
+import io.netty.bootstrap.Bootstrap
+import io.netty.buffer.Unpooled
+import io.netty.channel.ChannelHandler.Sharable
+import io.netty.channel._
+import io.netty.channel.nio.NioEventLoopGroup
+import io.netty.channel.pool.FixedChannelPool.AcquireTimeoutAction
+import io.netty.channel.pool._
+import io.netty.channel.socket.nio.NioSocketChannel
+import io.netty.handler.codec.http._
+import io.netty.handler.ssl.{SslContext, SslContextBuilder}
+import io.netty.util.AttributeKey
+import io.netty.util.concurrent.{Future => NettyFuture, FutureListener}
+
+import org.midonet.util.concurrent.CallingThreadExecutionContext
+
+/**
+  * A response of the Nova metadata API. The `contentType` and `cacheControl`
+  * are null when the response does not include the corresponding headers.
+  */
+case class MetadataResponse(status: Int,
+                            contentType: String,
+                            cacheControl: String,
+                            body: Array[Byte])
+
+object MetadataHttpClient {
+
+    private final val MaxContentLength = 16 * 1024 * 1024
+    private final val MaxPendingAcquires = 4096
+
+    private val PendingKey =
+        AttributeKey.valueOf[PendingRequest]("metadata-pending-request")
+    private val ReusedKey =
+        AttributeKey.valueOf[java.lang.Boolean]("metadata-reused")
+
+    /** A request written to a channel, waiting for its response. */
+    private class PendingRequest(val pool: ChannelPool,
+                                 val promise: Promise[MetadataResponse],
+                                 val retry: Boolean) {
+        @volatile var timeout: ScheduledFuture[_] = _
+    }
+
+    /** A server of the client, with the scheme of its URLs. */
+    private case class Server(address: InetSocketAddress, secure: Boolean)
+
+    private class ConnectionClosedException
+        extends IOException("Connection closed before the response")
+
+}
+
+/**
+  * An asynchronous HTTP/1.1 client for the Nova metadata API, shared by all
+  * requests of the metadata proxy. The client keeps a pool of persistent
+  * connections per server, with at most `maxConnections` connections, such
+  * that requests do not pay for a TCP handshake and no thread blocks waiting
+  * for a response: the responses complete the returned futures on the event
+  * loop threads of the client.
+  *
+  * A GET request that fails because the server closed an idle pooled
+  * connection is retried once on another connection.
+  *
+  * The client supports the `http` and `https` schemes, where the server
+  * certificate of the latter is verified with the default trust store of
+  * the JVM.
+  */
+class MetadataHttpClient(maxConnections: Int,
+                         requestTimeout: FiniteDuration,
+                         threads: Int = 1) extends AutoCloseable {
+
+    import MetadataHttpClient._
+
+    private val group = new NioEventLoopGroup(threads)
+    private val bootstrap = new Bootstrap()
+        .group(group)
+        .channel(classOf[NioSocketChannel])
+        .option[java.lang.Boolean](ChannelOption.SO_KEEPALIVE, true)
+        .option[java.lang.Boolean](ChannelOption.TCP_NODELAY, true)
+        .option[Integer](ChannelOption.CONNECT_TIMEOUT_MILLIS,
+                         requestTimeout.toMillis.toInt)
+
+    private val responseHandler = new ResponseHandler
+
+    private lazy val sslContext: SslContext =
+        SslContextBuilder.forClient().build()
+
+    private val pools =
+        new AbstractChannelPoolMap[Server, FixedChannelPool] {
+            override protected def newPool(server: Server) = {
+                new FixedChannelPool(bootstrap.clone()
+                                         .remoteAddress(server.address),
+                                     poolHandler(server),
+                                     ChannelHealthChecker.ACTIVE,
+                                     AcquireTimeoutAction.FAIL,
+                                     requestTimeout.toMillis, maxConnections,
+                                     MaxPendingAcquires)
+            }
+        }
+
+    /**
+      * Sends a request to the specified URL with the given headers and
+      * content, which may be null. The future completes with the response
+      * for any HTTP status, and fails if the request cannot be sent or the
+      * response is not received within the request timeout.
+      */
+    def request(method: HttpMethod, url: URI, headers: Seq[(String, String)],
+                content: Array[Byte]): Future[MetadataResponse] = {
+        val (secure, defaultPort) = url.getScheme match {
+            case "http" => (false, 80)
+            case "https" => (true, 443)
+            case scheme => return Future.failed(new IllegalArgumentException(
+                s"Unsupported scheme $scheme in $url"))
+        }
+        val port = if (url.getPort > 0) url.getPort else defaultPort
+        val pool = pools.get(Server(
+            InetSocketAddress.createUnresolved(url.getHost, port), secure))
+        val promise = Promise[MetadataResponse]()
+        acquire(pool, method, url, headers, content, promise,
+                retry = method == HttpMethod.GET)
+        promise.future
+    }
+
+    override def close(): Unit = {
+        pools.close()
+        group.shutdownGracefully()
+    }
+
+    private def poolHandler(server: Server) = new AbstractChannelPoolHandler {
+        override def channelCreated(channel: Channel): Unit = {
+            val pipeline = channel.pipeline()
+            if (server.secure) {
+                val handler = sslContext.newHandler(
+                    channel.alloc(), server.address.getHostString,
+                    server.address.getPort)
+                val parameters = handler.engine().getSSLParameters
+                parameters.setEndpointIdentificationAlgorithm("HTTPS")
+                handler.engine().setSSLParameters(parameters)
+                pipeline.addLast(handler)
+            }
+            pipeline.addLast(new HttpClientCodec,
+                             new HttpObjectAggregator(MaxContentLength),
+                             responseHandler)
+        }
+    }
+
+    private def acquire(pool: ChannelPool, method: HttpMethod, url: URI,
+                        headers: Seq[(String, String)], content: Array[Byte],
+                        promise: Promise[MetadataResponse],
+                        retry: Boolean): Unit = {
+        pool.acquire().addListener(new FutureListener[Channel] {
+            override def operationComplete(future: NettyFuture[Channel])
+            : Unit = {
+                if (!future.isSuccess) {
+                    promise tryFailure future.cause()
+                    return
+                }
+                val channel = future.getNow
+                val reused = channel.attr(ReusedKey).getAndSet(true) ne null
+                val pending = new PendingRequest(pool, Promise(), retry && reused)
+                pending.promise.future.onComplete {
+                    case Failure(_: ConnectionClosedException) if pending.retry =>
+                        Log debug s"Retrying $method $url on a new connection"
+                        acquire(pool, method, url, headers, content, promise,
+                                retry = false)
+                    case result => promise tryComplete result
+                }(CallingThreadExecutionContext)
+                send(channel, pending, newRequest(method, url, headers, content))
+            }
+        })
+    }
+
+    private def newRequest(method: HttpMethod, url: URI,
+                           headers: Seq[(String, String)],
+                           content: Array[Byte]): FullHttpRequest = {
+        val path = if (url.getRawQuery eq null) url.getRawPath
+                   else url.getRawPath + "?" + url.getRawQuery
+        val buffer = if (content eq null) Unpooled.EMPTY_BUFFER
+                     else Unpooled.wrappedBuffer(content)
+        val request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, method,
+                                                 if (path.isEmpty) "/" else path,
+                                                 buffer)
+        request.headers()
+            .set(HttpHeaderNames.HOST, url.getAuthority)
+            .set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE)
+            .setInt(HttpHeaderNames.CONTENT_LENGTH, buffer.readableBytes())
+        for ((name, value) <- headers) {
+            request.headers().set(name, value)
+        }
+        request
+    }
+
+    private def send(channel: Channel, pending: PendingRequest,
+                     request: FullHttpRequest): Unit = {
+        channel.attr(PendingKey).set(pending)
+        pending.timeout = channel.eventLoop().schedule(new Runnable {
+            override def run(): Unit = {
+                fail(channel, new TimeoutException(
+                    s"No response within $requestTimeout"))
+            }
+        }, requestTimeout.toMillis, TimeUnit.MILLISECONDS)
+        channel.writeAndFlush(request).addListener(new ChannelFutureListener {
+            override def operationComplete(future: ChannelFuture): Unit = {
+                if (!future.isSuccess) {
+                    fail(future.channel(), new ConnectionClosedException)
+                }
+            }
+        })
+    }
+
+    private def fail(channel: Channel, e: Throwable): Unit = {
+        val pending = channel.attr(PendingKey).getAndSet(null)
+        channel.close()
+        if (pending ne null) {
+            pending.timeout.cancel(false)
+            pending.pool.release(channel)
+            pending.promise tryFailure e
+        }
+    }
+
+    @Sharable
+    private class ResponseHandler
+        extends SimpleChannelInboundHandler[FullHttpResponse] {
+
+        override def channelRead0(context: ChannelHandlerContext,
+                                  message: FullHttpResponse): Unit = {
+            val channel = context.channel()
+            val pending = channel.attr(PendingKey).getAndSet(null)
+            if (pending eq null) {
+                // A response without a request: the connection is unusable.
+                channel.close()
+                return
+            }
+            pending.timeout.cancel(false)
+
+            val body = new Array[Byte](message.content().readableBytes())
+            message.content().readBytes(body)
+            val headers = message.headers()
+            val response = MetadataResponse(
+                message.status().code(),
+                headers.get(HttpHeaderNames.CONTENT_TYPE),
+                headers.get(HttpHeaderNames.CACHE_CONTROL),
+                body)
+
+            if (!HttpUtil.isKeepAlive(message)) {
+                channel.close()
+            }
+            pending.pool.release(channel)
+            pending.promise trySuccess response
+        }
+
+        override def channelInactive(context: ChannelHandlerContext): Unit = {
+            fail(context.channel(), new ConnectionClosedException)
+            super.channelInactive(context)
+        }
+
+        override def exceptionCaught(context: ChannelHandlerContext,
+                                     cause: Throwable): Unit = {
+            fail(context.channel(), cause)
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.openstack.metadata
+
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
+
+import scala.concurrent.duration.FiniteDuration
+import scala.util.control.NonFatal
+
+import org.midonet.util.concurrent.NanoClock
+
+object MetadataResponseCache {
+
+    final val DefaultMaxEntries = 256
+
+    private final class Entry(val response: MetadataResponse,
+                              val expiry: Long)
+
+    /**
+      * Returns for how long, in nanoseconds, a response may be cached given
+      * its Cache-Control header, which may be null, and the maximum time to
+      * live of the cache. A response with `no-store` or `no-cache` is not
+      * cached, and a `max-age` shorter than the time to live takes precedence.
+      * Since the cache is private to every instance, the `private` directive
+      * does not prevent caching.
+      */
+    private[metadata] def timeToLive(cacheControl: String, ttl: Long): Long = {
+        if (cacheControl eq null) {
+            return ttl
+        }
+        var result = ttl
+        for (directive <- cacheControl.split(',')) {
+            val value = directive.trim.toLowerCase
+            if (value == "no-store" || value == "no-cache") {
+                return 0L
+            } else if (value.startsWith("max-age=")) {
+                try {
+                    val maxAge = TimeUnit.SECONDS.toNanos(
+                        value.substring(8).trim.toLong)
+                    result = Math.max(0L, Math.min(result, maxAge))
+                } catch {
+                    case NonFatal(_) => return 0L
+                }
+            }
+        }
+        result
+    }
+}
+
+/**
+  * A cache of the successful responses to the GET requests of every instance,
+  * by request path. When many instances boot at once, cloud-init requests the
+  * same metadata paths several times, and these requests are served from the
+  * cache for a short time to live instead of reaching the Nova metadata API.
+  *
+  * Every instance has at most `maxEntries` cached responses, and a response
+  * is not cached when the instance's entries are full of unexpired responses.
+  * The entries of an instance are discarded when the instance is removed.
+  */
+class MetadataResponseCache(ttl: FiniteDuration,
+                            maxEntries: Int = MetadataResponseCache.DefaultMaxEntries,
+                            clock: NanoClock = NanoClock.DEFAULT) {
+
+    import MetadataResponseCache._
+
+    private val ttlNanos = ttl.toNanos
+    private val instances =
+        new ConcurrentHashMap[String, ConcurrentHashMap[String, Entry]]()
+
+    def isEnabled: Boolean = ttlNanos > 0L
+
+    /**
+      * Returns the cached response of an instance for the given path, or null
+      * if there is no such response or it has expired.
+      */
+    def get(instanceId: String, path: String): MetadataResponse = {
+        val entries = instances.get(instanceId)
+        if (entries eq null) {
+            return null
+        }
+        val entry = entries.get(path)
+        if (entry eq null) {
+            null
+        } else if (entry.expiry - clock.tick > 0L) {
+            entry.response
+        } else {
+            entries.remove(path, entry)
+            null
+        }
+    }
+
+    /**
+      * Caches the response of an instance for the given path if the response
+      * is successful and cacheable. Returns whether the response was cached.
+      */
+    def put(instanceId: String, path: String,
+            response: MetadataResponse): Boolean = {
+        if (response.status != 200) {
+            return false
+        }
+        val timeToLive = MetadataResponseCache.timeToLive(
+            response.cacheControl, ttlNanos)
+        if (timeToLive <= 0L) {
+            return false
+        }
+        var entries = instances.get(instanceId)
+        if (entries eq null) {
+            entries = new ConcurrentHashMap[String, Entry]()
+            val existing = instances.putIfAbsent(instanceId, entries)
+            if (existing ne null) entries = existing
+        }
+        val now = clock.tick
+        if (entries.size() >= maxEntries && !entries.containsKey(path)) {
+            purge(entries, now)
+            if (entries.size() >= maxEntries) {
+                return false
+            }
+        }
+        entries.put(path, new Entry(response, now + timeToLive))
+        true
+    }
+
+    /** Discards the cached responses of an instance. */
+    def invalidate(instanceId: String): Unit = {
+        instances.remove(instanceId)
+    }
+
+    /** Returns the number of cached responses of an instance. */
+    def size(instanceId: String): Int = {
+        val entries = instances.get(instanceId)
+        if (entries eq null) 0 else entries.size()
+    }
+
+    private def purge(entries: ConcurrentHashMap[String, Entry],
+                      now: Long): Unit = {
+        val iterator = entries.values().iterator()
+        while (iterator.hasNext) {
+            if (iterator.next().expiry - now <= 0L) {
+                iterator.remove()
+            }
+        }
+    }
+}
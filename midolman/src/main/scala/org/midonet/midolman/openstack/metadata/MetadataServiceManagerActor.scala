@@ -92,6 +92,7 @@ class MetadataServiceManagerActor @Inject() (
 
                     plumber.unplumb(remoteAddr, info, mdInfo)
                     InstanceInfoMap removeByPortId portId
+                    Proxy forget info.instanceId
                 case _ =>
                     log debug s"Non-compute port: $portId"
             }
@@ -16,11 +16,14 @@
 
 package org.midonet.midolman.openstack.metadata
 
-import java.io.InputStream
+import java.net.URI
+import java.util.concurrent.ConcurrentHashMap
 
-import com.sun.jersey.api.client.{Client, ClientResponse, UniformInterfaceException}
+import scala.concurrent.Future
 
-import org.apache.commons.io.IOUtils
+import io.netty.handler.codec.http.HttpMethod
+
+import org.midonet.util.concurrent.CallingThreadExecutionContext
 
 object Conv {
     implicit def toHexstring(bytes: Array[Byte]): String =
@@ -63,76 +66,103 @@ object NovaMetadataClient {
                                instanceId: String): String =
         Hmac.hmac(sharedSecret, instanceId)
 
-    private def readAll(stream: InputStream) = IOUtils.toByteArray(stream)
+}
+
+/**
+  * Proxies the requests of the instances to the Nova metadata API, with a
+  * shared [[MetadataHttpClient]]. The successful responses to GET requests
+  * are cached per instance in the given [[MetadataResponseCache]], and the
+  * signature of every instance ID is computed once and cached until the
+  * instance is forgotten.
+  */
+class NovaMetadataClient(novaMetadataUrl: String,
+                         sharedSecret: String,
+                         httpClient: MetadataHttpClient,
+                         cache: MetadataResponseCache) {
+
+    import NovaMetadataClient._
+
+    private val signatures = new ConcurrentHashMap[String, String]()
 
     def proxyRequest(method: String,
                      path: String,
-                     content: InputStream,
-                     remoteAddr: String,
-                     novaMetadataUrl: String,
-                     sharedSecret: String): String = {
+                     content: Array[Byte],
+                     remoteAddr: String): Future[MetadataResponse] = {
         Log debug s"$method request from $remoteAddr for path $path"
         InstanceInfoMap getByAddr remoteAddr match {
             case Some(info) =>
                 Log debug s"Request matches instance $info"
-                proxyRequest(method, path, content,
-                             info, novaMetadataUrl, sharedSecret)
+                proxyRequest(method, path, content, info)
             case None =>
                 /*
                  * This shouldn't happen normally as datapath flows are
                  * installed using InstanceInfo.
                  */
                 Log warn s"Received request from unknown address $remoteAddr"
-                throw new NovaMetadataClientException(
-                    s"Unknown remote address $remoteAddr")
+                Future.failed(new NovaMetadataClientException(
+                    s"Unknown remote address $remoteAddr"))
         }
     }
 
-    private def proxyRequest(method: String,
-                     path: String,
-                     content: InputStream,
-                     info: InstanceInfo,
-                     novaMetadataUrl: String,
-                     sharedSecret: String): String = {
-        val instanceIdSig = signInstanceId(sharedSecret, info.instanceId)
-        val client = new Client
-        val url = novaMetadataUrl + path
-        Log debug s"$method request from instance:${info.instanceId} to $url"
+    /** Discards the cached signature and responses of an instance. */
+    def forget(instanceId: String): Unit = {
+        signatures remove instanceId
+        cache invalidate instanceId
+    }
 
-        val resource = client.resource(url)
-            .header("X-Tenant-ID", info.tenantId)
-            .header("X-Instance-ID", info.instanceId)
-            .header("X-Instance-ID-Signature", instanceIdSig)
-            .header("X-Forwarded-For", info.address)
-        try {
-            val response = method match {
-                case "GET" => resource.get(classOf[ClientResponse])
-                // POST is used by nova blueprint get-password
-                // https://blueprints.launchpad.net/nova/+spec/get-password
-                case "POST" => resource.post(classOf[ClientResponse],
-                                             readAll(content))
-                case _ => throw new NovaMetadataClientException(
-                    s"Unsupported method $method")
-            }
-            if (response.getStatus >= 300) {
-                throw new UniformInterfaceException(response)
-            }
+    private def signature(instanceId: String): String = {
+        var signature = signatures get instanceId
+        if (signature eq null) {
+            signature = signInstanceId(sharedSecret, instanceId)
+            signatures.put(instanceId, signature)
+        }
+        signature
+    }
 
-            val encoding =
-                response.getType.getParameters.getOrDefault("charset", "UTF-8")
-            val data = IOUtils.toString(response.getEntityInputStream,
-                                        encoding)
-            Log debug s"Response for instance:${info.instanceId} " +
-                      s"status:${response.getStatus} " +
-                      s"length:${response.getLength} " +
-                      s"media-type:${response.getType} " +
-                      s"data:$data"
-            data
-        } catch {
-            case e: UniformInterfaceException =>
-                Log error s"Unexpected HTTP response: $e for request: " +
-                          s"$url $info"
-                throw e
+    private def proxyRequest(method: String,
+                             path: String,
+                             content: Array[Byte],
+                             info: InstanceInfo): Future[MetadataResponse] = {
+        val httpMethod = method match {
+            case "GET" => HttpMethod.GET
+            // POST is used by nova blueprint get-password
+            // https://blueprints.launchpad.net/nova/+spec/get-password
+            case "POST" => HttpMethod.POST
+            case _ => return Future.failed(new NovaMetadataClientException(
+                s"Unsupported method $method"))
         }
+        if (httpMethod == HttpMethod.GET) {
+            val cached = cache.get(info.instanceId, path)
+            if (cached ne null) {
+                Log debug s"Cached response for instance:${info.instanceId} " +
+                          s"path:$path"
+                return Future.successful(cached)
+            }
+        }
+
+        val url = novaMetadataUrl + path
+        Log debug s"$method request from instance:${info.instanceId} to $url"
+        val headers = Seq(
+            "X-Tenant-ID" -> info.tenantId,
+            "X-Instance-ID" -> info.instanceId,
+            "X-Instance-ID-Signature" -> signature(info.instanceId),
+            "X-Forwarded-For" -> info.address)
+
+        httpClient.request(httpMethod, URI.create(url), headers, content).map {
+            response =>
+                if (response.status >= 300) {
+                    Log error s"Unexpected HTTP response: ${response.status} " +
+                              s"for request: $url $info"
+                } else {
+                    Log debug s"Response for instance:${info.instanceId} " +
+                              s"status:${response.status} " +
+                              s"length:${response.body.length} " +
+                              s"media-type:${response.contentType}"
+                    if (httpMethod == HttpMethod.GET) {
+                        cache.put(info.instanceId, path, response)
+                    }
+                }
+                response
+        }(CallingThreadExecutionContext)
     }
 }
@@ -32,18 +32,38 @@ object Proxy {
     final val Address = InetAddress getByName MetadataApi.Address
     final val Port = 9697  // REVISIT(yamamoto): should be a config?
     private var server: Server = _
+    private var httpClient: MetadataHttpClient = _
+    @volatile private var client: NovaMetadataClient = _
 
     def start(config: MidolmanConfig): Unit = {
         val sa = new InetSocketAddress(Address, Port)
         Log info s"Starting metadata proxy on $sa"
+        val metadata = config.openstack.metadata
+        val hc = new MetadataHttpClient(metadata.maxConnections,
+                                        metadata.requestTimeout)
+        val c = new NovaMetadataClient(metadata.novaMetadataUrl,
+                                       metadata.sharedSecret, hc,
+                                       new MetadataResponseCache(
+                                           metadata.cacheTtl))
         val s = new Server(sa)
-        s.setHandler(new ProxyHandler(config))
+        s.setHandler(new ProxyHandler(c))
         try {
             s.start()
             server = s
+            httpClient = hc
+            client = c
         } catch {
             case NonFatal(e) =>
                 Log.error("Failed to start metadata proxy", e)
+                hc.close()
+        }
+    }
+
+    /** Discards the state of the proxy for a removed instance. */
+    def forget(instanceId: String): Unit = {
+        val c = client
+        if (c ne null) {
+            c forget instanceId
         }
     }
 
@@ -53,6 +73,9 @@ object Proxy {
             server.stop()
             server.join()
             server = null
+            httpClient.close()
+            httpClient = null
+            client = null
         }
     }
 }
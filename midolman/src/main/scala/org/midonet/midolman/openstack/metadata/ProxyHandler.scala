@@ -16,34 +16,77 @@
 
 package org.midonet.midolman.openstack.metadata
 
+import javax.servlet.AsyncContext
 import javax.servlet.http.{HttpServletRequest, HttpServletResponse}
 
-import com.sun.jersey.api.client.UniformInterfaceException
+import scala.util.control.NonFatal
+import scala.util.{Failure, Success, Try}
 
+import org.apache.commons.io.IOUtils
 import org.eclipse.jetty.server.Request
 import org.eclipse.jetty.server.handler.AbstractHandler
 
-import org.midonet.midolman.config.MidolmanConfig
+import org.midonet.util.concurrent.CallingThreadExecutionContext
 
-class ProxyHandler(val config: MidolmanConfig) extends AbstractHandler {
+/**
+  * Handles the requests of the metadata proxy asynchronously: the Jetty
+  * thread returns as soon as the request is sent to the Nova metadata API,
+  * and the response is written when it is received. The response is written
+  * on a thread of the Jetty pool, such that a slow instance does not block
+  * the event loop of the HTTP client.
+  */
+class ProxyHandler(client: NovaMetadataClient) extends AbstractHandler {
 
     def handle(target: String, baseReq: Request, request: HttpServletRequest,
                response: HttpServletResponse) = {
         baseReq setHandled true
-        try {
-            val result = NovaMetadataClient.proxyRequest(
-                                request.getMethod,
-                                request.getPathInfo,
-                                request.getInputStream,
-                                request.getRemoteAddr,
-                                config.openstack.metadata.novaMetadataUrl,
-                                config.openstack.metadata.sharedSecret)
-            response.getWriter print result
+        val content =
+            if (request.getMethod == "POST")
+                IOUtils.toByteArray(request.getInputStream)
+            else null
+        val context = request.startAsync()
+        context setTimeout 0L
+
+        client.proxyRequest(request.getMethod,
+                            request.getPathInfo,
+                            content,
+                            request.getRemoteAddr).onComplete { result =>
+            val task = new Runnable {
+                override def run(): Unit =
+                    write(context, request, response, result)
+            }
+            try getServer.getThreadPool.execute(task)
+            catch {
+                // The server is stopping: complete the request regardless.
+                case NonFatal(_) => task.run()
+            }
+        }(CallingThreadExecutionContext)
+    }
+
+    private def write(context: AsyncContext, request: HttpServletRequest,
+                      response: HttpServletResponse,
+                      result: Try[MetadataResponse]): Unit = {
+        try result match {
+            case Success(r) if r.status >= 300 =>
+                response.sendError(r.status)
+            case Success(r) =>
+                if (r.contentType ne null) {
+                    response setContentType r.contentType
+                }
+                response setContentLength r.body.length
+                response.getOutputStream write r.body
+            case Failure(e: NovaMetadataClientException) =>
+                response.sendError(HttpServletResponse.SC_FORBIDDEN,
+                                   e.getMessage)
+            case Failure(e) =>
+                Log warn s"Metadata request for ${request.getPathInfo} " +
+                         s"from ${request.getRemoteAddr} failed: $e"
+                response.sendError(HttpServletResponse.SC_BAD_GATEWAY)
         } catch {
-            case e: UniformInterfaceException =>
-                response.sendError(e.getResponse.getStatus, e.getMessage)
-            case e: NovaMetadataClientException =>
-                response.sendError(HttpServletResponse.SC_FORBIDDEN, e.getMessage)
+            case NonFatal(e) =>
+                Log.debug("Failed to write the metadata response", e)
+        } finally {
+            context.complete()
         }
     }
 }
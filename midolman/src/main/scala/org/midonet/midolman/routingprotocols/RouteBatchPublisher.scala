@@ -0,0 +1,218 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.routingprotocols
+
+import java.util.UUID
+
+import scala.collection.breakOut
+import scala.collection.mutable
+import scala.collection.mutable.ArrayBuffer
+import scala.concurrent.{ExecutionContext, Future}
+
+import org.midonet.cluster.state.RouteBatch
+import org.midonet.midolman.layer3.Route
+import org.midonet.midolman.routingprotocols.RoutingManagerActor.RoutingStorage
+import org.midonet.util.UnixClock
+
+/**
+ * Publishes the routes learned by a routing handler as [[RouteBatch]] values.
+ * The handler adds and removes routes as they are learned and forgotten, and
+ * calls `flush()` periodically to publish the accumulated changes as a single
+ * delta batch. A route added and removed between two flushes is not
+ * published. Every `snapshotInterval` deltas, or once the deltas since the
+ * last snapshot hold `maxRoutes` routes, the publisher writes a snapshot of
+ * the published routes and removes the previous batches, such that the
+ * number of values of the port key remains bounded.
+ *
+ * Because the batches are the names of the z-nodes of the port key, readers
+ * fetch all of them in a single ZooKeeper response, which must not exceed
+ * the client buffer size. The publisher therefore announces at most
+ * `maxRoutes` routes: while the previous snapshot, its deltas and the new
+ * snapshot coexist, the key holds about three times `maxRoutes` routes. The
+ * learned routes beyond this limit are held, and they are announced in the
+ * order they were learned as published routes are withdrawn.
+ *
+ * A route that is withdrawn too often is suppressed by the given
+ * [[RouteFlapDampener]]: the publisher holds its announcement until the
+ * dampener reuses the route, and `hasPending` remains true while there are
+ * held routes.
+ *
+ * This class is not thread-safe, and it must be used from the execution
+ * context of the routing handler.
+ */
+class RouteBatchPublisher(routerId: UUID, portId: UUID,
+                          storage: RoutingStorage, snapshotInterval: Int,
+                          maxRoutes: Int, dampener: RouteFlapDampener,
+                          clock: UnixClock)
+                         (implicit ec: ExecutionContext) {
+
+    private val epoch = clock.time
+    private var seq = 0L
+    private var started = false
+    private var deltas = 0
+    private var deltaRoutes = 0
+
+    // The routes learned by the handler.
+    private val wanted = new mutable.HashSet[Route]
+    // The routes published in the last snapshot or delta.
+    private val published = new mutable.HashSet[Route]
+    // The routes whose state changed since the last flush, or whose
+    // announcement is held by the dampener.
+    private val dirty = new mutable.HashSet[Route]
+    // The learned routes that are not announced because the publisher
+    // reached the maximum number of routes, in the order they were learned.
+    private val held = new mutable.LinkedHashSet[Route]
+    // The batch values written to storage, in order.
+    private val values = new ArrayBuffer[String]
+
+    /** Adds a learned route. */
+    def add(route: Route): Unit = {
+        if (wanted.add(route)) {
+            dirty += route
+        }
+    }
+
+    /** Removes a learned route. */
+    def remove(route: Route): Unit = {
+        if (wanted.remove(route)) {
+            if (!held.remove(route)) {
+                dirty += route
+            }
+            dampener.withdrawn(route, clock.time)
+        }
+    }
+
+    /** Indicates whether there are route changes that have not been
+      * published yet. */
+    def hasPending: Boolean = dirty.nonEmpty || !started && wanted.nonEmpty
+
+    /** Returns the routes currently published. */
+    def publishedRoutes: collection.Set[Route] = published
+
+    /** Returns the number of learned routes that are not published because
+      * the publisher reached the maximum number of routes. */
+    def heldRoutes: Int = held.size
+
+    /** Publishes the route changes since the last flush. The first flush
+      * publishes a snapshot, while subsequent flushes publish a delta. A
+      * flush after `clear()` does nothing until new routes are added. */
+    def flush(): Future[_] = {
+        if (!started && wanted.isEmpty) {
+            return Future.successful(null)
+        }
+
+        val time = clock.time
+        val added = new ArrayBuffer[Route]
+        val removed = new ArrayBuffer[Route]
+        val announced = new ArrayBuffer[Route]
+        dirty.retain { route =>
+            val suppressed = dampener.isSuppressed(route, time)
+            val announce = wanted.contains(route) && !suppressed
+            if (announce && !published.contains(route)) {
+                announced += route
+            } else if (!announce && published.remove(route)) {
+                removed += route
+            }
+            wanted.contains(route) && suppressed
+        }
+        dampener.expunge(time)
+
+        // Announce the held routes first, and then the new routes, as long
+        // as the number of published routes is below the limit.
+        if (held.nonEmpty && published.size < maxRoutes) {
+            val iterator = held.iterator
+            while (published.size < maxRoutes && iterator.hasNext) {
+                val route = iterator.next()
+                published += route
+                added += route
+            }
+            held --= added
+        }
+        for (route <- announced) {
+            if (published.size < maxRoutes) {
+                published += route
+                added += route
+            } else {
+                held += route
+            }
+        }
+
+        if (!started) {
+            started = true
+            publishSnapshot(nextSeq = seq > 0)
+        } else if (added.nonEmpty || removed.nonEmpty) {
+            seq += 1
+            val value = RouteBatch.delta(epoch, seq, routerId, added, removed)
+            values += value
+            deltas += 1
+            deltaRoutes += added.size + removed.size
+            val future = storage.addRouteBatch(portId, value)
+            if (deltas >= snapshotInterval || deltaRoutes >= maxRoutes) {
+                future.flatMap { _ => publishSnapshot(nextSeq = false) }
+            } else {
+                future
+            }
+        } else {
+            Future.successful(null)
+        }
+    }
+
+    /** Re-publishes the current routes as a new snapshot and removes all
+      * previous batches. This should be called when a storage operation
+      * fails, since the state of the previous batches is not known. */
+    def resync(): Future[_] = {
+        if (started) publishSnapshot(nextSeq = true)
+        else Future.successful(null)
+    }
+
+    /** Removes all routes and their batches from storage. */
+    def clear(): Future[_] = {
+        wanted.clear()
+        published.clear()
+        dirty.clear()
+        held.clear()
+        started = false
+        deltas = 0
+        deltaRoutes = 0
+        removeValues(values.toList)
+    }
+
+    /** Writes a snapshot of the published routes, and then removes the
+      * previous batches. A snapshot using the current sequence number
+      * does not change the routes seen by readers that applied all deltas,
+      * whereas a snapshot with a new sequence number forces readers to
+      * rebuild their routes from the snapshot. */
+    private def publishSnapshot(nextSeq: Boolean): Future[_] = {
+        if (nextSeq) seq += 1
+        deltas = 0
+        deltaRoutes = 0
+        val previous = values.toList
+        val snapshot = RouteBatch.snapshot(epoch, seq, routerId, published)
+        values.clear()
+        values ++= snapshot
+        val futures: Seq[Future[String]] =
+            snapshot.map(storage.addRouteBatch(portId, _))(breakOut)
+        Future.sequence(futures).flatMap { _ => removeValues(previous) }
+    }
+
+    private def removeValues(previous: Seq[String]): Future[_] = {
+        values --= previous
+        val futures: Seq[Future[String]] =
+            previous.map(storage.removeRouteBatch(portId, _))(breakOut)
+        Future.sequence(futures)
+    }
+}
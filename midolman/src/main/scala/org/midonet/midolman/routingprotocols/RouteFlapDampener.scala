@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.routingprotocols
+
+import scala.collection.mutable
+
+import org.midonet.midolman.layer3.Route
+
+object RouteFlapDampener {
+    final val WithdrawalPenalty = 1000d
+    final val SuppressLimit = 2000d
+    final val ReuseLimit = 750d
+    /** The maximum suppress time, as a multiple of the half-life. */
+    final val MaxSuppressHalfLives = 4
+}
+
+/**
+ * Implements route flap dampening for the learned routes, similar to RFC 2439.
+ * Every withdrawal of a route adds a fixed penalty to the route, and the
+ * penalty decays exponentially with the configured half-life. A route whose
+ * penalty exceeds the suppress limit is suppressed, meaning that it should not
+ * be announced, until its penalty decays below the reuse limit. The penalty is
+ * capped such that a route is not suppressed for longer than four half-lives.
+ *
+ * A zero half-life disables the dampening. This class is not thread-safe.
+ */
+class RouteFlapDampener(halfLife: Long) {
+
+    import RouteFlapDampener._
+
+    private class State(var penalty: Double, var time: Long,
+                        var suppressed: Boolean)
+
+    private val states = new mutable.HashMap[Route, State]
+    private val maxPenalty = ReuseLimit * (1 << MaxSuppressHalfLives)
+
+    def isEnabled: Boolean = halfLife > 0
+
+    /** Records the withdrawal of a route at the given time, in milliseconds. */
+    def withdrawn(route: Route, time: Long): Unit = {
+        if (isEnabled) {
+            val state = states.getOrElseUpdate(route, new State(0d, time, false))
+            decay(state, time)
+            state.penalty = Math.min(state.penalty + WithdrawalPenalty,
+                                     maxPenalty)
+            if (state.penalty >= SuppressLimit) {
+                state.suppressed = true
+            }
+        }
+    }
+
+    /** Indicates whether the route is suppressed at the given time, in
+      * milliseconds. */
+    def isSuppressed(route: Route, time: Long): Boolean = {
+        states.get(route) match {
+            case Some(state) =>
+                decay(state, time)
+                if (state.suppressed && state.penalty < ReuseLimit) {
+                    state.suppressed = false
+                }
+                state.suppressed
+            case None => false
+        }
+    }
+
+    /** Removes the routes whose penalty has decayed below half the reuse
+      * limit. */
+    def expunge(time: Long): Unit = {
+        states.retain { (_, state) =>
+            decay(state, time)
+            state.suppressed || state.penalty >= ReuseLimit / 2
+        }
+    }
+
+    /** Returns the number of routes with a penalty. */
+    def size: Int = states.size
+
+    private def decay(state: State, time: Long): Unit = {
+        if (time > state.time) {
+            state.penalty *= Math.pow(0.5, (time - state.time).toDouble /
+                                           halfLife)
+            state.time = time
+        }
+    }
+}
@@ -26,7 +26,7 @@ import scala.concurrent.duration._
 import scala.util.Try
 import scala.util.control.NonFatal
 
-import akka.actor.ActorRef
+import akka.actor.{ActorRef, Cancellable}
 
 import org.apache.zookeeper.KeeperException
 
@@ -118,6 +118,7 @@ object RoutingHandler {
     // BgpdProcess will notify via these messages
     case object FetchBgpdStatus
     case object SyncPeerRoutes
+    case object FlushPeerRoutes
 
     case class PeerRoute(destination: IPv4Subnet, gateway: IPv4Addr)
 
@@ -318,6 +319,19 @@ abstract class RoutingHandler(var routerPort: RouterPort,
         override def run(): Unit = {self ! SyncPeerRoutes }
     }
 
+    // Publishes the learned routes as batches, when route batching is enabled.
+    private val routeBatches =
+        if (config.router.bgpRouteBatching) {
+            new RouteBatchPublisher(
+                routerPort.deviceId, routerPort.id, routingStorage,
+                config.router.bgpRouteSnapshotInterval,
+                config.router.bgpRouteBatchMaxRoutes,
+                new RouteFlapDampener(config.router.bgpRouteDampeningHalfLife),
+                UnixClock.DEFAULT)(singleThreadExecutionContext)
+        } else null
+    private var scheduledFlush: Cancellable = null
+    private var heldRoutes = 0
+
     private var zookeeperConnected = true
     private var portActive = true
 
@@ -379,6 +393,20 @@ abstract class RoutingHandler(var routerPort: RouterPort,
             syncPeerRoutes()
             Future.successful(true)
 
+        case FlushPeerRoutes =>
+            scheduledFlush = null
+            handleLearnedRouteError(routeBatches.flush())
+            if (routeBatches.heldRoutes > heldRoutes) {
+                log.warn(s"Not publishing ${routeBatches.heldRoutes} learned " +
+                         "routes because the port reached the maximum " +
+                         s"(${config.router.bgpRouteBatchMaxRoutes}), please " +
+                         "check the agent.router.bgp_route_batch_max_routes " +
+                         "setting")
+            }
+            heldRoutes = routeBatches.heldRoutes
+            scheduleFlush()
+            Future.successful(true)
+
         case AddPeerRoutes(destination, paths) =>
             publishLearnedRoutes(destination, paths)
             Future.successful(true)
@@ -392,6 +420,9 @@ abstract class RoutingHandler(var routerPort: RouterPort,
             peerRoutes.remove(route) match {
                 case None => // route missing
                 case Some(null) => // route not published
+                case Some(r) if routeBatches ne null =>
+                    routeBatches.remove(r)
+                    scheduleFlush()
                 case Some(r) => handleLearnedRouteError(forgetLearnedRoute(r))
             }
             Future.successful(true)
@@ -534,7 +565,17 @@ abstract class RoutingHandler(var routerPort: RouterPort,
             }
         }
 
-        handleLearnedRouteError {
+        if (routeBatches ne null) {
+            // The routes are published by the next flush of the batch.
+            for (gained <- gainedRoutes) {
+                peerRoutes.put(gained, gained)
+                routeBatches.add(gained)
+            }
+            for (lost <- lostRoutes) {
+                routeBatches.remove(lost)
+            }
+            scheduleFlush()
+        } else handleLearnedRouteError {
             val futures = new ArrayBuffer[Future[Route]]()
             for (gained <- gainedRoutes) {
                 futures += publishLearnedRoute(gained)
@@ -544,8 +585,17 @@ abstract class RoutingHandler(var routerPort: RouterPort,
             }
             Future.sequence(futures)(breakOut, singleThreadExecutionContext)
         }
+    }
 
-
+    /** Schedules the publication of the pending route batch, if route
+      * batching is enabled and there are pending route changes. */
+    private def scheduleFlush(): Unit = {
+        if ((scheduledFlush eq null) && (routeBatches ne null) &&
+            routeBatches.hasPending) {
+            scheduledFlush = context.system.scheduler.scheduleOnce(
+                config.router.bgpRouteBatchInterval millis, self,
+                FlushPeerRoutes)(context.dispatcher)
+        }
     }
 
     private def publishLearnedRoute(route: Route): Future[Route] = {
@@ -561,7 +611,9 @@ abstract class RoutingHandler(var routerPort: RouterPort,
     }
 
     private def syncPeerRoutes(): Unit = {
-        handleLearnedRouteError {
+        if (routeBatches ne null) {
+            handleLearnedRouteError(routeBatches.resync())
+        } else handleLearnedRouteError {
             routingStorage.learnedRoutes(routerPort.deviceId, routerPort.id, routerPort.hostId)
                           .flatMap {
                 learnedRoutes =>
@@ -786,7 +838,16 @@ abstract class RoutingHandler(var routerPort: RouterPort,
         log.debug("Stopping BGP daemon")
         bgpd.stop()
         invalidateFlows()
-        handleLearnedRouteError {
+        if (routeBatches ne null) {
+            // Cancel the pending flush, such that it does not publish a new
+            // snapshot after the routes are cleared.
+            if (scheduledFlush ne null) {
+                scheduledFlush.cancel()
+                scheduledFlush = null
+            }
+            heldRoutes = 0
+            handleLearnedRouteError(routeBatches.clear())
+        } else handleLearnedRouteError {
             val futures = new ArrayBuffer[Future[Route]]()
             for (route <- peerRoutes.values) {
                 futures += forgetLearnedRoute(route)
@@ -64,6 +64,8 @@ object RoutingManagerActor extends Referenceable {
         def removeRoute(route: Route, portId: UUID): Future[Route]
         def learnedRoutes(routerId: UUID, portId: UUID, hostId: UUID)
         : Future[Set[Route]]
+        def addRouteBatch(portId: UUID, value: String): Future[String]
+        def removeRouteBatch(portId: UUID, value: String): Future[String]
     }
 
     private[routingprotocols] class RoutingStorageImpl(storage: StateStorage)
@@ -88,6 +90,18 @@ object RoutingManagerActor extends Referenceable {
             storage.getPortRoutes(portId, hostId)
                    .asFuture
         }
+        override def addRouteBatch(portId: UUID, value: String)
+        : Future[String] = {
+            storage.addRouteBatch(portId, value)
+                   .map[String](makeFunc1(_ => value))
+                   .asFuture
+        }
+        override def removeRouteBatch(portId: UUID, value: String)
+        : Future[String] = {
+            storage.removeRouteBatch(portId, value)
+                   .map[String](makeFunc1(_ => value))
+                   .asFuture
+        }
     }
 
     private case class HandlerStop(portId: UUID, value: Boolean)
@@ -23,15 +23,17 @@ import scala.collection.{Map => ROMap}
 
 import org.midonet.cluster.client._
 import org.midonet.midolman.NotYetException
+import org.midonet.midolman.monitoring.SimulationProfiler
 import org.midonet.midolman.PacketWorkflow.{Drop, ErrorDrop, NoOp, SimStep,
                                             SimulationResult => Result}
 import org.midonet.midolman.simulation.Bridge.{RemoveFlowCallbackGenerator, MacFlowCount, UntaggedVlanId}
 import org.midonet.midolman.simulation.SimulationStashes._
 import org.midonet.midolman.topology.VirtualTopology.{VirtualDevice, tryGet}
 import org.midonet.packets._
-import org.midonet.sdn.flows.FlowTagger.{tagForArpRequests, tagForBridgePort,
-                                         tagForBroadcast, tagForBridge,
-                                         tagForFloodedFlowsByDstMac, tagForVlanPort}
+import org.midonet.sdn.flows.FlowTagger.{FlowTag, tagForArpRequests,
+                                         tagForBridgePort, tagForBroadcast,
+                                         tagForBridge, tagForFloodedFlowsByDstMac,
+                                         tagForVlanPort}
 import org.midonet.util.functors.Callback0
 
 object Bridge {
@@ -112,6 +114,18 @@ class Bridge(val id: UUID,
         (exteriorPorts map ToPortAction).foldLeft(NoOp: Result) (ForkAction)
 
     override val deviceTag = tagForBridge(id)
+    val broadcastTag = tagForBroadcast(id)
+    val arpRequestsTag = tagForArpRequests(id)
+
+    // The tags of the interior ports, created with the device such that the
+    // simulation does not look them up for every packet.
+    private val logicalPortTags = {
+        val tags = new util.HashMap[UUID, FlowTag]()
+        for (portId <- macToLogicalPortId.values) {
+            tags.put(portId, tagForBridgePort(id, portId))
+        }
+        tags
+    }
 
     override def toString =
         s"Bridge [id=$id adminStateUp=$adminStateUp tunnelKey=$tunnelKey " +
@@ -129,6 +143,9 @@ class Bridge(val id: UUID,
     override def process(context: PacketContext): Result = {
         implicit val ctx = context
 
+        if (context.profiler ne null)
+            context.profiler.enter(id, SimulationProfiler.Bridge)
+
         context.addFlowTag(deviceTag)
 
         context.log.debug(s"Packet ingressing $this")
@@ -203,7 +220,7 @@ class Bridge(val id: UUID,
         macToLogicalPortId.get(ethDst) match {
             case Some(logicalPort: UUID) => // some device (router|vab-bridge)
                 context.log.debug("Packet intended for interior port {}", logicalPort)
-                context.addFlowTag(tagForBridgePort(id, logicalPort))
+                context.addFlowTag(logicalPortTags.get(logicalPort))
                 unicastAction(logicalPort)
             case None => // not a logical port, is the dstMac learned?
                 val vlanId = srcVlanTag(context)
@@ -268,6 +285,17 @@ class Bridge(val id: UUID,
       * Note that there is no flow tagging here. You're responsible to set the
       * right tags.
       */
+    /**
+      * Returns the action forwarding to the given port. If the port is not
+      * yet available, the port is loaded when the simulation continues with
+      * the action, such that the simulation can resume from that point
+      * instead of restarting the bridge.
+      */
+    private def portAction(toPort: UUID): Result = {
+        try tryGet(classOf[Port], toPort).action
+        catch { case _: NotYetException => ToPortAction(toPort) }
+    }
+
     private def unicastAction(toPort: UUID)(implicit context: PacketContext) : Result = {
 
         val inPortVlan = vlanToPort.getVlan(context.inPortId)
@@ -276,7 +304,7 @@ class Bridge(val id: UUID,
                               "push and forward to trunk port {}", inPortVlan,
                               toPort)
             context.wcmatch.addVlanId(inPortVlan)
-            return tryGet(classOf[Port], toPort).action
+            return portAction(toPort)
         }
 
         val vlanInFrame: Option[JShort] = context.ethernet.getVlanIDs match {
@@ -287,7 +315,7 @@ class Bridge(val id: UUID,
         vlanToPort.getVlan(toPort) match {
             case null => // the outbound port has no vlan assigned
                 context.log.debug("Egress port has no VLAN assigned: forwarding")
-                tryGet(classOf[Port], toPort).action
+                portAction(toPort)
             case vlanId if vlanInFrame.isEmpty =>
                 context.log.debug("Egress port has VLAN {}, frame had none: " +
                                   "dropping", vlanId)
@@ -296,7 +324,7 @@ class Bridge(val id: UUID,
                 context.log.debug("Egress port tagged with VLAN {}: pop and " +
                                   "forward", vlanId)
                 context.wcmatch.removeVlanId(vlanId)
-                tryGet(classOf[Port], toPort).action
+                portAction(toPort)
             case vlanId =>
                 context.log.debug("Egress port VLAN {} does not match frame " +
                                   "VLAN {}: dropping", vlanId, vlanInFrame.get)
@@ -327,7 +355,7 @@ class Bridge(val id: UUID,
       *  a tagForBroadcast.
       */
     private def multicastAction()(implicit context: PacketContext) = {
-        context.addFlowTag(tagForBroadcast(id))
+        context.addFlowTag(broadcastTag)
 
         vlanPortId match {
             case Some(vPId) if !context.inPortId.equals(vPId) =>
@@ -443,13 +471,13 @@ class Bridge(val id: UUID,
 
                 context.log.debug("Flooding GARP at bridge {}, source MAC {}",
                                   id, pMatch.getEthSrc)
-                context.addFlowTag(tagForArpRequests(id))
+                context.addFlowTag(arpRequestsTag)
                 context.markUserspaceOnly()
                 multicastAction()
             case _ =>
                 context.log.debug("Flooding ARP at bridge {} source MAC {}",
                                   id, pMatch.getEthSrc)
-                context.addFlowTag(tagForArpRequests(id))
+                context.addFlowTag(arpRequestsTag)
                 multicastAction()
         }
     }
@@ -20,10 +20,12 @@ import java.util.{UUID, List => JList, Map => JMap}
 
 import com.google.common.annotations.VisibleForTesting
 
+import org.midonet.midolman.monitoring.SimulationProfiler
 import org.midonet.midolman.rules.{JumpRule, Rule, RuleResult}
 import org.midonet.midolman.rules.RuleResult.Action
 import org.midonet.midolman.topology.VirtualTopology.VirtualDevice
 import org.midonet.sdn.flows.FlowTagger
+import org.midonet.util.concurrent.NanoClock
 
 object Chain {
     private val traversedChainsThreadLocal =
@@ -72,6 +74,11 @@ case class Chain(id: UUID,
                       traversedChains: util.ArrayList[UUID]): RuleResult = {
         context.log.debug(s"Testing against $toString")
 
+        val profiler = context.profiler
+        val previous =
+            if (profiler ne null) profiler.enter(id, SimulationProfiler.Chain)
+            else SimulationProfiler.NoSlot
+
         context.addFlowTag(deviceTag)
         traversedChains.add(id)
         var i = 0
@@ -79,7 +86,13 @@ case class Chain(id: UUID,
         while ((i < rules.size()) && (res.action eq Action.CONTINUE)) {
             val rule = rules.get(i)
             i += 1
-            res = rule.process(context)
+            if ((profiler ne null) && (rule.id ne null)) {
+                val start = NanoClock.DEFAULT.tick
+                res = rule.process(context)
+                profiler.rule(rule.id, NanoClock.DEFAULT.tick - start)
+            } else {
+                res = rule.process(context)
+            }
 
             res.action match {
                 case Action.ACCEPT | Action.RETURN =>
@@ -107,6 +120,8 @@ case class Chain(id: UUID,
                 res = jump(context, res.jumpToChain, traversedChains)
         }
         assert(res.action ne Action.JUMP)
+        if (profiler ne null)
+            profiler.resume(previous)
         res
     }
 
@@ -0,0 +1,395 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.simulation
+
+import java.util
+import java.util.{Collections, UUID}
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+import scala.concurrent.Promise
+import scala.concurrent.duration._
+import scala.util.control.NonFatal
+
+import rx.Subscriber
+
+import org.midonet.cluster.data.ZoomConvert
+import org.midonet.cluster.data.storage.Storage
+import org.midonet.cluster.models.Topology
+import org.midonet.midolman.topology.devices.Dhcp
+import org.midonet.midolman.topology.devices.Dhcp.{Host, Opt121Route}
+import org.midonet.packets._
+import org.midonet.util.concurrent._
+import org.midonet.util.logging.Logger
+
+object DhcpReplyCache {
+
+    final val MaxSubnets = 1024
+
+    // TODO(pino): the server MAC should be in configuration.
+    final val ServerMac = MAC.fromString("02:a8:9c:de:39:27")
+
+    private[simulation] final val LeaseTime =
+        IPv4Addr.intToBytes((1 day).toSeconds.toInt)
+
+}
+
+/**
+  * Caches the DHCP configuration of the subnets and the options of the DHCP
+  * replies for every DHCP host, such that handling a DHCP request does not
+  * need to read the subnet from storage, to convert it from its topology
+  * object or to parse the extra DHCP options.
+  *
+  * The cache subscribes to the storage observable of every cached subnet, and
+  * keeps the last [[Topology.Dhcp]] object it delivered. Since the observable
+  * emits a new object only when the subnet or any of its DHCP hosts change, a
+  * subnet entry is rebuilt only when the identity of that object changes.
+  *
+  * The cache is not thread-safe, and every packet worker should use its own
+  * instance. The cache holds at most [[DhcpReplyCache.MaxSubnets]] subnets,
+  * evicting and unsubscribing from the least recently used one.
+  */
+class DhcpReplyCache(store: Storage,
+                     maxSubnets: Int = DhcpReplyCache.MaxSubnets) {
+
+    private val subnets =
+        new util.LinkedHashMap[UUID, SubnetSubscriber](16, 0.75f, true) {
+            override def removeEldestEntry(
+                    eldest: util.Map.Entry[UUID, SubnetSubscriber]): Boolean = {
+                if (size() > maxSubnets) {
+                    eldest.getValue.unsubscribe()
+                    true
+                } else false
+            }
+        }
+
+    /**
+      * Returns the cached entries for the given DHCP subnets, in the same
+      * order, skipping the subnets that do not exist. The cache subscribes
+      * to the subnets it does not cache, and waits at most the given timeout
+      * for their first notification.
+      */
+    def subnets(ids: Seq[UUID], timeout: Duration): Seq[DhcpSubnet] = {
+        val subscribers = ids.map(subscriberOf)
+        val result = new util.ArrayList[DhcpSubnet](subscribers.size)
+        for (subscriber <- subscribers) {
+            val subnet = subscriber.subnet(timeout)
+            if (subnet ne null) {
+                result.add(subnet)
+            }
+        }
+        result.asScala
+    }
+
+    /**
+      * @return The number of cached subnets.
+      */
+    def size: Int = subnets.size()
+
+    /**
+      * Unsubscribes from and discards all cached subnets.
+      */
+    def clear(): Unit = {
+        val iterator = subnets.values().iterator()
+        while (iterator.hasNext) {
+            iterator.next().unsubscribe()
+        }
+        subnets.clear()
+    }
+
+    private def subscriberOf(id: UUID): SubnetSubscriber = {
+        val cached = subnets.get(id)
+        if ((cached ne null) && !cached.isTerminated) {
+            cached
+        } else {
+            if (cached ne null) {
+                cached.unsubscribe()
+            }
+            val subscriber = new SubnetSubscriber
+            subnets.put(id, subscriber)
+            store.observable(classOf[Topology.Dhcp], id).subscribe(subscriber)
+            subscriber
+        }
+    }
+
+}
+
+/**
+  * Receives the notifications of a DHCP subnet from storage. The latest
+  * subnet is written by the storage notification thread, whereas the
+  * converted subnet is only read and written by the packet worker.
+  */
+private class SubnetSubscriber extends Subscriber[Topology.Dhcp] {
+
+    private val first = Promise[Topology.Dhcp]()
+    @volatile private var latest: Topology.Dhcp = null
+    @volatile private var terminated = false
+    private var current: DhcpSubnet = null
+
+    override def onNext(dhcp: Topology.Dhcp): Unit = {
+        latest = dhcp
+        first.trySuccess(dhcp)
+    }
+
+    override def onCompleted(): Unit = {
+        terminated = true
+        latest = null
+        first.trySuccess(null)
+    }
+
+    override def onError(e: Throwable): Unit = {
+        terminated = true
+        latest = null
+        first.tryFailure(e)
+    }
+
+    /** Indicates whether the subnet was deleted or could not be read. */
+    def isTerminated: Boolean = terminated
+
+    /**
+      * Returns the converted subnet for the latest notification, or `null`
+      * if the subnet does not exist or the notification did not arrive
+      * within the given timeout.
+      */
+    def subnet(timeout: Duration): DhcpSubnet = {
+        var dhcp = latest
+        if ((dhcp eq null) && !terminated) {
+            dhcp = try first.future.await(timeout)
+                   catch { case NonFatal(_) => null }
+        }
+        if (dhcp eq null) {
+            null
+        } else {
+            if ((current eq null) || (current.proto ne dhcp)) {
+                current = new DhcpSubnet(dhcp)
+            }
+            current
+        }
+    }
+}
+
+/**
+  * A cached DHCP subnet, which indexes its DHCP hosts by MAC address and
+  * holds the reply templates for the hosts that have sent DHCP requests.
+  */
+class DhcpSubnet(val proto: Topology.Dhcp) {
+
+    val dhcp = ZoomConvert.fromProto(proto, classOf[Dhcp])
+
+    private val hosts = new util.HashMap[MAC, Host]()
+    private val templates = new util.HashMap[MAC, DhcpReplyTemplate]()
+
+    if (dhcp.hosts ne null) {
+        for (host <- dhcp.hosts.asScala if !hosts.containsKey(host.mac)) {
+            hosts.put(host.mac, host)
+        }
+    }
+
+    /**
+      * @return The first DHCP host with the given MAC address, or `null` if
+      *         there is no such host.
+      */
+    def host(mac: MAC): Host = hosts.get(mac)
+
+    /**
+      * Returns the reply template for the given host and interface MTU. The
+      * template is built on first use, and rebuilt if the MTU changes.
+      */
+    def template(host: Host, interfaceMtu: Int, log: Logger)
+    : DhcpReplyTemplate = {
+        val cached = templates.get(host.mac)
+        if ((cached ne null) && cached.interfaceMtu == interfaceMtu) {
+            cached
+        } else {
+            val template = new DhcpReplyTemplate(dhcp, host, interfaceMtu, log)
+            templates.put(host.mac, template)
+            template
+        }
+    }
+}
+
+/**
+  * The precomputed parts of a DHCP reply for a DHCP host: the addresses and
+  * the option lists for each reply message type. The options are shared by
+  * all replies, and must not be modified.
+  */
+class DhcpReplyTemplate(subnet: Dhcp, host: Host, val interfaceMtu: Int,
+                        log: Logger) {
+    import DhcpReplyCache._
+    import DhcpValueParser._
+
+    val serverMac = ServerMac
+    val serverAddr =
+        if (subnet.serverAddress ne null) subnet.serverAddress
+        else IPv4Addr.AnyAddress
+    val yiaddr = host.address
+
+    // Use mutable.HashMap to eliminate the duplication between the Midolman
+    // DHCP extra option handlings and the Neutron ones.
+    private val optionMap = mutable.HashMap[Byte, DHCPOption]()
+    buildOptions()
+
+    val offerOptions = options(DHCPOption.MsgType.OFFER)
+    val ackOptions = options(DHCPOption.MsgType.ACK)
+    val nakOptions = options(DHCPOption.MsgType.NAK)
+
+    /**
+      * Returns the reply options for the given message type, which sets the
+      * DHCP type option unless the host overrides it with an extra option.
+      */
+    private def options(msgType: DHCPOption.MsgType): util.List[DHCPOption] = {
+        val typeOption = new DHCPOption(DHCPOption.Code.DHCP_TYPE.value,
+                                        DHCPOption.Code.DHCP_TYPE.length,
+                                        Array[Byte](msgType.value))
+        val options = new util.ArrayList[DHCPOption](optionMap.size + 1)
+        for (option <- optionMap.values) {
+            if (option.getCode == DHCPOption.Code.DHCP_TYPE.value &&
+                option.getData == null) {
+                options.add(typeOption)
+            } else {
+                options.add(option)
+            }
+        }
+        // And finally add the END option.
+        options.add(new DHCPOption(DHCPOption.Code.END.value,
+            DHCPOption.Code.END.length, null))
+        Collections.unmodifiableList(options)
+    }
+
+    private def buildOptions(): Unit = {
+        // A placeholder for the DHCP type option, which is set for every
+        // message type.
+        optionMap.put(DHCPOption.Code.DHCP_TYPE.value,
+            new DHCPOption(DHCPOption.Code.DHCP_TYPE.value,
+                DHCPOption.Code.DHCP_TYPE.length, null))
+
+        val routerAddr = subnet.defautGateway
+        val yiAddrMaskLen = subnet.subnetAddress.getPrefixLen
+
+        // TODO(pino): do we need to include the DNS option?
+        optionMap.put(DHCPOption.Code.MASK.value,
+            new DHCPOption(DHCPOption.Code.MASK.value,
+                DHCPOption.Code.MASK.length,
+                IPv4Addr.intToBytes(
+                    ~0 << (32 - yiAddrMaskLen))))
+
+        // Generate the broadcast address... this is nwAddr with 1's in the
+        // last 32-nwAddrLength bits.
+        val mask = ~0 >>> yiAddrMaskLen
+        val bcast = mask | yiaddr.addr
+        optionMap.put(DHCPOption.Code.BCAST_ADDR.value,
+            new DHCPOption(DHCPOption.Code.BCAST_ADDR.value,
+                DHCPOption.Code.BCAST_ADDR.length,
+                IPv4Addr.intToBytes(bcast)))
+        optionMap.put(DHCPOption.Code.IP_LEASE_TIME.value,
+            new DHCPOption(DHCPOption.Code.IP_LEASE_TIME.value,
+                DHCPOption.Code.IP_LEASE_TIME.length,
+                LeaseTime))
+        optionMap.put(DHCPOption.Code.INTERFACE_MTU.value,
+            new DHCPOption(DHCPOption.Code.INTERFACE_MTU.value,
+                DHCPOption.Code.INTERFACE_MTU.length,
+                Array[Byte](((interfaceMtu >> 8) & 0xff).toByte,
+                            (interfaceMtu & 0xff).toByte)))
+        if (routerAddr != null) {
+            optionMap.put(DHCPOption.Code.ROUTER.value,
+                new DHCPOption(DHCPOption.Code.ROUTER.value,
+                    DHCPOption.Code.ROUTER.length,
+                    routerAddr.toBytes))
+        }
+        // in MidoNet the DHCP server is the same as the router
+        optionMap.put(DHCPOption.Code.SERVER_ID.value,
+            new DHCPOption(
+                DHCPOption.Code.SERVER_ID.value,
+                DHCPOption.Code.SERVER_ID.length,
+                serverAddr.toBytes))
+
+        val dnsServerAddrs = subnet.dnsServerAddress
+        if ((dnsServerAddrs ne null) && !dnsServerAddrs.isEmpty) {
+            val bytes = dnsServerAddrs.asScala.flatMap(_.toBytes).toArray
+            optionMap.put(DHCPOption.Code.DNS.value,
+                new DHCPOption(DHCPOption.Code.DNS.value,
+                    bytes.length.toByte, bytes))
+        }
+        // If there are classless static routes, add the option.
+        val opt121Routes = subnet.opt121Routes
+        if ((opt121Routes ne null) && !opt121Routes.isEmpty) {
+            val routes = opt121Routes.asScala.to[mutable.ListBuffer]
+            if (routerAddr != null) {
+                // According to RFC 3442, if classless routes (option 121) are
+                // being provided, then the router option should be ignored.
+                // In this case we want to provide the default route with
+                // option 121 in addition to option 3.
+                routes += Opt121Route(
+                    destinationSubnet = IPv4Addr.AnyAddress.subnet(0),
+                    gateway = routerAddr)
+            }
+            val bytes = mutable.ListBuffer[Byte]()
+            routes foreach { rt => bytes.appendAll(opt121ToByteArray(rt)) }
+            // Finally, construct the classless static routes option
+            optionMap.put(DHCPOption.Code.CLASSLESS_ROUTES.value,
+                new DHCPOption(
+                    DHCPOption.Code.CLASSLESS_ROUTES.value(),
+                    bytes.length.toByte,
+                    bytes.toArray))
+        }
+
+        // Add extra DHCP options. This overwrite the existing DHCP extra option
+        // set already before calling this method.
+        setExtraDhcpOptions(optionMap)
+    }
+
+    private def opt121ToByteArray(opt121: Opt121Route): mutable.ListBuffer[Byte] = {
+        val bytes = mutable.ListBuffer[Byte]()
+        // First append the destination subnet's maskLength
+        val maskLen = opt121.destinationSubnet.getPrefixLen.toByte
+        bytes.append(maskLen)
+        // Now append the significant octets of the subnet.
+        val dstBytes = opt121.destinationSubnet.getAddress.toBytes
+        if (maskLen > 0) bytes.append(dstBytes(0))
+        if (maskLen > 8) bytes.append(dstBytes(1))
+        if (maskLen > 16) bytes.append(dstBytes(2))
+        if (maskLen > 24) bytes.append(dstBytes(3))
+        // Now append the 4 octets of the gateway.
+        val gwBytes = opt121.gateway.toBytes
+        bytes.appendAll(gwBytes.toList)
+        bytes
+    }
+
+    private def setExtraDhcpOptions(optMap: mutable.Map[Byte, DHCPOption])
+    : Unit = {
+        if (host.extraDhcpOptions eq null) {
+            return
+        }
+        for (opt <- host.extraDhcpOptions.asScala) {
+            val dhcpOptOption: Option[DHCPOption] = for {
+                code <- parseDhcpOptionCode(opt.name)
+                option <- CodeToOption.get(code)
+                value <- parseDhcpOptionValue(code, opt.value)
+                if (value.length != 0) &&
+                    (value.length % option.length == 0)
+            } yield new DHCPOption(
+                    code, value.length.toByte, value)
+            if (dhcpOptOption.isDefined) {
+                val dhcpOption = dhcpOptOption.get
+                optMap.put(dhcpOption.getCode, dhcpOption)
+            } else {
+                log.info(s"Invalid DHCP Option: ${opt.name} " +
+                         s"with value ${opt.value}: will be handled as " +
+                         "unknown")
+            }
+        }
+    }
+}
@@ -39,6 +39,7 @@ trait MirroringDevice extends SimDevice {
         var i = 0
         while (i < mirrors.size) {
             val mirror = tryGet(classOf[Mirror], mirrors.get(i))
+            context.addTraversedDevice(mirror.id, mirror)
             i += 1
             mirror process context match {
                 case toPort: ToPortAction =>
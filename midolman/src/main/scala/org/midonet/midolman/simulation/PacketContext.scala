@@ -26,11 +26,13 @@ import scala.collection.JavaConversions._
 import org.slf4j.LoggerFactory
 
 import org.midonet.midolman._
-import org.midonet.midolman.flows.ManagedFlow
+import org.midonet.midolman.flows.{FlowInvalidationLog, ManagedFlow}
 import org.midonet.midolman.layer3.Route
+import org.midonet.midolman.monitoring.SimulationProfiler
 import org.midonet.midolman.PacketWorkflow.{GeneratedLogicalPacket, GeneratedPhysicalPacket}
 import org.midonet.midolman.state.{ArpRequestBroker, FlowStateAgentPackets => FlowStatePackets}
 import org.midonet.midolman.rules.RuleResult
+import org.midonet.midolman.topology.VirtualTopology
 import org.midonet.odp.{FlowMatch, Packet}
 import org.midonet.odp.flows.FlowActions._
 import org.midonet.odp.flows.{FlowAction, FlowActions, FlowKeys}
@@ -376,6 +378,105 @@ trait Fip64TranslationContext extends Clearable {
     }
 }
 
+/**
+ * Part of the PacketContext, contains the point at which a simulation was
+ * suspended because a device was not yet available, and the devices that
+ * the simulation traversed up to that point.
+ *
+ * A simulation can be resumed from the point of suspension only when it was
+ * suspended looking up the next device in the path, outside of any forked
+ * branch, and before making any changes to the flow state. Otherwise, or if
+ * any of the traversed devices changed while the simulation was suspended,
+ * the simulation restarts from the ingress port. The simulation also
+ * restarts if the packet worker invalidated any of the flow tags collected
+ * before the suspension, since the decisions that added those tags, such as
+ * the port of a learned MAC, may no longer hold.
+ */
+trait ResumableContext extends Clearable { this: PacketContext =>
+    val traversedDeviceIds = new ArrayList[UUID]()
+    val traversedDevices = new ArrayList[AnyRef]()
+
+    private var resumeDevice: SimDevice = null
+    private var resumeResult: PacketWorkflow.SimulationResult = null
+    private var suspendedOn: NotYetException = null
+    private var invalidationSequence = 0L
+
+    def addTraversedDevice(id: UUID, device: AnyRef): Unit = {
+        traversedDeviceIds.add(id)
+        traversedDevices.add(device)
+    }
+
+    /**
+     * Records that the simulation was suspended by the given exception at a
+     * point where it can resume by continuing with the given result.
+     */
+    def suspendAt(device: SimDevice, result: PacketWorkflow.SimulationResult,
+                  e: NotYetException): Unit = {
+        resumeDevice = device
+        resumeResult = result
+        suspendedOn = e
+    }
+
+    def isResumable: Boolean = resumeResult ne null
+
+    def resumable(e: NotYetException): Boolean =
+        (suspendedOn eq e) &&
+        ((conntrackTx eq null) || conntrackTx.isEmpty) &&
+        ((natTx eq null) || natTx.isEmpty)
+
+    /**
+     * Indicates whether all the devices traversed before the suspension are
+     * still the current version of the devices.
+     */
+    def traversedDevicesUnchanged: Boolean = {
+        var index = 0
+        while (index < traversedDevices.size) {
+            if (!VirtualTopology.isCurrent(traversedDeviceIds.get(index),
+                                           traversedDevices.get(index)))
+                return false
+            index += 1
+        }
+        true
+    }
+
+    /**
+     * Indicates whether the suspended simulation can resume: none of the
+     * traversed devices changed, and none of the collected flow tags were
+     * invalidated since the simulation was postponed.
+     */
+    def canResume(invalidations: FlowInvalidationLog): Boolean =
+        traversedDevicesUnchanged &&
+        !invalidations.invalidatedSince(invalidationSequence, flowTags)
+
+    protected def suspendedAfter(invalidations: FlowInvalidationLog): Unit = {
+        invalidationSequence = invalidations.sequence
+    }
+
+    def resumeSimulation(): PacketWorkflow.SimulationResult = {
+        val device = resumeDevice
+        val result = resumeResult
+        clearSuspension()
+        device.continue(this, result)
+    }
+
+    def clearSuspension(): Unit = {
+        resumeDevice = null
+        resumeResult = null
+        suspendedOn = null
+    }
+
+    def resetResumableContext(): Unit = {
+        traversedDeviceIds.clear()
+        traversedDevices.clear()
+        clearSuspension()
+    }
+
+    override def clear(): Unit = {
+        resetResumableContext()
+        super.clear()
+    }
+}
+
 /**
  * The PacketContext represents the simulation of a packet traversing the
  * virtual topology. Since a simulation runs-to-completion, always in the
@@ -388,6 +489,7 @@ class PacketContext extends Clearable
         with RedirectContext
         with Fip64TranslationContext
         with RecordedContext
+        with ResumableContext
         with StateContext {
     var log = PacketContext.defaultLog
 
@@ -401,6 +503,8 @@ class PacketContext extends Clearable
     var runs: Int = 0
 
     var devicesTraversed = 0
+    // The devices traversed in the previous runs of the simulation.
+    var devicesSimulated = 0
 
     var inPortId: UUID = _
     var outPortId: UUID = _
@@ -427,6 +531,22 @@ class PacketContext extends Clearable
     val flowProcessed: AtomicBoolean = new AtomicBoolean(false)
     val packetProcessed: AtomicBoolean = new AtomicBoolean(false)
 
+    // The durations of the stages of the packet pipeline, in nanoseconds,
+    // recorded by the packet worker once the packet has been processed. The
+    // simulation and the wait on a NotYet add up across simulation runs, and
+    // stageStartNanos is the start of the stage in progress.
+    var stageStartNanos = 0L
+    var queueNanos = 0L
+    var simulationNanos = 0L
+    var waitNanos = 0L
+    var translationNanos = 0L
+    var flowCreateNanos = 0L
+    var executeNanos = 0L
+
+    // The profiler of the packet worker, if the simulation of this packet
+    // is sampled for profiling.
+    var profiler: SimulationProfiler = null
+
     // Stores the callback to call when this flow is removed.
     val flowRemovedCallbacks = new ArrayList[Callback0]()
     def addFlowRemovedCallback(cb: Callback0): Unit = {
@@ -467,14 +587,25 @@ class PacketContext extends Clearable
         flowProcessed.set(false)
         packetProcessed.set(false)
 
+        stageStartNanos = 0L
+        queueNanos = 0L
+        simulationNanos = 0L
+        waitNanos = 0L
+        translationNanos = 0L
+        flowCreateNanos = 0L
+        executeNanos = 0L
+        profiler = null
+
         resetFlowContext()
         resetRedirectContext()
         resetRecordedContext()
         resetStateContext()
+        resetResumableContext()
 
         this.log = PacketContext.defaultLog
         this.idle = true
         this.devicesTraversed = 0
+        this.devicesSimulated = 0
         this.runs = 0
         this.cookie = -1
         this.packet = null
@@ -501,7 +632,10 @@ class PacketContext extends Clearable
     def prepareForSimulation() {
         idle = false
         runs += 1
+        devicesSimulated += devicesTraversed
         devicesTraversed = 0
+        traversedDeviceIds.clear()
+        traversedDevices.clear()
         currentDevice = null
         routeTo = null
         origMatch.clearSeenFields()
@@ -515,12 +649,35 @@ class PacketContext extends Clearable
         clear()
     }
 
-    def postpone() {
+    def prepareForResume(): Unit = {
+        idle = false
+        runs += 1
+    }
+
+    /**
+     * Postpones the simulation suspended by the given exception. The context
+     * keeps the simulation state if the simulation can resume from the point
+     * of suspension, along with the current sequence of the invalidation log
+     * of the packet worker, and otherwise it is cleared for a restart.
+     */
+    def postpone(e: NotYetException, invalidations: FlowInvalidationLog) {
+        idle = true
+        if ((e eq null) || !resumable(e)) {
+            discardSimulation()
+        } else {
+            suspendedAfter(invalidations)
+        }
+    }
+
+    /**
+     * Discards the state of a postponed simulation, such that it restarts
+     * from the ingress port.
+     */
+    def discardSimulation(): Unit = {
         // reset the payload and its original flow match in case it was
         // encapsulated or decapsulated during this try of the simulation.
         if (recircPayload ne null)
             packet.setEthernet(recircPayload)
-        idle = true
         inputPort = null
         clear()
     }
@@ -19,13 +19,15 @@ package org.midonet.midolman.simulation
 import java.util
 import java.util.{Objects, UUID}
 
+import scala.util.hashing.MurmurHash3
+
 import org.midonet.midolman.state.NatState.NatKey
 import org.midonet.midolman.state.l4lb.{PoolLBMethod, SessionPersistence}
 import org.midonet.midolman.topology.VirtualTopology.VirtualDevice
 import org.midonet.packets.{ICMP, IPAddr}
 import org.midonet.packets.NatState
 import org.midonet.sdn.flows.FlowTagger
-import org.midonet.util.collection.WeightedSelector
+import org.midonet.util.collection.{MaglevSelector, WeightedSelector}
 
 object Pool {
     def findPoolMember(ip: IPAddr, port: Int, pmArray: Array[PoolMember])
@@ -39,6 +41,34 @@ object Pool {
         }
         false
     }
+
+    /** The stable key of a pool member in the Maglev lookup table. */
+    private def memberKey(member: PoolMember): Long = {
+        member.id.getMostSignificantBits * 31 +
+        member.id.getLeastSignificantBits
+    }
+
+    /**
+     * Computes the consistent hash of a flow for the Maglev selection. With
+     * source IP persistence only the source address is hashed, such that all
+     * connections from a client are sent to the same pool member. The hash
+     * must be the same on every agent.
+     */
+    private def flowHash(context: PacketContext,
+                         stickySourceIP: Boolean): Int = {
+        val fmatch = context.wcmatch
+        var hash = MurmurHash3.mix(MurmurHash3.arraySeed,
+                                   fmatch.getNetworkSrcIP.hashCode())
+        if (stickySourceIP) {
+            MurmurHash3.finalizeHash(hash, 1)
+        } else {
+            hash = MurmurHash3.mix(hash, fmatch.getSrcPort)
+            hash = MurmurHash3.mix(hash, fmatch.getNetworkDstIP.hashCode())
+            hash = MurmurHash3.mix(hash, fmatch.getDstPort)
+            hash = MurmurHash3.mixLast(hash, fmatch.getNetworkProto)
+            MurmurHash3.finalizeHash(hash, 5)
+        }
+    }
 }
 
 final class Pool(val id: UUID, val adminStateUp: Boolean,
@@ -56,8 +86,14 @@ final class Pool(val id: UUID, val adminStateUp: Boolean,
 
     val isUp = adminStateUp && activePoolMembers.nonEmpty
 
-    private val memberSelector = if (!isUp) null
-                                 else WeightedSelector(activePoolMembers)
+    // The Maglev lookup table is built once per pool instance, and therefore
+    // only when the pool or the state of its members change.
+    private val maglevSelector =
+        if (!isUp || lbMethod != PoolLBMethod.MAGLEV) null
+        else MaglevSelector(activePoolMembers)(Pool.memberKey)
+    private val memberSelector =
+        if (!isUp || (maglevSelector ne null)) null
+        else WeightedSelector(activePoolMembers)
 
     /**
      * Choose an active pool member and apply DNAT to the packetContext
@@ -66,6 +102,12 @@ final class Pool(val id: UUID, val adminStateUp: Boolean,
      * If an existing NAT mapping is present, we respect that instead of mapping
      * to a new backend, in order to maintain existing connections.
      *
+     * With the [[PoolLBMethod.MAGLEV]] method, the member is selected by the
+     * consistent hash of the flow, such that any agent selects the same member
+     * for a new connection, and an agent that lost the NAT state of a
+     * connection selects again the same member, unless the pool members
+     * changed.
+     *
      * Return action based on outcome: ACCEPT if loadbalanced successfully,
      * DROP if no active pool member is available.
      */
@@ -76,7 +118,10 @@ final class Pool(val id: UUID, val adminStateUp: Boolean,
         context.addFlowTag(deviceTag)
 
         if (isUp) {
-            val member = memberSelector.select()
+            val member =
+                if (maglevSelector ne null)
+                    maglevSelector.select(Pool.flowHash(context, stickySourceIP))
+                else memberSelector.select()
             if (context.log.underlying.isDebugEnabled) {
                 context.log.debug(s"Selected member $member out of {}",
                                   activePoolMembers.mkString(", "))
@@ -27,7 +27,9 @@ import org.midonet.cluster.models.Commons.IPVersion
 import org.midonet.cluster.models.Topology
 import org.midonet.cluster.state.PortStateStorage.PortState
 import org.midonet.cluster.util.{IPAddressUtil, IPSubnetUtil, UUIDUtil}
+import org.midonet.midolman.NotYetException
 import org.midonet.midolman.PacketWorkflow._
+import org.midonet.midolman.monitoring.SimulationProfiler
 import org.midonet.midolman.simulation.Simulator.{ContinueWith, Fip64Action, SimHook, ToPortAction}
 import org.midonet.midolman.topology.GatewayMappingService
 import org.midonet.midolman.topology.VirtualTopology.{VirtualDevice, tryGet}
@@ -240,8 +242,13 @@ trait Port extends VirtualDevice with InAndOutFilters with MirroringDevice with
     //  3. in-filter
     //  4. post-in-filter mirror
     //  5. port device
-    private val continueIn = ContinueWith(context => {
-        val dev = device
+    private val continueIn: ContinueWith = ContinueWith(context => {
+        val dev = try device catch {
+            case e: NotYetException =>
+                context.suspendAt(this, continueIn, e)
+                throw e
+        }
+        context.addTraversedDevice(deviceId, dev)
         dev.continue(context, dev.process(context))
     })
 
@@ -257,7 +264,7 @@ trait Port extends VirtualDevice with InAndOutFilters with MirroringDevice with
     //  3. out-filter
     //  4. post-out-filter mirror
     //  5. emit
-    private val emit = ContinueWith(emitCommon)
+    private val emit: ContinueWith = ContinueWith(emitCommon)
 
     private val continueOut: SimStep =
         mirroringPostOutFilter(_, emit)
@@ -301,6 +308,9 @@ trait Port extends VirtualDevice with InAndOutFilters with MirroringDevice with
             ErrorDrop
         } else {
             context.devicesTraversed += 1
+            context.addTraversedDevice(id, this)
+            if (context.profiler ne null)
+                context.profiler.enter(id, SimulationProfiler.Port)
             ingressCommon(context)
         }
     }
@@ -314,6 +324,9 @@ trait Port extends VirtualDevice with InAndOutFilters with MirroringDevice with
                               s"topology loop")
             ErrorDrop
         } else {
+            context.addTraversedDevice(id, this)
+            if (context.profiler ne null)
+                context.profiler.enter(id, SimulationProfiler.Port)
             egressCommon(context, mirrorFilterAndContinueOut)
         }
     }
@@ -347,7 +360,7 @@ trait Port extends VirtualDevice with InAndOutFilters with MirroringDevice with
                 AddVirtualWildcardFlow
         } else if (isInterior) {
             context =>
-                tryGet(classOf[Port], peerId).ingress(context)
+                nextPort(context, peerId, emit).ingress(context)
         } else {
             context =>
                 context.log.warn("Port {} is unplugged", id)
@@ -63,8 +63,8 @@ object Router {
      * Provided to the [[Router]] for operations on tags.
      */
     trait TagManager {
-        def addIPv4Tag(dstIp: IPv4Addr, matchLength: Int)
-        def getFlowRemovalCallback(dstIp: IPv4Addr): Callback0
+        def addIPTag(dstIp: IPAddr, matchLength: Int)
+        def getFlowRemovalCallback(dstIp: IPAddr, matchLength: Int): Callback0
     }
 
     trait RoutingTable {
@@ -158,9 +158,9 @@ class Router(override val id: UUID,
 
                 val dstIp = context.wcmatch.getNetworkDstIP.asInstanceOf[IPv4Addr]
                 context.addFlowTag(FlowTagger.tagForDestinationIp(id, dstIp))
-                routerMgrTagger.addIPv4Tag(dstIp, matchLen)
+                routerMgrTagger.addIPTag(dstIp, matchLen)
                 context.addFlowRemovedCallback(
-                        routerMgrTagger.getFlowRemovalCallback(dstIp))
+                        routerMgrTagger.getFlowRemovalCallback(dstIp, matchLen))
         }
     }
 
@@ -21,6 +21,7 @@ import java.util.UUID
 import org.midonet.midolman.NotYetException
 import org.midonet.midolman.PacketWorkflow._
 import org.midonet.midolman.layer3.Route
+import org.midonet.midolman.monitoring.SimulationProfiler
 import org.midonet.midolman.routingprotocols.RoutingWorkflow
 import org.midonet.midolman.rules.RuleResult
 import org.midonet.midolman.simulation.Icmp._
@@ -82,6 +83,8 @@ abstract class RouterBase[IP <: IPAddr]()
      */
     override def process(context: PacketContext): SimulationResult = {
         implicit val packetContext = context
+        if (context.profiler ne null)
+            context.profiler.enter(id, SimulationProfiler.Router)
         context.preRoutingMatch.reset(context.wcmatch)
 
         context.log.debug(s"Packet ingressing $this")
@@ -18,6 +18,7 @@ package org.midonet.midolman.simulation
 
 import java.util.{List => JList, UUID}
 
+import org.midonet.midolman.NotYetException
 import org.midonet.midolman.PacketWorkflow.{SimStep, SimulationResult => Result, _}
 import org.midonet.midolman.simulation.SimulationStashes._
 import org.midonet.midolman.rules.RuleResult
@@ -67,6 +68,16 @@ object Simulator {
             tryGet(classOf[Port], context.egressPort).egress(context)
     }
 
+    /**
+     * Resumes a simulation that was suspended by a [[NotYetException]] at
+     * the point of suspension recorded in the packet context.
+     */
+    def resume(context: PacketContext): Result = {
+        context.log.debug("Resuming packet simulation")
+        SimulationStashes.reUpStashes()
+        context.resumeSimulation()
+    }
+
 }
 
 trait ForwardingDevice extends SimDevice {
@@ -120,6 +131,11 @@ trait SimDevice {
         context.nwDstRewritten = false
         try {
             continue(context, result)
+        } catch {
+            case e: NotYetException =>
+                // The simulation cannot resume inside a forked branch.
+                context.clearSuspension()
+                throw e
         } finally {
             context.currentDevice = curDev
             context.nwDstRewritten = nwDstRewritten
@@ -153,11 +169,26 @@ trait SimDevice {
         res
     }
 
+    /**
+     * Returns the next port in the simulation path. If the port is not yet
+     * available, the simulation can resume from this point by continuing
+     * with the given result.
+     */
+    protected final def nextPort(context: PacketContext, id: UUID,
+                                 result: Result): Port = {
+        try tryGet(classOf[Port], id)
+        catch {
+            case e: NotYetException =>
+                context.suspendAt(this, result, e)
+                throw e
+        }
+    }
+
     @tailrec
     final def continue(context: PacketContext, simRes: Result): Result =
         simRes match {
             case ToPortAction(port) =>
-                continue(context, tryGet(classOf[Port], port).egress(context))
+                continue(context, nextPort(context, port, simRes).egress(context))
             case ContinueWith(step) =>
                 continue(context, step(context))
             case f: ForkAction =>
@@ -257,7 +288,9 @@ trait InAndOutFilters extends SimDevice {
         var i = 0
         while (i < filters.size()) {
             val filter = filters.get(i)
-            val ruleResult = tryGet(classOf[Chain], filter).process(context)
+            val chain = tryGet(classOf[Chain], filter)
+            context.addTraversedDevice(filter, chain)
+            val ruleResult = chain.process(context)
             if (ruleResult.action ne Action.ACCEPT)
                 return ruleResult
             i += 1
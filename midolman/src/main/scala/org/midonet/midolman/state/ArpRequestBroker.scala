@@ -15,9 +15,10 @@
  */
 package org.midonet.midolman.state
 
-import java.lang.{Long => JLong}
 import java.util
-import java.util.{ArrayDeque, Comparator, PriorityQueue, UUID}
+import java.util.UUID
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicBoolean
 
 import scala.annotation.tailrec
 import scala.concurrent.{Future, Promise}
@@ -36,6 +37,8 @@ import org.midonet.midolman.simulation._
 import org.midonet.packets.{Ethernet, IPv4Addr, MAC}
 import org.midonet.sdn.flows.FlowTagger
 import org.midonet.util.UnixClock
+import org.midonet.util.collection.TimerWheel
+import org.midonet.util.collection.TimerWheel.Timer
 import org.midonet.util.functors.makeAction1
 
 object ArpRequestBroker {
@@ -77,6 +80,11 @@ object ArpRequestBroker {
  * agents may decide to ARP at the same time for the IP address. To reduce
  * this effect outside of the 1st ARP request, the implementation introduces
  * jitter to the staleness and ARP retry intervals.
+ *
+ * The ARP retries and the entry expirations of all routers are scheduled in
+ * a single timer wheel, and the routers that learned new MACs enqueue
+ * themselves for processing, such that the cost of process() and
+ * shouldProcess() does not depend on the number of routers.
  */
 class ArpRequestBroker(config: MidolmanConfig,
                        backChannel: SimulationBackChannel,
@@ -86,6 +94,9 @@ class ArpRequestBroker(config: MidolmanConfig,
     override def logSource = "org.midonet.devices.router.arptable"
 
     private val brokers = new util.HashMap[UUID, SingleRouterArpRequestBroker]()
+    private val timers = new TimerWheel(clock.time)
+    private val pendingBrokers =
+        new ConcurrentLinkedQueue[SingleRouterArpRequestBroker]()
 
     def numRouters = brokers.size
 
@@ -94,7 +105,8 @@ class ArpRequestBroker(config: MidolmanConfig,
             case null =>
                 log.debug(s"Building new ARP request broker for router ${router.id}")
                 val broker = new SingleRouterArpRequestBroker(router.id,
-                        router.arpCache, config, backChannel, clock)
+                        router.arpCache, config, backChannel, timers,
+                        pendingBrokers, clock)
                 brokers.put(router.id, broker)
                 broker
             case broker => broker
@@ -133,28 +145,29 @@ class ArpRequestBroker(config: MidolmanConfig,
         broker(router).setAndGet(ip, mac, port, cookie)
     }
 
+    /*
+     * Processes the MACs learned by the routers since the last call, and then
+     * runs the ARP retries and entry expirations that are due.
+     */
     def process(): Unit = {
-        val tables = brokers.values.iterator()
-        while (tables.hasNext) {
-            tables.next().process()
+        var broker = pendingBrokers.poll()
+        while (broker ne null) {
+            broker.processNewMacs()
+            broker = pendingBrokers.poll()
         }
+        timers.advance(clock.time)
     }
 
-    def shouldProcess(): Boolean = {
-        val tables = brokers.values.iterator()
-        var should = false
-        while (tables.hasNext && !should) {
-            val next = tables.next()
-            should = should || next.shouldProcess()
-        }
-        should
-    }
+    def shouldProcess(): Boolean =
+        !pendingBrokers.isEmpty || clock.time >= timers.nextDeadline
 }
 
 class SingleRouterArpRequestBroker(id: UUID,
                                    arpCache: ArpCache,
                                    config: MidolmanConfig,
                                    backChannel: SimulationBackChannel,
+                                   timers: TimerWheel,
+                                   pendingBrokers: util.Queue[SingleRouterArpRequestBroker],
                                    clock: UnixClock = UnixClock())
     extends MidolmanLogging {
 
@@ -165,36 +178,24 @@ class SingleRouterArpRequestBroker(id: UUID,
 
     private val random = new Random()
 
-    private val LOOP_COMPARE = new Comparator[ArpLoop] {
-        override def compare(a: ArpLoop, b: ArpLoop) = JLong.compare(a.nextTry, b.nextTry)
-    }
-
     /*
-     * Set of IPv4 addresses we are currently ARP'ing for. Used as a guard
-     * against the initiation of multiple ARP request loops.
+     * Currently active ARP request loops, indexed by the IPv4 address we are
+     * ARP'ing for. Used as a guard against the initiation of multiple ARP
+     * request loops. The loops are scheduled in the timer wheel at the time
+     * of their next retry, when they emit a pending ARP request or expire if
+     * they timed out.
      */
-    private val arpLoops = new util.HashSet[IPv4Addr]()
+    private val arpLoops = new util.HashMap[IPv4Addr, ArpLoop]()
 
     /*
-     * Priority queue of currently active ARP request loops, ordered by
-     * time to their next retry. It will be checked periodically to emit
-     * any pending ARP request or expire any timed out loops.
-     */
-    private val arpLoopQ = new PriorityQueue[ArpLoop](32, LOOP_COMPARE)
-    /*
-     * Guarantee arpLoopQ will never be empty
+     * ARP entry expirations, for all the arp entries created by this
+     * ArpRequestBroker. In other words, entries for which set() was called on
+     * this specific instance. This instance is responsible for the expiration
+     * of the entries it has itself created. It does not need to worry about
+     * other entries because they are ephemeral and guaranteed to disappear if
+     * other nodes fail.
      */
-    arpLoopQ.add(ImmortalLoop)
-
-    /*
-     * Queue of ARP entry expirations. It contains in FIFO order, all the
-     * arp entries created by this ArpRequestBroker. In other words, entries
-     * for which set() was called on this specific instance. This instance is
-     * responsible for the expiration of the entries it has itself created. It
-     * does not need to worry about other entries because they are ephemeral
-     * and guaranteed to disappear if other nodes fail.
-     */
-    private val expiryQ = new ArrayDeque[(Long, IPv4Addr)]()
+    private val expiries = new util.HashMap[IPv4Addr, ArpExpiry]()
 
     /*
      * Unfulfilled MAC promises for all packets that had to be suspended because
@@ -206,16 +207,25 @@ class SingleRouterArpRequestBroker(id: UUID,
      * Privately managed back-channel through which this class hears of newly
      * learned MACs. This class will install a callback in the underlying
      * ArpCache's reactor to write events to this concurrent queue. It will later
-     * process these events sequentially when process() is invoked.
+     * process these events sequentially when processNewMacs() is invoked.
      */
     private val macsDiscovered = new SpscGrowableArrayQueue[MacChange](256, 1 << 30)
 
+    /*
+     * Indicates whether this broker is in the queue of pending brokers, such
+     * that it is enqueued at most once for a batch of new MACs.
+     */
+    private val pending = new AtomicBoolean(false)
+
     /**
      * Notify this ArpRequestBroker when the ArpTable has discovered a new
      * MAC - IP address association. May be called from any thread.
      */
     arpCache.observable.subscribe(makeAction1[ArpCacheUpdate] { u =>
         macsDiscovered.add(MacChange(u.ipAddr, u.oldMac, u.newMac))
+        if (pending.compareAndSet(false, true)) {
+            pendingBrokers.add(this)
+        }
     })
 
     private val stalenessJitter: Long = {
@@ -235,29 +245,7 @@ class SingleRouterArpRequestBroker(id: UUID,
      * there are no entries in the expiry queue and there are no MAC promises
      * awaiting fulfillment.
      */
-    def isIdle: Boolean = arpLoops.isEmpty && expiryQ.isEmpty && arpWaiters.isEmpty
-
-    /*
-     * Checks back-channels (which are private, but exist) and runs all
-     * ARP table book keeping tasks. Including expiries and ARP request
-     * generation.
-     */
-    def process(): Unit = {
-        processNewMacs()
-        processArpLoops()
-        processExpirations()
-    }
-
-    @volatile
-    private var nextEvent = Long.MaxValue
-
-    private def updateNextEvent() = {
-        nextEvent = arpLoopQ.peek().nextTry
-    }
-
-    def shouldProcess(): Boolean = (!macsDiscovered.isEmpty) || (clock.time >= nextEvent)
-
-    private def arpLoopIsReady: Boolean = arpLoopQ.peek().nextTry < clock.time
+    def isIdle: Boolean = arpLoops.isEmpty && expiries.isEmpty && arpWaiters.isEmpty
 
     /*
      * Queries the ARP table, returning a MAC or throwing a NotYetException
@@ -286,7 +274,7 @@ class SingleRouterArpRequestBroker(id: UUID,
     }
 
     private def arpForAddress(ip: IPv4Addr, port: RouterPort, cookie: Long): Unit = {
-        if (arpLoops.contains(ip))
+        if (arpLoops.containsKey(ip))
             return
         if (port.portAddress4 eq null)
             return
@@ -296,9 +284,8 @@ class SingleRouterArpRequestBroker(id: UUID,
         val arp = makeArpRequest(port.portMac, port.portAddress4.getAddress, ip)
         backChannel.tell(GeneratedLogicalPacket(port.id, arp, cookie))
 
-        arpLoops.add(ip)
-        arpLoopQ.add(loop)
-        updateNextEvent()
+        arpLoops.put(ip, loop)
+        loop.tick()
     }
 
     /**
@@ -317,7 +304,12 @@ class SingleRouterArpRequestBroker(id: UUID,
             val entry = new ArpEntry(mac, now + config.arptable.expiration,
                                                now + config.arptable.stale, 0)
             arpCache.add(ip, entry)
-            expiryQ.add((entry.expiry, ip))
+            var expiry = expiries.get(ip)
+            if (expiry eq null) {
+                expiry = new ArpExpiry(ip)
+                expiries.put(ip, expiry)
+            }
+            timers.schedule(expiry, entry.expiry)
         }
     }
 
@@ -331,44 +323,37 @@ class SingleRouterArpRequestBroker(id: UUID,
             waitForArpEntry(ip)
     }
 
-    private def processExpirations() {
-        while ((!expiryQ.isEmpty) && (expiryQ.peek()._1 <= clock.time)) {
-            val (_, ip) = expiryQ.poll()
-            val entry = arpCache.get(ip)
-
-            /* This is racy because the remove() op is not CAS.
-             * This means we could delete an entry written just now by another
-             * node that refreshed the arp cache entry. The result would be
-             * that MidoNet would have to ARP again, and in this case the race
-             * would not be possible because there would be no expirer to
-             * race with the writer. */
-            if ((entry ne null) && (entry.expiry <= clock.time))
-                arpCache.remove(ip)
-        }
+    private def expire(ip: IPv4Addr) {
+        expiries.remove(ip)
+        val entry = arpCache.get(ip)
+
+        /* This is racy because the remove() op is not CAS.
+         * This means we could delete an entry written just now by another
+         * node that refreshed the arp cache entry. The result would be
+         * that MidoNet would have to ARP again, and in this case the race
+         * would not be possible because there would be no expirer to
+         * race with the writer. */
+        if ((entry ne null) && (entry.expiry <= clock.time))
+            arpCache.remove(ip)
     }
 
-    private def processArpLoops() {
-        while (arpLoopIsReady) {
-            val loop = arpLoopQ.poll()
-            val entry = arpCache.get(loop.ip)
-
-            if (upToDate(entry)) {
-                arpLoops.remove(loop.ip)
-                keepPromises(loop.ip, entry.mac)
-            } else if (loop.timedOut) {
-                arpLoops.remove(loop.ip)
-                breakPromises(loop.ip)
-            } else {
-                val arp = makeArpRequest(loop.port.portMac,
-                                         loop.port.portAddress4.getAddress,
-                                         loop.ip)
-                backChannel.tell(
-                    GeneratedLogicalPacket(loop.port.id, arp, loop.cookie))
-                loop.tick()
-                arpLoopQ.add(loop)
-            }
+    private def retry(loop: ArpLoop) {
+        val entry = arpCache.get(loop.ip)
+
+        if (upToDate(entry)) {
+            arpLoops.remove(loop.ip)
+            keepPromises(loop.ip, entry.mac)
+        } else if (loop.timedOut) {
+            arpLoops.remove(loop.ip)
+            breakPromises(loop.ip)
+        } else {
+            val arp = makeArpRequest(loop.port.portMac,
+                                     loop.port.portAddress4.getAddress,
+                                     loop.ip)
+            backChannel.tell(
+                GeneratedLogicalPacket(loop.port.id, arp, loop.cookie))
+            loop.tick()
         }
-        updateNextEvent()
     }
 
     private def breakPromises(ip: IPv4Addr) {
@@ -383,8 +368,18 @@ class SingleRouterArpRequestBroker(id: UUID,
             waiters.next().trySuccess(mac)
     }
 
+    /*
+     * Processes the MACs learned since the last call. A learned MAC completes
+     * the promises waiting for it, and stops the ARP request loop for its
+     * address if the ARP table entry is up to date.
+     */
+    private[state] def processNewMacs(): Unit = {
+        pending.set(false)
+        drainNewMacs()
+    }
+
     @tailrec
-    private def processNewMacs(): Unit =
+    private def drainNewMacs(): Unit =
         macsDiscovered.poll() match {
             case null =>
             case MacChange(ip, oldMac, newMac) if newMac ne null =>
@@ -394,9 +389,14 @@ class SingleRouterArpRequestBroker(id: UUID,
                     backChannel.tell(FlowTagger.tagForArpEntry(id, ip))
                 }
                 keepPromises(ip, newMac)
-                processNewMacs()
+                val loop = arpLoops.get(ip)
+                if ((loop ne null) && upToDate(arpCache.get(ip))) {
+                    loop.cancel()
+                    arpLoops.remove(ip)
+                }
+                drainNewMacs()
             case _ =>
-                processNewMacs()
+                drainNewMacs()
     }
 
     private def makeArpRequest(srcMac: MAC, srcIp: IPv4Addr, dstIp: IPv4Addr): Ethernet = {
@@ -407,7 +407,8 @@ class SingleRouterArpRequestBroker(id: UUID,
             { arp.req mac srcMac -> eth_zero ip srcIp --> dstIp}
     }
 
-    class ArpLoop(val ip: IPv4Addr, val port: RouterPort, val cookie: Long) {
+    class ArpLoop(val ip: IPv4Addr, val port: RouterPort, val cookie: Long)
+        extends Timer {
         private val timeout = clock.time + config.arptable.timeout
 
         private val baseJitter = random.nextDouble() * RETRY_JITTER_GAP + RETRY_MIN_BASE_JITTER
@@ -415,22 +416,18 @@ class SingleRouterArpRequestBroker(id: UUID,
 
         private def jitter: Double = baseJitter + retries * RETRY_JITTER_INCREMENT
 
-        var _nextTry: Long = 0L
-        def nextTry = _nextTry
-
         def tick() {
             retries += 1
-            _nextTry = clock.time + (config.arptable.retryInterval * jitter).toLong
+            timers.schedule(this, clock.time +
+                                  (config.arptable.retryInterval * jitter).toLong)
         }
 
-        tick()
-
         def timedOut: Boolean = clock.time >= timeout
+
+        override def expire(): Unit = retry(this)
     }
 
-    object ImmortalLoop extends ArpLoop(IPv4Addr.fromString("255.255.255.255" ), null, -1) {
-        override val nextTry = Long.MaxValue
-        override def tick() {}
-        override def timedOut = false
+    class ArpExpiry(val ip: IPv4Addr) extends Timer {
+        override def expire(): Unit = SingleRouterArpRequestBroker.this.expire(ip)
     }
 }
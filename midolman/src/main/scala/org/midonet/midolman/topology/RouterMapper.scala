@@ -30,17 +30,18 @@ import rx.subjects.{PublishSubject, Subject}
 import org.midonet.cluster.data.ZoomConvert
 import org.midonet.cluster.models.Commons.IPVersion
 import org.midonet.cluster.models.Topology.{Route => TopologyRoute, Router => TopologyRouter}
+import org.midonet.cluster.state.RouteBatchReader
 import org.midonet.cluster.state.RoutingTableStorage._
 import org.midonet.cluster.util.UUIDUtil._
 import org.midonet.midolman.layer3.{IPv4RoutingTable, Route}
 import org.midonet.midolman.simulation.Router.{Config, RoutingTable, TagManager}
 import org.midonet.midolman.simulation.{Chain, LoadBalancer, Mirror, RouterPort, Router => SimulationRouter}
 import org.midonet.midolman.SimulationBackChannel.{BackChannelMessage, Broadcast}
+import org.midonet.midolman.flows.RouteFlowIndex
 import org.midonet.midolman.state.ArpCache
 import org.midonet.midolman.topology.RouterMapper._
 import org.midonet.odp.FlowMatch
 import org.midonet.packets.{IPAddr, IPv4Addr}
-import org.midonet.util.collection.IPv4InvalidationArray
 import org.midonet.util.functors._
 import org.midonet.util.logging.Logger
 
@@ -87,8 +88,15 @@ object RouterMapper {
         // port.
         private val routesCache = new mutable.HashSet[Route]
 
+        // Applies the learned route batches, and caches the routes learned
+        // from batches such that they are not removed by the updates of the
+        // individually learned routes.
+        private val routeBatches = new RouteBatchReader
+        private val batchedRoutes = new mutable.HashSet[Route]
+
         private val portStateSubject = PublishSubject.create[UUID]
         private var portStateReady = false
+        private var routeBatchesReady = false
 
         private val portObservable = VirtualTopology
             .observable(classOf[RouterPort], portId)
@@ -100,6 +108,10 @@ object RouterMapper {
             .portRoutesObservable(portId, portStateSubject)
             .observeOn(vt.vtScheduler)
             .map[RouteUpdates](makeFunc1(learnedRoutesUpdated))
+        private val routeBatchesObservable = vt.stateStore
+            .portRouteBatchesObservable(portId, portStateSubject)
+            .observeOn(vt.vtScheduler)
+            .map[RouteUpdates](makeFunc1(routeBatchesUpdated))
 
         // The output observable for this port state. It merges the
         // notifications for port and route updates, and emits route updates
@@ -116,9 +128,14 @@ object RouterMapper {
         //                                                 |
         //                        +----------------------+ |
         // State[Port, Routes] -> | learnedRoutesUpdated |-+
-        //                        +----------------------+
+        //                        +----------------------+ |
+        //                                                 |
+        //                        +---------------------+  |
+        // State[Port, Batches] ->| routeBatchesUpdated |--+
+        //                        +---------------------+
         val observable = Observable.merge(routesObservable,
                                           learnedRoutesObservable,
+                                          routeBatchesObservable,
                                           portObservable)
             .onErrorResumeNext(Observable.just(RouteUpdates(EmptyRouteSet,
                                                             publishedRoutes)))
@@ -138,7 +155,7 @@ object RouterMapper {
         }
         /** Indicates whether the port state has received the port data. */
         def isReady: Boolean = {
-            (currentPort ne null) && portStateReady &&
+            (currentPort ne null) && portStateReady && routeBatchesReady &&
             routes.forall(_._2.isReady)
         }
 
@@ -168,6 +185,7 @@ object RouterMapper {
                 val hostId = port.hostId
                 log.debug("Monitoring port state for host: {}", hostId)
                 portStateReady = false
+                routeBatchesReady = false
                 portStateSubject onNext hostId
             }
 
@@ -254,7 +272,8 @@ object RouterMapper {
             }
 
             for (route <- routesCache
-                 if route.learned && !routes.contains(route)) {
+                 if route.learned && !routes.contains(route) &&
+                    !batchedRoutes.contains(route)) {
                 removed += route
             }
 
@@ -265,6 +284,27 @@ object RouterMapper {
             else EmptyRouteUpdates
         }
 
+        /** A method called when the set of learned route batches is updated.
+          * It applies incrementally the new batches, and returns a
+          * [[RouteUpdates]] instance with the routes that were added and
+          * removed. */
+        private def routeBatchesUpdated(values: Set[String]): RouteUpdates = {
+            vt.assertThread()
+            log.debug("Learned port route batches updated: {} batches",
+                      Int.box(values.size))
+            routeBatchesReady = true
+
+            val (added, removed) = routeBatches.update(values)
+
+            batchedRoutes ++= added
+            batchedRoutes --= removed
+            routesCache ++= added
+            routesCache --= removed
+
+            if (isPublishingRoutes) RouteUpdates(added, removed)
+            else EmptyRouteUpdates
+        }
+
         /** Indicates whether the state has currently published routes. */
         private def isPublishingRoutes: Boolean = {
             (currentPort ne null) && currentPort.adminStateUp &&
@@ -424,10 +464,11 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
     override def logSource = "org.midonet.devices.router"
     override def logMark = s"router:$routerId"
 
-    private class RemoveTagCallback(dst: IPv4Addr) extends Callback0 {
+    private class RemoveTagCallback(dst: IPAddr, matchLength: Int)
+        extends Callback0 {
         override def call(): Unit = {
-            log.debug(s"Remove tag for destination address prefix $dst")
-            IPv4InvalidationArray.current.unref(dst.toInt)
+            log.debug(s"Remove tag for destination address $dst")
+            RouteFlowIndex.current.unref(routerId, dst, matchLength)
         }
     }
 
@@ -446,12 +487,13 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
 
     // Provides an implementation of the tag manager for the current router
     private val tagManager = new TagManager {
-        override def addIPv4Tag(dst: IPv4Addr, matchLength: Int): Unit = {
-            val refs = IPv4InvalidationArray.current.ref(dst.toInt, matchLength)
+        override def addIPTag(dst: IPAddr, matchLength: Int): Unit = {
+            val refs = RouteFlowIndex.current.ref(routerId, dst, matchLength)
             log.debug(s"Increased ref count ip prefix $dst/$matchLength to $refs")
         }
-        override def getFlowRemovalCallback(dst: IPv4Addr): Callback0 = {
-            new RemoveTagCallback(dst)
+        override def getFlowRemovalCallback(dst: IPAddr,
+                                            matchLength: Int): Callback0 = {
+            new RemoveTagCallback(dst, matchLength)
         }
     }
 
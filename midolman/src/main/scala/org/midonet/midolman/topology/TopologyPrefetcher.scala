@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.topology
+
+import java.util.{List => JList, UUID}
+
+import javax.annotation.concurrent.NotThreadSafe
+
+import scala.collection.mutable
+import scala.concurrent.{Future, Promise}
+import scala.util.{Failure, Success}
+
+import org.midonet.midolman.logging.MidolmanLogging
+import org.midonet.midolman.simulation._
+import org.midonet.midolman.topology.VirtualTopology.Device
+import org.midonet.util.concurrent.CallingThreadExecutionContext
+
+object TopologyPrefetcher {
+
+    /** The state of a prefetch from a port. */
+    private class Prefetch(val portId: UUID) {
+        val startTime = System.nanoTime()
+        val visited = new mutable.HashSet[UUID]
+        val promise = Promise[Int]()
+        var pending = 0
+        var loaded = 0
+    }
+
+}
+
+/**
+ * Loads in the [[VirtualTopology]] the devices reachable from a port, such
+ * that the first packets from the port do not suspend the simulation with a
+ * [[org.midonet.midolman.NotYetException]] for every device not yet cached.
+ *
+ * Starting from the port, the prefetcher requests in parallel the devices
+ * referenced by every loaded device, up to `maxDepth` references away from
+ * the port:
+ *  - for a port: the bridge or router, the peer port, the filter chains, the
+ *    port groups and the mirrors
+ *  - for a bridge: the filter chains, the mirrors, the VLAN port and the
+ *    interior ports, whose peers lead to the routers
+ *  - for a router: the filter chains, the mirrors and the load balancer
+ * The chain jump targets and IP address groups, and the load balancer pools
+ * are loaded together with the chains and the load balancer respectively.
+ *
+ * Once requested, a device remains cached by the virtual topology, which
+ * keeps it up to date until the device is deleted.
+ *
+ * The prefetcher must be called on the virtual topology thread, where the
+ * device futures also complete.
+ */
+@NotThreadSafe
+class TopologyPrefetcher(vt: VirtualTopology, maxDepth: Int)
+    extends MidolmanLogging {
+
+    import TopologyPrefetcher._
+
+    override def logSource = "org.midonet.devices.prefetch"
+
+    /**
+     * Prefetches the devices reachable from the specified port, and returns
+     * a future that completes with the number of loaded devices, when all
+     * requested devices have been loaded or have failed to load.
+     */
+    def prefetch(portId: UUID): Future[Int] = {
+        if (maxDepth <= 0) {
+            return Future.successful(0)
+        }
+        val prefetch = new Prefetch(portId)
+        request(classOf[Port], portId, depth = 0, prefetch)
+        prefetch.promise.future
+    }
+
+    private def request[D <: Device](clazz: Class[D], id: UUID, depth: Int,
+                                     prefetch: Prefetch): Unit = {
+        if ((id eq null) || depth > maxDepth || !prefetch.visited.add(id)) {
+            return
+        }
+        prefetch.pending += 1
+        vt.get(clazz, id).onComplete {
+            case Success(device) =>
+                prefetch.loaded += 1
+                if (depth < maxDepth) {
+                    references(device, depth + 1, prefetch)
+                }
+                complete(prefetch)
+            case Failure(e) =>
+                log.debug(s"Failed to prefetch ${clazz.getSimpleName}:$id " +
+                          s"for port ${prefetch.portId}: ${e.getMessage}")
+                complete(prefetch)
+        }(CallingThreadExecutionContext)
+    }
+
+    private def requestAll[D <: Device](clazz: Class[D], ids: JList[UUID],
+                                        depth: Int, prefetch: Prefetch): Unit = {
+        if (ids eq null) return
+        var index = 0
+        while (index < ids.size()) {
+            request(clazz, ids.get(index), depth, prefetch)
+            index += 1
+        }
+    }
+
+    private def references(device: Device, depth: Int,
+                           prefetch: Prefetch): Unit = device match {
+        case port: Port =>
+            port match {
+                case p: BridgePort => request(classOf[Bridge], p.deviceId, depth, prefetch)
+                case p: RouterPort => request(classOf[Router], p.deviceId, depth, prefetch)
+                case _ =>
+            }
+            request(classOf[Port], port.peerId, depth, prefetch)
+            requestAll(classOf[Chain], port.inboundFilters, depth, prefetch)
+            requestAll(classOf[Chain], port.outboundFilters, depth, prefetch)
+            requestAll(classOf[PortGroup], port.portGroups, depth, prefetch)
+            requestAll(classOf[Mirror], port.preInFilterMirrors, depth, prefetch)
+            requestAll(classOf[Mirror], port.postInFilterMirrors, depth, prefetch)
+            requestAll(classOf[Mirror], port.preOutFilterMirrors, depth, prefetch)
+            requestAll(classOf[Mirror], port.postOutFilterMirrors, depth, prefetch)
+
+        case bridge: Bridge =>
+            requestAll(classOf[Chain], bridge.inboundFilters, depth, prefetch)
+            requestAll(classOf[Chain], bridge.outboundFilters, depth, prefetch)
+            requestAll(classOf[Mirror], bridge.preInFilterMirrors, depth, prefetch)
+            requestAll(classOf[Mirror], bridge.postOutFilterMirrors, depth, prefetch)
+            bridge.vlanPortId.foreach(request(classOf[Port], _, depth, prefetch))
+            for (portId <- bridge.macToLogicalPortId.values) {
+                request(classOf[Port], portId, depth, prefetch)
+            }
+
+        case router: Router =>
+            requestAll(classOf[Chain], router.cfg.inboundFilters, depth, prefetch)
+            requestAll(classOf[Chain], router.cfg.outboundFilters, depth, prefetch)
+            requestAll(classOf[Mirror], router.cfg.preInFilterMirrors, depth, prefetch)
+            requestAll(classOf[Mirror], router.cfg.postOutFilterMirrors, depth, prefetch)
+            request(classOf[LoadBalancer], router.cfg.loadBalancer, depth, prefetch)
+
+        case _ =>
+    }
+
+    private def complete(prefetch: Prefetch): Unit = {
+        prefetch.pending -= 1
+        if (prefetch.pending == 0) {
+            val latency = System.nanoTime() - prefetch.startTime
+            vt.metrics.prefetchComplete(prefetch.loaded, latency)
+            log.debug(s"Prefetched ${prefetch.loaded} devices for port " +
+                      s"${prefetch.portId} in ${latency / 1000} us")
+            prefetch.promise trySuccess prefetch.loaded
+        }
+    }
+
+}
@@ -199,6 +199,8 @@ class VirtualToPhysicalMapper(backend: MidonetBackend,
     private val containersService =
         new ContainerService(vt, hostId, containerExecutor, containerExecutors,
                              ioExecutor, reflections)
+    private val prefetcher =
+        new TopologyPrefetcher(vt, vt.config.topologyPrefetchDepth)
 
     private val activePorts = new util.HashMap[UUID, Integer]
     private val portsActiveSubject = PublishSubject.create[LocalPortActive]
@@ -303,10 +305,15 @@ class VirtualToPhysicalMapper(backend: MidonetBackend,
     /**
       * Sets the active flag for the specified local port. The method returns
       * a future that indicate the completion of the operation. The future will
-      * complete on the virtual topology thread.
+      * complete on the virtual topology thread. When the port becomes active,
+      * the devices reachable from the port are prefetched in the virtual
+      * topology, without waiting for the storage update.
       */
     private def setPortActive(portId: UUID, portNumber: Integer, active: Boolean,
                               tunnelKey: Long): Future[StateResult] = {
+        if (active) {
+            vt.executeVt { prefetcher.prefetch(portId) }
+        }
         backend.stateStore.setPortActive(portId, hostId, active, tunnelKey)
                .observeOn(vt.vtScheduler)
                .doOnNext(makeAction1 { result =>
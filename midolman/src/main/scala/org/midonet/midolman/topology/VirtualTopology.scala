@@ -77,6 +77,14 @@ object VirtualTopology {
         self.get(clazz, id)
     }
 
+    /**
+     * Indicates whether the given device is the current version of the device
+     * with the specified identifier in the local cache.
+     */
+    def isCurrent(id: UUID, device: AnyRef): Boolean = {
+        self.devices.get(id) eq device
+    }
+
     /**
      * Returns an observable for the virtual device with the specified
      * identifier. Upon subscription to this observable, which may complete
@@ -25,7 +25,7 @@ import scala.annotation.tailrec
 import scala.collection.JavaConverters._
 import scala.collection.{immutable, mutable}
 import scala.concurrent.duration._
-import scala.concurrent.{Await, Future}
+import scala.concurrent.{Await, ExecutionContext, Future}
 import scala.util.control.NonFatal
 import scala.util.{Failure, Success}
 
@@ -44,10 +44,12 @@ import org.midonet.midolman.topology.VirtualTopology
 import org.midonet.midolman.vpp.VppDownlink._
 import org.midonet.midolman.vpp.VppExecutor.Receive
 import org.midonet.midolman.vpp.VppExternalNetwork.{AddExternalNetwork, RemoveExternalNetwork}
+import org.midonet.midolman.vpp.VppPipeline.Command
 import org.midonet.midolman.vpp.VppProviderRouter.Gateways
 import org.midonet.midolman.vpp.VppUplink.{AddUplink, DeleteUplink}
 import org.midonet.midolman.{DatapathState, Midolman}
 import org.midonet.packets.{IPv4Addr, IPv4Subnet, IPv6Addr, IPv6Subnet, MAC, TunnelKeys}
+import org.midonet.util.concurrent.Executors
 import org.midonet.util.process.MonitoredDaemonProcess
 
 object VppController {
@@ -68,6 +70,20 @@ object VppController {
 
     private object Cleanup
 
+    /**
+      * Identifies the FIP64 mapping of a floating IP in the pipeline of VPP
+      * commands, such that the mappings of a floating IP moved between fixed
+      * IPs are deleted and added in order.
+      */
+    private case class Fip64Key(floatingIp: IPv6Addr)
+
+    /**
+      * Identifies the route to a fixed IP in the pipeline of VPP commands,
+      * such that the route of a fixed IP moved between floating IPs is
+      * deleted and added in order.
+      */
+    private case class FixedIpKey(vrf: Int, fixedIp: IPv4Addr)
+
     /**
       * Maintains an open gateways state table for the specified external
       * Neutron network.
@@ -114,6 +130,10 @@ class VppController(protected override val hostId: UUID,
     private var downlink: Option[VppDownlinkSetup] = None
 
     private val vxlanTunnels = new util.HashMap[UUID, VppVxlanTunnelSetup]
+    // The number of floating IPs associated to every fixed IP: the route to
+    // a fixed IP is added with its first floating IP, and deleted with its
+    // last.
+    private val fixedIpRefs = new util.HashMap[FixedIpKey, Integer]
     private var uplinkFlowStateFlows: Option[Fip64FlowStateFlows] = None
 
     @volatile private var vppExiting = false
@@ -126,6 +146,14 @@ class VppController(protected override val hostId: UUID,
         }
     }
 
+    protected override def maxRequestsInFlight: Int =
+        vt.config.fip64.vppRequestsInFlight
+
+    protected override def isPipelined(message: Any): Boolean = message match {
+        case _: AssociateFip | _: DisassociateFip => true
+        case _ => false
+    }
+
     protected override val receive: Receive = {
         case port: RouterPort =>
             log debug s"Received router port update for port ${port.id}"
@@ -163,7 +191,12 @@ class VppController(protected override val hostId: UUID,
         override def onCompleted(): Unit = { /* ignore */ }
     }
 
-    private val vppCtl = new VppCtl(Logger(log.underlying))
+    // The vppctl processes of the pipelined commands are awaited on a
+    // separate executor, such that they do not block the controller thread.
+    private val vppCtlExecutor = Executors.cachedPoolExecutor(
+        "vpp-ctl", isDaemon = true, Executors.CallerRunsPolicy)
+    private val vppCtl = new VppCtl(Logger(log.underlying))(
+        ExecutionContext.fromExecutor(vppCtlExecutor))
 
     protected override def doStart(): Unit = {
         startFip64()
@@ -181,6 +214,9 @@ class VppController(protected override val hostId: UUID,
 
         stopVppProcess()
         super.doStop()
+        Executors.shutdown(vppCtlExecutor) { _ =>
+            log warn s"Exception while stopping the vppctl executor"
+        }
         notifyStopped()
     }
 
@@ -189,6 +225,7 @@ class VppController(protected override val hostId: UUID,
                                   uplinks.values().asScala).map(_.rollback())
         uplinks.clear()
         uplinkFlowStateFlows = None
+        fixedIpRefs.clear()
         Future.sequence(cleanupFutures)
     }
 
@@ -429,19 +466,27 @@ class VppController(protected override val hostId: UUID,
         log debug s"Associating FIP at port $portId (VRF $vrf, VNI $vni): " +
                   s"$floatingIp -> $fixedIp"
 
-        poolFor(portId, natPool) flatMap { pool =>
+        poolFor(portId, natPool) map { pool =>
             if (pool.nonEmpty) {
                 log debug s"Allocated NAT pool at port $portId is ${pool.get}"
-                vppCtl.exec(s"ip route table $vrf add $fixedIp/32 " +
-                            s"via ${vt.config.fip64.vppInternalGateway}") flatMap { _ =>
+                // The mapping is programmed by the pipeline, while the
+                // controller handles the next notifications. The route is
+                // enqueued first, such that it is programmed before the
+                // mapping.
+                val fixedKey = FixedIpKey(vrf, fixedIp)
+                val refs = fixedIpRefs.get(fixedKey)
+                fixedIpRefs.put(fixedKey, if (refs eq null) 1 else refs + 1)
+                if (refs eq null) {
+                    pipeline enqueue Command(fixedKey, isAdd = true) {
+                        vppCtl.exec(s"ip route table $vrf add $fixedIp/32 " +
+                                    s"via ${vt.config.fip64.vppInternalGateway}")
+                    }
+                }
+                pipeline enqueue Command(Fip64Key(floatingIp), isAdd = true) {
                     vppCtl.exec(s"fip64 add $floatingIp $fixedIp " +
                                 s"pool ${pool.get.start} ${pool.get.end}" +
                                 s" table $vrf vni $vni")
                 }
-            } else {
-                // We complete the future successfully, since there is nothing
-                // to rollback.
-                Future.successful(Unit)
             }
         }
     }
@@ -452,9 +497,21 @@ class VppController(protected override val hostId: UUID,
         log debug s"Disassociating FIP at port $portId (VRF $vrf): " +
                   s"$floatingIp -> $fixedIp"
 
-        vppCtl.exec(s"fip64 del $floatingIp") flatMap { _ =>
-            vppCtl.exec(s"ip route table $vrf del $fixedIp/32")
+        pipeline enqueue Command(Fip64Key(floatingIp), isAdd = false) {
+            vppCtl.exec(s"fip64 del $floatingIp")
         }
+        val fixedKey = FixedIpKey(vrf, fixedIp)
+        val refs = fixedIpRefs.get(fixedKey)
+        // The route is not added if the NAT pool was empty.
+        if ((refs ne null) && refs > 1) {
+            fixedIpRefs.put(fixedKey, refs - 1)
+        } else if (refs ne null) {
+            fixedIpRefs.remove(fixedKey)
+            pipeline enqueue Command(fixedKey, isAdd = false) {
+                vppCtl.exec(s"ip route table $vrf del $fixedIp/32")
+            }
+        }
+        Future.successful(Unit)
     }
 
     private def handleExternalRoutesUpdate(port: RouterPort): Future[_] = {
@@ -32,8 +32,12 @@ object VppCtl {
 
 class VppCtl(log: Logger, timeout: Duration = VppCtl.DefaultTimeout)
             (implicit ec: ExecutionContext) {
+
+    /** Executes the given VPP command, returning a future that completes
+      * when the command exits, or fails if the command returns an error or
+      * does not exit within the timeout. */
     def exec(vppCommand: String): Future[_] = {
-        val command = s"vppctl $vppCommand"
+        val command = commandLine(vppCommand)
         log debug s"Executing command: `$command`"
 
         val process = ProcessHelper.newProcess(command)
@@ -45,16 +49,23 @@ class VppCtl(log: Logger, timeout: Duration = VppCtl.DefaultTimeout)
             if (!process.waitFor(timeout.toMillis, MILLISECONDS)) {
                 process.destroy()
                 log warn s"Command `$command` timed out"
-                throw new TimeoutException(s"Command `$command` timed out")
-            }
-            log debug s"Command `$command` exited with code ${process.exitValue()}"
-            if (process.exitValue == 0) {
-                promise.trySuccess(())
+                promise.tryFailure(
+                    new TimeoutException(s"Command `$command` timed out"))
             } else {
-                promise.tryFailure(new Exception(
-                    s"Command failed with result ${process.exitValue}"))
+                log debug s"Command `$command` exited with code ${process.exitValue()}"
+                if (process.exitValue == 0) {
+                    promise.trySuccess(())
+                } else {
+                    promise.tryFailure(new Exception(
+                        s"Command failed with result ${process.exitValue}"))
+                }
             }
+        } onFailure { case e =>
+            promise.tryFailure(e)
         }
         promise.future
     }
+
+    protected def commandLine(vppCommand: String): String =
+        s"vppctl $vppCommand"
 }
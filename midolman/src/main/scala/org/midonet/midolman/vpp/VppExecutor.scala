@@ -17,9 +17,11 @@
 package org.midonet.midolman.vpp
 
 import java.util.concurrent.ExecutorService
+import java.util.concurrent.atomic.AtomicInteger
 
 import scala.concurrent.{ExecutionContext, Future, Promise}
 import scala.util.control.NonFatal
+import scala.util.{Failure, Success}
 
 import com.google.common.util.concurrent.{AbstractService, Service}
 
@@ -30,6 +32,8 @@ import org.midonet.util.logging.Logging
 
 object VppExecutor {
 
+    final val DefaultRequestsInFlight = 32
+
     type Receive = PartialFunction[Any, Future[Any]]
 
     object Nothing extends Receive {
@@ -49,6 +53,29 @@ abstract class VppExecutor extends AbstractService with Logging {
         log.error("Error on conveyor belt", t)
     })(ec)
 
+    private val pendingMessages = new AtomicInteger()
+
+    /**
+      * The pipeline of VPP commands. The handlers of the pipelined messages,
+      * as indicated by [[isPipelined]], add their commands to the pipeline
+      * and complete once the commands are queued, such that the executor
+      * processes the next message while the VPP commands are in flight.
+      */
+    protected lazy val pipeline =
+        new VppPipeline(maxRequestsInFlight)(ec)
+
+    /**
+      * The maximum number of commands the [[pipeline]] executes concurrently.
+      */
+    protected def maxRequestsInFlight: Int = VppExecutor.DefaultRequestsInFlight
+
+    /**
+      * Indicates whether the message is pipelined. The executor handles a
+      * message that is not pipelined only after all commands queued by the
+      * previous messages have completed.
+      */
+    protected def isPipelined(message: Any): Boolean = false
+
     protected def newExecutor: ExecutorService = {
         Executors.singleThreadScheduledExecutor(
             "vpp-controller", isDaemon = true, Executors.CallerRunsPolicy)
@@ -68,6 +95,9 @@ abstract class VppExecutor extends AbstractService with Logging {
       *
       * The handling of messages is serialized such that a new message will not
       * be processed until the future returned by a previous one has completed.
+      * For pipelined messages, the future completes when the message's
+      * commands are queued, and the executor flushes the current batch of
+      * commands when there are no more messages to process.
       */
     protected def send(message: Any): Future[Any] = {
         val currentState = state()
@@ -77,16 +107,28 @@ abstract class VppExecutor extends AbstractService with Logging {
             return Future.failed(new IllegalStateException("Service not started"))
         }
         val promise = Promise[Any]
+        pendingMessages.incrementAndGet()
         executor.execute(makeRunnable {
             if (receive.isDefinedAt(message)) {
                 belt.handle(() => {
+                    pendingMessages.decrementAndGet()
                     val future =
-                        try receive.apply(message)
-                        catch { case NonFatal(e) => Future.failed(e) }
+                        if (isPipelined(message)) {
+                            tryReceive(message).andThen { case _ =>
+                                if (pendingMessages.get == 0) flushCommands()
+                            }(ec)
+                        } else if (pipeline.isEmpty) {
+                            tryReceive(message)
+                        } else {
+                            flushCommands().flatMap { _ =>
+                                tryReceive(message)
+                            }(ec)
+                        }
                     promise tryCompleteWith future
                     future
                 })
             } else {
+                pendingMessages.decrementAndGet()
                 val error = s"Unhandled message $message"
                 log warn error
                 promise.tryFailure(new UnsupportedOperationException(error))
@@ -95,6 +137,29 @@ abstract class VppExecutor extends AbstractService with Logging {
         promise.future
     }
 
+    private def tryReceive(message: Any): Future[Any] = {
+        try receive.apply(message)
+        catch { case NonFatal(e) => Future.failed(e) }
+    }
+
+    /**
+      * Flushes the current batch of the [[pipeline]], and logs the batch
+      * result when it completes.
+      */
+    private def flushCommands(): Future[VppPipeline.BatchResult] = {
+        pipeline.flush().andThen {
+            case Success(result) if result.failed > 0 =>
+                log.warn(s"Executing ${result.failed} out of " +
+                         s"${result.executed} VPP commands failed",
+                         result.failures.head)
+            case Success(result) if result.executed > 0 =>
+                log debug s"Executed ${result.executed} VPP commands " +
+                          s"(${result.coalesced} coalesced)"
+            case Failure(e) =>
+                log.warn("Executing VPP commands failed", e)
+        }(ec)
+    }
+
     protected override def doStop(): Unit = {
         Executors.shutdown(executor) { _ =>
             log warn s"Exception while stopping VPP controller executor"
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.vpp
+
+import java.util
+
+import javax.annotation.concurrent.NotThreadSafe
+
+import scala.concurrent.{ExecutionContext, Future, Promise}
+import scala.util.control.NonFatal
+import scala.util.{Failure, Success}
+
+object VppPipeline {
+
+    /**
+      * A command executed by the [[VppPipeline]], which adds or deletes a VPP
+      * entry such as a route or a FIP64 mapping. The `key` identifies the
+      * entry, and for the same key the commands must alternate between add
+      * and delete, as the entry is created and removed.
+      */
+    trait Command {
+        def key: AnyRef
+        def isAdd: Boolean
+        def execute(): Future[Any]
+    }
+
+    object Command {
+        def apply(key: AnyRef, isAdd: Boolean)(f: => Future[Any]): Command = {
+            val k = key
+            val add = isAdd
+            new Command {
+                override def key = k
+                override def isAdd = add
+                override def execute() = f
+                override def toString =
+                    s"Command [key=$k ${if (add) "add" else "delete"}]"
+            }
+        }
+    }
+
+    /**
+      * The result of a batch of commands: the number of executed commands,
+      * the number of commands removed before execution because they were
+      * cancelled or replaced by a later command for the same key, and the
+      * errors of the failed commands.
+      */
+    case class BatchResult(executed: Int, coalesced: Int,
+                           failures: List[Throwable]) {
+        def failed: Int = failures.size
+    }
+
+    private val EmptyResult = BatchResult(0, 0, Nil)
+
+    private class Batch {
+        var commands = 0
+        var pending = 0
+        var executed = 0
+        var coalesced = 0
+        var failures = List.empty[Throwable]
+        var closed = false
+        val promise = Promise[BatchResult]()
+
+        def done(): Unit = {
+            pending -= 1
+            tryComplete()
+        }
+
+        def tryComplete(): Unit = {
+            if (closed && pending == 0) {
+                promise trySuccess BatchResult(executed, coalesced, failures)
+            }
+        }
+    }
+
+    private class Entry(val command: Command, val batch: Batch) {
+        /** A command queued after this delete command for the same key. */
+        var next: Entry = null
+    }
+
+}
+
+/**
+  * A pipeline of VPP commands. The commands are queued in the order in which
+  * they are added, and they execute with up to `maxInFlight` commands in
+  * flight, such that the pipeline does not wait for the reply to a VPP
+  * request before sending the next one. Commands for the same key execute
+  * in order, one at a time.
+  *
+  * While queued, the commands are coalesced: the delete of a queued add
+  * cancels both commands, since the entry was never programmed, and a
+  * command replaces a queued command of the same kind for the same key. A
+  * delete followed by an add is not coalesced, since the add may program the
+  * entry with different parameters.
+  *
+  * The commands are grouped in batches: the [[flush()]] method closes the
+  * current batch and returns a future that completes with the [[BatchResult]]
+  * when all commands of this and of all previous batches have completed.
+  *
+  * The execution context must run on the thread calling the pipeline, such as
+  * the single thread of the [[VppExecutor]], since it also handles the
+  * completion of the commands.
+  */
+@NotThreadSafe
+class VppPipeline(maxInFlight: Int)(implicit ec: ExecutionContext) {
+
+    import VppPipeline._
+
+    require(maxInFlight > 0, "The maximum in-flight commands must be positive")
+
+    private val queue = new util.LinkedHashMap[AnyRef, Entry]()
+    private val inFlight = new util.HashSet[AnyRef]()
+    private val followers = new util.ArrayList[Entry]()
+    private var batch = new Batch
+    private var lastFlush = Future.successful(EmptyResult)
+
+    /** Returns the number of queued commands. */
+    def queued: Int = queue.size
+
+    /** Returns the number of commands in flight. */
+    def inFlightCount: Int = inFlight.size
+
+    /** Indicates whether the pipeline has no queued or in-flight commands,
+      * and the current batch is empty. */
+    def isEmpty: Boolean = {
+        batch.commands == 0 && queue.isEmpty && inFlight.isEmpty
+    }
+
+    /**
+      * Adds a command to the current batch. The command executes immediately
+      * if the number of in-flight commands is below the maximum and there is
+      * no command in flight for the same key.
+      */
+    def enqueue(command: Command): Unit = {
+        val key = command.key
+        batch.commands += 1
+        val head = queue.get(key)
+        if (head eq null) {
+            batch.pending += 1
+            queue.put(key, new Entry(command, batch))
+            dispatch()
+            return
+        }
+
+        val last = if (head.next ne null) head.next else head
+        if (last.command.isAdd && !command.isAdd) {
+            // The delete cancels the queued add.
+            batch.coalesced += 1
+            coalesce(last)
+            if (last eq head) queue.remove(key)
+            else head.next = null
+        } else if (!last.command.isAdd && command.isAdd) {
+            // The add executes after the queued delete.
+            batch.pending += 1
+            last.next = new Entry(command, batch)
+        } else {
+            // The command replaces the queued command.
+            batch.pending += 1
+            coalesce(last)
+            val entry = new Entry(command, batch)
+            if (last eq head) queue.put(key, entry)
+            else head.next = entry
+        }
+    }
+
+    /**
+      * Closes the current batch, and returns a future that completes with its
+      * result after all commands of this and previous batches have completed.
+      */
+    def flush(): Future[BatchResult] = {
+        val current = batch
+        batch = new Batch
+        current.closed = true
+        current.tryComplete()
+
+        val previous = lastFlush
+        val future = current.promise.future
+        lastFlush =
+            if (previous.isCompleted) future
+            else previous.flatMap(_ => future)(ec)
+        lastFlush
+    }
+
+    private def coalesce(entry: Entry): Unit = {
+        entry.batch.coalesced += 1
+        entry.batch.done()
+    }
+
+    private def dispatch(): Unit = {
+        if (inFlight.size >= maxInFlight) {
+            return
+        }
+        val iterator = queue.values.iterator()
+        while (iterator.hasNext && inFlight.size < maxInFlight) {
+            val entry = iterator.next()
+            if (!inFlight.contains(entry.command.key)) {
+                iterator.remove()
+                if (entry.next ne null) {
+                    followers.add(entry.next)
+                    entry.next = null
+                }
+                execute(entry)
+            }
+        }
+        // The follower commands wait for the command with the same key.
+        var index = 0
+        while (index < followers.size) {
+            val follower = followers.get(index)
+            queue.put(follower.command.key, follower)
+            index += 1
+        }
+        followers.clear()
+    }
+
+    private def execute(entry: Entry): Unit = {
+        val key = entry.command.key
+        inFlight.add(key)
+        val future =
+            try entry.command.execute()
+            catch { case NonFatal(e) => Future.failed(e) }
+        future.onComplete { result =>
+            inFlight.remove(key)
+            result match {
+                case Success(_) =>
+                case Failure(e) => entry.batch.failures = e :: entry.batch.failures
+            }
+            entry.batch.executed += 1
+            entry.batch.done()
+            dispatch()
+        }(ec)
+    }
+
+}
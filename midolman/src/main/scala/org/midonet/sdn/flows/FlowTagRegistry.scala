@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.sdn.flows
+
+import java.lang.ref.{ReferenceQueue, WeakReference}
+import java.util.WeakHashMap
+
+import org.midonet.sdn.flows.FlowTagRegistry.{InitialFreeIds, TagReference}
+import org.midonet.sdn.flows.FlowTagger.InternedTag
+
+/**
+  * A registry that interns the flow tags and assigns each distinct tag a
+  * compact integer identifier, such that the flow indexes may use the
+  * identifier instead of hashing the tag. Equal tags created by different
+  * threads resolve to the same canonical instance and the same identifier.
+  *
+  * The registry only references the tags weakly. A tag remains registered
+  * while any device, flow or invalidation references it or an equal tag, and
+  * once the tag is collected, for instance after the device that owns it is
+  * deleted and its flows are removed, its identifier is released and reused
+  * for new tags. Because a flow index only references an identifier while
+  * it indexes flows holding the tag, a released identifier is never in use.
+  */
+class FlowTagRegistry {
+
+    private val tags = new WeakHashMap[InternedTag, TagReference]()
+    private val queue = new ReferenceQueue[InternedTag]()
+
+    private var freeIds = new Array[Int](InitialFreeIds)
+    private var freeCount = 0
+    private var nextId = 0
+
+    /**
+      * Returns the canonical instance of the given tag, registering the tag
+      * as canonical with a new identifier if no equal tag is registered.
+      */
+    private[flows] def register(tag: InternedTag): InternedTag = synchronized {
+        expunge()
+        val reference = tags.get(tag)
+        if (reference ne null) {
+            val canonical = reference.get()
+            if (canonical ne null)
+                return canonical
+        }
+        val id = allocate()
+        tag.registeredId = id
+        tags.put(tag, new TagReference(tag, id, queue))
+        tag
+    }
+
+    /** The number of tags currently registered. */
+    def size: Int = synchronized {
+        expunge()
+        nextId - freeCount
+    }
+
+    /** The upper bound of the identifiers assigned so far, which sizes the
+      * arrays indexed by tag identifier. */
+    def capacity: Int = synchronized { nextId }
+
+    /**
+      * Releases the identifier of the given tag as if the tag was collected.
+      * The tag and the equal tags must no longer be used.
+      */
+    private[flows] def release(tag: InternedTag): Unit = synchronized {
+        val reference = tags.remove(tag)
+        if (reference ne null) {
+            reference.clear()
+            reference.enqueue()
+        }
+    }
+
+    private def allocate(): Int = {
+        if (freeCount > 0) {
+            freeCount -= 1
+            freeIds(freeCount)
+        } else {
+            nextId += 1
+            nextId - 1
+        }
+    }
+
+    private def expunge(): Unit = {
+        var reference = queue.poll()
+        while (reference ne null) {
+            if (freeCount == freeIds.length) {
+                freeIds = java.util.Arrays.copyOf(freeIds, freeIds.length * 2)
+            }
+            freeIds(freeCount) = reference.asInstanceOf[TagReference].id
+            freeCount += 1
+            reference = queue.poll()
+        }
+    }
+}
+
+/**
+  * The registry of the flow tags interned by the agent.
+  */
+object FlowTagRegistry extends FlowTagRegistry {
+
+    final val NoTagId = -1
+
+    private final val InitialFreeIds = 64
+
+    private final class TagReference(tag: InternedTag, val id: Int,
+                                     queue: ReferenceQueue[InternedTag])
+        extends WeakReference[InternedTag](tag, queue)
+}
@@ -22,11 +22,40 @@ import java.lang.ref.WeakReference
 import scala.reflect.{ClassTag, classTag}
 
 import org.midonet.midolman.SimulationBackChannel.{BackChannelMessage, Broadcast}
-import org.midonet.packets.{IPAddr, IPv4Addr, IPv6Addr, MAC}
+import org.midonet.packets.{IPAddr, MAC}
 import org.midonet.midolman.layer3.Route
 
 object FlowTagger {
-    trait FlowTag extends BackChannelMessage with Broadcast
+    trait FlowTag extends BackChannelMessage with Broadcast {
+        /**
+         * The identifier of the tag in the [[FlowTagRegistry]], or
+         * [[FlowTagRegistry.NoTagId]] if the tag is not interned, such as
+         * the flow state keys, which are indexed by value.
+         */
+        def tagId: Int = FlowTagRegistry.NoTagId
+    }
+
+    /**
+     * A flow tag interned in the [[FlowTagRegistry]]. The first time the
+     * identifier of the tag is requested, the tag resolves its canonical
+     * instance, which it references for as long as the tag is reachable,
+     * such that all equal tags share the same identifier.
+     */
+    trait InternedTag extends FlowTag {
+        @volatile private[this] var canonicalTag: InternedTag = null
+        private[flows] var registeredId = FlowTagRegistry.NoTagId
+
+        final def canonical: InternedTag = {
+            var tag = canonicalTag
+            if (tag eq null) {
+                tag = FlowTagRegistry.register(this)
+                canonicalTag = tag
+            }
+            tag
+        }
+
+        final override def tagId: Int = canonical.registeredId
+    }
 
     /**
      * Marker interface used to distinguish flow state tags from normal
@@ -35,7 +64,7 @@ object FlowTagger {
      */
     trait FlowStateTag extends FlowTag
 
-    trait MeterTag extends FlowTag {
+    trait MeterTag extends InternedTag {
         private[this] var _meterName: String = null
         def meterName: String = {
             if (_meterName eq null)
@@ -69,7 +98,7 @@ object FlowTagger {
     /**
      * Tag for the flows related to the specified device.
      */
-    case class DeviceTag(device: UUID) extends FlowTag with MeterTag {
+    case class DeviceTag(device: UUID) extends MeterTag {
         def deviceId(): UUID = device
         override def toString = "device:" + device
     }
@@ -122,7 +151,7 @@ object FlowTagger {
     def tagForRuleLogger(device: UUID) = tagForDevice[RuleLoggerDeviceTag](device)
     def tagForQosPolicy(device: UUID) = tagForDevice[QosPolicyDeviceTag](device)
 
-    case class PortTxTag(port: UUID) extends FlowTag with MeterTag {
+    case class PortTxTag(port: UUID) extends MeterTag {
         override def toString = "port:tx:" + port
     }
 
@@ -140,7 +169,7 @@ object FlowTagger {
         tag
     }
 
-    case class PortRxTag(port: UUID) extends FlowTag with MeterTag {
+    case class PortRxTag(port: UUID) extends MeterTag {
         override def toString = "port:rx:" + port
     }
 
@@ -163,7 +192,7 @@ object FlowTagger {
      * "dstMac", which were thus flooded on the bridge
      */
     case class VlanFloodTag(bridgeId: UUID, vlanId: java.lang.Short,
-                            dstMac: MAC) extends FlowTag {
+                            dstMac: MAC) extends InternedTag {
         override def toString = "br_flood_mac:" + bridgeId + ":" + dstMac +
                                 ":" + vlanId
     }
@@ -189,7 +218,7 @@ object FlowTagger {
      * Tag for the flows that are ARP requests emitted from the
      * specified bridge.
      */
-    case class ArpRequestTag(bridgeId: UUID) extends FlowTag {
+    case class ArpRequestTag(bridgeId: UUID) extends InternedTag {
         override def toString = "br_arp_req:" + bridgeId
     }
 
@@ -212,7 +241,7 @@ object FlowTagger {
      * sent to "port" in the specified bridge.
      */
     case class VlanPortTag(bridgeId: UUID, mac: MAC, vlanId: java.lang.Short,
-                           port: UUID) extends FlowTag {
+                           port: UUID) extends InternedTag {
         override def toString = "br_fwd_mac:" + bridgeId+ ":" + mac + ":" +
                                 vlanId + ":" + port
     }
@@ -239,7 +268,7 @@ object FlowTagger {
      * Tag for the flows associated with a broadcast from the specified
      * bridge.
      */
-    case class BroadcastTag(bridgeId: UUID) extends FlowTag {
+    case class BroadcastTag(bridgeId: UUID) extends InternedTag {
         override def toString = "br_flood:" + bridgeId
     }
 
@@ -260,7 +289,7 @@ object FlowTagger {
     /**
      * Tag for the flows associated with specified bridge port.
      */
-    case class BridgePortTag(bridgeId: UUID, logicalPortId: UUID) extends FlowTag {
+    case class BridgePortTag(bridgeId: UUID, logicalPortId: UUID) extends InternedTag {
         override def toString = "br_fwd_lport:" + bridgeId + ":" + logicalPortId
     }
 
@@ -282,7 +311,7 @@ object FlowTagger {
     /**
      * Tag for the flows associated for the specified datapath port.
      */
-    case class DpPortTag(port: Integer) extends FlowTag {
+    case class DpPortTag(port: Integer) extends InternedTag {
         override def toString = "dp_port:" + port
     }
 
@@ -303,7 +332,7 @@ object FlowTagger {
     /**
      * Tag for the flows associated with specified tunnel route.
      */
-    case class TunnelRouteTag(srcIp: Integer, dstIp: Integer) extends FlowTag with MeterTag {
+    case class TunnelRouteTag(srcIp: Integer, dstIp: Integer) extends MeterTag {
         override def toString = s"tunnel:$srcIp:$dstIp"
     }
 
@@ -325,7 +354,7 @@ object FlowTagger {
     /**
      * Tag for the flows associated with the specified tunnel key.
      */
-    case class TunnelKeyTag(key: java.lang.Long) extends FlowTag {
+    case class TunnelKeyTag(key: java.lang.Long) extends InternedTag {
         override def toString = "tun_key:" + key
     }
 
@@ -346,7 +375,7 @@ object FlowTagger {
     /**
      * Tag for the flows associated with the specified route.
      */
-    case class RouteTag(routerId: UUID, routeHashCode: Integer) extends FlowTag {
+    case class RouteTag(routerId: UUID, routeHashCode: Integer) extends InternedTag {
         override def toString = "rtr_route:" + routerId + ":" + routeHashCode
     }
 
@@ -369,7 +398,7 @@ object FlowTagger {
     /*
      * Tag for destination IP addresses that traverse a routing table
      */
-    case class DestinationIpTag(routerId: UUID, ipDestination: IPAddr) extends FlowTag {
+    case class DestinationIpTag(routerId: UUID, ipDestination: IPAddr) extends InternedTag {
         override def toString = "rtr_ip:" + routerId + ":" + ipDestination
     }
 
@@ -377,7 +406,7 @@ object FlowTagger {
         override def initialValue = new TagsTrie
     }
 
-    def tagForDestinationIp(routerId: UUID, ipDestination: IPv6Addr): FlowTag = {
+    def tagForDestinationIp(routerId: UUID, ipDestination: IPAddr): FlowTag = {
         val segment = cachedDestinationIpTags.get().getOrAddSegment(routerId)
                                                    .getOrAddSegment(ipDestination)
         var tag = segment.value
@@ -388,23 +417,11 @@ object FlowTagger {
         tag
     }
 
-    def tagForDestinationIp(routerId: UUID, ipDestination: IPv4Addr): FlowTag = {
-        val ip = IPv4Addr(ipDestination.toInt & 0xfffffff0)
-        val segment = cachedDestinationIpTags.get().getOrAddSegment(routerId)
-            .getOrAddSegment(ip)
-        var tag = segment.value
-        if (tag eq null) {
-            tag = new DestinationIpTag(routerId, ip)
-            segment.value = tag
-        }
-        tag
-    }
-
     /**
      * Tag for the flows associated with a particular IP when
      * it changes on the specified router's ARP table.
      */
-    case class ArpEntryTag(routerId: UUID, ipDestination: IPAddr) extends FlowTag {
+    case class ArpEntryTag(routerId: UUID, ipDestination: IPAddr) extends InternedTag {
         override def toString = "rtr_arp_entry:" + routerId + ":" + ipDestination
     }
 
@@ -426,7 +443,7 @@ object FlowTagger {
     /**
      * Tag for the flows associated with a meter
      */
-    case class UserTag(name: String) extends FlowTag with MeterTag {
+    case class UserTag(name: String) extends MeterTag {
         override def toString = s"user:$name"
     }
 
@@ -451,7 +468,7 @@ object FlowTagger {
     /**
      * Tag for flow state
      */
-    case class FlowStateDeviceTag(device: UUID) extends FlowTag {
+    case class FlowStateDeviceTag(device: UUID) extends InternedTag {
         override def toString = s"flowStateDevice:$device"
     }
 
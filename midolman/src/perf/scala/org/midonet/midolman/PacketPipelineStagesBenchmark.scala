@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.midolman.datapath.DatapathChannel
+import org.midonet.midolman.simulation.{Bridge, PacketContext}
+import org.midonet.midolman.util.MockPacketWorkflow
+import org.midonet.odp.{FlowMatches, Packet}
+import org.midonet.packets.util.PacketBuilder._
+import org.midonet.packets.{Ethernet, MAC}
+import org.midonet.util.concurrent.NanoClock
+
+/**
+  * Measures the cost of the latency histograms of the packet pipeline stages
+  * relative to the processing of a packet. The packetWorkflow benchmark
+  * processes a packet through a bridge in a packet workflow, where the
+  * datapath channel completes the flow creation and the packet execution
+  * right away, such that the workflow records the stages of every packet.
+  * The stageRecording benchmark takes the timestamps of all the stages of a
+  * packet and records the stage histograms, as the pipeline does for every
+  * packet: the ratio between both bounds the throughput cost of the stage
+  * histograms, which should remain below 1%.
+  */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+class PacketPipelineStagesBenchmark extends MidolmanBenchmark {
+
+    private val leftMac = MAC.random
+    private val rightMac = MAC.random
+    private val frame: Ethernet = { eth addr leftMac -> rightMac } <<
+                                  { ip4 addr "10.0.0.1" --> "10.0.0.2" } <<
+                                  { udp ports 10101 ---> 10102 }
+
+    private val processedChannel = new DatapathChannel {
+        override def handoff(context: PacketContext): Long = {
+            context.setFlowProcessed()
+            context.setPacketProcessed()
+            0L
+        }
+        override def start(): Unit = { }
+        override def stop(): Unit = { }
+    }
+
+    private var leftPortId: UUID = _
+    private var rightPortId: UUID = _
+    private var workflow: MockPacketWorkflow = _
+    private var packet: Packet = _
+    private var context: PacketContext = _
+
+    @JmhSetup
+    def setup(): Unit = {
+        newHost("myself", hostId)
+        val bridgeId = newBridge("bridge")
+        leftPortId = newBridgePort(bridgeId)
+        rightPortId = newBridgePort(bridgeId)
+        materializePort(leftPortId, hostId, "port0")
+        materializePort(rightPortId, hostId, "port1")
+        fetchPorts(leftPortId, rightPortId)
+
+        val bridge = fetchDevice[Bridge](bridgeId)
+        val macTable = bridge.vlanMacTableMap(0.toShort)
+        macTable.add(leftMac, leftPortId)
+        macTable.add(rightMac, rightPortId)
+
+        workflow = packetWorkflow(Map(1 -> leftPortId, 2 -> rightPortId),
+                                  dpChannel = processedChannel)
+        val fmatch = FlowMatches.fromEthernetPacket(frame)
+        fmatch.setInputPortNumber(1)
+        packet = new Packet(frame, fmatch)
+            .setReason(Packet.Reason.FlowTableMiss)
+        context = packetContextFor(frame, leftPortId)
+    }
+
+    @Benchmark
+    def packetWorkflow(): Unit = {
+        packet.startTimeNanos = NanoClock.DEFAULT.tick
+        workflow.handlePackets(packet)
+    }
+
+    @Benchmark
+    def stageRecording(): Unit = {
+        // The upcall parse and queueing.
+        val parseStart = NanoClock.DEFAULT.tick
+        context.packet.parseNanos = NanoClock.DEFAULT.tick - parseStart
+        context.packet.startTimeNanos = NanoClock.DEFAULT.tick
+
+        // The simulation and translation in the packet worker.
+        var now = NanoClock.DEFAULT.tick
+        context.queueNanos = now - context.packet.startTimeNanos
+        context.stageStartNanos = now
+        now = NanoClock.DEFAULT.tick
+        context.simulationNanos = now - context.stageStartNanos
+        context.stageStartNanos = now
+        context.translationNanos =
+            NanoClock.DEFAULT.tick - context.stageStartNanos
+
+        // The flow creation and the packet execution.
+        now = NanoClock.DEFAULT.tick
+        context.flowCreateNanos = NanoClock.DEFAULT.tick - now
+        now = NanoClock.DEFAULT.tick
+        context.executeNanos = NanoClock.DEFAULT.tick - now
+
+        metrics.recordStages(context)
+    }
+}
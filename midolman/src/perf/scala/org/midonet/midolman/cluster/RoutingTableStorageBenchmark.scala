@@ -43,6 +43,7 @@ import org.midonet.cluster.data.storage.{StateResult, ZookeeperObjectMapper}
 import org.midonet.cluster.models.Topology.Port
 import org.midonet.cluster.services.MidonetBackend._
 import org.midonet.cluster.state.RoutingTableStorage._
+import org.midonet.cluster.state.{RouteBatch, RouteBatchReader}
 import org.midonet.cluster.storage.{CuratorZkConnection, MidonetBackendConfig}
 import org.midonet.cluster.topology.TopologyBuilder
 import org.midonet.cluster.util.UUIDUtil._
@@ -81,6 +82,7 @@ class RoutingTableStorageBenchmark extends TopologyBuilder {
     private final val timeout = 5 seconds
     private final val benchmarkTimeout = 1800 seconds
     private final val count = 10000
+    private final val convergenceCount = 100000
 
     private val executor = Executors.newSingleThreadExecutor()
     private implicit val executionContext =
@@ -106,6 +108,29 @@ class RoutingTableStorageBenchmark extends TopologyBuilder {
         }
     }
 
+    private class RouteBatchesObserver(count: Int)
+        extends Observer[Set[String]] {
+
+        private val latch = new CountDownLatch(1)
+        private val reader = new RouteBatchReader
+
+        override def onNext(values: Set[String]): Unit = {
+            reader.update(values)
+            if (reader.currentRoutes.size == count) {
+                latch.countDown()
+            }
+        }
+        override def onCompleted(): Unit = {
+            latch.countDown()
+        }
+        override def onError(e: Throwable): Unit = {
+            latch.countDown()
+        }
+        def await(duration: Duration): Boolean = {
+            latch.await(duration.toMillis, TimeUnit.MILLISECONDS)
+        }
+    }
+
     @Setup
     def setup(): Unit = {
         System.setProperty("jute.maxbuffer", Integer.toString(40 * 1024 * 1024))
@@ -122,6 +147,7 @@ class RoutingTableStorageBenchmark extends TopologyBuilder {
                                             new StorageMetrics(new MetricRegistry))
         storage.registerClass(classOf[Port])
         storage.registerKey(classOf[Port], RoutesKey, Multiple)
+        storage.registerKey(classOf[Port], RouteBatchesKey, Multiple)
         storage.build()
         def root = LoggerFactory.getLogger("org.midonet").asInstanceOf[Logger]
         root.setLevel(ch.qos.logback.classic.Level.OFF)
@@ -236,10 +262,71 @@ class RoutingTableStorageBenchmark extends TopologyBuilder {
         storage.delete(classOf[Port], port.getId)
     }
 
-    private def createPortRoute(portId: UUID = UUID.randomUUID) = {
+    /** Measures the time for an observer to converge to a 100K routes table
+      * when every route is added as a separate state value. */
+    @Benchmark
+    def convergeRoutesAsyncAndObserver(blackhole: Blackhole): Unit = {
+        val port = createRouterPort()
+        storage.create(port)
+
+        val obs = new RoutesObserver(convergenceCount)
+        storage.portRoutesObservable(port.getId, Observable.just(hostId))
+               .subscribe(obs)
+
+        val routerId = UUID.randomUUID
+        val futures = new mutable.ArrayBuffer[Future[StateResult]](count)
+        for (index <- 1 to convergenceCount) {
+            val route = createPortRoute(port.getId, routerId)
+            try { futures += storage.addRoute(route).asFuture }
+            catch { case NonFatal(_) => }
+        }
+
+        Future.sequence(futures).await(benchmarkTimeout)
+        obs.await(benchmarkTimeout)
+
+        storage.delete(classOf[Port], port.getId)
+    }
+
+    /** Measures the time for an observer to converge to a 100K routes table
+      * when the routes are published as a snapshot followed by deltas of
+      * 1000 routes. */
+    @Benchmark
+    def convergeRouteBatchesAndObserver(blackhole: Blackhole): Unit = {
+        val port = createRouterPort()
+        storage.create(port)
+
+        val obs = new RouteBatchesObserver(convergenceCount)
+        storage.portRouteBatchesObservable(port.getId, Observable.just(hostId))
+               .subscribe(obs)
+
+        val routerId = UUID.randomUUID
+        val routes = for (index <- 1 to convergenceCount) yield
+            createPortRoute(port.getId, routerId)
+        val deltaSize = 1000
+        val snapshotSize = convergenceCount - 10 * deltaSize
+
+        val futures = new mutable.ArrayBuffer[Future[StateResult]]
+        for (value <- RouteBatch.snapshot(1L, 0L, routerId,
+                                          routes.take(snapshotSize))) {
+            futures += storage.addRouteBatch(port.getId, value).asFuture
+        }
+        for ((delta, index) <- routes.drop(snapshotSize)
+                                     .grouped(deltaSize).zipWithIndex) {
+            val value = RouteBatch.delta(1L, index + 1, routerId, delta, Nil)
+            futures += storage.addRouteBatch(port.getId, value).asFuture
+        }
+
+        Future.sequence(futures).await(benchmarkTimeout)
+        obs.await(benchmarkTimeout)
+
+        storage.delete(classOf[Port], port.getId)
+    }
+
+    private def createPortRoute(portId: UUID = UUID.randomUUID,
+                                routerId: UUID = UUID.randomUUID) = {
         new Route(random.nextInt(), 24, random.nextInt(), 24, NextHop.PORT,
                   portId, random.nextInt(), random.nextInt(), "",
-                  UUID.randomUUID, true)
+                  routerId, true)
     }
 
 }
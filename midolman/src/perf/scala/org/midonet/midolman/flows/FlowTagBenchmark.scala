@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.flows
+
+import java.util.concurrent.TimeUnit
+import java.util.{ArrayList, UUID}
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.sdn.flows.FlowTagRegistry
+import org.midonet.sdn.flows.FlowTagger._
+
+/**
+  * Measures the collection and the indexing of the tags of a packet
+  * simulated through a bridge, which tags the flow with the bridge, the
+  * ingress and egress ports, and the broadcast, ARP request and interior
+  * port tags of the bridge. The lookupTags benchmark looks up the tags in
+  * the thread-local tag caches, as the devices did for every packet, whereas
+  * the precomputedTags benchmark uses the tags created with the devices.
+  * The indexTags benchmark registers and removes a flow with these tags in a
+  * flow tag indexer.
+  *
+  * The churnDevices benchmark creates the tags of a new bridge for every
+  * operation and indexes a flow with them, emulating the creation and
+  * deletion of devices. Run it with the GC profiler (-prof gc) over long
+  * iterations: the heap and the size of the tag registry remain bounded
+  * because the identifiers of the collected tags are released.
+  */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+class FlowTagBenchmark {
+
+    private class Indexer extends FlowIndexer {
+        override def removeFlow(flow: ManagedFlow): Unit = { }
+    }
+
+    private val bridgeId = UUID.randomUUID()
+    private val inPortId = UUID.randomUUID()
+    private val outPortId = UUID.randomUUID()
+    private val routerPortId = UUID.randomUUID()
+
+    private val bridgeTag = tagForBridge(bridgeId)
+    private val inPortTag = tagForPort(inPortId)
+    private val rxTag = tagForPortRx(inPortId)
+    private val outPortTag = tagForPort(outPortId)
+    private val txTag = tagForPortTx(outPortId)
+    private val broadcastTag = tagForBroadcast(bridgeId)
+    private val arpRequestsTag = tagForArpRequests(bridgeId)
+    private val bridgePortTag = tagForBridgePort(bridgeId, routerPortId)
+
+    private val tags = new ArrayList[FlowTag](16)
+    private val indexer = new Indexer with FlowTagIndexer
+    private val flow = new ManagedFlow(null)
+
+    @JmhSetup
+    def setup(): Unit = {
+        flow.tags.add(inPortTag)
+        flow.tags.add(rxTag)
+        flow.tags.add(bridgeTag)
+        flow.tags.add(bridgePortTag)
+        flow.tags.add(broadcastTag)
+        flow.tags.add(arpRequestsTag)
+        flow.tags.add(outPortTag)
+        flow.tags.add(txTag)
+    }
+
+    @TearDown
+    def teardown(): Unit = {
+        System.out.println(s"\nRegistered tags: ${FlowTagRegistry.size}")
+    }
+
+    @Benchmark
+    def lookupTags(): ArrayList[FlowTag] = {
+        tags.clear()
+        tags.add(tagForPort(inPortId))
+        tags.add(tagForPortRx(inPortId))
+        tags.add(tagForBridge(bridgeId))
+        tags.add(tagForBridgePort(bridgeId, routerPortId))
+        tags.add(tagForBroadcast(bridgeId))
+        tags.add(tagForArpRequests(bridgeId))
+        tags.add(tagForPort(outPortId))
+        tags.add(tagForPortTx(outPortId))
+        tags
+    }
+
+    @Benchmark
+    def precomputedTags(): ArrayList[FlowTag] = {
+        tags.clear()
+        tags.add(inPortTag)
+        tags.add(rxTag)
+        tags.add(bridgeTag)
+        tags.add(bridgePortTag)
+        tags.add(broadcastTag)
+        tags.add(arpRequestsTag)
+        tags.add(outPortTag)
+        tags.add(txTag)
+        tags
+    }
+
+    @Benchmark
+    def indexTags(): Unit = {
+        indexer.registerFlow(flow)
+        indexer.removeFlow(flow)
+    }
+
+    @Benchmark
+    def churnDevices(): Unit = {
+        val deviceId = UUID.randomUUID()
+        val churned = new ManagedFlow(null)
+        churned.tags.add(inPortTag)
+        churned.tags.add(tagForBridge(deviceId))
+        churned.tags.add(tagForBroadcast(deviceId))
+        churned.tags.add(tagForArpRequests(deviceId))
+        indexer.registerFlow(churned)
+        indexer.invalidateFlowsFor(tagForBridge(deviceId))
+    }
+}
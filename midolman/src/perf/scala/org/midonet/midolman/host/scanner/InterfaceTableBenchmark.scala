@@ -0,0 +1,101 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.host.scanner
+
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.midolman.host.interfaces.InterfaceDescription
+import org.midonet.midolman.host.scanner.InterfaceScanner.InterfaceChanges
+import org.midonet.netlink.rtnetlink.{Addr, Link}
+import org.midonet.packets.{IPv4Addr, MAC}
+
+/**
+ * Measures the cost of the interface notifications of a VM boot on a host
+ * with many interfaces: a tap device is created, brought up, given an address
+ * and finally removed. The `vmBoot` benchmark applies the notifications to the
+ * [[InterfaceTable]], whereas `vmBootFullSet` additionally builds the complete
+ * set of interfaces for every notification, as the scanner did before.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+@org.openjdk.jmh.annotations.Threads(1)
+class InterfaceTableBenchmark {
+
+    @Param(Array("100", "1000", "5000"))
+    var interfaces: Int = _
+
+    private var table: InterfaceTable = _
+    private var tapCreated: Link = _
+    private var tapUp: Link = _
+    private var tapAddr: Addr = _
+
+    private def link(index: Int, name: String, mac: MAC, flags: Int): Link = {
+        val link = new Link()
+        link.ifi.index = index
+        link.ifi.`type` = Link.Type.ARPHRD_ETHER
+        link.ifi.flags = flags
+        link.setName(name)
+        link.mac = mac
+        link.mtu = 1500
+        link.link = index
+        link
+    }
+
+    @JmhSetup
+    def setup(): Unit = {
+        table = new InterfaceTable
+        val links = for (index <- 1 to interfaces) yield
+            link(index, s"tap$index", MAC.random(), Link.Flag.IFF_UP)
+        table.load(links.toSet, Set.empty)
+
+        val index = interfaces + 1
+        val mac = MAC.random()
+        tapCreated = link(index, "tapboot", mac, 0)
+        tapUp = link(index, "tapboot", mac, Link.Flag.IFF_UP)
+        tapAddr = Addr.buildWithIPv4(IPv4Addr.fromString("10.0.0.1"), 24,
+                                     index)
+    }
+
+    private def bootAndDelete(publish: Option[InterfaceChanges] => Int): Int = {
+        publish(table.newLink(tapCreated)) +
+        publish(table.newLink(tapUp)) +
+        publish(table.newAddr(tapAddr)) +
+        publish(table.delLink(tapUp))
+    }
+
+    @Benchmark
+    def vmBoot(): Int = {
+        bootAndDelete { _.size }
+    }
+
+    @Benchmark
+    def vmBootFullSet(): Int = {
+        bootAndDelete { changes =>
+            if (changes.isDefined) {
+                table.interfaces.foldLeft(Set.empty[InterfaceDescription]) {
+                    (set, desc) => if (desc.getMac ne null) set + desc else set
+                }.size
+            } else 0
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.io
+
+import java.util.concurrent.TimeUnit
+
+import com.codahale.metrics.MetricRegistry
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, TearDown => JmhTearDown, _}
+import org.openjdk.jmh.infra.Blackhole
+
+import org.midonet.midolman.PacketWorker
+import org.midonet.odp.flows.FlowKeys
+import org.midonet.odp.{FlowMatches, Packet}
+import org.midonet.packets.util.PacketBuilder._
+import org.midonet.packets.{Ethernet, MAC, TCP}
+import org.midonet.util.concurrent.NanoClock
+
+/**
+  * Replays a SYN flood from one datapath port, mixed with ARP, BGP and DHCP
+  * packets from other ports, through the [[UpcallAdmissionControl]]. The
+  * worker queue stands in for a packet worker that drains a fixed number of
+  * packets in every interval, such that the flood overloads it. The benchmark
+  * measures the cost of the admission decision, and every iteration reports
+  * the number of control and flood packets that were admitted.
+  */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+@org.openjdk.jmh.annotations.Threads(1)
+class UpcallAdmissionBenchmark {
+
+    private final val Interval = 10000000L
+    private final val PacketsPerInterval = 10000
+    private final val DrainPerInterval = 2000
+    private final val QueueCapacity = 4096
+    private final val ControlRatio = 16
+
+    /** A worker queue that drains a fixed number of packets per interval. */
+    private class Worker extends PacketWorker {
+        var depth = 0
+        override def submit(packet: Packet): Boolean = {
+            if (depth < QueueCapacity) { depth += 1; true } else false
+        }
+        override def queueDepth: Int = depth
+        override def queueCapacity: Int = QueueCapacity
+        def drain(): Unit = depth = Math.max(0, depth - DrainPerInterval)
+    }
+
+    private val clock = new NanoClock {
+        var time = 0L
+        override def tick: Long = time
+    }
+
+    @Param(Array("true", "false"))
+    var enabled: Boolean = _
+
+    private var worker: Worker = _
+    private var admission: UpcallAdmissionControl = _
+    private var packets: Array[Packet] = _
+    private var classes: Array[PacketClass] = _
+    private var index = 0
+
+    private var controlAdmitted = 0L
+    private var controlDropped = 0L
+    private var floodAdmitted = 0L
+    private var floodDropped = 0L
+
+    @JmhSetup
+    def setup(): Unit = {
+        worker = new Worker
+        admission = new UpcallAdmissionControl(
+            IndexedSeq(worker), Interval, Interval / 2, new MetricRegistry,
+            clock)
+        admission.register(1, "flood")
+        admission.register(2, "router")
+        admission.register(3, "vm")
+
+        val srcMac = MAC.fromString("02:00:00:00:00:01")
+        val dstMac = MAC.fromString("02:00:00:00:00:02")
+        val arpFrame: Ethernet =
+            { eth src srcMac dst eth_bcast } <<
+            { arp.req mac srcMac -> eth_zero ip "10.0.0.1" --> "10.0.0.2" }
+        val bgpFrame: Ethernet =
+            { eth src srcMac dst dstMac } <<
+            { ip4 src "10.0.0.1" dst "10.0.0.2" } <<
+            { tcp src 40000.toShort dst 179.toShort flags
+                TCP.Flag.Ack.bit.toShort }
+        val dhcpFrame: Ethernet =
+            { eth src srcMac dst eth_bcast } <<
+            { ip4 src "0.0.0.0" dst "255.255.255.255" } <<
+            { udp src 68.toShort dst 67.toShort }
+        val control = Array((arpFrame, 3), (bgpFrame, 2), (dhcpFrame, 3))
+
+        packets = Array.tabulate(PacketsPerInterval) { n =>
+            if (n % ControlRatio == 0) {
+                val (frame, portNo) = control((n / ControlRatio) % control.length)
+                packet(frame, portNo)
+            } else {
+                val syn: Ethernet =
+                    { eth src srcMac dst dstMac } <<
+                    { ip4 src (0x0b000000 + n) dst "10.0.0.2" } <<
+                    { tcp src (n & 0x7fff).toShort dst 80.toShort flags
+                        TCP.Flag.Syn.bit.toShort }
+                packet(syn, 1)
+            }
+        }
+        classes = packets.map(UpcallAdmissionControl.classify)
+    }
+
+    @JmhTearDown(Level.Iteration)
+    def report(): Unit = {
+        println(s"\ncontrol admitted $controlAdmitted dropped $controlDropped, " +
+                s"flood admitted $floodAdmitted dropped $floodDropped")
+        controlAdmitted = 0L
+        controlDropped = 0L
+        floodAdmitted = 0L
+        floodDropped = 0L
+    }
+
+    private def packet(frame: Ethernet, portNo: Int): Packet = {
+        new Packet(frame, FlowMatches.fromEthernetPacket(frame)
+                              .addKey(FlowKeys.inPort(portNo))
+                              .setInputPortNumber(portNo))
+    }
+
+    @Benchmark
+    def admit(bh: Blackhole): Unit = {
+        val packet = packets(index)
+        val packetClass = classes(index)
+        val admitted =
+            (!enabled || admission.admit(packet, packetClass)) &&
+            worker.submit(packet)
+        if (packetClass eq ControlPacket) {
+            if (admitted) controlAdmitted += 1
+            else controlDropped += 1
+        } else {
+            if (admitted) floodAdmitted += 1
+            else floodDropped += 1
+        }
+        bh.consume(admitted)
+
+        index += 1
+        if (index == PacketsPerInterval) {
+            index = 0
+            worker.drain()
+            clock.time += Interval
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.l4lb
+
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import scala.collection.mutable
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+/**
+ * Compares the cost of parsing the haproxy `show stat` output by splitting
+ * it into strings, as the health monitor did before, with parsing the bytes
+ * of the response in place. A health monitor host with 500 pools parses 500
+ * such responses per poll interval.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+@org.openjdk.jmh.annotations.Threads(1)
+class HaproxyStatsBenchmark {
+
+    import HaproxyHealthMonitor._
+
+    @Param(Array("4", "32", "256"))
+    var members: Int = _
+
+    private var response: String = _
+    private var buffer: ByteBuffer = _
+
+    @JmhSetup
+    def setup(): Unit = {
+        val backend = UUID.randomUUID()
+        val builder = new StringBuilder
+        builder ++= "# pxname,svname,qcur,qmax,scur,smax,slim,stot,bin,bout," +
+                    "dreq,dresp,ereq,econ,eresp,wretr,wredis,status,\n"
+        builder ++= s"$backend,FRONTEND,,,0,0,2000,0,0,0,0,0,0,,,,,OPEN,\n"
+        for (index <- 0 until members) {
+            val status = if (index % 2 == 0) StatusUp else StatusDown
+            builder ++= s"$backend,${UUID.randomUUID()},0,0,0,0,,0,0,0,,0,,0," +
+                        s"0,0,0,$status,1,1,0,0,1,2411,2411,,1,2,2,,0,,2,0,," +
+                        "0,L4CON,,1999,,,,,,,0,,,,0,0,\n"
+        }
+        builder ++= s"$backend,BACKEND,0,0,0,0,200,0,0,0,0,0,,0,0,0,0,UP,\n"
+        response = builder.toString()
+        buffer = ByteBuffer.wrap(response.getBytes(StandardCharsets.US_ASCII))
+    }
+
+    @Benchmark
+    def parseStrings(): (Set[UUID], Set[UUID]) = {
+        val upNodes = new mutable.HashSet[UUID]()
+        val downNodes = new mutable.HashSet[UUID]()
+        for (entry <- response split "\n" map (_.split(","))
+             if entry.length > StatusPos && entry(NamePos) != Backend &&
+                entry(NamePos) != Frontend && entry(NamePos) != FieldName) {
+            if (entry(StatusPos) == StatusUp)
+                upNodes add UUID.fromString(entry(NamePos))
+            else if (entry(StatusPos) == StatusDown)
+                downNodes add UUID.fromString(entry(NamePos))
+        }
+        (upNodes.toSet, downNodes.toSet)
+    }
+
+    @Benchmark
+    def parseBuffer(): (Set[UUID], Set[UUID]) = {
+        parseResponse(buffer)
+    }
+}
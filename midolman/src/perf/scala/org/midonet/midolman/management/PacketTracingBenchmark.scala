@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.management
+
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.odp.FlowMatch
+import org.midonet.packets.{IPv4, IPv4Addr, MAC, TCP}
+import org.midonet.util.logging.Logger
+
+/**
+  * Measures the selection of the logger of a packet with 0, 10 and 100
+  * active packet tracers, none of which matches the packet. The tracers
+  * match on the source address, the destination port or the source MAC of
+  * other flows, as during an incident. The loggerFor benchmark uses the
+  * compiled tracer matcher, and the linearScan benchmark tests the tracers
+  * one by one, as packet tracing did before.
+  */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+class PacketTracingBenchmark {
+
+    @Param(Array("0", "10", "100"))
+    var tracers: Int = _
+
+    private val fmatch = new FlowMatch()
+        .setEthSrc(MAC.random())
+        .setEthDst(MAC.random())
+        .setEtherType(IPv4.ETHERTYPE)
+        .setNetworkSrc(IPv4Addr.fromString("192.168.0.1"))
+        .setNetworkDst(IPv4Addr.fromString("192.168.0.2"))
+        .setNetworkProto(TCP.PROTOCOL_NUMBER)
+        .setSrcPort(10000)
+        .setDstPort(80)
+
+    @JmhSetup
+    def setup(): Unit = {
+        PacketTracing.flush()
+        for (tracer <- 0 until tracers) {
+            PacketTracing.addTracer(tracer % 3 match {
+                case 0 =>
+                    PacketTracer(null, null, null, null,
+                                 s"10.0.${tracer / 256}.${tracer % 256}",
+                                 null, null, null, LogLevel.DEBUG,
+                                 Int.MaxValue)
+                case 1 =>
+                    PacketTracer(null, null, null, TCP.PROTOCOL_NUMBER, null,
+                                 null, null, 1000 + tracer, LogLevel.DEBUG,
+                                 Int.MaxValue)
+                case _ =>
+                    PacketTracer(null, MAC.random().toString, null, null,
+                                 null, null, null, null, LogLevel.TRACE,
+                                 Int.MaxValue)
+            })
+        }
+    }
+
+    @TearDown
+    def teardown(): Unit = {
+        PacketTracing.flush()
+    }
+
+    @Benchmark
+    def loggerFor(): Logger = {
+        PacketTracing.loggerFor(fmatch)
+    }
+
+    @Benchmark
+    def linearScan(): PacketTracer = {
+        val it = PacketTracing.tracers.iterator
+        while (it.hasNext) {
+            val tracer = it.next()
+            if (tracer.matches(fmatch))
+                return tracer
+        }
+        null
+    }
+}
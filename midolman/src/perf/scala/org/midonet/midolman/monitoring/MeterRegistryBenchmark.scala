@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.monitoring
+
+import java.util
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import scala.util.Random
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.management.{FlowStats => JmxFlowStats}
+import org.midonet.midolman.flows.ManagedFlow
+import org.midonet.odp.flows.FlowStats
+import org.midonet.sdn.flows.FlowTagger
+import org.midonet.sdn.flows.FlowTagger.FlowTag
+
+/**
+  * Measures the metering overhead of a packet worker with 1000 meters and
+  * 500000 flows, where every flow has three meter tags and two tags that are
+  * not meters. The benchmarks measure resolving the meters of a new flow,
+  * recording a packet of a flow and of a packet without a flow, folding in
+  * the statistics of a removed flow, and aggregating the meters for a JMX
+  * read.
+  */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+class MeterRegistryBenchmark {
+
+    private final val Meters = 1000
+    private final val Flows = 500000
+    private final val PacketLen = 100
+
+    private val registry = new MeterRegistry()
+    private val flows = new Array[ManagedFlow](Flows)
+    private val stats = new FlowStats()
+    private var index = 0
+
+    @JmhSetup
+    def setup(): Unit = {
+        val random = new Random()
+        val meters = Array.tabulate[FlowTag](Meters) { meter =>
+            FlowTagger.tagForUserMeter(s"meter$meter")
+        }
+        var flow = 0
+        while (flow < Flows) {
+            val managedFlow = new ManagedFlow(null)
+            managedFlow.tags.add(FlowTagger.tagForBroadcast(UUID.randomUUID()))
+            managedFlow.tags.add(meters(random.nextInt(Meters)))
+            managedFlow.tags.add(meters(random.nextInt(Meters)))
+            managedFlow.tags.add(FlowTagger.tagForDpPort(flow % 64))
+            managedFlow.tags.add(meters(random.nextInt(Meters)))
+            registry.trackFlow(managedFlow)
+            flows(flow) = managedFlow
+            flow += 1
+        }
+    }
+
+    private def nextFlow(): ManagedFlow = {
+        index = (index + 1) % Flows
+        flows(index)
+    }
+
+    @Benchmark
+    def trackFlow(): Unit = {
+        registry.trackFlow(nextFlow())
+    }
+
+    @Benchmark
+    def recordFlowPacket(): Unit = {
+        registry.recordPacket(PacketLen, nextFlow())
+    }
+
+    @Benchmark
+    def recordTagsPacket(): Unit = {
+        registry.recordPacket(PacketLen, nextFlow().tags)
+    }
+
+    @Benchmark
+    def updateFlow(): Unit = {
+        stats.packets += 1
+        stats.bytes += PacketLen
+        registry.updateFlow(nextFlow(), stats)
+    }
+
+    @Benchmark
+    def readMeters(): util.Map[String, JmxFlowStats] = {
+        registry.meters
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.openstack.metadata
+
+import java.net.{HttpURLConnection, InetSocketAddress, URL}
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import javax.servlet.http.{HttpServletRequest, HttpServletResponse}
+
+import scala.concurrent.duration._
+
+import org.apache.commons.io.IOUtils
+import org.eclipse.jetty.server.handler.AbstractHandler
+import org.eclipse.jetty.server.{Request, Server, ServerConnector}
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, TearDown => JmhTearDown, _}
+
+object MetadataProxyBenchmark {
+
+    private final val Paths = Array("/latest/meta-data/",
+                                    "/latest/meta-data/hostname",
+                                    "/latest/meta-data/instance-id",
+                                    "/latest/user-data",
+                                    "/openstack/latest/meta_data.json")
+
+    /**
+      * A fake Nova metadata API, which takes `latency` milliseconds to
+      * respond to every request, as the real API that queries the database.
+      */
+    private class FakeNova(latency: Long) extends AbstractHandler {
+        private val body = ("x" * 1024).getBytes
+
+        override def handle(target: String, baseReq: Request,
+                            request: HttpServletRequest,
+                            response: HttpServletResponse): Unit = {
+            baseReq setHandled true
+            if (latency > 0) Thread.sleep(latency)
+            response setContentType "text/plain"
+            response setContentLength body.length
+            response.getOutputStream write body
+        }
+    }
+}
+
+/**
+  * Measures the throughput and the latency percentiles of the metadata proxy
+  * under many concurrent requests, with a fake Nova metadata API on the
+  * loopback interface. The benchmark threads request the metadata paths of
+  * cloud-init in turn, over persistent connections to the proxy. Since all
+  * requests come from the loopback address, they belong to the same instance
+  * and share its cached responses.
+  */
+@BenchmarkMode(Array(Mode.Throughput, Mode.SampleTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+@org.openjdk.jmh.annotations.Threads(32)
+class MetadataProxyBenchmark {
+
+    import MetadataProxyBenchmark._
+
+    @Param(Array("0", "5000"))
+    var cacheTtlMillis: Long = _
+
+    @Param(Array("2"))
+    var novaLatencyMillis: Long = _
+
+    private val portId = UUID.randomUUID()
+    private var nova: Server = _
+    private var proxy: Server = _
+    private var httpClient: MetadataHttpClient = _
+    private var proxyUrl: String = _
+    private val index = new AtomicInteger
+
+    private def start(handler: AbstractHandler): (Server, Int) = {
+        val server = new Server(new InetSocketAddress("127.0.0.1", 0))
+        server setHandler handler
+        server.start()
+        (server, server.getConnectors()(0).asInstanceOf[ServerConnector]
+                       .getLocalPort)
+    }
+
+    @JmhSetup
+    def setup(): Unit = {
+        val (novaServer, novaPort) = start(new FakeNova(novaLatencyMillis))
+        nova = novaServer
+
+        httpClient = new MetadataHttpClient(maxConnections = 64,
+                                            requestTimeout = 10 seconds)
+        val client = new NovaMetadataClient(
+            s"http://127.0.0.1:$novaPort", "secret", httpClient,
+            new MetadataResponseCache(cacheTtlMillis millis))
+        InstanceInfoMap.put("127.0.0.1", portId,
+                            InstanceInfo("10.0.0.2", "fa:16:3e:a8:9f:15",
+                                         portId, "tenant", "instance"))
+
+        val (proxyServer, proxyPort) = start(new ProxyHandler(client))
+        proxy = proxyServer
+        proxyUrl = s"http://127.0.0.1:$proxyPort"
+    }
+
+    @JmhTearDown
+    def teardown(): Unit = {
+        proxy.stop()
+        httpClient.close()
+        nova.stop()
+        InstanceInfoMap removeByPortId portId
+    }
+
+    @Benchmark
+    def request(): Int = {
+        val path = Paths((index.getAndIncrement() & Int.MaxValue) % Paths.length)
+        val http = new URL(proxyUrl + path).openConnection()
+            .asInstanceOf[HttpURLConnection]
+        if (http.getResponseCode != 200) {
+            throw new IllegalStateException(
+                s"Unexpected response ${http.getResponseCode} for $path")
+        }
+        val stream = http.getInputStream
+        try IOUtils.toByteArray(stream).length
+        finally stream.close()
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.rules
+
+import java.nio.ByteBuffer
+import java.util.concurrent.TimeUnit
+import java.util.{ArrayList, Collections, HashSet, UUID}
+
+import scala.util.Random
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.midolman.rules.RuleResult.Action
+import org.midonet.midolman.simulation.{Chain, PacketContext}
+import org.midonet.odp.flows.FlowAction
+import org.midonet.odp.{FlowMask, FlowMatches, Packet}
+import org.midonet.packets.util.PacketBuilder._
+import org.midonet.packets.{IPv4Addr, IPv4Subnet, MAC, TCP}
+import org.midonet.util.Range
+
+/**
+  * Evaluates a security group chain for 10000 TCP connections and computes
+  * the megaflow mask of each connection. The chain accepts the connections
+  * from each of 50 subnets to one destination port, and drops the rest. The
+  * connections come from random addresses of these subnets and random source
+  * ports. The teardown prints the number of distinct megaflows installed for
+  * the connections, which is the number of kernel flows and of upcalls the
+  * connections need.
+  */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+class MegaflowBenchmark {
+
+    private final val Rules = 50
+    private final val Connections = 10000
+
+    private val actions = new ArrayList[FlowAction]()
+    private val mask = new FlowMask()
+    private var chain: Chain = _
+    private var contexts: Array[PacketContext] = _
+    private var index = 0
+
+    @JmhSetup
+    def setup(): Unit = {
+        val rules = new ArrayList[Rule]()
+        for (rule <- 0 until Rules) {
+            val condition = new Condition()
+            condition.nwSrcIp = new IPv4Subnet(s"10.$rule.0.0", 16)
+            condition.nwProto = TCP.PROTOCOL_NUMBER
+            condition.tpDst = new Range(Int.box(8000 + rule), Int.box(8000 + rule))
+            rules.add(newRule(condition, Action.ACCEPT))
+        }
+        rules.add(newRule(new Condition(), Action.DROP))
+        chain = Chain(UUID.randomUUID(), rules, Collections.emptyMap(),
+                      "security-group")
+
+        val random = new Random()
+        contexts = Array.fill(Connections) {
+            val src = s"10.${random.nextInt(Rules)}.${random.nextInt(256)}." +
+                      s"${random.nextInt(254) + 1}"
+            val frame = { eth addr MAC.random() -> MAC.random() } <<
+                        { ip4 addr src --> "192.168.0.1" } <<
+                        { tcp ports (1024 + random.nextInt(60000)).toShort --->
+                                    (8000 + random.nextInt(Rules)).toShort }
+            val fmatch = FlowMatches.fromEthernetPacket(frame)
+            fmatch.setInputPortNumber(1)
+            PacketContext.generated(1, new Packet(frame, fmatch), fmatch)
+        }
+    }
+
+    private def newRule(condition: Condition, action: Action): Rule = {
+        val rule: Rule = new LiteralRule(condition, action)
+        rule.id = UUID.randomUUID()
+        rule
+    }
+
+    private def evaluate(context: PacketContext): FlowMask = {
+        context.wcmatch.clearSeenFields()
+        chain.process(context)
+        mask.clear()
+        mask.calculateFor(context.wcmatch, actions)
+        mask
+    }
+
+    /** The flow keys of the connection, masked with its megaflow mask. */
+    private def megaflow(context: PacketContext): String = {
+        val key = ByteBuffer.allocate(1024)
+        val keyMask = ByteBuffer.allocate(1024)
+        val builder = new StringBuilder
+        val keys = context.wcmatch.getKeys
+        var i = 0
+        while (i < keys.size()) {
+            key.clear()
+            keyMask.clear()
+            keys.get(i).serializeInto(key)
+            val maskKey = mask.getMaskFor(keys.get(i).attrId())
+            if (maskKey ne null)
+                maskKey.serializeInto(keyMask)
+            builder.append(keys.get(i).attrId()).append(':')
+            var j = 0
+            while (j < key.position()) {
+                builder.append(key.get(j) & keyMask.get(j)).append(',')
+                j += 1
+            }
+            i += 1
+        }
+        builder.toString()
+    }
+
+    @TearDown
+    def printMegaflows(): Unit = {
+        val megaflows = new HashSet[String]()
+        for (context <- contexts) {
+            evaluate(context)
+            megaflows.add(megaflow(context))
+        }
+        System.out.println(s"\nMegaflows for $Connections connections: " +
+                           s"${megaflows.size}")
+    }
+
+    @Benchmark
+    def simulateConnection(): FlowMask = {
+        index = (index + 1) % Connections
+        evaluate(contexts(index))
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.simulation
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import scala.collection.JavaConverters._
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+import org.openjdk.jmh.infra.Blackhole
+import org.slf4j.LoggerFactory
+
+import org.midonet.midolman.MidolmanBenchmark
+import org.midonet.midolman.util.VirtualConfigurationBuilders.DhcpOpt121Route
+import org.midonet.packets.{DHCP, DHCPOption, IPv4Addr, IPv4Subnet, MAC}
+import org.midonet.util.logging.Logger
+
+/**
+  * Measures the throughput of DHCP replies handled by a single packet
+  * worker, for a subnet with extra DHCP options and classless routes. The
+  * `uncached` benchmark clears the reply cache before every request, such
+  * that every request reads, converts and parses the subnet configuration.
+  */
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1)
+@State(Scope.Benchmark)
+class DhcpBenchmark extends MidolmanBenchmark {
+
+    private final val HostCount = 256
+
+    private val log = Logger(LoggerFactory.getLogger(getClass))
+    private var cache: DhcpReplyCache = _
+    private var uncachedCache: DhcpReplyCache = _
+
+    private var port: Port = _
+    private var requests: Array[(MAC, DHCP)] = _
+    private var index = 0
+
+    @JmhSetup
+    def setup(): Unit = {
+        cache = new DhcpReplyCache(virtualTopology.store)
+        uncachedCache = new DhcpReplyCache(virtualTopology.store)
+        val bridgeId = newBridge("bridge")
+        val portId = newBridgePort(bridgeId)
+        materializePort(portId, hostId, "port0")
+        fetchPorts(portId)
+        fetchDevice[Bridge](bridgeId)
+        port = virtualTopology.tryGet(classOf[Port], portId)
+
+        val gateway = IPv4Addr.fromString("10.0.0.1")
+        val subnet = addDhcpSubnet(
+            bridgeId, new IPv4Subnet("10.0.0.1", 16), enabled = true,
+            gateway, List(IPv4Addr.fromString("10.0.0.2")), 1500,
+            List(DhcpOpt121Route(gateway, new IPv4Subnet("172.16.0.0", 12))))
+
+        requests = Array.tabulate(HostCount) { host =>
+            val mac = MAC.random()
+            addDhcpHost(bridgeId, subnet, mac, IPv4Addr(0x0a000100 + host))
+            setDhcpHostOptions(bridgeId, subnet, mac,
+                               Map("host-name" -> s"vm-$host",
+                                   "domain-search" -> "a.example.com,example.com"))
+            val request = new DHCP()
+                .setOpCode(DHCP.OPCODE_REQUEST)
+                .setTransactionId(host)
+                .setHardwareType(0x01)
+                .setHardwareAddressLength(6)
+                .setClientHardwareAddress(mac)
+                .setOptions(List(
+                    new DHCPOption(DHCPOption.Code.DHCP_TYPE.value,
+                                   DHCPOption.Code.DHCP_TYPE.length,
+                                   Array(DHCPOption.MsgType.DISCOVER.value)))
+                                .asJava)
+            (mac, request)
+        }
+    }
+
+    private def nextRequest(): (MAC, DHCP) = {
+        index = (index + 1) % requests.length
+        requests(index)
+    }
+
+    @Benchmark
+    def cached(bh: Blackhole): Unit = {
+        val (mac, request) = nextRequest()
+        bh.consume(DhcpImpl(virtualTopology, port, request, mac, 1500, 1500,
+                            log, cache))
+    }
+
+    @Benchmark
+    def uncached(bh: Blackhole): Unit = {
+        val (mac, request) = nextRequest()
+        uncachedCache.clear()
+        bh.consume(DhcpImpl(virtualTopology, port, request, mac, 1500, 1500,
+                            log, uncachedCache))
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.simulation
+
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.midolman.MidolmanBenchmark
+import org.midonet.midolman.datapath.DatapathChannel
+import org.midonet.midolman.rules.RuleResult
+import org.midonet.midolman.util.MockPacketWorkflow
+import org.midonet.odp.{FlowMatches, Packet}
+import org.midonet.packets.util.PacketBuilder._
+import org.midonet.packets.{Ethernet, MAC}
+
+/**
+  * Measures the overhead of the simulation profiler on the processing of a
+  * packet through a bridge with an inbound chain of 200 rules, when the
+  * profiler is disabled, when it samples 1% of the packets, and when it
+  * profiles every packet.
+  */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+class SimulationProfilerBenchmark extends MidolmanBenchmark {
+
+    private final val Rules = 200
+
+    @Param(Array("0", "0.01", "1"))
+    var samplingRate: Double = _
+
+    private val leftMac = MAC.random
+    private val rightMac = MAC.random
+    private val frame: Ethernet = { eth addr leftMac -> rightMac } <<
+                                  { ip4 addr "10.0.0.1" --> "10.0.0.2" } <<
+                                  { udp ports 10101 ---> 10102 }
+
+    private val processedChannel = new DatapathChannel {
+        override def handoff(context: PacketContext): Long = {
+            context.setFlowProcessed()
+            context.setPacketProcessed()
+            0L
+        }
+        override def start(): Unit = { }
+        override def stop(): Unit = { }
+    }
+
+    private var workflow: MockPacketWorkflow = _
+    private var packet: Packet = _
+
+    @JmhSetup
+    def setup(): Unit = {
+        newHost("myself", hostId)
+        val bridgeId = newBridge("bridge")
+        val leftPortId = newBridgePort(bridgeId)
+        val rightPortId = newBridgePort(bridgeId)
+        materializePort(leftPortId, hostId, "port0")
+        materializePort(rightPortId, hostId, "port1")
+
+        val chainId = newInboundChainOnBridge("chain", bridgeId)
+        for (rule <- 0 until Rules) {
+            newTcpDstRuleOnChain(chainId, rule + 1, 1000 + rule,
+                                 RuleResult.Action.DROP)
+        }
+        fetchChains(chainId)
+        fetchPorts(leftPortId, rightPortId)
+
+        val bridge = fetchDevice[Bridge](bridgeId)
+        val macTable = bridge.vlanMacTableMap(0.toShort)
+        macTable.add(leftMac, leftPortId)
+        macTable.add(rightMac, rightPortId)
+
+        workflow = packetWorkflow(Map(1 -> leftPortId, 2 -> rightPortId),
+                                  dpChannel = processedChannel)
+        workflow.profiler.samplingRate = samplingRate
+
+        val fmatch = FlowMatches.fromEthernetPacket(frame)
+        fmatch.setInputPortNumber(1)
+        packet = new Packet(frame, fmatch)
+            .setReason(Packet.Reason.FlowTableMiss)
+    }
+
+    @Benchmark
+    def simulateWithProfiler(): Unit = {
+        workflow.handlePackets(packet)
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.state
+
+import java.util
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+import org.openjdk.jmh.infra.Blackhole
+
+import rx.Observable
+import rx.subjects.PublishSubject
+
+import org.midonet.cluster.data.storage.model.ArpEntry
+import org.midonet.midolman.{NotYetException, SimulationBackChannel}
+import org.midonet.midolman.SimulationBackChannel.BackChannelMessage
+import org.midonet.midolman.config.MidolmanConfig
+import org.midonet.midolman.simulation.{Router, RouterPort}
+import org.midonet.packets.{IPv4Addr, IPv4Subnet, MAC}
+import org.midonet.util.UnixClock
+
+/**
+  * Measures the cost of the ARP request broker bookkeeping for a large
+  * number of routers, each with many unresolved ARP requests: checking
+  * whether there is work to do, processing when no retries are due, and
+  * processing when the retries of all pending ARP requests are due.
+  */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+class ArpRequestBrokerBenchmark {
+
+    private final val RetryInterval = 10000L
+    // The time step of the retries benchmark, long enough such that all
+    // ARP requests retry in every step, even though the retry jitter grows
+    // with every retry.
+    private final val RetryStep = 100000L * RetryInterval
+
+    @Param(Array("100"))
+    var routers: Int = _
+
+    @Param(Array("100"))
+    var arpsPerRouter: Int = _
+
+    private val config = MidolmanConfig.forTests(
+        s"""
+           |agent.arptable.arp_retry_interval = ${RetryInterval}ms
+           |agent.arptable.arp_timeout = 1000000d
+         """.stripMargin)
+
+    private val backChannel = new SimulationBackChannel {
+        override def tell(message: BackChannelMessage): Unit = { }
+        override def hasMessages: Boolean = false
+        override def poll(): BackChannelMessage = null
+    }
+
+    private val clock = UnixClock.mock()
+    private var broker: ArpRequestBroker = _
+
+    private class InMemoryArpCache(override val routerId: UUID)
+        extends ArpCache {
+        private val entries = new util.HashMap[IPv4Addr, ArpEntry]()
+        private val subject = PublishSubject.create[ArpCacheUpdate]()
+        override def get(ipAddr: IPv4Addr): ArpEntry = entries.get(ipAddr)
+        override def add(ipAddr: IPv4Addr, entry: ArpEntry): Unit =
+            entries.put(ipAddr, entry)
+        override def remove(ipAddr: IPv4Addr): Unit = entries.remove(ipAddr)
+        override def observable: Observable[ArpCacheUpdate] = subject
+        override def close(): Unit = { }
+    }
+
+    @JmhSetup
+    def setup(): Unit = {
+        clock.time = 0L
+        broker = new ArpRequestBroker(config, backChannel, clock)
+        for (index <- 0 until routers) {
+            val routerId = UUID.randomUUID()
+            val router = new Router(routerId, Router.Config(), null, null,
+                                    new util.HashMap[Int, UUID],
+                                    new InMemoryArpCache(routerId),
+                                    config.fip64)
+            val port = RouterPort(id = UUID.randomUUID(), routerId = routerId,
+                                  portAddresses = new util.ArrayList(),
+                                  portAddress4 = new IPv4Subnet(
+                                      IPv4Addr.fromInt(0x0a000001), 16),
+                                  portAddress6 = null,
+                                  portMac = MAC.random())
+            for (arp <- 0 until arpsPerRouter) {
+                try broker.get(IPv4Addr.fromInt(0x0a000100 + arp), port,
+                               router, -1L)
+                catch { case e: NotYetException => }
+            }
+        }
+    }
+
+    @Benchmark
+    def shouldProcess(bh: Blackhole): Unit = {
+        bh.consume(broker.shouldProcess())
+    }
+
+    @Benchmark
+    def processIdle(): Unit = {
+        clock.time += 1
+        broker.process()
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(10000)
+    def processRetries(): Unit = {
+        clock.time += RetryStep
+        broker.process()
+    }
+}
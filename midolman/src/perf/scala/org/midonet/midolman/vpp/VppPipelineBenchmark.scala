@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.vpp
+
+import java.util.concurrent.{ExecutorService, ScheduledExecutorService, ScheduledThreadPoolExecutor, TimeUnit}
+
+import scala.concurrent.duration._
+import scala.concurrent.{Await, ExecutionContext, Future, Promise}
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, TearDown => JmhTearDown, _}
+
+import org.midonet.midolman.vpp.VppPipeline.{BatchResult, Command}
+import org.midonet.util.concurrent.Executors
+import org.midonet.util.functors.makeRunnable
+
+/**
+  * Measures the number of FIP64 mappings programmed per second by the
+  * [[VppPipeline]], using a stand-in for the VPP API that replies to every
+  * request after a fixed latency. With one request in flight, the pipeline
+  * executes the requests one after another, as the controller did before.
+  */
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+@org.openjdk.jmh.annotations.Threads(1)
+class VppPipelineBenchmark {
+
+    private final val Mappings = 1000
+    private final val LatencyMicros = 100L
+
+    @Param(Array("1", "8", "32"))
+    var inFlight: Int = _
+
+    private var executor: ExecutorService = _
+    private var vpp: ScheduledExecutorService = _
+    private var pipeline: VppPipeline = _
+    private var commands: Array[Command] = _
+
+    @JmhSetup
+    def setup(): Unit = {
+        executor = Executors.singleThreadScheduledExecutor(
+            "vpp-controller", isDaemon = true, Executors.CallerRunsPolicy)
+        vpp = new ScheduledThreadPoolExecutor(2)
+        pipeline = new VppPipeline(inFlight)(
+            ExecutionContext.fromExecutor(executor))
+        commands = Array.tabulate(Mappings) { index =>
+            Command(Int.box(index), isAdd = true) { request() }
+        }
+    }
+
+    @JmhTearDown
+    def teardown(): Unit = {
+        executor.shutdown()
+        vpp.shutdown()
+    }
+
+    /** A VPP request, which completes after the VPP latency. */
+    private def request(): Future[Any] = {
+        val promise = Promise[Any]()
+        vpp.schedule(makeRunnable { promise.success(()) },
+                     LatencyMicros, TimeUnit.MICROSECONDS)
+        promise.future
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1000)
+    def programMappings(): BatchResult = {
+        val promise = Promise[BatchResult]()
+        executor.execute(makeRunnable {
+            var index = 0
+            while (index < Mappings) {
+                pipeline enqueue commands(index)
+                index += 1
+            }
+            promise completeWith pipeline.flush()
+        })
+        Await.result(promise.future, 1 minute)
+    }
+}
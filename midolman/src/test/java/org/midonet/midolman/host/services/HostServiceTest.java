@@ -148,6 +148,8 @@ public class HostServiceTest {
             .withValue("agent.host.wait_time_gen_id",
                        ConfigValueFactory.fromAnyRef(0))
             .withValue("agent.host.retries_gen_id",
+                       ConfigValueFactory.fromAnyRef(0))
+            .withValue("agent.host.interface_update_interval",
                        ConfigValueFactory.fromAnyRef(0));
     }
 
@@ -199,6 +201,10 @@ public class HostServiceTest {
     }
 
     private TestableHostService makeHostService() {
+        return makeHostService(config);
+    }
+
+    private TestableHostService makeHostService(Config config) {
         return new TestableHostService(
             new MidolmanConfig(config, ConfigFactory.empty(), true),
             backendConfig,
@@ -420,6 +426,29 @@ public class HostServiceTest {
         stopService(hostService);
     }
 
+    @Test
+    public void hostServiceCoalescesHostInterfaceUpdates() throws Throwable {
+        TestableHostService hostService = makeHostService(
+            config.withValue("agent.host.interface_update_interval",
+                             ConfigValueFactory.fromAnyRef("100ms")));
+        hostService.startAsync().awaitRunning();
+
+        MockInterfaceScanner scanner = getInterfaceScanner();
+        scanner.addInterface(new InterfaceDescription("eth0", 1));
+        scanner.addInterface(new InterfaceDescription("eth1", 2));
+        scanner.addInterface(new InterfaceDescription("eth2", 3));
+
+        eventuallyAssertInterfaces(3);
+
+        scanner.removeInterface("eth0");
+        scanner.removeInterface("eth1");
+
+        eventuallyAssertInterfaces(1);
+        assertEquals(getHostState(hostId).getInterfaces(0).getName(), "eth2");
+
+        stopService(hostService);
+    }
+
     @Test
     public void hostServiceDoesNotUpdateHostInterfacesWhenStopped()
         throws Throwable {
@@ -474,6 +503,17 @@ public class HostServiceTest {
         throw new Exception("Eventually host did not exist");
     }
 
+    private void eventuallyAssertInterfaces(int count) throws Exception {
+        for (byte attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            State.HostState hostState = getHostState(hostId);
+            if (hostState != null && hostState.getInterfacesCount() == count)
+                return;
+            Thread.sleep(WAIT_MILLIS);
+        }
+        throw new Exception("Eventually host did not have " + count +
+                            " interfaces");
+    }
+
     private void eventuallyAssertShutdown(TestableHostService hostService)
         throws Exception {
         for (byte attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
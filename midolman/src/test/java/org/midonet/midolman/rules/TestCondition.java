@@ -93,6 +93,34 @@ public class TestCondition {
         Assert.assertFalse(cond.matches(pktCtx));
     }
 
+    @Test
+    public void testOnlyConstrainedFieldsAreSeen() {
+        FlowMatch wcmatch = pktCtx.wcmatch();
+        Condition cond = new Condition();
+        cond.nwProto = UDP.PROTOCOL_NUMBER;
+        cond.tpDst = new Range<>(1000, 2000);
+        wcmatch.clearSeenFields();
+        Assert.assertFalse(cond.matches(pktCtx));
+        assertTrue(wcmatch.isSeen(FlowMatch.Field.NetworkProto));
+        assertFalse(wcmatch.isSeen(FlowMatch.Field.DstPort));
+        assertFalse(wcmatch.isSeen(FlowMatch.Field.SrcPort));
+        assertFalse(wcmatch.isSeen(FlowMatch.Field.EthSrc));
+        assertFalse(wcmatch.isSeen(FlowMatch.Field.NetworkSrc));
+        assertFalse(wcmatch.isSeen(FlowMatch.Field.NetworkTOS));
+
+        cond = new Condition();
+        cond.nwSrcIp = new IPv4Subnet(0x0a001400, 24);
+        cond.nwDstIp = new IPv4Subnet(0x0a000000, 16);
+        cond.nwDstInv = true;
+        wcmatch.clearSeenFields();
+        Assert.assertFalse(cond.matches(pktCtx));
+        assertFalse(wcmatch.isSeen(FlowMatch.Field.NetworkSrc));
+        assertTrue(wcmatch.isPrefixSeen(FlowMatch.Field.NetworkSrc));
+        Assert.assertEquals(24, wcmatch.getNetworkSrcPrefixSeen());
+        assertTrue(wcmatch.isPrefixSeen(FlowMatch.Field.NetworkDst));
+        Assert.assertEquals(16, wcmatch.getNetworkDstPrefixSeen());
+    }
+
     @Test
     public void testInPortIds() {
         Condition cond = new Condition();
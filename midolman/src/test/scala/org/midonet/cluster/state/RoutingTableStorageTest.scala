@@ -34,7 +34,7 @@ import org.midonet.cluster.data.storage.KeyType._
 import org.midonet.cluster.data.storage.metrics.StorageMetrics
 import org.midonet.cluster.data.storage.{StateResult, ZookeeperObjectMapper}
 import org.midonet.cluster.models.Topology.Port
-import org.midonet.cluster.services.MidonetBackend.RoutesKey
+import org.midonet.cluster.services.MidonetBackend.{RouteBatchesKey, RoutesKey}
 import org.midonet.cluster.state.RoutingTableStorage._
 import org.midonet.cluster.topology.TopologyBuilder
 import org.midonet.cluster.util.MidonetBackendTest
@@ -65,6 +65,7 @@ class RoutingTableStorageTest extends FlatSpec with MidonetBackendTest
     private def initAndBuildStorage(storage: ZookeeperObjectMapper): Unit = {
         storage.registerClass(classOf[Port])
         storage.registerKey(classOf[Port], RoutesKey, Multiple)
+        storage.registerKey(classOf[Port], RouteBatchesKey, Multiple)
         storage.build()
     }
 
@@ -74,6 +75,12 @@ class RoutingTableStorageTest extends FlatSpec with MidonetBackendTest
                   UUID.randomUUID, true)
     }
 
+    private def createBatchRoute(routerId: UUID, portId: UUID) = {
+        new Route(random.nextInt(), random.nextInt(33), random.nextInt(),
+                  random.nextInt(33), NextHop.PORT, portId, random.nextInt(),
+                  random.nextInt(), "", routerId, true)
+    }
+
     "Store" should "add a port route to the routing table" in {
         val port = createRouterPort()
         storage.create(port)
@@ -146,4 +153,127 @@ class RoutingTableStorageTest extends FlatSpec with MidonetBackendTest
         obs.getOnCompletedEvents should have size 1
         obs.getOnErrorEvents shouldBe empty
     }
+
+    "Route batch" should "encode and decode snapshots and deltas" in {
+        val routerId = UUID.randomUUID
+        val portIds = Seq(UUID.randomUUID, UUID.randomUUID)
+        val routes = for (index <- 0 to RouteBatch.MaxChunkRoutes) yield
+            createBatchRoute(routerId, portIds(index % 2))
+
+        val snapshot = RouteBatch.snapshot(1L, 2L, routerId, routes)
+        snapshot should have size 2
+        val chunks = snapshot.flatMap(RouteBatch.decode)
+        chunks.map(_.index) shouldBe Seq(0, 1)
+        chunks.forall(c => c.isSnapshot && c.epoch == 1L && c.seq == 2L &&
+                           c.count == 2) shouldBe true
+        chunks.flatMap(_.routes.get._1) shouldBe routes
+        chunks.flatMap(_.routes.get._1).map(_.weight) shouldBe routes.map(_.weight)
+
+        val delta = RouteBatch.decode(
+            RouteBatch.delta(-1L, 3L, routerId, routes.take(2),
+                             routes.slice(2, 3))).get
+        delta.isSnapshot shouldBe false
+        delta.epoch shouldBe -1L
+        delta.seq shouldBe 3L
+        delta.routes shouldBe Some((routes.take(2), routes.slice(2, 3)))
+
+        RouteBatch.snapshot(1L, 0L, routerId, Nil).flatMap(RouteBatch.decode)
+            .map(_.routes) shouldBe Seq(Some((Nil, Nil)))
+        RouteBatch.decode("not a route batch") shouldBe None
+    }
+
+    "Route batch" should "reject routes of different routers" in {
+        val route1 = createBatchRoute(UUID.randomUUID, UUID.randomUUID)
+        val route2 = createBatchRoute(UUID.randomUUID, UUID.randomUUID)
+        intercept[IllegalArgumentException] {
+            RouteBatch.delta(0L, 1L, route1.routerId, Seq(route1, route2), Nil)
+        }
+    }
+
+    "Route batch reader" should "apply deltas incrementally" in {
+        val routerId = UUID.randomUUID
+        val portId = UUID.randomUUID
+        val routes = for (_ <- 0 until 4) yield createBatchRoute(routerId, portId)
+        val reader = new RouteBatchReader
+
+        Given("A snapshot")
+        val snapshot = RouteBatch.snapshot(1L, 0L, routerId, routes.take(2))
+        reader.update(snapshot.toSet) shouldBe (routes.take(2).toSet, Set())
+
+        When("Adding the deltas out of order")
+        val delta1 = RouteBatch.delta(1L, 1L, routerId, Seq(routes(2)),
+                                      Seq(routes(0)))
+        val delta2 = RouteBatch.delta(1L, 2L, routerId, Seq(routes(3)),
+                                      Seq(routes(2)))
+
+        Then("The reader waits for the missing delta")
+        reader.update(snapshot.toSet + delta2) shouldBe (Set(), Set())
+
+        And("The reader applies both deltas")
+        reader.update(snapshot.toSet + delta1 + delta2) shouldBe
+            (Set(routes(3)), Set(routes(0)))
+        reader.currentRoutes shouldBe Set(routes(1), routes(3))
+
+        When("Replacing the deltas with a snapshot for the same sequence")
+        val snapshot2 = RouteBatch.snapshot(1L, 2L, routerId,
+                                            Seq(routes(1), routes(3)))
+        Then("The routes do not change")
+        reader.update(snapshot2.toSet) shouldBe (Set(), Set())
+
+        When("A new publisher epoch starts")
+        val snapshot3 = RouteBatch.snapshot(2L, 0L, routerId, Seq(routes(0)))
+        Then("The reader rebuilds the routes from the new snapshot")
+        reader.update(snapshot2.toSet ++ snapshot3) shouldBe
+            (Set(routes(0)), Set(routes(1), routes(3)))
+
+        When("All batches are removed")
+        Then("The reader removes all routes")
+        reader.update(Set()) shouldBe (Set(), Set(routes(0)))
+        reader.currentRoutes shouldBe empty
+    }
+
+    "Store" should "add and remove route batches" in {
+        val port = createRouterPort()
+        storage.create(port)
+
+        val routerId = UUID.randomUUID
+        val routes = for (_ <- 0 until 10) yield
+            createBatchRoute(routerId, port.getId)
+        val snapshot = RouteBatch.snapshot(1L, 0L, routerId, routes.take(5))
+        val delta = RouteBatch.delta(1L, 1L, routerId, routes.drop(5),
+                                     routes.take(1))
+
+        for (value <- snapshot :+ delta) {
+            storage.addRouteBatch(port.getId, value).await(timeout) shouldBe
+                StateResult(ownerId)
+        }
+        storage.getPortRouteBatches(port.getId, hostId)
+               .await(timeout) shouldBe routes.drop(1).toSet
+
+        for (value <- snapshot :+ delta) {
+            storage.removeRouteBatch(port.getId, value).await(timeout)
+        }
+        storage.getPortRouteBatches(port.getId, hostId)
+               .await(timeout) shouldBe Set()
+    }
+
+    "Store observable" should "emit notifications on route batch updates" in {
+        val port = createRouterPort()
+        storage.create(port)
+
+        val obs = new TestObserver[Set[String]] with AwaitableObserver[Set[String]]
+        storage.portRouteBatchesObservable(port.getId, Observable.just(hostId))
+               .subscribe(obs)
+
+        obs.awaitOnNext(1, timeout) shouldBe true
+        obs.getOnNextEvents.get(0) shouldBe Set()
+
+        val routerId = UUID.randomUUID
+        val route = createBatchRoute(routerId, port.getId)
+        val value = RouteBatch.snapshot(1L, 0L, routerId, Seq(route)).head
+        storage.addRouteBatch(port.getId, value).await(timeout)
+
+        obs.awaitOnNext(2, timeout) shouldBe true
+        obs.getOnNextEvents.get(1) shouldBe Set(value)
+    }
 }
@@ -257,6 +257,21 @@ class DhcpTest extends MidolmanSpec {
         dhcpReply.getOptions.contains(hostNameDhcpOption.get) should be (false)
     }
 
+    scenario("Dhcp replies reuse the options until the Dhcp host changes") {
+        val dhcpReply1 = sendDhcpDiscoveryAndGetDhcpOffer()
+        val dhcpReply2 = sendDhcpDiscoveryAndGetDhcpOffer()
+        dhcpReply2.getOptions should be theSameInstanceAs dhcpReply1.getOptions
+
+        val hostNameOption = (DHCPOption.Code.HOST_NAME.value.toString, "foobar")
+        setDhcpHostOptions(bridge, dhcpSubnet1, dhcpHost1, Map(hostNameOption))
+
+        val dhcpReply3 = sendDhcpDiscoveryAndGetDhcpOffer()
+        dhcpReply3.getOptions should not be theSameInstanceAs (
+            dhcpReply1.getOptions)
+        dhcpReply3.getOptions.contains(
+            extraDhcpOptToDhcpOption(hostNameOption).get) should be (true)
+    }
+
     scenario("Invalid Dhcp Extra Option Should Be Ignored") {
         val dhcpReply = sendDhcpDiscoveryAndGetDhcpOffer()
 
@@ -90,6 +90,28 @@ class FlowTagIndexerTest extends MidolmanSpec {
             flowInvalidation.flowsFor(tag1) should be (null)
             flowInvalidation.flowsFor(tag2) should be (null)
         }
+
+        scenario ("A flow is invalidated by an equal tag instance") {
+            val flow = new ManagedFlow(null)
+            flow.tags.add(FlowTagger.DpPortTag(3))
+            flowInvalidation.registerFlow(flow)
+            flowInvalidation.invalidateFlowsFor(FlowTagger.DpPortTag(3))
+
+            removedFlows should contain theSameElementsAs List(flow)
+        }
+
+        scenario ("A flow is invalidated by a tag that is not interned") {
+            case class StateKey(key: Int) extends FlowTagger.FlowStateTag
+            val flow = new ManagedFlow(null)
+            flow.tags.add(StateKey(1))
+            flow.tags.add(tag1)
+            flowInvalidation.registerFlow(flow)
+            flowInvalidation.invalidateFlowsFor(StateKey(1))
+
+            removedFlows should contain theSameElementsAs List(flow)
+            flowInvalidation.flowsFor(StateKey(1)) should be (null)
+            flowInvalidation.flowsFor(tag1) should be (null)
+        }
     }
 
     feature ("Flows can be removed") {
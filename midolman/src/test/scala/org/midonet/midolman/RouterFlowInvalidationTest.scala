@@ -19,10 +19,10 @@ package org.midonet.midolman
 import java.util.UUID
 
 import org.junit.runner.RunWith
-import org.midonet.util.collection.IPv4InvalidationArray
 import org.scalatest.junit.JUnitRunner
 
 import org.midonet.midolman.PacketWorkflow.Drop
+import org.midonet.midolman.flows.RouteFlowIndex
 import org.midonet.midolman.layer3.Route._
 import org.midonet.midolman.simulation.{Router => SimRouter, RouterPort}
 import org.midonet.midolman.util.MidolmanSpec
@@ -77,11 +77,11 @@ class RouterFlowInvalidationTest extends MidolmanSpec {
         val (simRes, pktCtx) = simulate(packetContextFor(eth, inPort))
         simRes should not be Drop
 
-        val dst = IPv4Addr.fromString(ipToReach).toInt
-        IPv4InvalidationArray.current.countRefs(dst) should be (1)
+        val dst = IPv4Addr.fromString(ipToReach)
+        RouteFlowIndex.current.countRefs(router, dst) should be (1)
 
         pktCtx.flowRemovedCallbacks.runAndClear()
-        IPv4InvalidationArray.current.countRefs(dst) should be (0)
+        RouteFlowIndex.current.countRefs(router, dst) should be (0)
     }
 
     scenario("Flows are invalidated when adding a route") {
@@ -111,22 +111,22 @@ class RouterFlowInvalidationTest extends MidolmanSpec {
         var simRes = simulate(packetContextFor(eth, inPort))._2
         simRes should not be Drop
 
-        IPv4InvalidationArray.current.countRefs(
-            IPv4Addr.fromString(ipVm1).toInt) should be (1)
+        RouteFlowIndex.current.countRefs(
+            router, IPv4Addr.fromString(ipVm1)) should be (1)
 
         eth = createUdpPacket(macSource, ipSource, macInPort, ipVm2)
         simRes = simulate(packetContextFor(eth, inPort))._2
         simRes should not be Drop
 
-        IPv4InvalidationArray.current.countRefs(
-            IPv4Addr.fromString(ipVm2).toInt) should be (1)
+        RouteFlowIndex.current.countRefs(
+            router, IPv4Addr.fromString(ipVm2)) should be (1)
 
         eth = createUdpPacket(macSource, ipSource, macInPort, ipVm3)
         simRes = simulate(packetContextFor(eth, inPort))._2
         simRes should not be Drop
 
-        IPv4InvalidationArray.current.countRefs(
-            IPv4Addr.fromString(ipVm3).toInt) should be (1)
+        RouteFlowIndex.current.countRefs(
+            router, IPv4Addr.fromString(ipVm3)) should be (1)
 
         newRoute(router, ipSource, 32, "11.11.1.0", networkToReachLength+8,
             NextHop.PORT, outPort, new IPv4Addr(NO_GATEWAY).toString,
@@ -153,8 +153,8 @@ class RouterFlowInvalidationTest extends MidolmanSpec {
         val (simRes1, pktCtx1) = simulate(packetContextFor(eth, inPort))
         simRes1 should not be Drop
 
-        IPv4InvalidationArray.current.countRefs(
-            IPv4Addr.fromString(ipVm1).toInt) should be (1)
+        RouteFlowIndex.current.countRefs(
+            router, IPv4Addr.fromString(ipVm1)) should be (1)
 
         feedArpTable(simRouter, IPv4Addr.fromString(ipVm2),
                      MAC.fromString(macVm2))
@@ -163,12 +163,12 @@ class RouterFlowInvalidationTest extends MidolmanSpec {
         val (simRes2, pktCtx2) = simulate(packetContextFor(eth, inPort))
         simRes2 should not be Drop
 
-        IPv4InvalidationArray.current.countRefs(
-            IPv4Addr.fromString(ipVm2).toInt) should be (1)
+        RouteFlowIndex.current.countRefs(
+            router, IPv4Addr.fromString(ipVm2)) should be (1)
 
         pktCtx1.flowRemovedCallbacks.runAndClear()
-        IPv4InvalidationArray.current.countRefs(
-            IPv4Addr.fromString(ipVm1).toInt) should be (0)
+        RouteFlowIndex.current.countRefs(
+            router, IPv4Addr.fromString(ipVm1)) should be (0)
 
         val ipSource2 = "20.20.0.40"
 
@@ -176,23 +176,23 @@ class RouterFlowInvalidationTest extends MidolmanSpec {
         val (simRes3, _) = simulate(packetContextFor(eth, inPort))
         simRes3 should not be Drop
 
-        IPv4InvalidationArray.current.countRefs(
-            IPv4Addr.fromString(ipVm1).toInt) should be (1)
+        RouteFlowIndex.current.countRefs(
+            router, IPv4Addr.fromString(ipVm1)) should be (1)
 
         eth = createUdpPacket(macSource, ipSource2, macInPort, ipVm2)
         val (simRes4, pktCtx4) = simulate(packetContextFor(eth, inPort))
         simRes4 should not be Drop
 
-        IPv4InvalidationArray.current.countRefs(
-            IPv4Addr.fromString(ipVm2).toInt) should be (2)
+        RouteFlowIndex.current.countRefs(
+            router, IPv4Addr.fromString(ipVm2)) should be (2)
 
         pktCtx2.flowRemovedCallbacks.runAndClear()
-        IPv4InvalidationArray.current.countRefs(
-            IPv4Addr.fromString(ipVm2).toInt) should be (1)
+        RouteFlowIndex.current.countRefs(
+            router, IPv4Addr.fromString(ipVm2)) should be (1)
 
         pktCtx4.flowRemovedCallbacks.runAndClear()
-        IPv4InvalidationArray.current.countRefs(
-            IPv4Addr.fromString(ipVm2).toInt) should be (0)
+        RouteFlowIndex.current.countRefs(
+            router, IPv4Addr.fromString(ipVm2)) should be (0)
     }
 
     private def createUdpPacket(srcMac: String, srcIp: String,
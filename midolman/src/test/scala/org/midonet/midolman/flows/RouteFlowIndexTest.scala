@@ -0,0 +1,172 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.flows
+
+import java.util.{HashSet => JHashSet, UUID}
+
+import scala.collection.JavaConverters._
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.packets._
+
+@RunWith(classOf[JUnitRunner])
+class RouteFlowIndexTest extends FeatureSpec with Matchers
+                         with GivenWhenThen with BeforeAndAfter {
+
+    private var index: RouteFlowIndex = _
+    private val router = UUID.randomUUID()
+
+    before {
+        index = new RouteFlowIndex
+    }
+
+    private def overshadowed(routerId: UUID, prefix: IPSubnet[_]): Set[IPAddr] = {
+        val destinations = new JHashSet[IPAddr]()
+        val count = index.overshadowed(routerId, prefix, destinations)
+        count shouldBe destinations.size()
+        destinations.asScala.toSet
+    }
+
+    feature("The index counts the flows per destination") {
+        scenario("Flows are referenced and unreferenced") {
+            val ip = IPv4Addr("10.0.0.1")
+
+            index.ref(router, ip, 24) shouldBe 1
+            index.ref(router, ip, 24) shouldBe 2
+            index.ref(router, ip, 16) shouldBe 3
+            index.countRefs(router, ip) shouldBe 3
+
+            index.unref(router, ip, 24) shouldBe 2
+            index.unref(router, ip, 16) shouldBe 1
+            index.unref(router, ip, 24) shouldBe 0
+            index.countRefs(router, ip) shouldBe 0
+
+            And("Unreferencing an unknown flow is ignored")
+            index.unref(router, ip, 24) shouldBe -1
+            index.unref(router, ip, 8) shouldBe -1
+        }
+
+        scenario("Flows matching a host route are not indexed") {
+            index.ref(router, IPv4Addr("10.0.0.1"), 32) shouldBe 0
+            index.countRefs(router, IPv4Addr("10.0.0.1")) shouldBe 0
+            index.unref(router, IPv4Addr("10.0.0.1"), 32) shouldBe -1
+
+            index.ref(router, IPv6Addr("2001:db8::1"), 128) shouldBe 0
+            index.countRefs(router, IPv6Addr("2001:db8::1")) shouldBe 0
+        }
+
+        scenario("Flows are indexed per router") {
+            val other = UUID.randomUUID()
+            val ip = IPv4Addr("10.0.0.1")
+
+            index.ref(router, ip, 24)
+            index.countRefs(router, ip) shouldBe 1
+            index.countRefs(other, ip) shouldBe 0
+            index.unref(other, ip, 24) shouldBe -1
+        }
+    }
+
+    feature("The index returns the flows overshadowed by a new route") {
+        scenario("Only the flows of routes at most as specific are returned") {
+            Given("Flows matching routes of different lengths")
+            index.ref(router, IPv4Addr("10.0.1.1"), 16)
+            index.ref(router, IPv4Addr("10.0.1.2"), 24)
+            index.ref(router, IPv4Addr("10.0.1.3"), 30)
+            index.ref(router, IPv4Addr("10.0.1.4"), RouteFlowIndex.NoRoute)
+            index.ref(router, IPv4Addr("10.0.2.1"), 16)
+
+            Then("A /24 route overshadows the flows under it of routes up " +
+                 "to /24")
+            overshadowed(router, IPv4Subnet.fromCidr("10.0.1.0/24")) shouldBe
+                Set(IPv4Addr("10.0.1.1"), IPv4Addr("10.0.1.2"),
+                    IPv4Addr("10.0.1.4"))
+
+            And("A /28 route does not overshadow the flows of the /30 route")
+            overshadowed(router, IPv4Subnet.fromCidr("10.0.1.0/28")) shouldBe
+                Set(IPv4Addr("10.0.1.1"), IPv4Addr("10.0.1.2"),
+                    IPv4Addr("10.0.1.4"))
+
+            And("A host route overshadows a single destination")
+            overshadowed(router, IPv4Subnet.fromCidr("10.0.1.3/32")) shouldBe
+                Set(IPv4Addr("10.0.1.3"))
+
+            And("Routes of other routers overshadow nothing")
+            overshadowed(UUID.randomUUID(),
+                         IPv4Subnet.fromCidr("10.0.0.0/8")) shouldBe empty
+        }
+
+        scenario("A route of the same length overshadows the flows") {
+            Given("A flow that matched a /24 route")
+            index.ref(router, IPv4Addr("10.0.1.1"), 24)
+
+            Then("Another /24 route for the same prefix overshadows the flow")
+            overshadowed(router, IPv4Subnet.fromCidr("10.0.1.0/24")) shouldBe
+                Set(IPv4Addr("10.0.1.1"))
+
+            And("A less specific route does not")
+            overshadowed(router, IPv4Subnet.fromCidr("10.0.0.0/16")) shouldBe
+                empty
+        }
+
+        scenario("A destination is returned while it has a shorter flow") {
+            val ip = IPv4Addr("10.0.1.1")
+            index.ref(router, ip, 16)
+            index.ref(router, ip, 28)
+
+            overshadowed(router, IPv4Subnet.fromCidr("10.0.1.0/24")) shouldBe
+                Set(ip)
+
+            index.unref(router, ip, 16)
+            overshadowed(router, IPv4Subnet.fromCidr("10.0.1.0/24")) shouldBe
+                empty
+        }
+
+        scenario("A default route covers the whole address space") {
+            index.ref(router, IPv4Addr("1.0.0.1"), RouteFlowIndex.NoRoute)
+            index.ref(router, IPv4Addr("200.0.0.1"), RouteFlowIndex.NoRoute)
+            index.ref(router, IPv4Addr("255.255.255.254"), RouteFlowIndex.NoRoute)
+
+            overshadowed(router, IPv4Subnet.fromCidr("0.0.0.0/0")) shouldBe
+                Set(IPv4Addr("1.0.0.1"), IPv4Addr("200.0.0.1"),
+                    IPv4Addr("255.255.255.254"))
+            overshadowed(router, IPv4Subnet.fromCidr("128.0.0.0/1")) shouldBe
+                Set(IPv4Addr("200.0.0.1"), IPv4Addr("255.255.255.254"))
+        }
+
+        scenario("IPv6 destinations") {
+            index.ref(router, IPv6Addr("2001:db8::1"), 32)
+            index.ref(router, IPv6Addr("2001:db8:0:1::1"), 64)
+            index.ref(router, IPv6Addr("ffff::1"), RouteFlowIndex.NoRoute)
+
+            overshadowed(router, new IPv6Subnet("2001:db8::", 64)) shouldBe
+                Set(IPv6Addr("2001:db8::1"))
+            overshadowed(router, new IPv6Subnet("2001:db8:0:1::", 64)) shouldBe
+                Set(IPv6Addr("2001:db8:0:1::1"))
+            overshadowed(router, new IPv6Subnet("2001:db8::", 48)) shouldBe
+                Set(IPv6Addr("2001:db8::1"))
+            overshadowed(router, new IPv6Subnet("ff00::", 8)) shouldBe
+                Set(IPv6Addr("ffff::1"))
+
+            And("IPv4 routes do not overshadow IPv6 flows")
+            overshadowed(router, IPv4Subnet.fromCidr("0.0.0.0/0")) shouldBe
+                empty
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.host.scanner
+
+import java.net.InetAddress
+
+import scala.collection.JavaConversions._
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.midolman.host.interfaces.InterfaceDescription
+import org.midonet.netlink.rtnetlink.{Addr, Link}
+import org.midonet.packets.{IPv4Addr, MAC}
+
+@RunWith(classOf[JUnitRunner])
+class InterfaceTableTest extends FeatureSpec with Matchers
+                         with GivenWhenThen {
+
+    private def link(index: Int, name: String, mac: MAC = MAC.random(),
+                     up: Boolean = false, mtu: Int = 1500): Link = {
+        val link = new Link()
+        link.ifi.index = index
+        link.ifi.`type` = Link.Type.ARPHRD_ETHER
+        link.ifi.flags = if (up) Link.Flag.IFF_UP else 0
+        link.setName(name)
+        link.mac = mac
+        link.mtu = mtu
+        link.link = index
+        link
+    }
+
+    private def addr(index: Int, ip: String): Addr = {
+        Addr.buildWithIPv4(IPv4Addr.fromString(ip), 24, index)
+    }
+
+    private def names(interfaces: Set[InterfaceDescription]): Set[String] = {
+        interfaces.map(_.getName)
+    }
+
+    feature("Table loads the initial interfaces") {
+        scenario("Links without a MAC address are not exposed") {
+            Given("A table")
+            val table = new InterfaceTable
+
+            When("Loading two links, one without a MAC address")
+            val changes = table.load(Set(link(1, "lo", mac = null),
+                                         link(2, "eth0")),
+                                     Set(addr(2, "10.0.0.1")))
+
+            Then("The table exposes the link with a MAC address")
+            names(changes.interfaces) shouldBe Set("eth0")
+            changes.updated shouldBe changes.interfaces
+            changes.removed shouldBe empty
+            table.interfaces shouldBe changes.interfaces
+            table.size shouldBe 2
+
+            And("The interface has the address")
+            table.interfaces.head.getInetAddresses.toSet shouldBe
+                Set(InetAddress.getByName("10.0.0.1"))
+        }
+    }
+
+    feature("Table applies notifications as deltas") {
+        scenario("Adding, updating and removing a link") {
+            Given("A table with a link")
+            val table = new InterfaceTable
+            val eth0 = link(1, "eth0")
+            table.load(Set(eth0), Set.empty)
+            val previous = table.interfaces
+
+            When("Adding a new link")
+            val tap = link(2, "tap0")
+            val added = table.newLink(tap).get
+
+            Then("The changes contain only the new link")
+            names(added.updated) shouldBe Set("tap0")
+            added.removed shouldBe empty
+            names(added.interfaces) shouldBe Set("eth0", "tap0")
+            previous.size shouldBe 1
+
+            When("Setting the link up")
+            val updated = table.newLink(link(2, "tap0", tap.mac, up = true)).get
+
+            Then("The changes contain the updated link")
+            updated.updated.head.isUp shouldBe true
+            updated.removed shouldBe empty
+            updated.interfaces should have size 2
+
+            When("Removing the link")
+            val removed = table.delLink(tap).get
+
+            Then("The changes contain the removed link")
+            removed.updated shouldBe empty
+            names(removed.removed) shouldBe Set("tap0")
+            names(removed.interfaces) shouldBe Set("eth0")
+            table.size shouldBe 1
+        }
+
+        scenario("Duplicate notifications return no changes") {
+            Given("A table with a link")
+            val table = new InterfaceTable
+            val eth0 = link(1, "eth0")
+            table.load(Set(eth0), Set(addr(1, "10.0.0.1")))
+
+            Then("The same link and address return no changes")
+            table.newLink(link(1, "eth0", eth0.mac)) shouldBe None
+            table.newAddr(addr(1, "10.0.0.1")) shouldBe None
+
+            And("Removing unknown links and addresses return no changes")
+            table.delLink(link(2, "eth1")) shouldBe None
+            table.delAddr(addr(1, "10.0.0.2")) shouldBe None
+        }
+
+        scenario("Notifications for links without a MAC address") {
+            Given("A table with a link without a MAC address")
+            val table = new InterfaceTable
+            table.load(Set(link(1, "lo", mac = null)), Set.empty)
+
+            Then("Notifications for the link return no changes")
+            table.newAddr(addr(1, "127.0.0.1")) shouldBe None
+            table.newLink(link(1, "lo", mac = null, mtu = 65536)) shouldBe None
+            table.delLink(link(1, "lo", mac = null)) shouldBe None
+            table.size shouldBe 0
+        }
+
+        scenario("Adding and removing addresses") {
+            Given("A table with a link")
+            val table = new InterfaceTable
+            table.load(Set(link(1, "eth0")), Set.empty)
+
+            When("Adding an address")
+            val added = table.newAddr(addr(1, "10.0.0.1")).get
+
+            Then("The interface has the address")
+            added.updated.head.getInetAddresses.toSet shouldBe
+                Set(InetAddress.getByName("10.0.0.1"))
+
+            When("Removing the address")
+            val removed = table.delAddr(addr(1, "10.0.0.1")).get
+
+            Then("The interface does not have the address")
+            removed.updated.head.getInetAddresses shouldBe empty
+            removed.interfaces shouldBe removed.updated
+        }
+
+        scenario("Addresses of unknown links are ignored") {
+            Given("An empty table")
+            val table = new InterfaceTable
+
+            Then("Adding an address returns no changes")
+            table.newAddr(addr(1, "10.0.0.1")) shouldBe None
+            table.size shouldBe 0
+
+            When("Adding the link")
+            val changes = table.newLink(link(1, "eth0")).get
+
+            Then("The interface does not have the address")
+            changes.updated.head.getInetAddresses shouldBe empty
+        }
+
+        scenario("Removing a link removes its addresses") {
+            Given("A table with a link and an address")
+            val table = new InterfaceTable
+            val eth0 = link(1, "eth0")
+            table.load(Set(eth0), Set(addr(1, "10.0.0.1")))
+
+            When("Removing and adding the link")
+            table.delLink(eth0)
+            val changes = table.newLink(eth0).get
+
+            Then("The interface does not have the address")
+            changes.updated.head.getInetAddresses shouldBe empty
+
+            And("The address can be added again")
+            table.newAddr(addr(1, "10.0.0.1")) should not be None
+        }
+    }
+}
@@ -103,6 +103,29 @@ class TokenBucketPolicyTest extends FeatureSpec
         }
     }
 
+    feature("Buckets are linked and unlinked concurrently") {
+        scenario("The root capacity covers the linked buckets") {
+            val threads = (0 until 4) map { i =>
+                new Thread() {
+                    override def run(): Unit = {
+                        val ports = (0 until 50) map {
+                            n => new GreTunnelPort(s"gre-$i-$n")
+                        }
+                        ports foreach { policy link (_, OverlayTunnel) }
+                        ports take 25 foreach { policy unlink _ }
+                    }
+                }
+            }
+            threads foreach (_.start())
+            threads foreach (_.join())
+
+            val tb = policy link (new GreTunnelPort("gre"), OverlayTunnel)
+            val root = tb.underlyingTokenBucket.getParent
+            policy.calculateMinimumSystemTokens should be (101 * 4)
+            root.getCapacity should be >= policy.calculateMinimumSystemTokens
+        }
+    }
+
     feature("Full system simulation") {
         scenario("Token bucket simulation") {
             val confStr =
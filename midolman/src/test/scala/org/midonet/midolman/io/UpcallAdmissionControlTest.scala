@@ -0,0 +1,310 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.io
+
+import java.nio.ByteBuffer
+import java.util.{ArrayList => JArrayList}
+
+import com.codahale.metrics.MetricRegistry
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.midolman.PacketWorker
+import org.midonet.midolman.io.UpcallAdmissionControl._
+import org.midonet.midolman.state.FlowStateAgentPackets
+import org.midonet.odp.flows.FlowKeys
+import org.midonet.odp.{FlowMatches, Packet}
+import org.midonet.packets.util.PacketBuilder._
+import org.midonet.packets.{Ethernet, ICMPv6, IPv6, MAC, TCP}
+import org.midonet.util.concurrent.NanoClock
+
+@RunWith(classOf[JUnitRunner])
+class UpcallAdmissionControlTest extends FeatureSpec with Matchers
+                                 with GivenWhenThen with BeforeAndAfter {
+
+    private final val Interval = 10000000L
+
+    private class TestWorker extends PacketWorker {
+        var depth = 0
+        override def submit(packet: Packet): Boolean = true
+        override def queueDepth: Int = depth
+        override def queueCapacity: Int = 1000
+    }
+
+    private val clock = new NanoClock {
+        var time = 0L
+        override def tick: Long = time
+    }
+
+    private var worker: TestWorker = _
+    private var registry: MetricRegistry = _
+    private var admission: UpcallAdmissionControl = _
+
+    before {
+        clock.time = 0L
+        worker = new TestWorker
+        registry = new MetricRegistry
+        admission = new UpcallAdmissionControl(IndexedSeq(worker), Interval,
+                                               Interval / 2, registry, clock)
+        admission.register(1, "flooder")
+        admission.register(2, "quiet")
+    }
+
+    private val srcMac = MAC.fromString("02:00:00:00:00:01")
+    private val dstMac = MAC.fromString("02:00:00:00:00:02")
+
+    private def packet(portNo: Int, frame: Ethernet): Packet = {
+        new Packet(frame, FlowMatches.fromEthernetPacket(frame)
+                              .addKey(FlowKeys.inPort(portNo))
+                              .setInputPortNumber(portNo))
+    }
+
+    private def tcpFrame(dstPort: Short, tcpFlags: TCP.Flag*): Ethernet = {
+        val flagList = new JArrayList[TCP.Flag]
+        tcpFlags.foreach(flagList.add)
+        val frame = { eth src srcMac dst dstMac } <<
+            { ip4 src "10.0.0.1" dst "10.0.0.2" } <<
+            { tcp src 12345.toShort dst dstPort flags TCP.Flag.allOf(flagList) }
+        frame
+    }
+
+    private def udpFrame(dstPort: Short): Ethernet = {
+        { eth src srcMac dst dstMac } <<
+            { ip4 src "10.0.0.1" dst "10.0.0.2" } <<
+            { udp src 12345.toShort dst dstPort }
+    }
+
+    private def tcp6Frame(dstPort: Short, tcpFlags: TCP.Flag*): Ethernet = {
+        val flagList = new JArrayList[TCP.Flag]
+        tcpFlags.foreach(flagList.add)
+        val frame = { eth src srcMac dst dstMac } <<
+            { ip6 src "fe80::1" dst "fe80::2" } <<
+            { tcp src 12345.toShort dst dstPort flags TCP.Flag.allOf(flagList) }
+        frame
+    }
+
+    private def udp6Frame(dstPort: Short): Ethernet = {
+        { eth src srcMac dst dstMac } <<
+            { ip6 src "fe80::1" dst "fe80::2" } <<
+            { udp src 12345.toShort dst dstPort }
+    }
+
+    private def icmp6Frame(icmpType: Int): Ethernet = {
+        val icmp = new ICMPv6
+        icmp.deserialize(ByteBuffer.wrap(
+            Array[Byte](icmpType.toByte, 0, 0, 0, 0, 0, 0, 0)))
+        val frame: Ethernet = { eth src srcMac dst dstMac } <<
+            { ip6 src "fe80::1" dst "fe80::2" proto ICMPv6.PROTOCOL_NUMBER }
+        frame.getPayload.asInstanceOf[IPv6].setPayload(icmp)
+        frame
+    }
+
+    private def flowState(portNo: Int): Packet = {
+        val p = packet(portNo, udpFrame(2925))
+        p.getMatch.setTunnelKey(FlowStateAgentPackets.TUNNEL_KEY)
+        p
+    }
+
+    private def arpFrame: Ethernet = {
+        { eth src srcMac dst eth_bcast } <<
+            { arp.req mac srcMac -> eth_zero ip "10.0.0.1" --> "10.0.0.2" }
+    }
+
+    private def syn(portNo: Int) = packet(portNo, tcpFrame(80, TCP.Flag.Syn))
+
+    private def data(portNo: Int) =
+        packet(portNo, tcpFrame(80, TCP.Flag.Ack, TCP.Flag.Psh))
+
+    /** Sends the packets and returns the number of admitted packets. */
+    private def send(count: Int, packet: => Packet): Int = {
+        var admitted = 0
+        for (_ <- 0 until count) {
+            val p = packet
+            if (admission.admit(p, classify(p))) admitted += 1
+        }
+        admitted
+    }
+
+    /** Ends the current interval with the given queue depth. */
+    private def endInterval(depth: Int): Unit = {
+        worker.depth = depth
+        clock.time += Interval
+        // A packet from an unregistered port triggers the adaptation.
+        send(1, data(100))
+    }
+
+    feature("The admission control classifies packets") {
+        scenario("Control packets") {
+            classify(packet(1, arpFrame)) shouldBe ControlPacket
+            classify(packet(1, udpFrame(67))) shouldBe ControlPacket
+            classify(packet(1, udpFrame(68))) shouldBe ControlPacket
+            classify(packet(1, tcpFrame(179, TCP.Flag.Ack))) shouldBe
+                ControlPacket
+        }
+
+        scenario("Flow state packets") {
+            classify(flowState(1)) shouldBe FlowStatePacket
+        }
+
+        scenario("IPv6 control packets") {
+            classify(packet(1, icmp6Frame(135))) shouldBe ControlPacket
+            classify(packet(1, icmp6Frame(136))) shouldBe ControlPacket
+            classify(packet(1, udp6Frame(546))) shouldBe ControlPacket
+            classify(packet(1, udp6Frame(547))) shouldBe ControlPacket
+            classify(packet(1, tcp6Frame(179, TCP.Flag.Ack))) shouldBe
+                ControlPacket
+        }
+
+        scenario("IPv6 new connections and other packets") {
+            classify(packet(1, tcp6Frame(80, TCP.Flag.Syn))) shouldBe
+                NewConnectionPacket
+            classify(packet(1, tcp6Frame(80, TCP.Flag.Ack))) shouldBe
+                DefaultPacket
+            classify(packet(1, icmp6Frame(128))) shouldBe DefaultPacket
+            classify(packet(1, udp6Frame(53))) shouldBe DefaultPacket
+        }
+
+        scenario("New connections") {
+            classify(syn(1)) shouldBe NewConnectionPacket
+            classify(packet(1, tcpFrame(80, TCP.Flag.Syn, TCP.Flag.Ack))) shouldBe
+                DefaultPacket
+        }
+
+        scenario("Other packets") {
+            classify(data(1)) shouldBe DefaultPacket
+            classify(packet(1, udpFrame(53))) shouldBe DefaultPacket
+        }
+
+        scenario("Classification does not mark the fields as seen") {
+            val p = syn(1)
+            classify(p)
+            admission.admit(p, NewConnectionPacket)
+            p.getMatch.getSeenFields shouldBe 0L
+        }
+    }
+
+    feature("The admission control sheds load under overload") {
+        scenario("All packets are admitted without overload") {
+            Given("Several intervals without overload")
+            for (_ <- 0 until 5) {
+                send(1000, syn(1)) shouldBe 1000
+                endInterval(depth = 10)
+            }
+
+            Then("No port is limited")
+            admission.isOverloaded shouldBe false
+            admission.limit(1) shouldBe Unlimited
+            admission.limit(2) shouldBe Unlimited
+        }
+
+        scenario("The noisiest port is shed first") {
+            Given("A SYN flood from one port and some traffic from another")
+            send(1000, syn(1))
+            send(10, data(2))
+
+            When("The workers are overloaded")
+            endInterval(depth = 500)
+
+            Then("The flooding port is limited")
+            admission.isOverloaded shouldBe true
+            admission.limit(1) shouldBe 500
+            admission.limit(2) shouldBe Unlimited
+
+            And("Only a quarter of the flood is admitted")
+            send(1000, syn(1)) shouldBe 250
+            registry.meter("org.midonet.midolman.monitoring.metrics." +
+                           "PacketPipelineMeter.admission.new-connection." +
+                           "dropped").getCount shouldBe 750
+            registry.meter("org.midonet.midolman.monitoring.metrics." +
+                           "PacketPipelineMeter.admission.port.flooder." +
+                           "dropped").getCount shouldBe 750
+
+            And("Other packets from the flooding port use the rest")
+            send(1000, data(1)) shouldBe 250
+
+            And("Control packets and the other port are admitted")
+            send(100, packet(1, arpFrame)) shouldBe 100
+            send(100, data(2)) shouldBe 100
+
+            When("The overload persists")
+            endInterval(depth = 500)
+
+            Then("The limit of the flooding port decreases")
+            admission.limit(1) shouldBe 250
+            admission.limit(2) shouldBe Unlimited
+
+            When("The overload ends")
+            for (_ <- 0 until 40) endInterval(depth = 0)
+
+            Then("The ports are no longer limited")
+            admission.isOverloaded shouldBe false
+            admission.limit(1) shouldBe Unlimited
+            admission.limit(2) shouldBe Unlimited
+        }
+
+        scenario("Control packets from a shedding port are limited") {
+            Given("An ARP flood from one port")
+            send(1000, packet(1, arpFrame)) shouldBe 1000
+            send(10, data(2))
+
+            When("The workers are overloaded")
+            endInterval(depth = 500)
+
+            Then("The flooding port is limited")
+            admission.limit(1) shouldBe 500
+
+            And("Its control packets are limited separately")
+            send(1000, packet(1, arpFrame)) shouldBe 500
+            send(1000, data(1)) shouldBe 500
+            registry.meter("org.midonet.midolman.monitoring.metrics." +
+                           "PacketPipelineMeter.admission.control." +
+                           "dropped").getCount shouldBe 500
+
+            And("Flow state packets and the other port are admitted")
+            send(1000, flowState(1)) shouldBe 1000
+            send(100, packet(2, arpFrame)) shouldBe 100
+        }
+
+        scenario("The queueing latency detects an overload") {
+            Given("A port whose packets are not drained")
+            send(200, data(1))
+
+            When("The queue depth exceeds the packets drained")
+            endInterval(depth = 200)
+
+            Then("The workers are overloaded")
+            admission.isOverloaded shouldBe true
+            admission.limit(1) shouldBe 100
+        }
+    }
+
+    feature("The admission control tracks the datapath ports") {
+        scenario("Packets from unregistered ports are admitted") {
+            send(10, syn(1))
+            endInterval(depth = 500)
+            admission.unregister(1)
+
+            admission.limit(1) shouldBe Unlimited
+            send(1000, syn(1)) shouldBe 1000
+            registry.getMeters.keySet should not contain
+                "org.midonet.midolman.monitoring.metrics.PacketPipelineMeter." +
+                "admission.port.flooder.dropped"
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.l4lb
+
+import java.io.IOException
+import java.net.SocketTimeoutException
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.util.UUID
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{ConcurrentLinkedQueue, TimeUnit}
+
+import scala.collection.JavaConverters._
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.duration._
+import scala.concurrent.{Await, Future}
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.netlink.{Netlink, UnixDomainChannel}
+import org.midonet.util.AfUnix
+import org.midonet.util.MidonetEventually
+
+object HaproxyStatsPollerTest {
+
+    /**
+     * A fake haproxy stats socket, which supports the `prompt` and
+     * `show stat` commands.
+     */
+    class FakeHaproxy(val path: String) {
+
+        @volatile var stats = ""
+        @volatile var closeAfterCommand = false
+        @volatile var hang = false
+        val connections = new AtomicInteger()
+        private val channels = new ConcurrentLinkedQueue[UnixDomainChannel]()
+
+        private val server = Netlink.selectorProvider()
+            .openUnixDomainSocketChannel(AfUnix.Type.SOCK_STREAM)
+        server.bind(new AfUnix.Address(path))
+
+        private val thread = new Thread("fake-haproxy") {
+            override def run(): Unit = {
+                try {
+                    while (true) {
+                        val channel = server.accept()
+                        connections.incrementAndGet()
+                        channels.add(channel)
+                        val handler = new Thread("fake-haproxy-connection") {
+                            override def run(): Unit = serve(channel)
+                        }
+                        handler.setDaemon(true)
+                        handler.start()
+                    }
+                } catch {
+                    case e: IOException =>
+                }
+            }
+        }
+        thread.setDaemon(true)
+        thread.start()
+
+        private def serve(channel: UnixDomainChannel): Unit = {
+            val buffer = ByteBuffer.allocate(256)
+            var interactive = false
+            val line = new StringBuilder
+            try {
+                while (channel.read(buffer) > 0) {
+                    buffer.flip()
+                    while (buffer.hasRemaining) {
+                        val c = buffer.get().toChar
+                        if (c == '\n') {
+                            val command = line.toString()
+                            line.clear()
+                            if (hang && command == "show stat") {
+                                // Never reply, as a hung haproxy, keeping
+                                // the connection open until it is closed.
+                                while (channel.isOpen) Thread.sleep(10)
+                                return
+                            }
+                            val output = command match {
+                                case "prompt" =>
+                                    interactive = true
+                                    ""
+                                case "show stat" => stats
+                                case _ => "Unknown command.\n"
+                            }
+                            val response =
+                                if (interactive) output + "\n> " else output
+                            write(channel, response)
+                            if (!interactive || (closeAfterCommand &&
+                                                 command == "show stat")) {
+                                channel.close()
+                                return
+                            }
+                        } else {
+                            line.append(c)
+                        }
+                    }
+                    buffer.clear()
+                }
+            } catch {
+                case e: IOException =>
+            } finally {
+                channel.close()
+            }
+        }
+
+        private def write(channel: UnixDomainChannel, data: String): Unit = {
+            val buffer =
+                ByteBuffer.wrap(data.getBytes(StandardCharsets.US_ASCII))
+            while (buffer.hasRemaining && channel.write(buffer) >= 0) { }
+        }
+
+        def close(): Unit = {
+            server.close()
+            for (channel <- channels.asScala) channel.close()
+        }
+    }
+
+    def statLine(backend: UUID, member: UUID, status: String): String =
+        s"$backend,$member,0,0,0,0,,0,0,0,,0,,0,0,0,0,$status,1,1,0,0,1," +
+        "2411,2411,,1,2,2,,0,,2,0,,0,L4CON,,1999,,,,,,,0,,,,0,0,\n"
+
+    def stats(backend: UUID, up: Seq[UUID], down: Seq[UUID]): String = {
+        "# pxname,svname,qcur,qmax,scur,smax,slim,stot,bin,bout,dreq,dresp," +
+        "ereq,econ,eresp,wretr,wredis,status,\n" +
+        s"$backend,FRONTEND,,,0,0,2000,0,0,0,0,0,0,,,,,OPEN,\n" +
+        up.map(statLine(backend, _, "UP")).mkString +
+        down.map(statLine(backend, _, "DOWN")).mkString +
+        s"$backend,BACKEND,0,0,0,0,200,0,0,0,0,0,,0,0,0,0,UP,\n"
+    }
+}
+
+@RunWith(classOf[JUnitRunner])
+class HaproxyStatsPollerTest extends FeatureSpec with Matchers
+                             with GivenWhenThen with BeforeAndAfter
+                             with MidonetEventually {
+
+    import HaproxyHealthMonitor.parseResponse
+    import HaproxyStatsPollerTest._
+
+    private var haproxy: FakeHaproxy = _
+    private val backend = UUID.randomUUID()
+
+    before {
+        val dir = Files.createTempDirectory("haproxy")
+        haproxy = new FakeHaproxy(dir.resolve("sock").toString)
+    }
+
+    after {
+        haproxy.close()
+    }
+
+    private class Listener extends HaproxyStatsPoller.Listener {
+        val statuses = new ConcurrentLinkedQueue[(Set[UUID], Set[UUID])]()
+        val failures = new AtomicInteger()
+
+        override def onStatus(upNodes: Set[UUID],
+                              downNodes: Set[UUID]): Unit =
+            statuses.add((upNodes, downNodes))
+
+        override def onFailure(e: Throwable): Unit =
+            failures.incrementAndGet()
+    }
+
+    feature("The stats connection is persistent") {
+        scenario("Several requests use the same connection") {
+            Given("A fake haproxy with one up and one down member")
+            val up = UUID.randomUUID()
+            val down = UUID.randomUUID()
+            haproxy.stats = stats(backend, Seq(up), Seq(down))
+
+            When("Requesting the statistics three times")
+            val connection = new HaproxyStatsConnection(haproxy.path)
+            for (_ <- 0 until 3) {
+                parseResponse(connection.showStat()) shouldBe
+                    (Set(up), Set(down))
+            }
+
+            Then("The requests use a single connection")
+            haproxy.connections.get shouldBe 1
+            connection.close()
+        }
+
+        scenario("The connection is re-opened when haproxy closes it") {
+            Given("A fake haproxy closing the connection after a command")
+            val member = UUID.randomUUID()
+            haproxy.stats = stats(backend, Seq(member), Seq.empty)
+            haproxy.closeAfterCommand = true
+
+            When("Requesting the statistics twice")
+            val connection = new HaproxyStatsConnection(haproxy.path)
+            parseResponse(connection.showStat()) shouldBe
+                (Set(member), Set.empty)
+            parseResponse(connection.showStat()) shouldBe
+                (Set(member), Set.empty)
+
+            Then("The second request opens a new connection")
+            haproxy.connections.get shouldBe 2
+            connection.close()
+        }
+
+        scenario("A request fails if haproxy does not reply") {
+            Given("A fake haproxy that does not reply")
+            haproxy.hang = true
+
+            Then("The request times out")
+            val connection = new HaproxyStatsConnection(
+                haproxy.path, FiniteDuration(100, TimeUnit.MILLISECONDS))
+            intercept[SocketTimeoutException] {
+                connection.showStat()
+            }
+            connection.isConnected shouldBe false
+        }
+
+        scenario("Closing the connection aborts a pending request") {
+            Given("A fake haproxy that does not reply")
+            haproxy.hang = true
+
+            When("Requesting the statistics on another thread")
+            val connection = new HaproxyStatsConnection(
+                haproxy.path, FiniteDuration(1, TimeUnit.MINUTES))
+            val result = Future { connection.showStat() }
+            eventually { connection.isConnected shouldBe true }
+
+            Then("Closing the connection fails the request")
+            connection.close()
+            intercept[IOException] {
+                Await.result(result, 5 seconds)
+            }
+        }
+
+        scenario("Large responses") {
+            Given("A fake haproxy with many members")
+            val members = for (_ <- 0 until 1000) yield UUID.randomUUID()
+            haproxy.stats = stats(backend, members, Seq.empty)
+
+            Then("The connection reads the complete response")
+            val connection = new HaproxyStatsConnection(haproxy.path)
+            parseResponse(connection.showStat()) shouldBe
+                (members.toSet, Set.empty)
+            connection.close()
+        }
+    }
+
+    feature("The poller notifies the member status changes") {
+        scenario("Polling a pool") {
+            Given("A poller and a fake haproxy")
+            val poller = new HaproxyStatsPoller(
+                1, FiniteDuration(10, TimeUnit.MILLISECONDS))
+            val poolId = UUID.randomUUID()
+            val member = UUID.randomUUID()
+            haproxy.stats = stats(backend, Seq(member), Seq.empty)
+
+            When("Registering the pool")
+            val listener = new Listener
+            poller.register(poolId, haproxy.path, listener)
+            poller.size shouldBe 1
+
+            Then("The listener receives the member status")
+            eventually { listener.statuses.size shouldBe 1 }
+            listener.statuses.peek() shouldBe (Set(member), Set.empty)
+
+            When("The member goes down")
+            haproxy.stats = stats(backend, Seq.empty, Seq(member))
+
+            Then("The listener receives the new status once")
+            eventually { listener.statuses.size shouldBe 2 }
+            Thread.sleep(100)
+            listener.statuses.size shouldBe 2
+            listener.statuses.asScala.last shouldBe (Set.empty, Set(member))
+
+            And("The poller uses a single connection")
+            haproxy.connections.get shouldBe 1
+
+            When("Unregistering the pool")
+            poller.unregister(poolId)
+            poller.size shouldBe 0
+            poller.shutdown()
+        }
+
+        scenario("Unregistering a pool with a hung haproxy") {
+            Given("A poller and a fake haproxy that does not reply")
+            val poller = new HaproxyStatsPoller(
+                1, FiniteDuration(10, TimeUnit.MILLISECONDS))
+            haproxy.hang = true
+
+            When("Registering the pool")
+            val poolId = UUID.randomUUID()
+            val listener = new Listener
+            poller.register(poolId, haproxy.path, listener)
+            eventually { haproxy.connections.get shouldBe 1 }
+
+            Then("Unregistering the pool does not wait for the poll")
+            val unregister = Future { poller.unregister(poolId) }
+            Await.result(unregister, 500 millis)
+            poller.size shouldBe 0
+            poller.shutdown()
+        }
+
+        scenario("Polling a pool without haproxy") {
+            Given("A poller")
+            val poller = new HaproxyStatsPoller(
+                1, FiniteDuration(10, TimeUnit.MILLISECONDS))
+
+            When("Registering a pool without a stats socket")
+            val listener = new Listener
+            poller.register(UUID.randomUUID(), haproxy.path + ".none", listener)
+
+            Then("The listener receives the failures")
+            eventually { listener.failures.get should be > 0 }
+            listener.statuses shouldBe empty
+            poller.shutdown()
+        }
+    }
+}
@@ -15,15 +15,17 @@
  */
 package org.midonet.midolman.l4lb
 
-import java.io.File
+import java.io.{File, IOException}
 import java.util
 import java.util.UUID
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
 import java.util.concurrent.atomic.AtomicInteger
 
 import scala.collection.JavaConverters._
 import scala.concurrent.Future
+import scala.concurrent.duration.FiniteDuration
 
-import akka.actor.{Actor, ActorRef, Props}
+import akka.actor.{ActorRef, Props}
 import akka.testkit.TestActorRef
 
 import com.typesafe.config.{Config, ConfigFactory}
@@ -52,7 +54,7 @@ import org.midonet.midolman.l4lb.{HealthMonitor => HMSystem}
 import org.midonet.midolman.layer3.Route.NextHop
 import org.midonet.midolman.simulation.RouterPort
 import org.midonet.midolman.util.MidolmanSpec
-import org.midonet.midolman.{MockScheduler, layer3}
+import org.midonet.midolman.layer3
 import org.midonet.packets.{IPSubnet, IPv4Addr, IPv4Subnet, MAC}
 import org.midonet.util.MidonetEventually
 
@@ -70,7 +72,7 @@ class HaproxyTest extends MidolmanSpec
     var backend: MidonetBackend = _
     var conf = mock(classOf[MidolmanConfig])
     var poolConfig: PoolConfig = _
-    var checkHealthReceived = 0
+    var poller: TestablePoller = _
     var haProxy: TestableHaproxy = _
     val vipIp1 = "10.0.0.1"
     val vipIp2 = "10.0.0.2"
@@ -161,11 +163,25 @@ class HaproxyTest extends MidolmanSpec
         backend.store.get(classOf[topVip], vipId).value.get.get
     }
 
+    class TestablePoller
+        extends HaproxyStatsPoller(1, FiniteDuration(1, TimeUnit.SECONDS)) {
+        val listeners =
+            new ConcurrentHashMap[UUID, HaproxyStatsPoller.Listener]()
+
+        override def register(poolId: UUID, path: String,
+                              listener: HaproxyStatsPoller.Listener): Unit =
+            listeners.put(poolId, listener)
+
+        override def unregister(poolId: UUID): Unit =
+            listeners.remove(poolId)
+    }
+
     class TestableHaproxy(config: PoolConfig, hm: ActorRef, routerId: UUID,
                           store: Storage, hostId: UUID,
-                          seqDispenser: SequenceDispenser)
+                          seqDispenser: SequenceDispenser,
+                          statsPoller: HaproxyStatsPoller)
         extends HaproxyHealthMonitor(config, hm, routerId, store, hostId,
-                                     seqDispenser) {
+                                     seqDispenser, statsPoller) {
 
             var shouldWriteConf = false
 
@@ -174,11 +190,6 @@ class HaproxyTest extends MidolmanSpec
                     super.writeConf(config)
             }
 
-            override def receive = ({
-                case HaproxyHealthMonitor.CheckHealth =>
-                    checkHealthReceived += 1
-            }: Actor.Receive) orElse super.receive
-
             override def setMembersStatus(activeMembers: Set[UUID],
                                           inactiveMembers: Set[UUID]): Unit = {
                 super.setMembersStatus(activeMembers, inactiveMembers)
@@ -200,6 +211,8 @@ class HaproxyTest extends MidolmanSpec
             }
         }
 
+        override val statsPoller = poller
+
         override def getHostId = hostId
 
         override def startChildHaproxyMonitor(poolId: UUID, config: PoolConfig,
@@ -208,7 +221,8 @@ class HaproxyTest extends MidolmanSpec
             context.actorOf(
                 Props({
                     haProxy = new TestableHaproxy(config, self, routerId,
-                                                  store, hostId, seqDispenser)
+                                                  store, hostId, seqDispenser,
+                                                  statsPoller)
                     haProxy
                 }).withDispatcher(context.props.dispatcher),
                 config.id.toString)
@@ -230,6 +244,7 @@ class HaproxyTest extends MidolmanSpec
         backend = injector.getInstance(classOf[MidonetBackend])
         conf = injector.getInstance(classOf[MidolmanConfig])
         HMSystem.ipCommand = mock(classOf[IP])
+        poller = new TestablePoller
         hmSystem = TestActorRef(Props(new TestableHealthMonitor()))(actorSystem)
     }
 
@@ -436,7 +451,7 @@ class HaproxyTest extends MidolmanSpec
             }
         }
 
-        scenario("CheckHealth") {
+        scenario("MembersHealth") {
             Given("One router")
             val routerId = makeRouter()
 
@@ -447,16 +462,41 @@ class HaproxyTest extends MidolmanSpec
             val poolId = makePool(hmId, lbId, vipId)
             val hmName = poolId.toString.substring(0, 8) + "_hm"
 
-            /* The mock scheduler used in unit tests inhibates scheduled
-               messages by default, runAll ensures that all messages are
-               sent. */
-            actorSystem.scheduler.asInstanceOf[MockScheduler].runAll()
-
             Then("Eventually an HA proxy should be started")
             eventually {
                 checkHaproxyStarted(hmName, vipIp1, poolId, routerId)
-                checkHealthReceived should be >= 1
             }
+
+            And("The pool is registered with the stats poller")
+            eventually { poller.listeners.containsKey(poolId) shouldBe true }
+            val listener = poller.listeners.get(poolId)
+
+            When("Adding a member to the pool")
+            val memberId = makePoolMember(poolId)
+
+            When("The poller notifies the member as down")
+            listener.onStatus(Set.empty, Set(memberId))
+
+            Then("The member should be inactive")
+            eventually {
+                backend.store.get(classOf[PoolMember], memberId)
+                    .value.get.get.getStatus shouldBe LBStatus.INACTIVE
+            }
+
+            When("The poller notifies the member as up")
+            listener.onStatus(Set(memberId), Set.empty)
+
+            Then("The member should be active")
+            eventually {
+                backend.store.get(classOf[PoolMember], memberId)
+                    .value.get.get.getStatus shouldBe LBStatus.ACTIVE
+            }
+
+            When("The poller notifies a failure")
+            listener.onFailure(new IOException())
+
+            Then("The health monitor is stopped and unregistered")
+            eventually { poller.listeners.containsKey(poolId) shouldBe false }
         }
     }
 
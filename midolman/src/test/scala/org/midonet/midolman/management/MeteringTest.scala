@@ -18,6 +18,7 @@ package org.midonet.midolman.management
 
 import java.lang.management.ManagementFactory
 import java.rmi.registry.LocateRegistry
+import java.util
 
 import javax.management.remote.{JMXConnectorFactory, JMXConnectorServerFactory, JMXServiceURL}
 import javax.management.{JMX, ObjectName}
@@ -28,21 +29,32 @@ import org.scalatest.{Entry, FlatSpec, GivenWhenThen, Matchers}
 
 import org.midonet.management.{FlowStats, MeteringMXBean}
 import org.midonet.midolman.monitoring.MeterRegistry
+import org.midonet.sdn.flows.FlowTagger
+import org.midonet.sdn.flows.FlowTagger.FlowTag
 
 @RunWith(classOf[JUnitRunner])
 class MeteringTest extends FlatSpec with GivenWhenThen with Matchers {
 
     private val jmxPort = 49997
 
+    private def record(registry: MeterRegistry, meter: String, packets: Int,
+                       packetLen: Int): Unit = {
+        val tags = new util.ArrayList[FlowTag]()
+        tags.add(FlowTagger.tagForUserMeter(meter))
+        for (_ <- 0 until packets) {
+            registry.recordPacket(packetLen, tags)
+        }
+    }
+
     it should "register and return flow stats meters" in {
         Given("A meter registry for maximum 10 flows")
-        val registry0 = new MeterRegistry(10)
-        registry0.meters.put("meter0", new FlowStats(10, 100))
-        registry0.meters.put("meter1", new FlowStats(20, 200))
+        val registry0 = new MeterRegistry()
+        record(registry0, "meter0", packets = 10, packetLen = 10)
+        record(registry0, "meter1", packets = 20, packetLen = 10)
 
-        val registry1 = new MeterRegistry(10)
-        registry1.meters.put("meter1", new FlowStats(30, 300))
-        registry1.meters.put("meter2", new FlowStats(40, 400))
+        val registry1 = new MeterRegistry()
+        record(registry1, "meter1", packets = 30, packetLen = 10)
+        record(registry1, "meter2", packets = 40, packetLen = 10)
 
         And("A local registry and JMX server")
         LocateRegistry.createRegistry(jmxPort)
@@ -80,9 +92,9 @@ class MeteringTest extends FlatSpec with GivenWhenThen with Matchers {
         And("The instance should return the consolidated meters")
         val consolidated = bean.getConsolidatedMeters.getMeters
         consolidated should contain allOf (
-            Entry("meter0", new FlowStats(10, 100)),
-            Entry("meter1", new FlowStats(50, 500)),
-            Entry("meter2", new FlowStats(40, 400)))
+            Entry("meters:user:meter0", new FlowStats(10, 100)),
+            Entry("meters:user:meter1", new FlowStats(50, 500)),
+            Entry("meters:user:meter2", new FlowStats(40, 400)))
 
         client.close()
         server.stop()
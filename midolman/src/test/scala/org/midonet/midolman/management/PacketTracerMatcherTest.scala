@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.management
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, Matchers}
+
+import org.midonet.odp.FlowMatch
+import org.midonet.odp.FlowMatch.Field
+import org.midonet.packets.{IPv4, IPv4Addr, MAC, TCP}
+
+@RunWith(classOf[JUnitRunner])
+class PacketTracerMatcherTest extends FeatureSpec with Matchers {
+
+    private val srcMac = "02:00:00:00:00:01"
+    private val dstMac = "02:00:00:00:00:02"
+
+    private def tracer(etherType: java.lang.Short = null,
+                       srcMac: String = null,
+                       ipSrc: String = null,
+                       ipDst: String = null,
+                       srcPort: Integer = null,
+                       dstPort: Integer = null,
+                       limit: Int = Int.MaxValue) =
+        PacketTracer(etherType, srcMac, null, null, ipSrc, ipDst, srcPort,
+                     dstPort, LogLevel.DEBUG, limit)
+
+    private def flowMatch(ipSrc: String = "10.0.0.1",
+                          ipDst: String = "10.0.0.2",
+                          srcPort: Int = 10000,
+                          dstPort: Int = 80): FlowMatch =
+        new FlowMatch()
+            .setEthSrc(MAC.fromString(srcMac))
+            .setEthDst(MAC.fromString(dstMac))
+            .setEtherType(IPv4.ETHERTYPE)
+            .setNetworkSrc(IPv4Addr.fromString(ipSrc))
+            .setNetworkDst(IPv4Addr.fromString(ipDst))
+            .setNetworkProto(TCP.PROTOCOL_NUMBER)
+            .setSrcPort(srcPort)
+            .setDstPort(dstPort)
+
+    feature("Matching packets") {
+        scenario("An empty matcher matches no packet") {
+            PacketTracerMatcher.Empty.isEmpty shouldBe true
+            PacketTracerMatcher.Empty.matchFor(flowMatch()) shouldBe null
+        }
+
+        scenario("Tracers match on their indexed field") {
+            val bySrc = tracer(ipSrc = "10.0.0.1")
+            val byDst = tracer(ipDst = "10.0.0.3")
+            val byMac = tracer(srcMac = srcMac, dstPort = 443)
+            val byPort = tracer(srcPort = 20000)
+            val matcher = new PacketTracerMatcher(List(bySrc, byDst, byMac,
+                                                       byPort))
+
+            matcher.size shouldBe 4
+            matcher.matchFor(flowMatch()) shouldBe bySrc
+            matcher.matchFor(flowMatch(ipSrc = "10.0.0.5",
+                                       ipDst = "10.0.0.3")) shouldBe byDst
+            matcher.matchFor(flowMatch(ipSrc = "10.0.0.5",
+                                       dstPort = 443)) shouldBe byMac
+            matcher.matchFor(flowMatch(ipSrc = "10.0.0.5",
+                                       srcPort = 20000)) shouldBe byPort
+            matcher.matchFor(flowMatch(ipSrc = "10.0.0.5")) shouldBe null
+        }
+
+        scenario("Tracers match on all their fields") {
+            val matcher = new PacketTracerMatcher(List(
+                tracer(ipSrc = "10.0.0.1", dstPort = 443)))
+            matcher.matchFor(flowMatch()) shouldBe null
+            matcher.matchFor(flowMatch(dstPort = 443)) should not be null
+        }
+
+        scenario("The first tracer in the list wins") {
+            val byEtherType = tracer(etherType = IPv4.ETHERTYPE)
+            val bySrc = tracer(ipSrc = "10.0.0.1")
+            val byPort = tracer(dstPort = 80)
+
+            new PacketTracerMatcher(List(byPort, bySrc, byEtherType))
+                .matchFor(flowMatch()) shouldBe byPort
+            new PacketTracerMatcher(List(bySrc, byEtherType, byPort))
+                .matchFor(flowMatch()) shouldBe bySrc
+            new PacketTracerMatcher(List(byEtherType, byPort, bySrc))
+                .matchFor(flowMatch()) shouldBe byEtherType
+        }
+
+        scenario("Dead tracers do not match") {
+            val dead = tracer(ipSrc = "10.0.0.1", limit = 1)
+            val alive = tracer(dstPort = 80)
+            val matcher = new PacketTracerMatcher(List(dead, alive))
+            matcher.matchFor(flowMatch()) shouldBe dead
+            dead.matched()
+            matcher.matchFor(flowMatch()) shouldBe alive
+        }
+
+        scenario("Matching marks the fields read as seen") {
+            val matcher = new PacketTracerMatcher(List(
+                tracer(etherType = IPv4.ETHERTYPE, ipSrc = "10.0.0.1",
+                       dstPort = 80)))
+            val fmatch = flowMatch()
+            matcher.matchFor(fmatch) should not be null
+            fmatch.isSeen(Field.NetworkSrc) shouldBe true
+            fmatch.isSeen(Field.EtherType) shouldBe true
+            fmatch.isSeen(Field.DstPort) shouldBe true
+            fmatch.isSeen(Field.EthSrc) shouldBe false
+        }
+
+        scenario("A packet not matched marks the indexed field as seen") {
+            val matcher = new PacketTracerMatcher(List(
+                tracer(ipSrc = "10.0.0.9")))
+            val fmatch = flowMatch()
+            matcher.matchFor(fmatch) shouldBe null
+            fmatch.isSeen(Field.NetworkSrc) shouldBe true
+        }
+
+        scenario("Matching without tracers does not read the fields") {
+            val fmatch = flowMatch()
+            PacketTracerMatcher.Empty.matchFor(fmatch) shouldBe null
+            fmatch.getSeenFields shouldBe 0L
+        }
+    }
+}
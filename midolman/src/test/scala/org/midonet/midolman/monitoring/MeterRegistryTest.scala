@@ -23,12 +23,10 @@ import org.scalatest.{Matchers, FeatureSpec}
 import org.scalatest.junit.JUnitRunner
 import org.junit.runner.RunWith
 
+import org.midonet.midolman.flows.ManagedFlow
 import org.midonet.odp.flows.FlowStats
-import org.midonet.odp.FlowMatches
-import org.midonet.packets.{IPv4Addr, MAC, Ethernet}
-import org.midonet.packets.util.PacketBuilder._
 import org.midonet.sdn.flows.FlowTagger
-import org.midonet.sdn.flows.FlowTagger.MeterTag
+import org.midonet.sdn.flows.FlowTagger.{FlowTag, MeterTag}
 
 @RunWith(classOf[JUnitRunner])
 class MeterRegistryTest extends FeatureSpec with Matchers {
@@ -39,37 +37,34 @@ class MeterRegistryTest extends FeatureSpec with Matchers {
 
     def nonMeterRandomTag = FlowTagger.tagForBroadcast(UUID.randomUUID())
 
-    val packetA: Ethernet = { eth addr MAC.random() -> MAC.random() } <<
-                            { ip4 addr IPv4Addr.random --> IPv4Addr.random } <<
-                            { udp ports 4500 ---> 500 } <<
-                            { payload("foo") }
-    val packetB: Ethernet = { eth addr MAC.random() -> MAC.random() } <<
-                            { ip4 addr IPv4Addr.random --> IPv4Addr.random } <<
-                            { icmp.echo.request id 23 seq 32}
-
-
-    val matchA = FlowMatches.fromEthernetPacket(packetA)
-    val matchB = FlowMatches.fromEthernetPacket(packetB)
-
     val metersA: List[MeterTag] = List(deviceA, commonDevice)
     val metersB: List[MeterTag] = List(deviceB, commonDevice)
 
     val tagsA = new ArrayList((nonMeterRandomTag :: metersA).asJava)
     val tagsB = new ArrayList((nonMeterRandomTag :: metersB).asJava)
 
+    def newFlow(tags: ArrayList[FlowTag]): ManagedFlow = {
+        val flow = new ManagedFlow(null)
+        flow.tags.addAll(tags)
+        flow
+    }
+
+    val flowA = newFlow(tagsA)
+    val flowB = newFlow(tagsB)
+
     val FIRST_PKT_SIZE = 237
 
     feature("Meter registry") {
         scenario("registers new meters") {
-            val registry = new MeterRegistry(10)
+            val registry = new MeterRegistry()
 
-            registry.trackFlow(matchA, tagsA)
+            registry.trackFlow(flowA)
             registry.meters should have size 2
             for (meter <- metersA) {
                 registry.meters.keySet should contain (meter.meterName)
             }
 
-            registry.trackFlow(matchB, tagsB)
+            registry.trackFlow(flowB)
             registry.meters should have size 3
             for (meter <- metersB) {
                 registry.meters.keySet should contain (meter.meterName)
@@ -82,15 +77,15 @@ class MeterRegistryTest extends FeatureSpec with Matchers {
         }
 
         scenario("tracks stats for a single flow, N meters") {
-            val registry = new MeterRegistry(10)
-            registry.trackFlow(matchA, tagsA)
+            val registry = new MeterRegistry()
+            registry.trackFlow(flowA)
             registry.recordPacket(FIRST_PKT_SIZE, tagsA)
 
             val stats = new FlowStats()
             for (i <- 1 to 10) {
                 stats.packets = i
                 stats.bytes = i * 100
-                registry.updateFlow(matchA, stats)
+                registry.updateFlow(flowA, stats)
 
                 for (meter <- registry.meters.values.asScala) {
                     meter.packets should === (i + 1)
@@ -100,36 +95,83 @@ class MeterRegistryTest extends FeatureSpec with Matchers {
         }
 
         scenario("forgets flows") {
-            val registry = new MeterRegistry(10)
-            registry.trackFlow(matchA, tagsA)
+            val registry = new MeterRegistry()
+            registry.trackFlow(flowA)
 
             val fixedPackets = 5
             val fixedBytes = 55
 
             val stats = new FlowStats(fixedPackets, fixedBytes)
-            registry.updateFlow(matchA, stats)
-            registry.forgetFlow(matchA)
+            registry.updateFlow(flowA, stats)
+            registry.forgetFlow(flowA)
 
             stats.packets = 245
             stats.bytes = 1235
-            registry.updateFlow(matchA, stats)
+            registry.updateFlow(flowA, stats)
             for (meter <- registry.meters.values.asScala) {
                 meter.packets should === (fixedPackets)
                 meter.bytes should === (fixedBytes)
             }
         }
 
+        scenario("records the packets of a flow to its meters") {
+            val registry = new MeterRegistry()
+            registry.trackFlow(flowA)
+            registry.recordPacket(FIRST_PKT_SIZE, flowA)
+            registry.recordPacket(FIRST_PKT_SIZE, flowA)
+
+            registry.meters should have size 2
+            for (meter <- registry.meters.values.asScala) {
+                meter.packets should === (2)
+                meter.bytes should === (2 * FIRST_PKT_SIZE)
+            }
+            registry.meter(deviceA.meterName).packets should === (2)
+            registry.meter(deviceB.meterName) shouldBe null
+        }
+
+        scenario("equal meter tags share the same meter") {
+            val registry = new MeterRegistry()
+            val deviceId = UUID.randomUUID()
+            val tag1 = new FlowTagger.BridgeDeviceTag(deviceId)
+            val tag2 = new FlowTagger.BridgeDeviceTag(deviceId)
+            val flow1 = newFlow(new ArrayList[FlowTag](List[FlowTag](tag1).asJava))
+            val flow2 = newFlow(new ArrayList[FlowTag](List[FlowTag](tag2).asJava))
+
+            registry.trackFlow(flow1)
+            registry.trackFlow(flow2)
+            registry.recordPacket(FIRST_PKT_SIZE, flow1)
+            registry.recordPacket(FIRST_PKT_SIZE, flow2)
+
+            registry.size shouldBe 1
+            registry.meter(tag1.meterName).packets should === (2)
+        }
+
+        scenario("discovers new meters after the registry grows") {
+            val registry = new MeterRegistry()
+            val tags = new ArrayList[FlowTag]()
+            for (index <- 0 until 200) {
+                tags.add(FlowTagger.tagForUserMeter(s"meter$index"))
+            }
+            registry.recordPacket(FIRST_PKT_SIZE, tags)
+
+            registry.size shouldBe 200
+            for (index <- 0 until 200) {
+                registry.meter(s"meters:user:meter$index").bytes should === (
+                    FIRST_PKT_SIZE)
+            }
+        }
+
         scenario("tracks stats for two flows, overlapping meters") {
-            val registry = new MeterRegistry(10)
-            registry.trackFlow(matchA, tagsA)
-            registry.trackFlow(matchB, tagsB)
+            val registry = new MeterRegistry()
+            registry.trackFlow(flowA)
+            registry.trackFlow(flowB)
 
             val stats = new FlowStats()
             for (i <- 1 to 10) {
                 stats.packets = i
                 stats.bytes = i * 100
-                registry.updateFlow(matchA, stats)
-                registry.updateFlow(matchB, stats)
+                registry.updateFlow(flowA, stats)
+                registry.updateFlow(flowB, stats)
 
                 registry.meters.get(commonDevice.meterName).packets should === (i * 2)
                 registry.meters.get(commonDevice.meterName).bytes should === (i * 200)
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.monitoring
+
+import java.util.{Collections, UUID}
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, Matchers}
+
+import org.midonet.management.DeviceCost
+import org.midonet.midolman.management.SimulationProfiling
+import org.midonet.midolman.rules.RuleResult.Action
+import org.midonet.midolman.rules.{Condition, LiteralRule, Rule}
+import org.midonet.midolman.simulation.{Chain, PacketContext}
+import org.midonet.odp.{FlowMatches, Packet}
+import org.midonet.packets.util.PacketBuilder._
+import org.midonet.packets.{Ethernet, MAC}
+
+@RunWith(classOf[JUnitRunner])
+class SimulationProfilerTest extends FeatureSpec with Matchers {
+
+    private val frame: Ethernet = { eth addr MAC.random() -> MAC.random() } <<
+                                  { ip4 addr "10.0.0.1" --> "10.0.0.2" } <<
+                                  { udp ports 10101 ---> 10102 }
+
+    private def newContext(): PacketContext = {
+        val fmatch = FlowMatches.fromEthernetPacket(frame)
+        PacketContext.generated(1, new Packet(frame, fmatch), fmatch)
+    }
+
+    private def spin(nanos: Long): Unit = {
+        val end = System.nanoTime() + nanos
+        while (System.nanoTime() < end) { }
+    }
+
+    private def costOf(costs: Array[DeviceCost], id: UUID): DeviceCost =
+        costs.find(_.id == id.toString).orNull
+
+    feature("Sampling") {
+        scenario("A disabled profiler does not sample packets") {
+            val profiler = new SimulationProfiler(0.0)
+            val context = newContext()
+            profiler.begin(context)
+            context.profiler shouldBe null
+            profiler.topDevices(10) shouldBe empty
+        }
+
+        scenario("A profiler samples every packet at a rate of one") {
+            val profiler = new SimulationProfiler(1.0)
+            val context = newContext()
+            profiler.begin(context)
+            context.profiler shouldBe profiler
+            profiler.end(context)
+            context.profiler shouldBe null
+        }
+
+        scenario("A profiler samples a fraction of the packets") {
+            val profiler = new SimulationProfiler(0.1)
+            val context = newContext()
+            var sampled = 0
+            for (_ <- 0 until 10000) {
+                profiler.begin(context)
+                if (context.profiler ne null) sampled += 1
+                profiler.end(context)
+            }
+            sampled should (be > 500 and be < 1500)
+
+            profiler.samplingRate = 2.0
+            profiler.samplingRate shouldBe 1.0
+        }
+    }
+
+    feature("Device costs") {
+        scenario("The time between devices goes to the device entered first") {
+            val profiler = new SimulationProfiler(1.0)
+            val context = newContext()
+            val port = UUID.randomUUID()
+            val bridge = UUID.randomUUID()
+            val chain = UUID.randomUUID()
+
+            profiler.begin(context)
+            profiler.enter(port, SimulationProfiler.Port)
+            profiler.enter(bridge, SimulationProfiler.Bridge)
+            spin(10000000L)
+            val previous = profiler.enter(chain, SimulationProfiler.Chain)
+            spin(1000000L)
+            profiler.resume(previous)
+            spin(10000000L)
+            profiler.end(context)
+
+            val costs = profiler.topDevices(10)
+            costs should have size 3
+            costs(0).id shouldBe bridge.toString
+            costs(0).`type` shouldBe "bridge"
+            costs(0).invocations shouldBe 1
+            costs(0).nanos should be >= 20000000L
+
+            val chainCost = costOf(costs, chain)
+            chainCost.`type` shouldBe "chain"
+            chainCost.nanos should be >= 1000000L
+            chainCost.nanos should be < costs(0).nanos
+            costOf(costs, port).nanos should be < chainCost.nanos
+        }
+
+        scenario("Costs accumulate across packets") {
+            val profiler = new SimulationProfiler(1.0)
+            val context = newContext()
+            val port = UUID.randomUUID()
+
+            for (_ <- 0 until 3) {
+                profiler.begin(context)
+                profiler.enter(port, SimulationProfiler.Port)
+                profiler.end(context)
+            }
+            profiler.topDevices(10).head.invocations shouldBe 3
+            profiler.topDevices(0) shouldBe empty
+        }
+
+        scenario("The profiler tracks a limited number of devices") {
+            val profiler = new SimulationProfiler(1.0, capacity = 4)
+            val context = newContext()
+            profiler.begin(context)
+            for (_ <- 0 until 10) {
+                profiler.enter(UUID.randomUUID(), SimulationProfiler.Port)
+            }
+            profiler.end(context)
+            profiler.topDevices(10) should have size 3
+        }
+
+        scenario("A reset discards the costs before the next sample") {
+            val profiler = new SimulationProfiler(1.0)
+            val context = newContext()
+            profiler.begin(context)
+            profiler.enter(UUID.randomUUID(), SimulationProfiler.Router)
+            profiler.end(context)
+
+            profiler.reset()
+            profiler.topDevices(10) shouldBe empty
+
+            val router = UUID.randomUUID()
+            profiler.begin(context)
+            profiler.enter(router, SimulationProfiler.Router)
+            profiler.end(context)
+            profiler.topDevices(10).map(_.id) shouldBe Array(router.toString)
+        }
+    }
+
+    feature("Profiling JMX bean") {
+        scenario("A registered profiler samples at the rate of the bean") {
+            val first = new SimulationProfiler(0.0)
+            SimulationProfiling.registerAsMXBean(first)
+            SimulationProfiling.setSamplingRate(1.0)
+
+            val profiler = new SimulationProfiler(0.0)
+            SimulationProfiling.registerAsMXBean(profiler)
+            profiler.samplingRate shouldBe 1.0
+
+            SimulationProfiling.unregister(first)
+            SimulationProfiling.unregister(profiler)
+        }
+
+        scenario("An unregistered profiler is not reported") {
+            val profiler = new SimulationProfiler(1.0)
+            SimulationProfiling.registerAsMXBean(profiler)
+            val context = newContext()
+            val router = UUID.randomUUID()
+            profiler.begin(context)
+            profiler.enter(router, SimulationProfiler.Router)
+            profiler.end(context)
+            SimulationProfiling.getTopDevices(10).map(_.id) should contain (
+                router.toString)
+
+            SimulationProfiling.unregister(profiler)
+            SimulationProfiling.getTopDevices(10).map(_.id) should not contain
+                router.toString
+        }
+    }
+
+    feature("Rule costs") {
+        scenario("A chain records its rules for sampled packets") {
+            val noMatch = new Condition()
+            noMatch.nwProto = 6.toByte
+            val rule1: Rule = new LiteralRule(noMatch, Action.DROP)
+            rule1.id = UUID.randomUUID()
+            val rule2: Rule = new LiteralRule(new Condition(), Action.ACCEPT)
+            rule2.id = UUID.randomUUID()
+            val chain = Chain(UUID.randomUUID(),
+                              java.util.Arrays.asList(rule1, rule2),
+                              Collections.emptyMap(), "chain")
+
+            val profiler = new SimulationProfiler(1.0)
+            val context = newContext()
+            chain.process(context).action shouldBe Action.ACCEPT
+            profiler.topRules(10) shouldBe empty
+
+            profiler.begin(context)
+            chain.process(context).action shouldBe Action.ACCEPT
+            profiler.end(context)
+
+            val rules = profiler.topRules(10)
+            rules.map(_.id).toSet shouldBe Set(rule1.id.toString,
+                                               rule2.id.toString)
+            rules.foreach { rule =>
+                rule.`type` shouldBe "rule"
+                rule.invocations shouldBe 1
+            }
+            costOf(profiler.topDevices(10), chain.id).invocations shouldBe 1
+        }
+    }
+}
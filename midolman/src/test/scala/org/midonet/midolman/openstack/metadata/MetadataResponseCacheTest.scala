@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.openstack.metadata
+
+import scala.concurrent.duration._
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.util.concurrent.MockClock
+
+@RunWith(classOf[JUnitRunner])
+class MetadataResponseCacheTest extends FeatureSpec with Matchers
+                                with GivenWhenThen {
+
+    private def response(status: Int = 200, cacheControl: String = null) =
+        MetadataResponse(status, "text/plain", cacheControl, "data".getBytes)
+
+    feature("The cache stores the responses per instance") {
+        scenario("A response is returned until it expires") {
+            Given("A cache with a time to live of 5 seconds")
+            val clock = new MockClock
+            val cache = new MetadataResponseCache(5 seconds, clock = clock)
+            val r = response()
+
+            When("Caching a response")
+            cache.put("vm1", "/latest/meta-data/", r) shouldBe true
+
+            Then("The response is returned for the same instance and path")
+            cache.get("vm1", "/latest/meta-data/") shouldBe r
+            cache.get("vm1", "/latest/user-data") shouldBe null
+            cache.get("vm2", "/latest/meta-data/") shouldBe null
+
+            When("The time to live elapses")
+            clock.time += 5.seconds.toNanos
+
+            Then("The response is no longer returned")
+            cache.get("vm1", "/latest/meta-data/") shouldBe null
+            cache.size("vm1") shouldBe 0
+        }
+
+        scenario("Unsuccessful responses are not cached") {
+            val cache = new MetadataResponseCache(5 seconds)
+            cache.put("vm1", "/", response(status = 404)) shouldBe false
+            cache.put("vm1", "/", response(status = 500)) shouldBe false
+            cache.get("vm1", "/") shouldBe null
+        }
+
+        scenario("The responses of a forgotten instance are discarded") {
+            val cache = new MetadataResponseCache(5 seconds)
+            cache.put("vm1", "/a", response())
+            cache.put("vm1", "/b", response())
+            cache.put("vm2", "/a", response())
+
+            cache.invalidate("vm1")
+
+            cache.size("vm1") shouldBe 0
+            cache.get("vm2", "/a") should not be null
+        }
+
+        scenario("The number of responses per instance is bounded") {
+            Given("A cache with two entries per instance")
+            val clock = new MockClock
+            val cache = new MetadataResponseCache(5 seconds, maxEntries = 2,
+                                                  clock = clock)
+            cache.put("vm1", "/a", response()) shouldBe true
+            cache.put("vm1", "/b", response()) shouldBe true
+
+            Then("A third response is not cached")
+            cache.put("vm1", "/c", response()) shouldBe false
+            cache.put("vm2", "/c", response()) shouldBe true
+
+            And("An existing path is replaced")
+            cache.put("vm1", "/a", response()) shouldBe true
+
+            When("The responses expire")
+            clock.time += 5.seconds.toNanos
+
+            Then("The expired responses are replaced")
+            cache.put("vm1", "/c", response()) shouldBe true
+            cache.size("vm1") shouldBe 1
+        }
+
+        scenario("A zero time to live disables the cache") {
+            val cache = new MetadataResponseCache(Duration.Zero)
+            cache.isEnabled shouldBe false
+            cache.put("vm1", "/", response()) shouldBe false
+        }
+    }
+
+    feature("The cache honours the Cache-Control header") {
+        scenario("The time to live of a response") {
+            val ttl = 5.seconds.toNanos
+            MetadataResponseCache.timeToLive(null, ttl) shouldBe ttl
+            MetadataResponseCache.timeToLive("private", ttl) shouldBe ttl
+            MetadataResponseCache.timeToLive("max-age=2", ttl) shouldBe
+                2.seconds.toNanos
+            MetadataResponseCache.timeToLive("public, max-age=60", ttl) shouldBe
+                ttl
+            MetadataResponseCache.timeToLive("max-age=0", ttl) shouldBe 0L
+            MetadataResponseCache.timeToLive("No-Cache", ttl) shouldBe 0L
+            MetadataResponseCache.timeToLive("max-age=60, no-store", ttl) shouldBe
+                0L
+            MetadataResponseCache.timeToLive("max-age=abc", ttl) shouldBe 0L
+        }
+
+        scenario("A response with a short max-age expires sooner") {
+            val clock = new MockClock
+            val cache = new MetadataResponseCache(5 seconds, clock = clock)
+            cache.put("vm1", "/", response(cacheControl = "max-age=1"))
+
+            clock.time += 1.seconds.toNanos
+            cache.get("vm1", "/") shouldBe null
+        }
+
+        scenario("A response that must not be cached") {
+            val cache = new MetadataResponseCache(5 seconds)
+            cache.put("vm1", "/", response(cacheControl = "no-cache")) shouldBe
+                false
+        }
+    }
+}
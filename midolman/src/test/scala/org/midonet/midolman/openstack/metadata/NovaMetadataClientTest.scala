@@ -0,0 +1,232 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.openstack.metadata
+
+import java.net.{HttpURLConnection, InetSocketAddress, URI, URL}
+import java.util.UUID
+import java.util.concurrent.ConcurrentLinkedQueue
+import javax.servlet.http.{HttpServletRequest, HttpServletResponse}
+
+import scala.collection.JavaConverters._
+import scala.concurrent.Await.result
+import scala.concurrent.duration._
+
+import io.netty.handler.codec.http.HttpMethod
+import org.apache.commons.io.IOUtils
+import org.eclipse.jetty.server.handler.AbstractHandler
+import org.eclipse.jetty.server.{Request, Server, ServerConnector}
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FeatureSpec, GivenWhenThen, Matchers}
+
+@RunWith(classOf[JUnitRunner])
+class NovaMetadataClientTest extends FeatureSpec with Matchers
+                             with GivenWhenThen with BeforeAndAfter {
+
+    private val timeout = 5 seconds
+    private val address = "10.0.0.2"
+    private val portId = UUID.randomUUID()
+    private val instance = InstanceInfo(address, "fa:16:3e:a8:9f:15", portId,
+                                    "tenant", "instance")
+
+    /** A fake Nova metadata API that records the requests it receives. */
+    private class FakeNova extends AbstractHandler {
+        val requests = new ConcurrentLinkedQueue[(String, String, String)]()
+
+        override def handle(target: String, baseReq: Request,
+                            request: HttpServletRequest,
+                            response: HttpServletResponse): Unit = {
+            baseReq setHandled true
+            requests.add((request.getMethod, target,
+                          request.getHeader("X-Instance-ID-Signature")))
+            target match {
+                case "/latest/meta-data/" =>
+                    response setContentType "text/plain"
+                    response.getWriter print "hostname\ninstance-id"
+                case "/no-store" =>
+                    response.setHeader("Cache-Control", "no-store")
+                    response.getWriter print "volatile"
+                case "/password" =>
+                    response.getWriter print
+                        IOUtils.toString(request.getInputStream, "UTF-8")
+                case _ =>
+                    response sendError HttpServletResponse.SC_NOT_FOUND
+            }
+        }
+    }
+
+    private var nova: FakeNova = _
+    private var server: Server = _
+    private var httpClient: MetadataHttpClient = _
+    private var client: NovaMetadataClient = _
+
+    private def start(handler: AbstractHandler): (Server, Int) = {
+        val server = new Server(new InetSocketAddress("127.0.0.1", 0))
+        server setHandler handler
+        server.start()
+        (server, server.getConnectors()(0).asInstanceOf[ServerConnector]
+                       .getLocalPort)
+    }
+
+    before {
+        nova = new FakeNova
+        val (s, port) = start(nova)
+        server = s
+        httpClient = new MetadataHttpClient(maxConnections = 4,
+                                            requestTimeout = timeout)
+        client = new NovaMetadataClient(s"http://127.0.0.1:$port", "secret",
+                                        httpClient,
+                                        new MetadataResponseCache(1 minute))
+        InstanceInfoMap.put(address, portId, instance)
+    }
+
+    after {
+        InstanceInfoMap removeByPortId portId
+        httpClient.close()
+        server.stop()
+    }
+
+    private def get(path: String, remoteAddr: String = address) =
+        result(client.proxyRequest("GET", path, null, remoteAddr), timeout)
+
+    feature("The client proxies the requests to the Nova metadata API") {
+        scenario("A GET request is signed and proxied") {
+            When("Requesting the metadata")
+            val response = get("/latest/meta-data/")
+
+            Then("The response contains the metadata")
+            response.status shouldBe 200
+            response.contentType should startWith ("text/plain")
+            new String(response.body) shouldBe "hostname\ninstance-id"
+
+            And("The request is signed with the instance ID")
+            val expected: String = Conv.toHexstring(
+                Hmac.hmac("secret".getBytes, "instance".getBytes))
+            nova.requests.asScala.toList shouldBe
+                List(("GET", "/latest/meta-data/", expected))
+        }
+
+        scenario("A POST request is proxied with its content") {
+            val response = result(client.proxyRequest(
+                "POST", "/password", "pass".getBytes, address), timeout)
+
+            new String(response.body) shouldBe "pass"
+            result(client.proxyRequest(
+                "POST", "/password", "pass".getBytes, address), timeout)
+            nova.requests.size shouldBe 2
+        }
+
+        scenario("An error response is returned") {
+            get("/missing").status shouldBe 404
+            get("/missing").status shouldBe 404
+            nova.requests.size shouldBe 2
+        }
+
+        scenario("A request from an unknown address fails") {
+            intercept[NovaMetadataClientException] {
+                get("/latest/meta-data/", remoteAddr = "10.0.0.3")
+            }
+            nova.requests shouldBe empty
+        }
+
+        scenario("An unsupported method fails") {
+            intercept[NovaMetadataClientException] {
+                result(client.proxyRequest("PUT", "/", null, address), timeout)
+            }
+        }
+
+        scenario("An unsupported scheme fails") {
+            intercept[IllegalArgumentException] {
+                result(httpClient.request(HttpMethod.GET,
+                                          URI.create("ftp://127.0.0.1/"),
+                                          Seq.empty, null), timeout)
+            }
+        }
+
+        scenario("An https request negotiates TLS with the server") {
+            Given("An https URL of a plain HTTP server")
+            val port = server.getConnectors()(0).asInstanceOf[ServerConnector]
+                             .getLocalPort
+            val url = URI.create(s"https://127.0.0.1:$port/latest/meta-data/")
+
+            Then("The request fails during the TLS handshake")
+            intercept[Exception] {
+                result(httpClient.request(HttpMethod.GET, url, Seq.empty,
+                                          null), timeout)
+            }
+            nova.requests shouldBe empty
+        }
+
+        scenario("A request fails when the server is unreachable") {
+            server.stop()
+            intercept[Exception] {
+                get("/latest/meta-data/")
+            }
+        }
+    }
+
+    feature("The client caches the responses of the instances") {
+        scenario("Repeated GET requests are served from the cache") {
+            for (_ <- 0 until 10) {
+                new String(get("/latest/meta-data/").body) shouldBe
+                    "hostname\ninstance-id"
+            }
+            nova.requests.size shouldBe 1
+        }
+
+        scenario("Responses with no-store are not cached") {
+            get("/no-store")
+            get("/no-store")
+            nova.requests.size shouldBe 2
+        }
+
+        scenario("A forgotten instance is proxied again") {
+            get("/latest/meta-data/")
+            client forget "instance"
+            get("/latest/meta-data/")
+            nova.requests.size shouldBe 2
+        }
+    }
+
+    feature("The proxy handler serves the requests asynchronously") {
+        scenario("A request through the proxy") {
+            Given("A proxy server for the loopback address")
+            val loopbackPortId = UUID.randomUUID()
+            InstanceInfoMap.put("127.0.0.1", loopbackPortId, instance)
+            val (proxy, port) = start(new ProxyHandler(client))
+
+            try {
+                When("Requesting the metadata through the proxy")
+                val connection = new URL(s"http://127.0.0.1:$port/latest/meta-data/")
+                    .openConnection().asInstanceOf[HttpURLConnection]
+
+                Then("The proxy returns the metadata")
+                connection.getResponseCode shouldBe 200
+                IOUtils.toString(connection.getInputStream, "UTF-8") shouldBe
+                    "hostname\ninstance-id"
+
+                And("An error of the Nova metadata API is returned")
+                val missing = new URL(s"http://127.0.0.1:$port/missing")
+                    .openConnection().asInstanceOf[HttpURLConnection]
+                missing.getResponseCode shouldBe 404
+            } finally {
+                InstanceInfoMap removeByPortId loopbackPortId
+                proxy.stop()
+            }
+        }
+    }
+}
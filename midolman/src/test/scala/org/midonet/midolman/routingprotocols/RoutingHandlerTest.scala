@@ -34,6 +34,7 @@ import org.scalatest.junit.JUnitRunner
 import org.scalatest.mock.MockitoSugar
 
 import org.midonet.cluster.backend.zookeeper.StateAccessException
+import org.midonet.cluster.state.{RouteBatch, RouteBatchReader}
 import org.midonet.midolman.config.MidolmanConfig
 import org.midonet.midolman.layer3.Route
 import org.midonet.midolman.routingprotocols.RoutingHandler.PeerRoute
@@ -421,6 +422,144 @@ class RoutingHandlerTest extends FeatureSpecLike
         }
     }
 
+    feature("learns routes in batches") {
+        def batchingHandler(maxRoutes: Int = 40000): ActorRef = {
+            val batchConfig = MidolmanConfig.forTests(
+                s"""
+                  |agent.router.bgp_route_batching : true
+                  |agent.router.bgp_route_batch_interval : 1h
+                  |agent.router.bgp_route_snapshot_interval : 2
+                  |agent.router.bgp_route_batch_max_routes : $maxRoutes
+                """.stripMargin)
+            val handler = TestActorRef(new TestableRoutingHandler(
+                rport, invalidations ::= _, routingStorage, batchConfig,
+                new MockBgpdProcess, false, peerRouteToPortAccount))
+            handler ! rport
+            handler ! BgpPort(rport, baseConfig, Set(peer1Id))
+            handler
+        }
+
+        def learnedRoutes: Set[String] = {
+            val reader = new RouteBatchReader
+            reader.update(routingStorage.routeBatches.toSet)
+            reader.currentRoutes.map(r => s"${r.getDstNetworkAddr}/" +
+                                          s"${r.dstNetworkLength}").toSet
+        }
+
+        def pushRoute(handler: ActorRef, dst: String, gw: String): Unit = {
+            handler ! RoutingHandler.AddPeerRoutes(
+                IPv4Subnet.fromCidr(dst),
+                Set(ZebraPath(RIBType.BGP, IPv4Addr.fromString(gw), 100)))
+        }
+
+        def pullRoute(handler: ActorRef, dst: String, gw: String): Unit = {
+            handler ! RoutingHandler.RemovePeerRoute(
+                RIBType.BGP, IPv4Subnet.fromCidr(dst), IPv4Addr.fromString(gw))
+        }
+
+        scenario("routes are published as snapshots and deltas") {
+            val gw = "192.168.80.254"
+            val handler = batchingHandler()
+
+            pushRoute(handler, "10.10.10.0/24", gw)
+            pushRoute(handler, "10.10.20.0/24", gw)
+            verify(routingStorage, never()).addRoute(anyObject(), anyObject())
+            routingStorage.routeBatches shouldBe empty
+
+            handler ! RoutingHandler.FlushPeerRoutes
+            routingStorage.routeBatches.flatMap(RouteBatch.decode)
+                .map(_.kind) shouldBe Set(RouteBatch.SnapshotKind)
+            learnedRoutes shouldBe Set("10.10.10.0/24", "10.10.20.0/24")
+
+            pushRoute(handler, "10.10.30.0/24", gw)
+            pullRoute(handler, "10.10.10.0/24", gw)
+            handler ! RoutingHandler.FlushPeerRoutes
+            routingStorage.routeBatches.flatMap(RouteBatch.decode)
+                .map(_.kind) shouldBe Set(RouteBatch.SnapshotKind,
+                                          RouteBatch.DeltaKind)
+            learnedRoutes shouldBe Set("10.10.20.0/24", "10.10.30.0/24")
+
+            // The second delta triggers a snapshot that replaces all batches.
+            pushRoute(handler, "10.10.40.0/24", gw)
+            handler ! RoutingHandler.FlushPeerRoutes
+            routingStorage.routeBatches.flatMap(RouteBatch.decode)
+                .map(_.kind) shouldBe Set(RouteBatch.SnapshotKind)
+            learnedRoutes shouldBe Set("10.10.20.0/24", "10.10.30.0/24",
+                                       "10.10.40.0/24")
+
+            // Routes added and removed between flushes are not published.
+            val batches = routingStorage.routeBatches.toSet
+            pushRoute(handler, "10.10.50.0/24", gw)
+            pullRoute(handler, "10.10.50.0/24", gw)
+            handler ! RoutingHandler.FlushPeerRoutes
+            routingStorage.routeBatches shouldBe batches
+
+            handler ! RoutingHandler.SyncPeerRoutes
+            routingStorage.routeBatches should not be batches
+            learnedRoutes shouldBe Set("10.10.20.0/24", "10.10.30.0/24",
+                                       "10.10.40.0/24")
+        }
+
+        scenario("flapping routes are suppressed") {
+            val dst = "10.10.10.0/24"
+            val gw = "192.168.80.254"
+            val handler = batchingHandler()
+
+            for (_ <- 0 until 2) {
+                pushRoute(handler, dst, gw)
+                handler ! RoutingHandler.FlushPeerRoutes
+                learnedRoutes shouldBe Set(dst)
+                pullRoute(handler, dst, gw)
+                handler ! RoutingHandler.FlushPeerRoutes
+                learnedRoutes shouldBe empty
+            }
+
+            // The third withdrawal exceeds the suppress limit.
+            pushRoute(handler, dst, gw)
+            pullRoute(handler, dst, gw)
+            pushRoute(handler, dst, gw)
+            handler ! RoutingHandler.FlushPeerRoutes
+            learnedRoutes shouldBe empty
+        }
+
+        scenario("routes are removed when bgpd stops") {
+            val handler = batchingHandler()
+
+            pushRoute(handler, "10.10.10.0/24", "192.168.80.254")
+            handler ! RoutingHandler.FlushPeerRoutes
+            learnedRoutes should have size 1
+
+            handler ! RoutingHandler.PortActive(false)
+            routingStorage.routeBatches shouldBe empty
+        }
+
+        scenario("a flush after bgpd stops does not publish routes") {
+            val handler = batchingHandler()
+
+            pushRoute(handler, "10.10.10.0/24", "192.168.80.254")
+            handler ! RoutingHandler.PortActive(false)
+            handler ! RoutingHandler.FlushPeerRoutes
+            routingStorage.routeBatches shouldBe empty
+        }
+
+        scenario("routes beyond the maximum are held") {
+            val gw = "192.168.80.254"
+            val all = Set("10.10.10.0/24", "10.10.20.0/24", "10.10.30.0/24")
+            val handler = batchingHandler(maxRoutes = 2)
+
+            for (dst <- all) pushRoute(handler, dst, gw)
+            handler ! RoutingHandler.FlushPeerRoutes
+            val published = learnedRoutes
+            published should have size 2
+            val held = all -- published
+
+            // Withdrawing a published route announces the held route.
+            pullRoute(handler, published.head, gw)
+            handler ! RoutingHandler.FlushPeerRoutes
+            learnedRoutes shouldBe published.tail ++ held
+        }
+    }
+
     feature("reacts to changes in the bgp session configuration") {
         scenario("a new peer is added or removed") {
             val update = BgpRouter(asNumber, rport.portAddress4.getAddress,
@@ -465,6 +604,7 @@ class RoutingHandlerTest extends FeatureSpecLike
 
 class MockRoutingStorage extends RoutingStorage {
     var broken = false
+    val routeBatches = mutable.Set[String]()
 
     def break(): Unit = { broken = true }
     def unbreak(): Unit = { broken = false }
@@ -501,6 +641,25 @@ class MockRoutingStorage extends RoutingStorage {
             Promise.successful(Set[Route]()).future
         }
     }
+
+    override def addRouteBatch(portId: UUID, value: String): Future[String] = {
+        if (broken) {
+            Promise.failed(new StateAccessException("whatever")).future
+        } else {
+            routeBatches += value
+            Promise.successful(value).future
+        }
+    }
+
+    override def removeRouteBatch(portId: UUID, value: String)
+    : Future[String] = {
+        if (broken) {
+            Promise.failed(new StateAccessException("whatever")).future
+        } else {
+            routeBatches -= value
+            Promise.successful(value).future
+        }
+    }
 }
 
 class MockBgpdProcess extends BgpdProcess with MockitoSugar {
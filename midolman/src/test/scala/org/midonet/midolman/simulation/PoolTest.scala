@@ -27,7 +27,7 @@ import org.scalatest.junit.JUnitRunner
 import org.midonet.midolman.PacketWorkflow.{AddVirtualWildcardFlow, SimulationResult}
 import org.midonet.midolman.layer3.Route
 import org.midonet.midolman.state.NatState.NatKey
-import org.midonet.midolman.state.l4lb.LBStatus
+import org.midonet.midolman.state.l4lb.{LBStatus, PoolLBMethod}
 import org.midonet.midolman.util.MidolmanSpec
 import org.midonet.odp.flows.{FlowActionSetKey, FlowKeyIPv4}
 import org.midonet.packets.NatState.NatBinding
@@ -543,6 +543,53 @@ class PoolTest extends MidolmanSpec {
         }
     }
 
+    feature("Consistent hash selection of pool members") {
+        scenario("Connections are balanced by the flow hash") {
+            Given("A pool using the Maglev method with all backends enabled")
+            setPoolLbMethod(pool, PoolLBMethod.MAGLEV)
+            enableAllBackends
+
+            When("Packets are sent twice from different source ports")
+            val first = (1 to timesRun).map(n =>
+                sendPacketsAndGetDestIpSet(n, n))
+            val second = (1 to timesRun).map(n =>
+                sendPacketsAndGetDestIpSet(n, n))
+
+            Then("The packets of a connection go to the same backend")
+            first shouldBe second
+            first.foreach(_.size shouldBe 1)
+
+            And("The connections are balanced to several backends")
+            first.flatten.toSet.size should be > 1
+
+            When("One of the backends is marked down")
+            val disabled = first.head.head
+            setPoolMemberHealthDownByIp(disabled)
+
+            Then("The connections to other backends are not moved")
+            val third = (1 to timesRun).map(n =>
+                sendPacketsAndGetDestIpSet(n, n))
+            for ((before, after) <- first zip third
+                 if before.head != disabled) {
+                after shouldBe before
+            }
+            third.flatten should not contain disabled
+        }
+
+        scenario("Connections with sticky source IP go to the same backend") {
+            Given("A pool using the Maglev method with all backends enabled")
+            setPoolLbMethod(pool, PoolLBMethod.MAGLEV)
+            vipEnableStickySourceIP(vip)
+            enableAllBackends
+
+            When("Packets are sent from different source ports")
+            val destIpSet = sendPacketsAndGetDestIpSet(1, timesRun)
+
+            Then("The packets go to the same backend")
+            destIpSet.size shouldBe 1
+        }
+    }
+
     feature("Sticky source IP attribute in VIP affects how subsequent connections are balanced") {
         scenario("Without sticky source IP") {
             Given("VIP has sticky source IP disabled")
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.simulation
+
+import java.util.UUID
+
+import scala.collection.JavaConversions._
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.midolman.NotYetException
+import org.midonet.midolman.PacketWorkflow.{AddVirtualWildcardFlow, SimulationResult}
+import org.midonet.midolman.flows.FlowInvalidationLog
+import org.midonet.midolman.simulation.Simulator.ToPortAction
+import org.midonet.midolman.topology.VirtualTopology
+import org.midonet.midolman.topology.VirtualTopology.Device
+import org.midonet.midolman.util.MidolmanSpec
+import org.midonet.packets.MAC
+import org.midonet.packets.util.PacketBuilder._
+import org.midonet.sdn.flows.FlowTagger
+
+@RunWith(classOf[JUnitRunner])
+class SimulationResumeTest extends MidolmanSpec {
+
+    private val macA = MAC.fromString("02:00:00:00:00:0a")
+    private val macD = MAC.fromString("02:00:00:00:00:0d")
+
+    private var bridge1: UUID = _
+    private var bridge2: UUID = _
+    private var portA: UUID = _
+    private var portB: UUID = _
+    private var portC: UUID = _
+    private var portD: UUID = _
+    private var devices: Map[UUID, Device] = _
+    private var invalidations: FlowInvalidationLog = _
+
+    override def beforeTest(): Unit = {
+        bridge1 = newBridge("bridge1")
+        bridge2 = newBridge("bridge2")
+        portA = newBridgePort(bridge1)
+        portB = newBridgePort(bridge1)
+        portC = newBridgePort(bridge2)
+        portD = newBridgePort(bridge2)
+        materializePort(portA, hostId, "portA")
+        materializePort(portD, hostId, "portD")
+        linkPorts(portB, portC)
+
+        val bridges = fetchBridges(bridge1, bridge2)
+        val ports = fetchPorts(portA, portB, portC, portD)
+        feedMacTable(bridges.head, macD, portB)
+        feedMacTable(bridges.last, macD, portD)
+
+        devices = Map(bridge1 -> bridges.head, bridge2 -> bridges.last,
+                      portA -> ports(0), portB -> ports(1),
+                      portC -> ports(2), portD -> ports(3))
+
+        // Only the ingress port and its bridge are cached.
+        VirtualTopology.clear()
+        VirtualTopology.add(portA, devices(portA))
+        VirtualTopology.add(bridge1, devices(bridge1))
+
+        invalidations = new FlowInvalidationLog(capacity = 4)
+    }
+
+    private def packetContext(): PacketContext = {
+        val frame = { eth src macA dst macD } <<
+                    { ip4 src "10.0.0.1" dst "10.0.0.2" } <<
+                    { udp src 10 dst 11 }
+        packetContextFor(frame, portA)
+    }
+
+    private def suspend(context: PacketContext)
+                       (simulation: => SimulationResult): NotYetException = {
+        val e = intercept[NotYetException] { simulation }
+        context.postpone(e, invalidations)
+        e
+    }
+
+    feature("Simulations resume after a device becomes available") {
+        scenario("The simulation resumes at the missing device") {
+            Given("A packet context")
+            val context = packetContext()
+
+            When("Simulating the packet")
+            suspend(context) { Simulator.simulate(context) }
+
+            Then("The simulation is suspended at the missing port")
+            context.isResumable shouldBe true
+            context.idle shouldBe true
+            context.traversedDeviceIds.toSeq shouldBe Seq(portA, bridge1)
+
+            // The devices become available one at a time: the interior port,
+            // its peer, the peer's bridge and the exterior port.
+            for (id <- Seq(portB, portC, bridge2)) {
+                When(s"The device $id becomes available")
+                VirtualTopology.add(id, devices(id))
+
+                Then("The simulation resumes and suspends again")
+                context.canResume(invalidations) shouldBe true
+                context.prepareForResume()
+                suspend(context) { Simulator.resume(context) }
+                context.isResumable shouldBe true
+                context.traversedDeviceIds.last shouldBe id
+            }
+
+            When("The exterior port becomes available")
+            VirtualTopology.add(portD, devices(portD))
+            context.canResume(invalidations) shouldBe true
+            context.prepareForResume()
+
+            Then("The simulation completes")
+            Simulator.resume(context) shouldBe AddVirtualWildcardFlow
+            context.isResumable shouldBe false
+            context.virtualFlowActions.toSeq shouldBe Seq(ToPortAction(portD))
+
+            And("Every device was simulated once")
+            context.runs shouldBe 5
+            context.traversedDeviceIds.toSeq shouldBe Seq(
+                portA, bridge1, portB, portC, bridge2, portD)
+        }
+
+        scenario("The simulation restarts if a traversed device changed") {
+            Given("A packet context")
+            val context = packetContext()
+
+            When("Simulating the packet")
+            suspend(context) { Simulator.simulate(context) }
+            context.isResumable shouldBe true
+
+            And("The ingress port changes")
+            val port = devices(portA).asInstanceOf[BridgePort]
+            VirtualTopology.add(portA, port.copy())
+
+            Then("The simulation cannot resume")
+            context.traversedDevicesUnchanged shouldBe false
+
+            When("The simulation is discarded")
+            context.discardSimulation()
+
+            Then("The context does not hold the suspended simulation")
+            context.isResumable shouldBe false
+            context.traversedDeviceIds shouldBe empty
+        }
+
+        scenario("The simulation restarts if a MAC moves while postponed") {
+            Given("A packet context")
+            val context = packetContext()
+
+            When("Simulating the packet")
+            suspend(context) { Simulator.simulate(context) }
+            context.isResumable shouldBe true
+
+            And("The worker invalidates flows unrelated to the packet")
+            invalidations.record(FlowTagger.tagForBridge(bridge2))
+            invalidations.record(FlowTagger.tagForVlanPort(
+                bridge1, macA, Bridge.UntaggedVlanId, portB))
+
+            Then("The simulation can resume")
+            context.canResume(invalidations) shouldBe true
+
+            When("The destination MAC moves to another port of the bridge")
+            feedMacTable(devices(bridge1).asInstanceOf[Bridge], macD, portA)
+
+            And("The worker invalidates the flows to the old port")
+            invalidations.record(FlowTagger.tagForVlanPort(
+                bridge1, macD, Bridge.UntaggedVlanId, portB))
+
+            Then("The simulation cannot resume")
+            context.traversedDevicesUnchanged shouldBe true
+            context.canResume(invalidations) shouldBe false
+        }
+
+        scenario("The simulation restarts if the invalidations overflow") {
+            Given("A suspended packet context")
+            val context = packetContext()
+            suspend(context) { Simulator.simulate(context) }
+            context.isResumable shouldBe true
+
+            When("The worker invalidates more tags than the log holds")
+            for (_ <- 0 to 4) {
+                invalidations.record(FlowTagger.tagForBridge(UUID.randomUUID()))
+            }
+
+            Then("The simulation cannot resume")
+            context.canResume(invalidations) shouldBe false
+        }
+
+        scenario("Simulations suspended by a different exception restart") {
+            Given("A packet context")
+            val context = packetContext()
+
+            When("Simulating the packet")
+            intercept[NotYetException] { Simulator.simulate(context) }
+
+            And("Postponing the packet for another exception")
+            context.postpone(new NotYetException(null, "other"), invalidations)
+
+            Then("The context does not hold the suspended simulation")
+            context.isResumable shouldBe false
+            context.idle shouldBe true
+            context.inputPort shouldBe null
+        }
+    }
+}
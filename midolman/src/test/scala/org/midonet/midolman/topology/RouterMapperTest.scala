@@ -33,6 +33,7 @@ import org.midonet.cluster.models.Topology.Route.NextHop
 import org.midonet.cluster.models.Topology.{Mirror => TopologyMirror, Port => TopologyPort, Route => TopologyRoute, Router => TopologyRouter}
 import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.services.MidonetBackend.ActiveKey
+import org.midonet.cluster.state.RouteBatch
 import org.midonet.cluster.state.RoutingTableStorage._
 import org.midonet.cluster.topology.{TopologyBuilder, TopologyMatchers}
 import org.midonet.cluster.util.UUIDUtil._
@@ -1204,6 +1205,63 @@ class RouterMapperTest extends MidolmanSpec with TopologyBuilder
         }
     }
 
+    feature("Test learned route batches") {
+        scenario("Learned routes added and removed in batches") {
+            val obs = createObserver()
+            val router = testRouterCreated(obs)._1
+
+            When("Creating an exterior port")
+            val port = createExteriorPort(router.getId)
+            store.create(port)
+            obs.awaitOnNext(2, timeout) shouldBe true
+
+            And("The port becomes active")
+            stateStore.addValue(classOf[TopologyPort], port.getId, ActiveKey,
+                                UUID.randomUUID.toString).await(timeout)
+            obs.awaitOnNext(3, timeout) shouldBe true
+
+            When("Adding a snapshot with a learned route")
+            val route1 = createLearnedRoute(srcNetwork = "1.0.0.0/24",
+                                            dstNetwork = "2.0.0.0/24",
+                                            portId = port.getId)
+            val route2 = createLearnedRoute(srcNetwork = "1.0.0.0/24",
+                                            dstNetwork = "3.0.0.0/24",
+                                            portId = port.getId)
+            val routerId = route1.routerId
+            for (value <- RouteBatch.snapshot(1L, 0L, routerId, Seq(route1))) {
+                stateStore.addRouteBatch(port.getId, value).await(timeout)
+            }
+
+            Then("The observer should receive a router update with the route")
+            obs.awaitOnNext(4, timeout) shouldBe true
+            val device1 = obs.getOnNextEvents.get(3)
+            device1.rTable.lookup(flowOf("1.0.0.0", "2.0.0.0")) should contain only
+                route1
+
+            When("Adding an individually learned route")
+            stateStore.addRoute(route2).await(timeout)
+
+            Then("The observer should receive a router update with both routes")
+            obs.awaitOnNext(5, timeout) shouldBe true
+            val device2 = obs.getOnNextEvents.get(4)
+            device2.rTable.lookup(flowOf("1.0.0.0", "2.0.0.0")) should contain only
+                route1
+            device2.rTable.lookup(flowOf("1.0.0.0", "3.0.0.0")) should contain only
+                route2
+
+            When("Adding a delta that removes the route")
+            stateStore.addRouteBatch(port.getId, RouteBatch.delta(
+                1L, 1L, routerId, Nil, Seq(route1))).await(timeout)
+
+            Then("The observer should receive a router update without the route")
+            obs.awaitOnNext(6, timeout) shouldBe true
+            val device3 = obs.getOnNextEvents.get(5)
+            device3.rTable.lookup(flowOf("1.0.0.0", "2.0.0.0")) shouldBe empty
+            device3.rTable.lookup(flowOf("1.0.0.0", "3.0.0.0")) should contain only
+                route2
+        }
+    }
+
     feature("Test router ARP table") {
         scenario("The router mapper creates a unique ARP cache") {
             val obs = createObserver()
@@ -1237,7 +1295,7 @@ class RouterMapperTest extends MidolmanSpec with TopologyBuilder
             val tagManager = obs.getOnNextEvents.get(0).routerMgrTagger
 
             When("Adding a destination IP")
-            tagManager.addIPv4Tag("2.0.0.1", 0)
+            tagManager.addIPTag(IPv4Addr("2.0.0.1"), 0)
 
             When("Adding a route to the router")
             val route = createRoute(srcNetwork = "1.0.0.0/24",
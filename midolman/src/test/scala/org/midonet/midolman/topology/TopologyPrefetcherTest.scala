@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.topology
+
+import java.util.UUID
+
+import scala.concurrent.Await.result
+import scala.concurrent.duration._
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.cluster.data.storage.{CreateOp, Storage, UpdateOp}
+import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.topology.TopologyBuilder
+import org.midonet.midolman.simulation.{Bridge, Chain, Port, PortGroup, Router}
+import org.midonet.midolman.util.MidolmanSpec
+import org.midonet.packets.{IPv4Addr, IPv4Subnet, MAC}
+
+@RunWith(classOf[JUnitRunner])
+class TopologyPrefetcherTest extends MidolmanSpec with TopologyBuilder {
+
+    import TopologyBuilder._
+
+    private var vt: VirtualTopology = _
+    private var store: Storage = _
+    private val timeout = 5 seconds
+
+    private val bridgeId = UUID.randomUUID
+    private val portId = UUID.randomUUID
+    private val chainId = UUID.randomUUID
+    private val portGroupId = UUID.randomUUID
+    private val interiorPortId = UUID.randomUUID
+    private val routerPortId = UUID.randomUUID
+    private val routerId = UUID.randomUUID
+
+    protected override def beforeTest(): Unit = {
+        vt = injector.getInstance(classOf[VirtualTopology])
+        store = injector.getInstance(classOf[MidonetBackend]).store
+    }
+
+    /** Creates a bridge with an exterior port, which has a filter chain and
+      * belongs to a port group, and an interior port peered to a router. */
+    private def createTopology(): Unit = {
+        val interiorPort = createBridgePort(id = interiorPortId,
+                                            bridgeId = Some(bridgeId))
+        store.multi(Seq(
+            CreateOp(createBridge(id = bridgeId)),
+            CreateOp(createChain(id = chainId)),
+            CreateOp(createPortGroup(id = portGroupId)),
+            CreateOp(createBridgePort(id = portId, bridgeId = Some(bridgeId),
+                                      inboundFilterId = Some(chainId),
+                                      portGroupIds = Set(portGroupId))),
+            CreateOp(createRouter(id = routerId)),
+            CreateOp(interiorPort),
+            CreateOp(createRouterPort(id = routerPortId,
+                                      routerId = Some(routerId),
+                                      portSubnet = new IPv4Subnet(
+                                          IPv4Addr.random, 24),
+                                      portMac = MAC.random)),
+            UpdateOp(interiorPort.setPeerId(routerPortId))))
+    }
+
+    private def isCached(id: UUID): Boolean = vt.devices.containsKey(id)
+
+    feature("The prefetcher loads the devices reachable from a port") {
+        scenario("The devices are loaded up to the maximum depth") {
+            Given("A topology and a prefetcher")
+            createTopology()
+            val prefetcher = new TopologyPrefetcher(vt, maxDepth = 4)
+
+            When("Prefetching the exterior port")
+            val loaded = result(prefetcher.prefetch(portId), timeout)
+
+            Then("All devices are loaded")
+            loaded shouldBe 7
+            for (id <- Seq(portId, bridgeId, chainId, portGroupId,
+                           interiorPortId, routerPortId, routerId)) {
+                isCached(id) shouldBe true
+            }
+
+            And("The devices are returned without a NotYetException")
+            vt.tryGet(classOf[Port], portId).id shouldBe portId
+            vt.tryGet(classOf[Bridge], bridgeId).id shouldBe bridgeId
+            vt.tryGet(classOf[Chain], chainId).id shouldBe chainId
+            vt.tryGet(classOf[PortGroup], portGroupId).id shouldBe portGroupId
+            vt.tryGet(classOf[Port], routerPortId).id shouldBe routerPortId
+            vt.tryGet(classOf[Router], routerId).id shouldBe routerId
+
+            And("The prefetch is recorded in the metrics")
+            vt.metrics.prefetchCounter.getCount shouldBe 1
+            vt.metrics.prefetchDevicesCounter.getCount shouldBe 7
+            vt.metrics.prefetchLatencyHistogram.getCount shouldBe 1
+        }
+
+        scenario("The devices beyond the maximum depth are not loaded") {
+            Given("A topology and a prefetcher with depth 2")
+            createTopology()
+            val prefetcher = new TopologyPrefetcher(vt, maxDepth = 2)
+
+            When("Prefetching the exterior port")
+            val loaded = result(prefetcher.prefetch(portId), timeout)
+
+            Then("The devices up to the interior port are loaded")
+            loaded shouldBe 5
+            for (id <- Seq(portId, bridgeId, chainId, portGroupId,
+                           interiorPortId)) {
+                isCached(id) shouldBe true
+            }
+
+            And("The router is not loaded")
+            isCached(routerId) shouldBe false
+        }
+
+        scenario("A prefetch from another port reuses the cached devices") {
+            Given("A topology and a prefetcher")
+            createTopology()
+            val prefetcher = new TopologyPrefetcher(vt, maxDepth = 4)
+            result(prefetcher.prefetch(portId), timeout)
+
+            When("Prefetching the router port")
+            val loaded = result(prefetcher.prefetch(routerPortId), timeout)
+
+            Then("The devices reachable from the router port are returned")
+            loaded shouldBe 4
+            isCached(routerPortId) shouldBe true
+        }
+    }
+
+    feature("The prefetcher handles failures") {
+        scenario("The port does not exist") {
+            Given("A prefetcher")
+            val prefetcher = new TopologyPrefetcher(vt, maxDepth = 4)
+
+            Then("Prefetching a non-existing port loads no devices")
+            result(prefetcher.prefetch(UUID.randomUUID), timeout) shouldBe 0
+        }
+
+        scenario("The prefetcher is disabled") {
+            Given("A topology and a disabled prefetcher")
+            createTopology()
+            val prefetcher = new TopologyPrefetcher(vt, maxDepth = 0)
+
+            When("Prefetching the exterior port")
+            val loaded = result(prefetcher.prefetch(portId), timeout)
+
+            Then("No devices are loaded")
+            loaded shouldBe 0
+            isCached(portId) shouldBe false
+        }
+    }
+}
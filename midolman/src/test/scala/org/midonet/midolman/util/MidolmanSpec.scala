@@ -37,6 +37,7 @@ import org.midonet.midolman.{FlowTranslator, DatapathState, MockMidolmanModule}
 import org.midonet.midolman.cluster._
 import org.midonet.midolman.cluster.zookeeper.MockZookeeperConnectionModule
 import org.midonet.midolman.config.MidolmanConfig
+import org.midonet.midolman.flows.RouteFlowIndex
 import org.midonet.midolman.services.MidolmanService
 import org.midonet.midolman.simulation.{PacketContext, CustomMatchers}
 import org.midonet.midolman.util.mock.MockMidolmanActors
@@ -44,7 +45,6 @@ import org.midonet.odp.ports.{NetDevPort, VxLanTunnelPort}
 import org.midonet.odp.ports.VxLanTunnelPort.VXLAN_DEFAULT_DST_PORT
 import org.midonet.odp.{Datapath, DpPort}
 import org.midonet.odp.flows.{FlowActions, FlowActionOutput}
-import org.midonet.util.collection.IPv4InvalidationArray
 
 /**
  * A base trait to be used for new style Midolman simulation tests with Midolman
@@ -92,7 +92,7 @@ trait MidolmanSpec extends FeatureSpecLike
                 new MidolmanConfig(conf, ConfigFactory.empty()),
                 actorsService))
 
-            IPv4InvalidationArray.reset()
+            RouteFlowIndex.reset()
 
             val dir = injector.getInstance(classOf[Directory])
             ensurePath(dir, "/midonet/routers")
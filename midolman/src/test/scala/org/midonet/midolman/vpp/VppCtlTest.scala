@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.vpp
+
+import java.util.concurrent.TimeoutException
+
+import scala.concurrent.duration._
+import scala.concurrent.{Await, ExecutionContext}
+
+import com.typesafe.scalalogging.Logger
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+import org.slf4j.LoggerFactory
+
+@RunWith(classOf[JUnitRunner])
+class VppCtlTest extends FeatureSpec with Matchers with GivenWhenThen {
+
+    private val log = Logger(LoggerFactory.getLogger(getClass))
+
+    /** Executes the VPP command as a shell command. */
+    private class TestableVppCtl(timeout: Duration)
+        extends VppCtl(log, timeout)(ExecutionContext.global) {
+        override protected def commandLine(vppCommand: String) = vppCommand
+    }
+
+    feature("The VPP control executes commands") {
+        scenario("A command that exits") {
+            Given("A VPP control")
+            val vppCtl = new TestableVppCtl(10 seconds)
+
+            Then("A successful command completes the future")
+            Await.result(vppCtl.exec("true"), 10 seconds)
+
+            And("A failed command fails the future")
+            intercept[Exception] {
+                Await.result(vppCtl.exec("false"), 10 seconds)
+            }.getMessage shouldBe "Command failed with result 1"
+        }
+
+        scenario("A command that times out") {
+            Given("A VPP control with a short timeout")
+            val vppCtl = new TestableVppCtl(100 millis)
+
+            Then("A command that does not exit fails the future")
+            intercept[TimeoutException] {
+                Await.result(vppCtl.exec("sleep 10"), 10 seconds)
+            }.getMessage shouldBe "Command `sleep 10` timed out"
+        }
+    }
+}
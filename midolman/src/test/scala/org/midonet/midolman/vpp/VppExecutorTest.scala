@@ -16,8 +16,10 @@
 
 package org.midonet.midolman.vpp
 
+import java.util.concurrent.ConcurrentHashMap
+
 import scala.async.Async
-import scala.concurrent.Future
+import scala.concurrent.{Future, Promise}
 
 import org.junit.runner.RunWith
 import org.scalatest.junit.JUnitRunner
@@ -29,11 +31,18 @@ import org.midonet.util.concurrent._
 @RunWith(classOf[JUnitRunner])
 class VppExecutorTest extends FeatureSpec with Matchers with GivenWhenThen {
 
+    private case class Pipelined(name: String)
+
     private class TestableVppExecutor(override val receive: Receive)
         extends VppExecutor {
 
         def !(message: Any): Future[Any] = send(message)
 
+        def commands = pipeline
+
+        override def isPipelined(message: Any): Boolean =
+            message.isInstanceOf[Pipelined]
+
         override def doStart(): Unit = {
             notifyStarted()
         }
@@ -167,4 +176,55 @@ class VppExecutorTest extends FeatureSpec with Matchers with GivenWhenThen {
         }
     }
 
-}
+    feature("VPP executor pipelines commands") {
+        scenario("Pipelined messages do not wait for their commands") {
+            Given("A message handler where commands complete on demand")
+            val promises = new ConcurrentHashMap[String, Promise[Any]]()
+            @volatile var vpp: TestableVppExecutor = null
+            @volatile var handled = Seq[Any]()
+            val handler: Receive = {
+                case Pipelined(s) =>
+                    vpp.commands enqueue VppPipeline.Command(s, isAdd = true) {
+                        val promise = Promise[Any]()
+                        promises.put(s, promise)
+                        promise.future
+                    }
+                    handled = handled :+ s
+                    Future.successful(s)
+                case n: Int =>
+                    handled = handled :+ n
+                    Future.successful(n)
+            }
+
+            And("A VPP executor")
+            vpp = new TestableVppExecutor(handler)
+            vpp.startAsync().awaitRunning()
+
+            When("Sending two pipelined messages")
+            (vpp ! Pipelined("a")).await() shouldBe "a"
+            (vpp ! Pipelined("b")).await() shouldBe "b"
+
+            Then("Both commands are in flight")
+            promises.size shouldBe 2
+
+            When("Sending a message that is not pipelined")
+            val future = vpp ! 1
+
+            Then("The message waits for the commands")
+            Thread.sleep(100)
+            future.isCompleted shouldBe false
+            handled shouldBe Seq("a", "b")
+
+            When("The commands complete")
+            promises.get("a").success(())
+            promises.get("b").success(())
+
+            Then("The message executes")
+            future.await() shouldBe 1
+            handled shouldBe Seq("a", "b", 1)
+
+            vpp.stopAsync().awaitTerminated()
+        }
+    }
+
+}
\ No newline at end of file
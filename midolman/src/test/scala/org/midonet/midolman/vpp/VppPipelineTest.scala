@@ -0,0 +1,252 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.vpp
+
+import scala.collection.mutable
+import scala.concurrent.{Future, Promise}
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.midolman.vpp.VppPipeline.{BatchResult, Command}
+import org.midonet.util.concurrent.CallingThreadExecutionContext
+
+@RunWith(classOf[JUnitRunner])
+class VppPipelineTest extends FeatureSpec with Matchers with GivenWhenThen {
+
+    private implicit val ec = CallingThreadExecutionContext
+
+    /** A stand-in for the VPP API, where the requests complete on demand. */
+    private class Vpp {
+        val requests = new mutable.ArrayBuffer[(String, Promise[Any])]
+
+        def command(key: String, isAdd: Boolean): Command =
+            Command(key, isAdd) {
+                val promise = Promise[Any]()
+                requests += ((s"${if (isAdd) "add" else "del"} $key", promise))
+                promise.future
+            }
+
+        def names: Seq[String] = requests.map(_._1)
+
+        def complete(index: Int): Unit = requests(index)._2.success(())
+
+        def fail(index: Int, e: Throwable): Unit = requests(index)._2.failure(e)
+    }
+
+    feature("The pipeline executes commands") {
+        scenario("Commands are pipelined up to the maximum in flight") {
+            Given("A pipeline with two commands in flight")
+            val vpp = new Vpp
+            val pipeline = new VppPipeline(2)
+
+            When("Adding three commands")
+            pipeline enqueue vpp.command("a", isAdd = true)
+            pipeline enqueue vpp.command("b", isAdd = true)
+            pipeline enqueue vpp.command("c", isAdd = true)
+
+            Then("Two commands are in flight")
+            vpp.names shouldBe Seq("add a", "add b")
+            pipeline.inFlightCount shouldBe 2
+            pipeline.queued shouldBe 1
+
+            When("The first command completes")
+            vpp.complete(0)
+
+            Then("The third command executes")
+            vpp.names shouldBe Seq("add a", "add b", "add c")
+            pipeline.inFlightCount shouldBe 2
+            pipeline.queued shouldBe 0
+        }
+
+        scenario("Commands for the same key execute in order") {
+            Given("A pipeline")
+            val vpp = new Vpp
+            val pipeline = new VppPipeline(4)
+
+            When("Adding and deleting an entry, and adding another entry")
+            pipeline enqueue vpp.command("a", isAdd = true)
+            pipeline enqueue vpp.command("a", isAdd = false)
+            pipeline enqueue vpp.command("b", isAdd = true)
+
+            Then("The delete waits for the add")
+            vpp.names shouldBe Seq("add a", "add b")
+
+            When("The add completes")
+            vpp.complete(0)
+
+            Then("The delete executes")
+            vpp.names shouldBe Seq("add a", "add b", "del a")
+        }
+
+        scenario("A delete followed by an add for the same key") {
+            Given("A pipeline with one command in flight")
+            val vpp = new Vpp
+            val pipeline = new VppPipeline(1)
+            pipeline enqueue vpp.command("x", isAdd = true)
+
+            When("Deleting and adding an entry")
+            pipeline enqueue vpp.command("a", isAdd = false)
+            pipeline enqueue vpp.command("a", isAdd = true)
+
+            And("Completing the commands")
+            vpp.complete(0)
+            vpp.complete(1)
+            vpp.complete(2)
+
+            Then("Both commands execute")
+            vpp.names shouldBe Seq("add x", "del a", "add a")
+            pipeline.flush().value.get.get shouldBe BatchResult(3, 0, Nil)
+        }
+    }
+
+    feature("The pipeline coalesces commands") {
+        scenario("The delete of a queued add") {
+            Given("A pipeline with one command in flight")
+            val vpp = new Vpp
+            val pipeline = new VppPipeline(1)
+            pipeline enqueue vpp.command("x", isAdd = true)
+
+            When("Adding and deleting an entry")
+            pipeline enqueue vpp.command("a", isAdd = true)
+            pipeline enqueue vpp.command("a", isAdd = false)
+
+            Then("Both commands are removed")
+            pipeline.queued shouldBe 0
+
+            When("Flushing the batch")
+            val future = pipeline.flush()
+            vpp.complete(0)
+
+            Then("Only the first command executes")
+            vpp.names shouldBe Seq("add x")
+            future.value.get.get shouldBe BatchResult(1, 2, Nil)
+            pipeline.isEmpty shouldBe true
+        }
+
+        scenario("The delete of a queued add after a delete") {
+            Given("A pipeline with one command in flight")
+            val vpp = new Vpp
+            val pipeline = new VppPipeline(1)
+            pipeline enqueue vpp.command("x", isAdd = true)
+
+            When("Deleting, adding and deleting an entry")
+            pipeline enqueue vpp.command("a", isAdd = false)
+            pipeline enqueue vpp.command("a", isAdd = true)
+            pipeline enqueue vpp.command("a", isAdd = false)
+
+            And("Completing the commands")
+            vpp.complete(0)
+            vpp.complete(1)
+
+            Then("Only the first delete executes")
+            vpp.names shouldBe Seq("add x", "del a")
+            pipeline.flush().value.get.get shouldBe BatchResult(2, 2, Nil)
+        }
+
+        scenario("A command replaces a queued command of the same kind") {
+            Given("A pipeline with one command in flight")
+            val vpp = new Vpp
+            val pipeline = new VppPipeline(1)
+            pipeline enqueue vpp.command("x", isAdd = true)
+
+            When("Adding an entry twice")
+            pipeline enqueue vpp.command("a", isAdd = true)
+            pipeline enqueue vpp.command("a", isAdd = true)
+
+            And("Completing the commands")
+            vpp.complete(0)
+            vpp.complete(1)
+
+            Then("The entry is added once")
+            vpp.names shouldBe Seq("add x", "add a")
+            pipeline.flush().value.get.get shouldBe BatchResult(2, 1, Nil)
+        }
+
+        scenario("In-flight commands are not coalesced") {
+            Given("A pipeline")
+            val vpp = new Vpp
+            val pipeline = new VppPipeline(4)
+
+            When("Adding and deleting an entry")
+            pipeline enqueue vpp.command("a", isAdd = true)
+            pipeline enqueue vpp.command("a", isAdd = false)
+            vpp.complete(0)
+            vpp.complete(1)
+
+            Then("Both commands execute")
+            vpp.names shouldBe Seq("add a", "del a")
+        }
+    }
+
+    feature("The pipeline reports the batch completion") {
+        scenario("An empty batch") {
+            Given("A pipeline")
+            val pipeline = new VppPipeline(1)
+
+            Then("Flushing completes immediately")
+            pipeline.isEmpty shouldBe true
+            pipeline.flush().value.get.get shouldBe BatchResult(0, 0, Nil)
+        }
+
+        scenario("Batches complete after the previous batches") {
+            Given("A pipeline")
+            val vpp = new Vpp
+            val pipeline = new VppPipeline(4)
+
+            When("Flushing two batches")
+            pipeline enqueue vpp.command("a", isAdd = true)
+            val future1 = pipeline.flush()
+            pipeline enqueue vpp.command("b", isAdd = true)
+            pipeline.isEmpty shouldBe false
+            val future2 = pipeline.flush()
+
+            And("The second batch completes first")
+            vpp.complete(1)
+
+            Then("No batch completes")
+            future1.isCompleted shouldBe false
+            future2.isCompleted shouldBe false
+
+            When("The first batch completes")
+            vpp.complete(0)
+
+            Then("Both batches complete")
+            future1.value.get.get shouldBe BatchResult(1, 0, Nil)
+            future2.value.get.get shouldBe BatchResult(1, 0, Nil)
+            pipeline.isEmpty shouldBe true
+        }
+
+        scenario("The batch reports the failed commands") {
+            Given("A pipeline")
+            val vpp = new Vpp
+            val pipeline = new VppPipeline(4)
+            val e = new Exception()
+
+            When("Adding two commands, where one fails")
+            pipeline enqueue vpp.command("a", isAdd = true)
+            pipeline enqueue Command("b", isAdd = true) { throw e }
+            val future = pipeline.flush()
+            vpp.complete(0)
+
+            Then("The batch reports the failure")
+            future.value.get.get shouldBe BatchResult(2, 0, List(e))
+            pipeline.isEmpty shouldBe true
+        }
+    }
+}
@@ -31,6 +31,11 @@ import org.midonet.midolman.layer3.Route.NextHop
 import org.midonet.packets.{IPv4Addr, MAC}
 import org.midonet.sdn.flows.FlowTagger.FlowTag
 import org.midonet.sdn.flows.FlowTagger._
+import org.midonet.sdn.flows.FlowTaggerTest.TestTag
+
+object FlowTaggerTest {
+    case class TestTag(index: Int) extends InternedTag
+}
 
 @RunWith(classOf[JUnitRunner])
 class FlowTaggerTest extends FeatureSpecLike
@@ -57,6 +62,69 @@ class FlowTaggerTest extends FeatureSpecLike
         }
     }
 
+    feature("FlowTags are interned in the registry") {
+        scenario("Equal tags share the same identifier") {
+            val device = UUID.randomUUID()
+            val tag = new BridgeDeviceTag(device)
+            val other = new BridgeDeviceTag(device)
+
+            tag.tagId should not be FlowTagRegistry.NoTagId
+            other.tagId shouldBe tag.tagId
+            other.canonical should be theSameInstanceAs tag
+            tagForBroadcast(device).tagId should not be tag.tagId
+        }
+
+        scenario("Equal tags created by different threads share the identifier") {
+            val device = UUID.randomUUID()
+            val tag = tagForBridge(device)
+            var other: FlowTag = null
+            val thread = new Thread(new Runnable {
+                override def run(): Unit = { other = tagForBridge(device) }
+            })
+            thread.start()
+            thread.join()
+
+            other should not be theSameInstanceAs (tag)
+            other.tagId shouldBe tag.tagId
+        }
+
+        scenario("Tags that are not interned do not have an identifier") {
+            val tag = new FlowStateTag {}
+            tag.tagId shouldBe FlowTagRegistry.NoTagId
+        }
+
+        scenario("The identifiers of released tags are reused") {
+            Given("A registry with the tags of many devices")
+            val registry = new FlowTagRegistry
+            val tags = for (index <- 0 until 100)
+                yield registry.register(TestTag(index))
+            tags.map(_.registeredId).toSet shouldBe (0 until 100).toSet
+            registry.size shouldBe 100
+            registry.capacity shouldBe 100
+
+            And("Equal tags resolve to the canonical tag")
+            registry.register(TestTag(10)) should be theSameInstanceAs tags(10)
+
+            When("The tags of half of the devices are released")
+            tags.take(50).foreach(registry.release)
+
+            Then("The registry releases their identifiers")
+            registry.size shouldBe 50
+            registry.capacity shouldBe 100
+
+            And("New tags reuse the released identifiers")
+            val newTags = for (index <- 100 until 150)
+                yield registry.register(TestTag(index))
+            newTags.map(_.registeredId).toSet shouldBe (0 until 50).toSet
+            registry.size shouldBe 100
+            registry.capacity shouldBe 100
+
+            And("Other tags receive new identifiers")
+            registry.register(TestTag(150)).registeredId shouldBe 100
+            registry.capacity shouldBe 101
+        }
+    }
+
     def flowTags() = {
         val rand = new Random
         val short = rand.nextInt(Short.MaxValue).toShort
@@ -130,6 +130,8 @@ class VxGwConfig(val conf: Config) extends MinionConfig[VxlanGatewayService] {
     final val prefix = "cluster.vxgw"
 
     override def isEnabled = conf.getBoolean(s"$prefix.enabled")
+
+    def floodingProxies = conf.getInt(s"$prefix.flooding_proxies")
 }
 
 class TopologyApiConfig(val conf: Config) extends MinionConfig[TopologyApiService] {
@@ -214,5 +216,7 @@ class RecyclerConfig(val conf: Config) extends MinionConfig[Recycler] {
     override def isEnabled = conf.getBoolean(s"$prefix.enabled")
     def interval = conf.getDuration(s"$prefix.interval", TimeUnit.MINUTES) minutes
     def throttlingRate = conf.getInt(s"$prefix.throttling_rate")
+    def workerThreads = conf.getInt(s"$prefix.worker_threads")
+    def deleteBatchSize = conf.getInt(s"$prefix.delete_batch_size")
     def shutdownTimeout = conf.getDuration(s"$prefix.shutdown_interval", TimeUnit.MILLISECONDS) millis
 }
\ No newline at end of file
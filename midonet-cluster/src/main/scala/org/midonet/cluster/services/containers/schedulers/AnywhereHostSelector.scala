@@ -37,7 +37,9 @@ import org.midonet.util.functors._
   * Implements a host selector, where the hosts are selected from all available
   * hosts that exist in the topology store.
   */
-class AnywhereHostSelector(context: Context) extends HostSelector {
+class AnywhereHostSelector(context: Context,
+                           sharedTrackers: SharedHostTrackers = null)
+    extends HostSelector {
 
     private implicit val ec = ExecutionContext.fromExecutor(context.executor)
 
@@ -55,7 +57,7 @@ class AnywhereHostSelector(context: Context) extends HostSelector {
     private val hostsTracker =
         new CollectionTracker[HostTracker, HostEvent](context) {
             protected override def newMember(hostId: UUID): HostTracker = {
-                new HostTracker(hostId, context)
+                new HostTracker(hostId, context, sharedTrackers)
             }
         }
 
@@ -165,6 +165,7 @@ class ContainerScheduler(containerId: UUID, context: Context,
 
     private var currentContainer: ServiceContainer = null
     private var currentHosts: HostsEvent = Map.empty
+    private var latestHosts: HostsEvent = Map.empty
     private var hostSelector: HostSelector = null
 
     private val badHosts = new mutable.HashMap[UUID, BadHost]
@@ -213,6 +214,8 @@ class ContainerScheduler(containerId: UUID, context: Context,
     private val hostsObservable = Observable
         .switchOnNext(hostsSubject)
         .distinctUntilChanged()
+        .doOnNext(makeAction1(latestHosts = _))
+        .filter(makeFunc1(hostsChanged))
 
     private val portSubject = PublishSubject.create[Observable[Option[Port]]]
     private val portObservable = Observable
@@ -354,6 +357,22 @@ class ContainerScheduler(containerId: UUID, context: Context,
         entry._2.running && entry._2.status.getWeight > 0
     }
 
+    /** Indicates whether an update of the hosts may change the scheduling of
+      * this container. When the container is scheduled at a host that is
+      * still eligible, the scheduling does not depend on the other hosts, and
+      * the container is not re-evaluated when the other hosts report changes
+      * such as their container count.
+      */
+    private def hostsChanged(hosts: HostsEvent): Boolean = {
+        val hostId = state.hostId
+        if (!isReady || (hostId eq null) || badHosts.contains(hostId)) {
+            true
+        } else hosts.get(hostId) match {
+            case Some(host) => !isHostRunning((hostId, host))
+            case None => true
+        }
+    }
+
     /** Determines whether a host is available to start a container: the host
       * must report a non-zero quota.
       */
@@ -449,11 +468,18 @@ class ContainerScheduler(containerId: UUID, context: Context,
       * in which case it will try to use the same scheduling given that the host
       * is still eligible and the container status reports the container as
       * running.
+      *
+      * Because the host updates that do not affect the current scheduling are
+      * filtered, the method uses the latest hosts instead of the last hosts
+      * emitted to the scheduler.
       */
-    private def schedule(feedback: Feedback, port: Option[Port], hosts: HostsEvent,
+    private def schedule(feedback: Feedback, port: Option[Port],
+                         notifiedHosts: HostsEvent,
                          group: ServiceContainerGroup, container: ServiceContainer)
     : Observable[SchedulerEvent] = {
 
+        val hosts = latestHosts
+
         val events = new util.ArrayList[SchedulerEvent](6)
         var oldHostId: Option[UUID] = None
 
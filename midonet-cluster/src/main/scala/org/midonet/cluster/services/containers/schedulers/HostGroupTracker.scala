@@ -38,7 +38,8 @@ import org.midonet.util.functors.{makeAction0, makeAction1, makeFunc1, makeFunc2
   * when a member host emits an error it is removed from the group. However,
   * the tracker does not filter errors emitted by the host group observable.
   */
-class HostGroupTracker(hostGroupId: UUID, context: Context)
+class HostGroupTracker(hostGroupId: UUID, context: Context,
+                       sharedTrackers: SharedHostTrackers = null)
     extends ObjectTracker[HostGroupEvent] {
 
     private var currentHostGroup: HostGroup = null
@@ -47,7 +48,7 @@ class HostGroupTracker(hostGroupId: UUID, context: Context)
     private val hostsTracker =
         new CollectionTracker[HostTracker, HostEvent](context) {
             protected override def newMember(hostId: UUID): HostTracker = {
-                new HostTracker(hostId, context)
+                new HostTracker(hostId, context, sharedTrackers)
             }
         }
 
@@ -21,10 +21,16 @@ import org.midonet.containers.Context
 
 /**
   * Builds the correct type of [[HostSelector]] given a service container group.
+  * The host selectors are shared by all container schedulers, and they share
+  * the trackers of the host state.
   */
 class HostSelectorProvider(context: Context) {
 
-    private lazy val anywhereHostSelector = new AnywhereHostSelector(context)
+    /** The shared trackers of the container service state of the hosts. */
+    val sharedTrackers = new SharedHostTrackers(context)
+
+    private lazy val anywhereHostSelector =
+        new AnywhereHostSelector(context, sharedTrackers)
 
     /**
       * Returns a host selector for the specified service container group.
@@ -22,6 +22,8 @@ import scala.util.control.NonFatal
 
 import com.google.protobuf.TextFormat
 
+import rx.Observable
+
 import org.midonet.cluster.data.storage.{SingleValueKey, StateKey}
 import org.midonet.cluster.models.State.ContainerServiceStatus
 import org.midonet.cluster.models.Topology.Host
@@ -29,31 +31,26 @@ import org.midonet.cluster.services.MidonetBackend._
 import org.midonet.containers.{Context, ObjectTracker}
 import org.midonet.util.functors._
 
-/** Processes notifications for the container service running on the
-  * specified host. The class returns an observable, which emits
-  * notifications when the running state of the container service on
-  * the host has changed. The observable completes either when the host
-  * is deleted, or when the `complete` method is called indicating that the
-  * host is no longer part of the host group.
-  */
-class HostTracker(hostId: UUID, context: Context)
-    extends ObjectTracker[HostEvent] {
-
-    override val observable = context.stateStore
-        .keyObservable(hostId.toString, classOf[Host], hostId, ContainerKey)
-        .observeOn(context.scheduler)
-        .map[HostEvent](makeFunc1(buildEvent))
-        .distinctUntilChanged()
-        .onErrorReturn(makeFunc1(_ => HostEvent(running = false)))
-        .takeUntil(mark)
+object HostTracker {
 
-    override def isReady = ref ne null
+    /** Returns an observable that emits the [[HostEvent]] notifications for
+      * the container service running on the specified host.
+      */
+    def stateObservable(hostId: UUID, context: Context)
+    : Observable[HostEvent] = {
+        context.stateStore
+            .keyObservable(hostId.toString, classOf[Host], hostId, ContainerKey)
+            .observeOn(context.scheduler)
+            .map[HostEvent](makeFunc1(buildEvent))
+            .distinctUntilChanged()
+            .onErrorReturn(makeFunc1(_ => HostEvent(running = false)))
+    }
 
     /** Processes updates from the container service state running on the
       * current host, and return this state.
       */
     private def buildEvent(stateKey: StateKey): HostEvent = {
-        ref = stateKey match {
+        stateKey match {
             case SingleValueKey(_, Some(value), _) =>
                 try {
                     val builder = ContainerServiceStatus.newBuilder()
@@ -65,6 +62,32 @@ class HostTracker(hostId: UUID, context: Context)
                 }
             case _ => HostEvent(running = false)
         }
-        ref
     }
+
+}
+
+/** Processes notifications for the container service running on the
+  * specified host. The class returns an observable, which emits
+  * notifications when the running state of the container service on
+  * the host has changed. The observable completes either when the host
+  * is deleted, or when the `complete` method is called indicating that the
+  * host is no longer part of the host group.
+  *
+  * When the tracker is created with [[SharedHostTrackers]], it shares the
+  * subscription to the host state with all other trackers for the same host.
+  */
+class HostTracker(hostId: UUID, context: Context,
+                  sharedTrackers: SharedHostTrackers = null)
+    extends ObjectTracker[HostEvent] {
+
+    private val source =
+        if (sharedTrackers eq null) HostTracker.stateObservable(hostId, context)
+        else sharedTrackers.observable(hostId)
+
+    override val observable = source
+        .doOnNext(makeAction1(ref = _))
+        .takeUntil(mark)
+
+    override def isReady = ref ne null
+
 }
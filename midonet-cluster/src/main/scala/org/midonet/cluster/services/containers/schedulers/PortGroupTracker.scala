@@ -39,7 +39,8 @@ import org.midonet.util.functors.{makeAction0, makeAction1, makeFunc1, makeFunc3
   * group. However, the tracker does not filter errors emitted by the port
   * group observable.
   */
-class PortGroupTracker(portGroupId: UUID, context: Context)
+class PortGroupTracker(portGroupId: UUID, context: Context,
+                       sharedTrackers: SharedHostTrackers = null)
     extends ObjectTracker[PortGroupEvent] {
 
     private var currentPortGroup: PortGroup = _
@@ -56,7 +57,7 @@ class PortGroupTracker(portGroupId: UUID, context: Context)
     private val hostsTracker =
         new CollectionTracker[HostTracker, HostEvent](context) {
             protected override def newMember(hostId: UUID): HostTracker = {
-                new HostTracker(hostId, context)
+                new HostTracker(hostId, context, sharedTrackers)
             }
         }
 
@@ -94,6 +94,11 @@ class ServiceScheduler(context: Context, config: ContainersConfig)
       */
     def containerIds: Set[UUID] = containers.keySet.toSet
 
+    /** Gets the number of hosts whose container service state is watched by
+      * the host selectors.
+      */
+    def hostSubscriptions: Int = selectorProvider.sharedTrackers.size
+
     /** Handles the creation of a new container, by creating a container
       * scheduler to handle the scheduling for that container. The method
       * adds the container scheduler to the containers map, and returns
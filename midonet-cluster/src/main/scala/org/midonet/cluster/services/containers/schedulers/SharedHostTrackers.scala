@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.containers.schedulers
+
+import java.util.UUID
+
+import scala.collection.mutable
+
+import com.google.common.annotations.VisibleForTesting
+
+import rx.Observable.OnSubscribe
+import rx.observables.ConnectableObservable
+import rx.subscriptions.Subscriptions
+import rx.{Observable, Subscriber, Subscription}
+
+import org.midonet.containers.Context
+import org.midonet.util.functors.makeAction0
+
+/**
+  * Shares the container service state of every host among all the host
+  * trackers of the host selectors, such that there is a single subscription
+  * to the state of a host regardless of the number of host groups, port
+  * groups and schedulers watching the host.
+  *
+  * The state observable of a host is reference counted: the first subscriber
+  * subscribes to the state store, every subscriber receives the last state of
+  * the host, and the last subscriber to unsubscribe releases the subscription
+  * to the state store.
+  */
+class SharedHostTrackers(context: Context) {
+
+    private class Entry(hostId: UUID) {
+        val observable: ConnectableObservable[HostEvent] = HostTracker
+            .stateObservable(hostId, context)
+            .doOnTerminate(makeAction0(terminated(hostId, this)))
+            .replay(1)
+        var refs = 0
+        var connection: Subscription = null
+    }
+
+    private val entries = new mutable.HashMap[UUID, Entry]
+
+    /** Returns an observable that emits the [[HostEvent]] notifications for
+      * the specified host, sharing the subscription to the host state with
+      * all other subscribers for the same host.
+      */
+    def observable(hostId: UUID): Observable[HostEvent] = {
+        Observable.create(new OnSubscribe[HostEvent] {
+            override def call(child: Subscriber[_ >: HostEvent]): Unit = {
+                val entry = acquire(hostId)
+                child add Subscriptions.create(makeAction0(release(hostId,
+                                                                   entry)))
+                entry.observable subscribe child
+                connect(entry)
+            }
+        })
+    }
+
+    /** Returns the number of hosts with a subscription to their state. */
+    @VisibleForTesting
+    def size: Int = synchronized { entries.size }
+
+    /** Returns the number of subscribers to the state of the given host. */
+    @VisibleForTesting
+    def refs(hostId: UUID): Int = synchronized {
+        entries.get(hostId).map(_.refs).getOrElse(0)
+    }
+
+    private def acquire(hostId: UUID): Entry = synchronized {
+        val entry = entries.getOrElseUpdate(hostId, newEntry(hostId))
+        entry.refs += 1
+        entry
+    }
+
+    private def connect(entry: Entry): Unit = {
+        val connect = synchronized {
+            (entry.connection eq null) && entry.refs > 0
+        }
+        if (connect) {
+            val connection = entry.observable.connect()
+            val disconnect = synchronized {
+                if (entry.refs > 0) {
+                    entry.connection = connection
+                    false
+                } else true
+            }
+            if (disconnect) connection.unsubscribe()
+        }
+    }
+
+    private def release(hostId: UUID, entry: Entry): Unit = {
+        val connection = synchronized {
+            entry.refs -= 1
+            if (entry.refs > 0) {
+                null
+            } else {
+                if (entries.get(hostId).contains(entry)) {
+                    entries -= hostId
+                }
+                val connection = entry.connection
+                entry.connection = null
+                connection
+            }
+        }
+        if (connection ne null) {
+            context.log debug s"Releasing the container service state of " +
+                              s"host $hostId"
+            connection.unsubscribe()
+        }
+    }
+
+    private def terminated(hostId: UUID, entry: Entry): Unit = synchronized {
+        // A terminated observable cannot be shared with new subscribers.
+        if (entries.get(hostId).contains(entry)) {
+            entries -= hostId
+        }
+    }
+
+    private def newEntry(hostId: UUID): Entry = {
+        context.log debug s"Subscribing to the container service state of " +
+                          s"host $hostId"
+        new Entry(hostId)
+    }
+
+}
@@ -39,6 +39,7 @@ import org.midonet.cluster.{ClusterConfig, RecyclerLog}
 import org.midonet.minion.MinionService.TargetNode
 import org.midonet.minion.{Context, Minion, MinionService}
 import org.midonet.util.UnixClock
+import org.midonet.util.concurrent.NamedThreadFactory
 import org.midonet.util.functors.makeRunnable
 
 object Recycler {
@@ -75,6 +76,8 @@ class Recycler @Inject()(context: Context, backend: MidonetBackend,
     protected val clock = UnixClock()
 
     private val currentContext = new AtomicReference[RecyclingContext]()
+    private val marks = new RecyclingMarks
+    @volatile private var workers: ExecutorService = null
 
     private val recycleTask = makeRunnable { recycle() }
     @volatile private var taskFuture: ScheduledFuture[_] = null
@@ -93,6 +96,9 @@ class Recycler @Inject()(context: Context, backend: MidonetBackend,
     override def doStart(): Unit = {
         log info "Starting NSDB recycling service"
         if (store ne null) {
+            workers = Executors.newFixedThreadPool(
+                config.recycler.workerThreads max 1,
+                new NamedThreadFactory("recycler", isDaemon = true))
             val initialDelay = ThreadLocalRandom.current()
                                                 .nextLong(runInterval.toMinutes)
             schedule(initialDelay minutes)
@@ -123,6 +129,12 @@ class Recycler @Inject()(context: Context, backend: MidonetBackend,
             }
         }
 
+        val pool = workers
+        if (pool ne null) {
+            pool.shutdownNow()
+            workers = null
+        }
+
         notifyStopped()
     }
 
@@ -159,7 +171,10 @@ class Recycler @Inject()(context: Context, backend: MidonetBackend,
       * 2. Collects the current namespaces that were created before the start of
       *    the recycling operation.
       * 3. Deletes the orphan namespaces.
-      * 4. Deletes the orphan state for deleted objects.
+      * 4. Deletes the orphan state for deleted objects, in parallel using the
+      *    recycler worker threads.
+      * The paths that did not change since the previous recycling task are
+      * skipped, as recorded by the recycling marks.
       */
     private def recycle(): Unit = {
         // Create a new private recycling context for this recycling task. Each
@@ -167,7 +182,7 @@ class Recycler @Inject()(context: Context, backend: MidonetBackend,
         // two tasks to overlap if one does not complete before initiating the
         // next one.
         val context = new RecyclingContext(config.recycler, curator, store,
-                                           executor, clock, log,
+                                           workers, marks, clock, log,
                                            recyclingInterval)
 
         // Verify if a recycling operation is already running, in which case
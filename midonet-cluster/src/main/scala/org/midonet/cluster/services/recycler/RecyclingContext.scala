@@ -17,9 +17,10 @@
 package org.midonet.cluster.services.recycler
 
 import java.util
-import java.util.concurrent.{CountDownLatch, ScheduledExecutorService, TimeUnit}
+import java.util.concurrent.{Callable, CountDownLatch, ExecutionException, ExecutorService, Future, TimeUnit}
 
 import scala.collection.JavaConverters._
+import scala.collection.mutable.ArrayBuffer
 import scala.concurrent.duration._
 import scala.util.control.NonFatal
 
@@ -27,24 +28,49 @@ import com.google.common.util.concurrent.RateLimiter
 import com.typesafe.scalalogging.Logger
 
 import org.apache.curator.framework.CuratorFramework
-import org.apache.curator.utils.{PathUtils, ZKPaths}
+import org.apache.curator.utils.ZKPaths
 import org.apache.zookeeper.KeeperException.NoNodeException
-import org.apache.zookeeper.ZooKeeper
 import org.apache.zookeeper.data.Stat
+import org.apache.zookeeper.{Op, ZooKeeper}
 
 import org.midonet.cluster.RecyclerConfig
 import org.midonet.cluster.data.storage.ZookeeperObjectMapper
 import org.midonet.cluster.models.Topology.{Host, Network, Router}
 import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.services.recycler.RecyclingContext._
 import org.midonet.util.UnixClock
 
 object RecyclingContext {
 
-    private val ClusterNamespaceId = Seq(MidonetBackend.ClusterNamespaceId.toString)
-    private val StepCount = 12
+    private val ClusterNamespaceId = Set(MidonetBackend.ClusterNamespaceId.toString)
+    private val StepCount = 8
     private val LegacyClasses = Map(classOf[Network] -> "/bridges",
                                     classOf[Router] -> "/routers")
 
+    /**
+      * The kind of NSDB entries recycled by a recycling task.
+      */
+    private object Kind extends Enumeration {
+        val Namespaces, Objects, Tables, Legacy = Value
+    }
+
+    /**
+      * The result of a recycling task. Every task uses its own instance, and
+      * the results are added together by the thread running the recycling
+      * operation, such that the counters require no synchronization.
+      */
+    private class Counts(val kind: Kind.Value) {
+        var total = 0
+        var deleted = 0
+        var skipped = 0
+    }
+
+    /**
+      * The delete operations for an orphan entry and all its descendants,
+      * with the descendants first.
+      */
+    private class Subtree(val path: String, val ops: util.List[Op])
+
 }
 
 /**
@@ -52,15 +78,32 @@ object RecyclingContext {
   * class contains the state variable for a recycling operation, including
   * the start and finish timestamps, and the NSDB entries that have been
   * recycled (namespaces, objects, state paths).
+  *
+  * The orphan entries are recycled in parallel using the given executor,
+  * with a separate task for every NSDB path containing state for a class
+  * of objects. Each task skips the paths whose children did not change
+  * since the previous run, as recorded by the [[RecyclingMarks]], and deletes
+  * the orphan entries using ZooKeeper multi-operations of at most the
+  * configured batch size. An entry with more nodes than the batch size is
+  * deleted alone, with several multi-operations.
   */
 class RecyclingContext(val config: RecyclerConfig,
                        val curator: CuratorFramework,
                        val store: ZookeeperObjectMapper,
-                       val executor: ScheduledExecutorService,
+                       val executor: ExecutorService,
+                       val marks: RecyclingMarks,
                        val clock: UnixClock,
                        val log: Logger,
                        val interval: Duration) {
 
+    /**
+      * The model objects for a class, where the identifiers of the objects
+      * are loaded on demand, only if a recycling task needs them.
+      */
+    private class ModelClass(val path: String, val pzxid: Long) {
+        lazy val ids: Set[String] = getChildren(path).asScala.toSet
+    }
+
     private val start = clock.time
     private var version = 0
     private var timestamp = 0L
@@ -68,14 +111,10 @@ class RecyclingContext(val config: RecyclerConfig,
     private val state = new CountDownLatch(1)
 
     private var hosts: Set[String] = null
-    private var namespaces: Set[String] = null
-
-    private val modelObjects = new util.HashMap[Class[_], Set[String]]()
-    private val stateObjects = new util.HashMap[(String, Class[_]), Set[String]]()
-    private val tableObjects = new util.HashMap[Class[_], Set[String]]()
-    private val legacyObjects = new util.HashMap[Class[_], Set[String]]()
+    private val models = new util.HashMap[Class[_], ModelClass]()
 
     private val limiter = RateLimiter.create(config.throttlingRate)
+    private val batchSize = config.deleteBatchSize max 1
 
     private var stepIndex = 0
 
@@ -128,15 +167,10 @@ class RecyclingContext(val config: RecyclerConfig,
         }
         try {
             validate()
+            collectModels()
             collectHosts()
-            collectNamespaces()
             deleteNamespaces()
-            collectObjects()
             deleteObjects()
-            collectTables()
-            deleteTables()
-            collectLegacyTables()
-            deleteLegacyTables()
         } finally {
             state.countDown()
         }
@@ -178,30 +212,37 @@ class RecyclingContext(val config: RecyclerConfig,
     }
 
     /**
-      * Collects the current hosts from the NSDB, and updates the list of hosts
-      * in the current context. The hosts set is used to determine the obsolete
-      * namespaces that should be deleted.
+      * Collects the last child change of the model path for every class. The
+      * objects of a class are only loaded if some of its state paths have
+      * changed since the previous recycling run.
       */
     @throws[RecyclingException]
-    private def collectHosts(): Unit = {
+    private def collectModels(): Unit = {
 
-        log debug s"Collecting current hosts ${step()}"
-        hosts = getChildren(store.classPath(classOf[Host])).asScala.toSet
+        log debug s"Collecting model classes ${step()}"
 
-        log debug s"Collected ${hosts.size} hosts"
+        for (clazz <- store.classes) {
+            val path = store.classPath(clazz)
+            val stat = exists(path)
+            if (stat eq null) {
+                throw new RecyclingStorageException(new NoNodeException(path))
+            }
+            models.put(clazz, new ModelClass(path, stat.getPzxid))
+        }
     }
 
     /**
-      * Collects the current state namespaces from the NSDB, and updates the
-      * list of namespaces from the current context.
+      * Collects the current hosts from the NSDB, and updates the list of hosts
+      * in the current context. The hosts set is used to determine the
+      * state paths of every object.
       */
     @throws[RecyclingException]
-    private def collectNamespaces(): Unit = {
+    private def collectHosts(): Unit = {
 
-        log debug s"Collecting namespaces ${step()}"
-        namespaces = getChildren(store.statePath(version)).asScala.toSet
+        log debug s"Collecting current hosts ${step()}"
+        hosts = models.get(classOf[Host]).ids
 
-        log debug s"Collected ${namespaces.size} namespaces"
+        log debug s"Collected ${hosts.size} hosts"
     }
 
     /**
@@ -217,249 +258,263 @@ class RecyclingContext(val config: RecyclerConfig,
         log debug s"Deleting orphan namespaces ${step()}"
 
         // Never delete the cluster namespace.
-        val orphan = namespaces -- hosts -- RecyclingContext.ClusterNamespaceId
-
-        totalNamespaces = namespaces.size
-
-        log debug s"Found ${orphan.size} orphan namespaces"
-
-        val stat = new Stat()
-        for (namespace <- orphan) {
-
-            try {
-                log debug s"Verifying namespace $namespace"
-                val path = store.stateNamespacePath(namespace, version)
-                getData(path, stat)
-
-                if (stat.getCtime < timestamp) {
-                    log debug s"Deleting namespace $namespace verified with " +
-                              s"timestamp ${stat.getCtime}"
-                    delete(path, stat.getVersion)
-                    deletedNamespaces += 1
-                } else {
-                    log debug s"Skipping namespace $namespace with timestamp " +
-                              s"${stat.getCtime} newer than $timestamp"
-                    skippedNamespaces += 1
-                }
-            } catch {
-                case NonFatal(e) =>
-                    log.warn(s"Failed to delete namespace $namespace", e)
-                    skippedNamespaces += 1
-            }
-        }
+        val counts = recyclePath(Kind.Namespaces, store.statePath(version),
+                                 models.get(classOf[Host]),
+                                 ClusterNamespaceId, optional = false)
+        add(counts)
     }
 
     /**
-      * Collects all objects and their corresponding state paths from the NSDB,
-      * and updates their lists from the current context.
+      * Deletes in parallel the orphan object state, object tables and legacy
+      * tables by comparing the model objects with the corresponding paths,
+      * and deleting those that do not correspond to an existing object. To
+      * delete an entry, it must have been created before the beginning of
+      * the recycling operation.
       */
     @throws[RecyclingException]
-    private def collectObjects(): Unit = {
-
-        log debug s"Collecting objects ${step()}"
+    private def deleteObjects(): Unit = {
 
-        for (clazz <- store.classes) {
-            val objects = getChildren(store.classPath(clazz)).asScala.toSet
-            modelObjects.put(clazz, objects)
+        val tasks = new ArrayBuffer[Callable[Counts]]
 
-            log debug s"Collected ${objects.size} objects for class " +
-                      s"${clazz.getSimpleName}"
+        log debug s"Deleting orphan object state for ${hosts.size} hosts ${step()}"
+        for (host <- hosts; clazz <- store.classes) {
+            // State paths are created on demand, they may not exist.
+            tasks += task(Kind.Objects,
+                          store.stateClassPath(host, clazz, version),
+                          models.get(clazz), optional = true)
         }
 
-        log debug s"Collecting object state ${step()}"
-
-        for (host <- hosts; clazz <- store.classes) {
-            val path = store.stateClassPath(host, clazz, version)
+        log debug s"Deleting orphan object tables ${step()}"
+        for (clazz <- store.classes) {
+            tasks += task(Kind.Tables, store.tablesClassPath(clazz, version),
+                          models.get(clazz), optional = false)
+        }
 
-            // State paths are created on demand, we must check whether they
-            // exist.
-            val objects = try zk.getChildren(path, null).asScala.toSet
-                          catch { case _: NoNodeException => Set.empty[String] }
-            stateObjects.put((host, clazz), objects)
+        log debug s"Deleting orphan object legacy tables ${step()}"
+        for ((clazz, path) <- LegacyClasses) {
+            tasks += task(Kind.Legacy, s"${store.rootPath}$path",
+                          models.get(clazz), optional = true)
+        }
 
-            totalObjects += objects.size
+        val futures = tasks.map(executor.submit(_))
+        try {
+            for (future <- futures) {
+                add(await(future))
+            }
+        } finally {
+            futures.foreach(_.cancel(true))
+        }
+    }
 
-            log debug s"Collected state for ${objects.size} objects for host " +
-                      s"$host class ${clazz.getSimpleName}"
+    private def task(kind: Kind.Value, path: String, model: ModelClass,
+                     optional: Boolean): Callable[Counts] = {
+        new Callable[Counts] {
+            override def call(): Counts = {
+                recyclePath(kind, path, model, Set.empty, optional)
+            }
         }
     }
 
     /**
-      * Deletes the orphan objects state by comparing the collected objects
-      * and state paths, and deleting those that do not correspond to an
-      * existing object. To delete an object state, it must have been created
-      * before the beginning of the recycling operation.
+      * Deletes the orphan children of the given path, which are all children
+      * that do not correspond to an object of the given model and that
+      * are not excluded. If the path and the model have not changed since
+      * the previous recycling run, the method returns without loading the
+      * children. Otherwise, when all orphans are deleted and there were no
+      * concurrent changes to the path, the path is marked as clean for the
+      * next run.
       */
     @throws[RecyclingException]
-    private def deleteObjects(): Unit = {
+    private def recyclePath(kind: Kind.Value, path: String, model: ModelClass,
+                            exclude: Set[String], optional: Boolean): Counts = {
+        val counts = new Counts(kind)
+
+        val stat = exists(path)
+        if (stat eq null) {
+            if (optional) return counts
+            throw new RecyclingStorageException(new NoNodeException(path))
+        }
 
-        log debug s"Deleting orphan object state for ${hosts.size} hosts ${step()}"
+        if (marks.isClean(path, stat.getPzxid, model.pzxid)) {
+            log debug s"Skipping unchanged path $path"
+            counts.total = stat.getNumChildren
+            return counts
+        }
 
-        val stat = new Stat()
-        for (entry <- stateObjects.entrySet().asScala;
-             id <- entry.getValue
-             if !modelObjects.get(entry.getKey._2).contains(id)) {
+        val children = getChildren(path, stat).asScala
+        val orphans = children.filterNot(id => exclude.contains(id) ||
+                                               model.ids.contains(id))
+        counts.total = children.size
 
-            val host = entry.getKey._1
-            val clazz = entry.getKey._2
+        log debug s"Found ${orphans.size} orphan entries at $path"
 
+        val batch = new ArrayBuffer[Subtree]
+        var batchOps = 0
+        val entryStat = new Stat
+        for (id <- orphans) {
+            val entryPath = ZKPaths.makePath(path, id)
             try {
-                log debug s"Verifying object ${clazz.getSimpleName}:$id " +
-                          s"at host $host"
-
-                val path = store.stateObjectPath(host, clazz, id, version)
-                getData(path, stat)
-
-                if (stat.getCtime < timestamp) {
-                    log debug "Deleting state for object with timestamp " +
-                              s"${stat.getCtime}"
-                    delete(path, stat.getVersion)
-                    deletedObjects += 1
+                getData(entryPath, entryStat)
+                val ops = new util.ArrayList[Op]
+                if (entryStat.getCtime < timestamp &&
+                    collectDeletes(entryPath, entryStat.getVersion, ops)) {
+                    if (ops.size > batchSize) {
+                        deleteLarge(new Subtree(entryPath, ops), counts)
+                    } else {
+                        if (batchOps > 0 && batchOps + ops.size > batchSize) {
+                            delete(batch, counts)
+                            batch.clear()
+                            batchOps = 0
+                        }
+                        batch += new Subtree(entryPath, ops)
+                        batchOps += ops.size
+                    }
                 } else {
-                    log debug "Skipping state for object with timestamp " +
-                              s"${stat.getCtime}"
-                    skippedObjects += 1
+                    log debug s"Skipping $entryPath with timestamp " +
+                              s"${entryStat.getCtime} or children newer " +
+                              s"than $timestamp"
+                    counts.skipped += 1
                 }
             } catch {
+                case e: RecyclingCanceledException => throw e
                 case NonFatal(e) =>
-                    log.warn("Failed to delete state for object " +
-                             s"${clazz.getSimpleName}:$id host $host", e)
-                    skippedObjects += 1
+                    log.warn(s"Failed to delete $entryPath", e)
+                    counts.skipped += 1
             }
         }
+        if (batch.nonEmpty) {
+            delete(batch, counts)
+        }
+
+        // Mark the path only if it has no more orphans, and there were no
+        // other changes to its children than the ones from this task.
+        val statAfter = if (counts.skipped == 0) exists(path) else null
+        if ((statAfter ne null) &&
+            statAfter.getCversion == stat.getCversion + counts.deleted) {
+            marks.mark(path, statAfter.getPzxid, model.pzxid)
+        } else {
+            marks.clear(path)
+        }
+
+        counts
     }
 
     /**
-      * Collects all state tables for current objects from NSDB.
+      * Adds to the given list the operations to delete the given path and
+      * all its descendants, with the descendants first. The method returns
+      * `false` if any of the descendants were created after the beginning
+      * of the recycling operation.
       */
-    @throws[RecyclingException]
-    private def collectTables(): Unit = {
-
-        log debug s"Collecting tables ${step()}"
-
-        for (clazz <- store.classes) {
-            val objects =
-                getChildren(store.tablesClassPath(clazz, version)).asScala.toSet
-            tableObjects.put(clazz, objects)
-            totalTables += objects.size
-
-            log debug s"Collected tables for ${objects.size} objects for " +
-                      s"class ${clazz.getSimpleName}"
+    @throws[Exception]
+    private def collectDeletes(path: String, version: Int,
+                               ops: util.List[Op]): Boolean = {
+        for (child <- zk.getChildren(path, null).asScala) {
+            val childPath = ZKPaths.makePath(path, child)
+            val stat = zk.exists(childPath, null)
+            if (stat ne null) {
+                if (stat.getCtime >= timestamp ||
+                    !collectDeletes(childPath, stat.getVersion, ops)) {
+                    return false
+                }
+            }
         }
+        ops.add(Op.delete(path, version))
+        true
     }
 
     /**
-      * Deletes the orphan state table paths by comparing the collected objects
-      * and table paths, and deleting those that do not correspond to an
-      * existing object. To delete an object table set, it must have been
-      * created before the beginning of the recycling operation.
+      * Deletes a batch of orphan entries using a single ZooKeeper
+      * multi-operation. If the operation fails, because an entry was
+      * modified concurrently, the method retries deleting every entry
+      * separately.
       */
     @throws[RecyclingException]
-    private def deleteTables(): Unit = {
-
-        log debug s"Deleting orphan object tables ${step()}"
-
-        val stat = new Stat()
-        for (clazz <- store.classes;
-             id <- tableObjects.get(clazz)
-             if !modelObjects.get(clazz).contains(id)) {
-
-            try {
-                log debug s"Verifying tables for object ${clazz.getSimpleName}" +
-                          s":$id"
-
-                val path = store.tablesObjectPath(clazz, id, version)
-                getData(path, stat)
-
-                if (stat.getCtime < timestamp) {
-                    log debug "Deleting tables for object with timestamp " +
-                              s"${stat.getCtime}"
-                    delete(path, stat.getVersion)
-                    deletedTables += 1
-                } else {
-                    log debug "Skipping tables for object with timestamp " +
-                              s"${stat.getCtime}"
-                    skippedTables += 1
+    private def delete(batch: Seq[Subtree], counts: Counts): Unit = {
+        val ops = new util.ArrayList[Op]
+        for (subtree <- batch) {
+            ops.addAll(subtree.ops)
+        }
+        throttle(ops.size)
+        try {
+            zk.multi(ops)
+            counts.deleted += batch.size
+        } catch {
+            case NonFatal(e) if batch.size > 1 =>
+                log debug s"Failed to delete ${batch.size} entries in a " +
+                          s"single operation, deleting entries separately: " +
+                          s"${e.getMessage}"
+                for (subtree <- batch) {
+                    delete(Seq(subtree), counts)
                 }
-            } catch {
-                case NonFatal(e) =>
-                    log.warn("Failed to delete tables for object " +
-                             s"${clazz.getSimpleName}:$id", e)
-                    skippedTables += 1
-            }
+            case NonFatal(e) =>
+                log.warn(s"Failed to delete ${batch.head.path}", e)
+                counts.skipped += 1
         }
     }
 
     /**
-      * Collects all state tables at the legacy paths from NSDB. The legacy
-      * paths are the paths created with MidoNet versions previous to MidoNet
-      * 5.2 and generally are: [root]/bridges or [root]/routers.
+      * Deletes an orphan entry with more nodes than the batch size, using
+      * multi-operations of at most the batch size. Because the descendants
+      * precede their ancestors, every operation only deletes nodes whose
+      * children were deleted by the previous operations. If an operation
+      * fails, the entry is skipped and its remaining nodes are deleted by a
+      * later recycling run.
       */
     @throws[RecyclingException]
-    private def collectLegacyTables(): Unit = {
-
-        log debug s"Collecting legacy tables for bridges ${step()}"
-
-        for ((clazz, path) <- RecyclingContext.LegacyClasses) {
-            val objectsPath = s"${store.rootPath}$path"
-
-            if (zk.exists(objectsPath, null) ne null) {
-                val objects = getChildren(objectsPath).asScala.toSet
-                legacyObjects.put(clazz, objects)
-                totalLegacy += objects.size
-
-                log debug s"Collected legacy tables for ${objects.size} " +
-                          s"objects for class ${clazz.getSimpleName}"
-            } else {
-                log debug s"Skipping legacy tables for class ${clazz.getSimpleName}"
-                legacyObjects.put(clazz, Set.empty)
+    private def deleteLarge(subtree: Subtree, counts: Counts): Unit = {
+        val ops = subtree.ops
+        var index = 0
+        while (index < ops.size) {
+            val chunk = ops.subList(index, Math.min(index + batchSize, ops.size))
+            throttle(chunk.size)
+            try zk.multi(chunk)
+            catch {
+                case NonFatal(e) =>
+                    log.warn(s"Failed to delete ${subtree.path}", e)
+                    counts.skipped += 1
+                    return
             }
+            index += chunk.size
         }
+        counts.deleted += 1
     }
 
     /**
-      * Deletes the orphan legacy state table paths by comparing the collected
-      * objects and legacy state paths, and deleting those that do not
-      * correspond to an existing object. To delete a legacy path, it must have
-      * been created before the beginning of the recycling operation.
+      * Waits for the result of a recycling task.
       */
     @throws[RecyclingException]
-    private def deleteLegacyTables(): Unit = {
-
-        log debug s"Deleting orphan object legacy tables ${step()}"
-
-        val stat = new Stat()
-        for (clazz <- RecyclingContext.LegacyClasses.keys;
-             id <- legacyObjects.get(clazz)
-             if !modelObjects.get(clazz).contains(id)) {
-
-            try {
-                log debug s"Verifying legacy tables for object " +
-                          s"${clazz.getSimpleName}:$id"
-
-                val path =
-                    s"${store.rootPath}${RecyclingContext.LegacyClasses(clazz)}/$id"
-                getData(path, stat)
-
-                if (stat.getCtime < timestamp) {
-                    log debug "Deleting legacy tables for object with timestamp " +
-                              s"${stat.getCtime}"
-                    delete(path, stat.getVersion)
-                    deletedLegacy += 1
-                } else {
-                    log debug "Skipping legacy tables for object with timestamp " +
-                              s"${stat.getCtime}"
-                    skippedLegacy += 1
-                }
-            } catch {
-                case NonFatal(e) =>
-                    log.warn("Failed to delete legacy tables for object " +
-                             s"${clazz.getSimpleName}:$id", e)
-                    skippedLegacy += 1
+    private def await(future: Future[Counts]): Counts = {
+        try future.get()
+        catch {
+            case e: ExecutionException => e.getCause match {
+                case re: RecyclingException => throw re
+                case cause => throw new RecyclingStorageException(cause)
             }
+            case e: InterruptedException =>
+                Thread.currentThread().interrupt()
+                throw new RecyclingCanceledException
         }
     }
 
+    private def add(counts: Counts): Unit = counts.kind match {
+        case Kind.Namespaces =>
+            totalNamespaces += counts.total
+            deletedNamespaces += counts.deleted
+            skippedNamespaces += counts.skipped
+        case Kind.Objects =>
+            totalObjects += counts.total
+            deletedObjects += counts.deleted
+            skippedObjects += counts.skipped
+        case Kind.Tables =>
+            totalTables += counts.total
+            deletedTables += counts.deleted
+            skippedTables += counts.skipped
+        case Kind.Legacy =>
+            totalLegacy += counts.total
+            deletedLegacy += counts.deleted
+            skippedLegacy += counts.skipped
+    }
+
     /**
       * Verifies whether the current recycling task was canceled.
       */
@@ -472,80 +527,53 @@ class RecyclingContext(val config: RecyclerConfig,
     }
 
     /**
-      * Throttles an NSDB read or write operation and verifies before and after
-      * whether the recycling task was canceled.
+      * Throttles one or more NSDB read or write operations and verifies
+      * before and after whether the recycling task was canceled.
       */
     @throws[RecyclingException]
-    private def throttle(): Unit = {
+    private def throttle(permits: Int = 1): Unit = {
         verifyCanceled()
-        limiter.acquire()
+        limiter.acquire(permits)
         verifyCanceled()
     }
 
     @throws[RecyclingException]
-    private def getData(path: String, stat: Stat): Array[Byte] = {
+    private def exists(path: String): Stat = {
         throttle()
-        try zk.getData(path, null, stat)
+        try zk.exists(path, null)
         catch {
             case NonFatal(e) => throw new RecyclingStorageException(e)
         }
     }
 
     @throws[RecyclingException]
-    private def setNode(path: String, data: Array[Byte], version: Int): Stat = {
+    private def getData(path: String, stat: Stat): Array[Byte] = {
         throttle()
-        try zk.setData(path, data, version)
+        try zk.getData(path, null, stat)
         catch {
             case NonFatal(e) => throw new RecyclingStorageException(e)
         }
     }
 
     @throws[RecyclingException]
-    private def getChildren(path: String): util.List[String] = {
+    private def setNode(path: String, data: Array[Byte], version: Int): Stat = {
         throttle()
-        try zk.getChildren(path, null)
+        try zk.setData(path, data, version)
         catch {
             case NonFatal(e) => throw new RecyclingStorageException(e)
         }
     }
 
     @throws[RecyclingException]
-    private def delete(path: String, version: Int): Unit = {
+    private def getChildren(path: String, stat: Stat = null)
+    : util.List[String] = {
         throttle()
-        try {
-            deleteWithChildren(path, version)
-        } catch {
+        try zk.getChildren(path, null, stat)
+        catch {
             case NonFatal(e) => throw new RecyclingStorageException(e)
         }
     }
 
-    @throws[Exception]
-    private def deleteWithChildren(path: String, version: Int): Boolean = {
-        PathUtils.validatePath(path)
-
-        val children = zk.getChildren(path, null).asScala
-
-        val stat = new Stat
-        val pathsWithVersion = for (child <- children) yield {
-            val childPath = ZKPaths.makePath(path, child)
-            zk.getData(childPath, null, stat)
-            if (stat.getCtime >= timestamp) {
-                return false
-            }
-            (childPath, stat.getVersion)
-        }
-
-        var delete = true
-        for ((childPath, childVersion) <- pathsWithVersion) {
-            delete &= deleteWithChildren(childPath, childVersion)
-        }
-
-        if (delete) {
-            zk.delete(path, version)
-        }
-        delete
-    }
-
     /**
       * Returns the underlying [[ZooKeeper]] client.
       */
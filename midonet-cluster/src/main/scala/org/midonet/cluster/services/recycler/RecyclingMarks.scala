@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.recycler
+
+import java.util.concurrent.ConcurrentHashMap
+
+import org.midonet.cluster.services.recycler.RecyclingMarks.Mark
+
+object RecyclingMarks {
+
+    private case class Mark(pzxid: Long, modelPzxid: Long)
+
+}
+
+/**
+  * Tracks, between recycling runs, the NSDB paths that were left without
+  * orphan entries at the end of a run. For every such path, the marks store
+  * the transaction identifier of the last change to the children of the
+  * path (pzxid) and the same identifier for the model path that determines
+  * which of its children are orphans.
+  *
+  * Since ZooKeeper updates the pzxid of a node for every child that is
+  * created or deleted, a path whose pzxid and whose model pzxid are both
+  * unchanged since it was marked cannot contain new orphans, and the next
+  * recycling run does not need to scan its children. This makes every run
+  * proportional to the paths that changed since the previous run, rather
+  * than to the size of the NSDB.
+  */
+class RecyclingMarks {
+
+    private val marks = new ConcurrentHashMap[String, Mark]()
+
+    /**
+      * Indicates whether the given path has not changed since the last time
+      * it was marked.
+      */
+    def isClean(path: String, pzxid: Long, modelPzxid: Long): Boolean = {
+        marks.get(path) == Mark(pzxid, modelPzxid)
+    }
+
+    /**
+      * Marks the given path as having no orphan children at the given pzxid
+      * and model pzxid.
+      */
+    def mark(path: String, pzxid: Long, modelPzxid: Long): Unit = {
+        marks.put(path, Mark(pzxid, modelPzxid))
+    }
+
+    /**
+      * Removes the mark for the given path, such that the next recycling
+      * run scans its children.
+      */
+    def clear(path: String): Unit = {
+        marks.remove(path)
+    }
+
+    /**
+      * Removes all marks.
+      */
+    def clear(): Unit = {
+        marks.clear()
+    }
+
+    /**
+      * @return The number of marked paths.
+      */
+    def size: Int = marks.size()
+
+}
@@ -20,51 +20,49 @@ import java.util
 import java.util.UUID
 
 import scala.collection.JavaConversions._
-import scala.util.Random
 
 import org.midonet.cluster.models.Topology.Host
-import org.midonet.cluster.services.vxgw.FloodingProxyHerald.FloodingProxy
+import org.midonet.cluster.services.vxgw.FloodingProxyHerald.{FloodingProxies, FloodingProxy, rendezvousScore}
 import org.midonet.cluster.util.UUIDUtil.fromProto
 import org.midonet.packets.IPv4Addr
 
-/** This class encapsulates the algorithm to generate a Flooding Proxy for a
-  * given tunnel zone.
+/** This class encapsulates the algorithm to generate the Flooding Proxies for
+  * a given tunnel zone.
   */
 object FloodingProxyCalculator {
 
-    private val random = new Random
+    /**
+     * Choses the flooding proxy from the given set of candidates.  This is
+     * the primary flooding proxy of [[calculate(tzId, candidates, maxProxies)]]
+     * with a single proxy.
+     */
+    def calculate(tzId: UUID, candidates: util.Map[Host, IPv4Addr])
+    : Option[FloodingProxy] = {
+        calculate(tzId, candidates, maxProxies = 1).primary
+    }
 
     /**
-     * Choses the flooding proxy from the given set of candidates based on a
-     * pseudo deterministic algorithm where hosts's chances for being elected
-     * are higher the higher their flooding proxy weight is.
+     * Choses up to `maxProxies` flooding proxies from the given set of
+     * candidates, ranked by a rendezvous hash of the tunnel zone identifier
+     * weighted by the flooding proxy weight of the hosts, such that hosts's
+     * chances for being elected are higher the higher their weight is.  The
+     * election is deterministic for a given set of candidates, and removing a
+     * candidate does not change the rank of the others, so that the remaining
+     * flooding proxies are kept when one of them fails.
      *
      * Note that hosts are only eligible to act as flooding proxy if their
      * weight is > 0.
      */
-    def calculate(tzId: UUID, candidates: util.Map[Host, IPv4Addr])
-    : Option[FloodingProxy] = {
+    def calculate(tzId: UUID, candidates: util.Map[Host, IPv4Addr],
+                  maxProxies: Int): FloodingProxies = {
         val eligible = candidates.keySet.filter { _.getFloodingProxyWeight > 0 }
-        if (eligible.isEmpty) {
-            return None
-        }
-        // Sort the candidate proxies: provides a deterministic
-        // behavior for unit testing (not necessary in practice).
-        val sorted = eligible.toList.sortWith { (a, b) =>
-            a.getFloodingProxyWeight > b.getFloodingProxyWeight
-        }
-        val sumWeight = sorted.foldLeft(0)((seed, h) =>
-                                               seed + h.getFloodingProxyWeight)
-        val randomWeight = random.nextInt(sumWeight)
-        var index = 0
-        var sum = 0
-        var chosen: Host = null
-        while (index < sorted.length && sum <= randomWeight) {
-            chosen = sorted(index)
-            sum += chosen.getFloodingProxyWeight
-            index = index + 1
-        }
-        Some(FloodingProxy(tzId, chosen.getId, candidates.get(chosen)))
+        val chosen = eligible.toIndexedSeq.map { host =>
+            val hostId = fromProto(host.getId)
+            val weight = host.getFloodingProxyWeight
+            (rendezvousScore(tzId, hostId, weight),
+             FloodingProxy(tzId, hostId, candidates.get(host), weight))
+        }.sortBy(-_._1).take(Math.max(maxProxies, 1)).map(_._2)
+        FloodingProxies(tzId, chosen)
     }
 
 }
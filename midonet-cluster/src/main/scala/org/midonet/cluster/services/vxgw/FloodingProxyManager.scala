@@ -36,7 +36,7 @@ import org.midonet.cluster.data.storage.{NotFoundException, StateKey}
 import org.midonet.cluster.models.Topology.{Host, TunnelZone}
 import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.services.MidonetBackend._
-import org.midonet.cluster.services.vxgw.FloodingProxyHerald.FloodingProxy
+import org.midonet.cluster.services.vxgw.FloodingProxyHerald.FloodingProxies
 import org.midonet.cluster.services.vxgw.FloodingProxyManager.{HostFpState, MaxFpRetries}
 import org.midonet.cluster.util.UUIDUtil.fromProto
 import org.midonet.cluster.util.logging.ProtoTextPrettifier.makeReadable
@@ -85,11 +85,11 @@ object FloodingProxyManager {
   *
   * The manager exposes two methods, start and stop, that allow controlling
   * when the flooding proxy election process is active.  Invoking start will
-  * start watching all VTEP tunnel zones and choosing the right FP out of its
-  * members, based on their flooding proxy weight.  Invoking stop will halt
-  * the process and render this manager unusable.
+  * start watching all VTEP tunnel zones and choosing up to `maxProxies` FPs
+  * out of its members, based on their flooding proxy weight.  Invoking stop
+  * will halt the process and render this manager unusable.
   */
-class FloodingProxyManager(backend: MidonetBackend) {
+class FloodingProxyManager(backend: MidonetBackend, maxProxies: Int = 1) {
 
     private val log = LoggerFactory.getLogger(VxgwLog)
 
@@ -208,8 +208,8 @@ class FloodingProxyManager(backend: MidonetBackend) {
             log.debug(s"Stop tracking host $hostId, no longer in zone $tzId")
             val hostFpState = trackedHosts.remove(hostId)
             hostFpState.sub.unsubscribe()
-            herald.lookup(tzId) foreach { fp =>
-                if (fp.hostId == hostId) {
+            herald.lookupAll(tzId) foreach { fps =>
+                if (fps.proxies.exists(_.hostId == hostId)) {
                     log.debug("Host was current flooding proxy, recalculate")
                     cacheAndPublishFloodingProxy(tzId)
                 }
@@ -243,38 +243,40 @@ class FloodingProxyManager(backend: MidonetBackend) {
         subscriptions.add(sub)
     }
 
-    /** Trigger the recalculation of a Flooding Proxy for the given tunnel zone,
-      * then cache the result and publish the change in the flooding proxy
-      * observable
+    /** Trigger the recalculation of the Flooding Proxies for the given tunnel
+      * zone, then cache the result and publish the change in the flooding
+      * proxy observable
       */
     private def cacheAndPublishFloodingProxy(tzId: UUID,
                                              retries: Int = MaxFpRetries)
     : Unit = recalculateFpFor(tzId).onComplete {
         case Success(null) =>
-            _herald.announce(FloodingProxy(tzId, null, null), _ => {})
-        case Success(fp) =>
-            log.debug("Announcing flooding proxy: {}", fp)
-            _herald.announce(fp, t => {
+            _herald.announce(FloodingProxies(tzId, IndexedSeq.empty), _ => {})
+        case Success(fps) =>
+            log.debug("Announcing flooding proxies: {}", fps)
+            _herald.announce(fps, t => {
                 cacheAndPublishFloodingProxy(tzId, retries - 1)
             })
         case Failure(t) => log.warn("Error calculating flooding proxy", t)
     }
 
-    /** Returns a Future with the new flooding proxy for the given tunnel
+    /** Returns a Future with the new flooding proxies for the given tunnel
       * zone.  The future is always successful, returning a null if there any
-      * errors that prevent the FP from being calculated.
+      * errors that prevent the FPs from being calculated.
       */
     private def recalculateFpFor(tzId: UUID, retries: Int = MaxFpRetries)
-    : Future[FloodingProxy] = {
+    : Future[FloodingProxies] = {
         log.debug(s"Recalculating flooding proxy for tunnel zone $tzId")
         store.get(classOf[TunnelZone], tzId) // should be cached locally
              .map { loadLiveHosts }
              .map { hosts =>
-                FloodingProxyCalculator.calculate(tzId, hosts).getOrElse {
+                val fps = FloodingProxyCalculator.calculate(tzId, hosts,
+                                                            maxProxies)
+                if (fps.isEmpty) {
                     log.debug(s"No flooding proxy available on zone: $tzId")
-                    FloodingProxy(tzId, null, null)
                 }
-             }.recoverWith[FloodingProxy] {
+                fps
+             }.recoverWith[FloodingProxies] {
                  case t: NotFoundException if t.clazz == classOf[TunnelZone] =>
                      log.debug("Tunnel zone {} deleted: clearing flooding proxy",
                                tzId)
@@ -39,7 +39,7 @@ import org.midonet.cluster.data.vtep.model.MacLocation
 import org.midonet.cluster.models.State.VtepConfiguration
 import org.midonet.cluster.models.State.VtepConnectionState._
 import org.midonet.cluster.models.Topology.{Network, Port, Vtep => NsdbVtep}
-import org.midonet.cluster.services.vxgw.FloodingProxyHerald.FloodingProxy
+import org.midonet.cluster.services.vxgw.FloodingProxyHerald.FloodingProxies
 import org.midonet.cluster.services.vxgw.VtepSynchronizer.{NetworkInfo, executor}
 import org.midonet.cluster.services.vxgw.data.VtepStateStorage._
 import org.midonet.cluster.util.IPAddressUtil
@@ -145,7 +145,7 @@ class VtepSynchronizer(vtepId: UUID,
 
     // Handler for a Flooding Proxy update.  This will result in a new
     // MacLocation for the unknown destination being emitted to the VTEP.
-    private val whenFloodingProxyChanges = makeAction1[FloodingProxy] { _ =>
+    private val whenFloodingProxyChanges = makeAction1[FloodingProxies] { _ =>
         boundNetworks.keySet().foreach { feedFloodingProxyTo }
         // TODO: double check here, I think we do need to remove any
         // existing ones first or the client will simply add it
@@ -185,8 +185,9 @@ class VtepSynchronizer(vtepId: UUID,
       */
     private def feedFloodingProxyTo(nwId: UUID): Unit = {
         val tzId = fromProto(nsdbVtep.getTunnelZoneId)
-        val fpIp = fpHerald.lookup(tzId).map(_.tunnelIp).orNull
-        log.debug(s"Flooding proxy lookup for tunnel zone $tzId yields $fpIp")
+        val fpIp = fpHerald.lookup(tzId, nwId).map(_.tunnelIp).orNull
+        log.debug(s"Flooding proxy lookup for network $nwId on tunnel zone " +
+                  s"$tzId yields $fpIp")
         val lsName = bridgeIdToLogicalSwitchName(nwId)
         log.debug(s"Flooding proxy $fpIp announced to logical switch $lsName")
         ovsdbMacLocationObserver.onNext(MacLocation.unknownAt(fpIp, lsName))
@@ -303,9 +304,9 @@ class VtepSynchronizer(vtepId: UUID,
 
     private def watchFloodingProxyEvents(): Unit = {
         subscription.add(
-            fpHerald.observable
-                    .filter(makeFunc1 { fp: FloodingProxy =>
-                        fp.tunnelZoneId == fromProto(nsdbVtep.getTunnelZoneId)
+            fpHerald.proxiesObservable
+                    .filter(makeFunc1 { fps: FloodingProxies =>
+                        fps.tunnelZoneId == fromProto(nsdbVtep.getTunnelZoneId)
                     })
                     .observeOn(VtepSynchronizer.scheduler)
                     .subscribe(whenFloodingProxyChanges)
@@ -195,7 +195,8 @@ class VxlanGatewayService @Inject()(
 
     private class FloodingProxyLatchListener extends LeaderLatchListener {
         override def isLeader(): Unit = {
-            fpManager = new FloodingProxyManager(backend)
+            fpManager = new FloodingProxyManager(backend,
+                                                 conf.vxgw.floodingProxies)
             fpManager.start()
         }
         override def notLeader(): Unit = {
@@ -24,22 +24,22 @@ import org.midonet.cluster.data.storage.StateResult
 import org.midonet.cluster.models.Topology.TunnelZone
 import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.services.MidonetBackend._
-import org.midonet.cluster.services.vxgw.FloodingProxyHerald.FloodingProxy
+import org.midonet.cluster.services.vxgw.FloodingProxyHerald.FloodingProxies
 import org.midonet.util.reactivex
 
 /**
  * This class is responsible for keeping a register of the current flooding
- * proxy for each tunnel zone, and announcing it via the NSDB.
+ * proxies for each tunnel zone, and announcing them via the NSDB.
  */
 class WritableFloodingProxyHerald(backend: MidonetBackend) {
 
-    /** Asynchronously publish the given hostId as Flooding Proxy for the given
-      * tunnel zone.
+    /** Asynchronously publish the given hosts as Flooding Proxies for their
+      * tunnel zone, or a removal if there are none.
       */
-    private[vxgw] def announce(fp: FloodingProxy,
+    private[vxgw] def announce(fps: FloodingProxies,
                                onError: Throwable => Unit): Unit = (
-        if (fp.tunnelIp == null) removal(fp.tunnelZoneId)
-        else update(fp.tunnelZoneId, fp)
+        if (fps.isEmpty) removal(fps.tunnelZoneId)
+        else update(fps.tunnelZoneId, fps)
     ).subscribe(reactivex.retryObserver[StateResult](onError))
 
     /** Asynchronously publishes a removal of the flooding proxy, emitting the
@@ -52,13 +52,14 @@ class WritableFloodingProxyHerald(backend: MidonetBackend) {
                                        FloodingProxyKey, null /* ignored */)
     }
 
-    /** Asynchronously publishes a new flooding proxy, emitting the result on
+    /** Asynchronously publishes new flooding proxies, emitting the result on
       * the observable when the value is safely stored in the NSDB.  If the
       * write fails, the Observable will emit an onError.
       */
-    private def update(tzId: UUID, fp: FloodingProxy)
+    private def update(tzId: UUID, fps: FloodingProxies)
     : Observable[StateResult] = {
         backend.stateStore
-               .addValue(classOf[TunnelZone], tzId, FloodingProxyKey, fp.toString)
+               .addValue(classOf[TunnelZone], tzId, FloodingProxyKey,
+                         fps.serialize)
     }
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.rest_api
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+import org.openjdk.jmh.infra.Blackhole
+
+import org.midonet.cluster.data.ZoomConvert
+import org.midonet.cluster.models.Topology
+import org.midonet.cluster.rest_api.models.{Port, Router, Rule}
+import org.midonet.cluster.topology.TopologyBuilder
+
+/**
+  * Measures the cost of converting the REST API models to and from the
+  * corresponding Protocol Buffers messages, both for single objects and for
+  * a list of objects as returned by a REST API list request.
+  */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+class ZoomConvertBenchmark extends TopologyBuilder {
+
+    private final val ListSize = 10000
+
+    private var portProto: Topology.Port = _
+    private var routerProto: Topology.Router = _
+    private var ruleProto: Topology.Rule = _
+
+    private var port: Port = _
+    private var router: Router = _
+    private var rule: Rule = _
+
+    private var routerProtos: Array[Topology.Router] = _
+
+    @JmhSetup
+    def setup(): Unit = {
+        portProto = createBridgePort(bridgeId = Some(UUID.randomUUID),
+                                     inboundFilterId = Some(UUID.randomUUID),
+                                     outboundFilterId = Some(UUID.randomUUID),
+                                     hostId = Some(UUID.randomUUID),
+                                     interfaceName = Some("eth0"),
+                                     adminStateUp = true,
+                                     portGroupIds = Set(UUID.randomUUID))
+        routerProto = createRouter(name = Some("router"),
+                                   adminStateUp = true,
+                                   routeIds = Seq.fill(8)(UUID.randomUUID),
+                                   portIds = Seq.fill(8)(UUID.randomUUID).toSet)
+        ruleProto = createLiteralRuleBuilder(
+            UUID.randomUUID, chainId = Some(UUID.randomUUID),
+            action = Some(Topology.Rule.Action.ACCEPT)).build()
+
+        ZoomConvert.register(classOf[Router], classOf[Topology.Router])
+
+        port = ZoomConvert.fromProto(portProto, classOf[Port])
+        router = ZoomConvert.fromProto(routerProto, classOf[Router])
+        rule = ZoomConvert.fromProto(ruleProto, classOf[Rule])
+
+        routerProtos = Array.fill(ListSize) {
+            createRouter(name = Some("router"), adminStateUp = true,
+                         portIds = Seq.fill(4)(UUID.randomUUID).toSet)
+        }
+    }
+
+    @Benchmark
+    def portFromProto(bh: Blackhole): Unit = {
+        bh.consume(ZoomConvert.fromProto(portProto, classOf[Port]))
+    }
+
+    @Benchmark
+    def portToProto(bh: Blackhole): Unit = {
+        bh.consume(ZoomConvert.toProto(port, classOf[Topology.Port]))
+    }
+
+    @Benchmark
+    def routerFromProto(bh: Blackhole): Unit = {
+        bh.consume(ZoomConvert.fromProto(routerProto, classOf[Router]))
+    }
+
+    @Benchmark
+    def routerToProto(bh: Blackhole): Unit = {
+        bh.consume(ZoomConvert.toProto(router, classOf[Topology.Router]))
+    }
+
+    @Benchmark
+    def ruleFromProto(bh: Blackhole): Unit = {
+        bh.consume(ZoomConvert.fromProto(ruleProto, classOf[Rule]))
+    }
+
+    @Benchmark
+    def ruleToProto(bh: Blackhole): Unit = {
+        bh.consume(ZoomConvert.toProto(rule, classOf[Topology.Rule]))
+    }
+
+    @Benchmark
+    @BenchmarkMode(Array(Mode.SingleShotTime))
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 10)
+    @Measurement(iterations = 20)
+    def routerListFromProto(bh: Blackhole): Unit = {
+        var index = 0
+        while (index < routerProtos.length) {
+            bh.consume(ZoomConvert.fromProto(routerProtos(index),
+                                             classOf[Router]))
+            index += 1
+        }
+    }
+}
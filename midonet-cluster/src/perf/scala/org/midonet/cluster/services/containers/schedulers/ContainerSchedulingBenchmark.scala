@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.containers.schedulers
+
+import java.lang.management.ManagementFactory
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import com.typesafe.config.ConfigFactory
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, TearDown => JmhTearDown, _}
+import org.slf4j.LoggerFactory
+
+import rx.Subscription
+import rx.observers.TestObserver
+import rx.schedulers.Schedulers
+
+import org.midonet.cluster.ContainersConfig
+import org.midonet.cluster.data.storage.InMemoryStorage
+import org.midonet.cluster.models.State.ContainerServiceStatus
+import org.midonet.cluster.models.Topology.{Host, ServiceContainer, ServiceContainerGroup, ServiceContainerPolicy}
+import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.services.MidonetBackend.ContainerKey
+import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.containers.Context
+import org.midonet.util.concurrent.SameThreadButAfterExecutorService
+import org.midonet.util.logging.Logger
+import org.midonet.util.reactivex._
+
+/**
+  * Measures the cost of the service scheduler with 5000 containers over 500
+  * hosts using the in-memory storage. The setup reports the heap used by the
+  * schedulers and the number of subscriptions to the container service state
+  * of the hosts. The benchmark measures the latency of processing a change in
+  * the state of a host, such as the container count reported every time a
+  * container is scheduled at the host, which reaches every container
+  * scheduler. Only the containers scheduled at the host, or not scheduled,
+  * are re-evaluated.
+  */
+@BenchmarkMode(Array(Mode.SampleTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+class ContainerSchedulingBenchmark {
+
+    private final val HostCount = 500
+    private final val ContainerCount = 5000
+
+    private val config = new ContainersConfig(ConfigFactory.parseString(
+        """
+          |cluster.containers.enabled : true
+          |cluster.containers.scheduler_timeout : 1h
+          |cluster.containers.scheduler_retry : 1h
+          |cluster.containers.scheduler_max_retries : 3
+          |cluster.containers.scheduler_bad_host_lifetime : 1h
+        """.stripMargin))
+
+    private var store: InMemoryStorage = _
+    private var hostIds: Array[UUID] = _
+    private var subscription: Subscription = _
+    private var observer: TestObserver[SchedulerEvent] = _
+    private var index = 0
+    private var count = 0
+
+    private def usedHeap(): Long = {
+        System.gc()
+        ManagementFactory.getMemoryMXBean.getHeapMemoryUsage.getUsed
+    }
+
+    private def setHostStatus(hostId: UUID, count: Int): Unit = {
+        val status = ContainerServiceStatus.newBuilder()
+            .setWeight(1)
+            .setQuota(-1)
+            .setCount(count)
+            .build()
+        store.addValueAs(hostId.toString, classOf[Host], hostId, ContainerKey,
+                         status.toString).await()
+    }
+
+    @JmhSetup
+    def setup(): Unit = {
+        val executor = new SameThreadButAfterExecutorService
+        val log = Logger(LoggerFactory.getLogger("containers"))
+        store = new InMemoryStorage
+        MidonetBackend.setupBindings(store, store)
+        val context = Context(store, store, executor,
+                              Schedulers.from(executor), log)
+
+        hostIds = Array.fill(HostCount)(UUID.randomUUID())
+        for (hostId <- hostIds) {
+            store create Host.newBuilder().setId(hostId.asProto).build()
+            setHostStatus(hostId, count = 0)
+        }
+        val group = ServiceContainerGroup.newBuilder()
+            .setId(randomUuidProto)
+            .setPolicy(ServiceContainerPolicy.WEIGHTED_SCHEDULER)
+            .build()
+        store create group
+        for (_ <- 0 until ContainerCount) {
+            store create ServiceContainer.newBuilder()
+                .setId(randomUuidProto)
+                .setServiceGroupId(group.getId)
+                .build()
+        }
+
+        val heapBefore = usedHeap()
+        val scheduler = new ServiceScheduler(context, config)
+        observer = new TestObserver[SchedulerEvent]
+        subscription = scheduler.observable subscribe observer
+        val heapAfter = usedHeap()
+
+        println(s"\nScheduled ${observer.getOnNextEvents.size} containers " +
+                s"on $HostCount hosts using ${(heapAfter - heapBefore) >> 20} " +
+                s"MB of heap and ${scheduler.hostSubscriptions} host state " +
+                "subscriptions")
+    }
+
+    @JmhTearDown
+    def teardown(): Unit = {
+        subscription.unsubscribe()
+    }
+
+    @Benchmark
+    def hostStatusChange(): Int = {
+        index = (index + 1) % HostCount
+        count += 1
+        setHostStatus(hostIds(index), count)
+        observer.getOnNextEvents.size
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.recycler
+
+import java.util
+import java.util.UUID
+import java.util.concurrent.{ExecutorService, Executors, TimeUnit}
+
+import scala.concurrent.duration._
+
+import com.codahale.metrics.MetricRegistry
+import com.typesafe.config.ConfigFactory
+import com.typesafe.scalalogging.Logger
+
+import org.apache.curator.framework.{CuratorFramework, CuratorFrameworkFactory}
+import org.apache.curator.retry.RetryNTimes
+import org.apache.zookeeper.{CreateMode, Op}
+import org.apache.zookeeper.ZooDefs.Ids
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+import org.openjdk.jmh.infra.Blackhole
+import org.slf4j.LoggerFactory
+
+import org.midonet.cluster.RecyclerConfig
+import org.midonet.cluster.data.storage.ZookeeperObjectMapper
+import org.midonet.cluster.data.storage.metrics.StorageMetrics
+import org.midonet.cluster.models.Topology.{Host, Network, Port, Router}
+import org.midonet.cluster.storage.MidonetBackendConfig
+import org.midonet.util.UnixClock
+import org.midonet.util.concurrent.NamedThreadFactory
+import org.midonet.util.eventloop.CallingThreadReactor
+
+/**
+  * Measures the duration of a recycling run over a large number of stale
+  * object state entries, spread across several hosts, and the duration of a
+  * subsequent run when none of the paths changed. Requires a ZooKeeper
+  * server running at the local host.
+  */
+@BenchmarkMode(Array(Mode.SingleShotTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(0)
+@State(Scope.Benchmark)
+class RecyclerBenchmark {
+
+    private final val zkServer = "127.0.0.1:2181"
+    private final val zkRoot = "/midonet/benchmark"
+    private final val hostCount = 100
+    private final val objectsPerHost = 1000
+    private final val createBatchSize = 1000
+
+    @Param(Array("1", "4"))
+    var workerThreads: Int = _
+
+    @Param(Array("1", "128"))
+    var deleteBatchSize: Int = _
+
+    private val reactor = new CallingThreadReactor
+    private val log = Logger(LoggerFactory.getLogger(getClass))
+    private val clock = UnixClock()
+    private var curator: CuratorFramework = _
+    private var store: ZookeeperObjectMapper = _
+    private var config: RecyclerConfig = _
+    private var executor: ExecutorService = _
+    private var marks: RecyclingMarks = _
+
+    @JmhSetup(Level.Trial)
+    def setup(): Unit = {
+        curator = CuratorFrameworkFactory.newClient(zkServer, 10000, 2000,
+                                                    new RetryNTimes(2, 1000))
+        curator.start()
+        store = new ZookeeperObjectMapper(
+            new MidonetBackendConfig(ConfigFactory.parseString(
+                s"zookeeper.root_key : $zkRoot")),
+            UUID.randomUUID().toString, curator, curator, null, reactor,
+            new StorageMetrics(new MetricRegistry))
+        store.registerClass(classOf[Host])
+        store.registerClass(classOf[Network])
+        store.registerClass(classOf[Port])
+        store.registerClass(classOf[Router])
+        store.build()
+
+        config = new RecyclerConfig(ConfigFactory.parseString(
+            s"""
+               |cluster.recycler.throttling_rate : 1000000000
+               |cluster.recycler.worker_threads : $workerThreads
+               |cluster.recycler.delete_batch_size : $deleteBatchSize
+             """.stripMargin))
+        executor = Executors.newFixedThreadPool(
+            workerThreads, new NamedThreadFactory("recycler", isDaemon = true))
+    }
+
+    @TearDown(Level.Trial)
+    def tearDown(): Unit = {
+        executor.shutdownNow()
+        curator.close()
+    }
+
+    /**
+      * Creates the stale object state for the hosts, such that the hosts
+      * exist but the objects do not.
+      */
+    @JmhSetup(Level.Invocation)
+    def createStaleState(): Unit = {
+        marks = new RecyclingMarks
+        val zk = curator.getZookeeperClient.getZooKeeper
+        val ops = new util.ArrayList[Op](createBatchSize)
+        def flush(): Unit = {
+            zk.multi(ops)
+            ops.clear()
+        }
+        for (host <- 0 until hostCount) {
+            val hostId = new UUID(0L, host).toString
+            val hostPath = store.objectPath(classOf[Host], hostId)
+            if (zk.exists(hostPath, null) eq null) {
+                zk.create(hostPath, Array.emptyByteArray, Ids.OPEN_ACL_UNSAFE,
+                          CreateMode.PERSISTENT)
+                zk.create(store.stateNamespacePath(hostId), Array.emptyByteArray,
+                          Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT)
+                zk.create(store.stateClassPath(hostId, classOf[Port]),
+                          Array.emptyByteArray, Ids.OPEN_ACL_UNSAFE,
+                          CreateMode.PERSISTENT)
+            }
+            for (index <- 0 until objectsPerHost) {
+                ops.add(Op.create(store.stateObjectPath(hostId, classOf[Port],
+                                                        UUID.randomUUID()),
+                                  Array.emptyByteArray, Ids.OPEN_ACL_UNSAFE,
+                                  CreateMode.PERSISTENT))
+                if (ops.size == createBatchSize) flush()
+            }
+        }
+        if (!ops.isEmpty) flush()
+        // The state must be older than the recycling timestamp.
+        Thread.sleep(10)
+    }
+
+    private def newContext(): RecyclingContext = {
+        new RecyclingContext(config, curator, store, executor, marks, clock,
+                             log, Duration.Zero)
+    }
+
+    @Benchmark
+    def recycleStaleState(bh: Blackhole): Unit = {
+        val context = newContext()
+        context.recycle()
+        bh.consume(context.deletedObjects)
+    }
+
+    @Benchmark
+    def recycleUnchangedState(bh: Blackhole): Unit = {
+        newContext().recycle()
+        val context = newContext()
+        context.recycle()
+        bh.consume(context.totalObjects)
+    }
+}
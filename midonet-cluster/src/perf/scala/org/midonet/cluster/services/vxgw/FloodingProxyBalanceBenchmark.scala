@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.vxgw
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import scala.util.Random
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.cluster.models.Topology.Host
+import org.midonet.cluster.services.vxgw.FloodingProxyHerald.{FloodingProxies, FloodingProxy}
+import org.midonet.cluster.topology.TopologyBuilder
+import org.midonet.cluster.util.UUIDUtil.fromProto
+import org.midonet.packets.IPv4Addr
+
+/**
+  * Measures how the flooded (BUM) traffic of the networks bound to 200 VTEPs
+  * is shared among the flooding proxies of a tunnel zone. The setup reports,
+  * for the given number of proxies, the ratio between the maximum and the
+  * mean load of the proxies, and the fraction of the networks that move to
+  * another proxy when one of the proxies fails. The benchmark measures the
+  * cost of choosing the flooding proxy of a network.
+  */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+class FloodingProxyBalanceBenchmark extends TopologyBuilder {
+
+    private final val Vteps = 200
+    private final val NetworksPerVtep = 20
+    private final val Hosts = 16
+
+    @Param(Array("1", "2", "4", "8"))
+    var maxProxies: Int = _
+
+    private val random = new Random(0)
+    private val tzId = UUID.randomUUID()
+    private var networks: Array[UUID] = _
+    private var proxies: FloodingProxies = _
+    private var index = 0
+
+    @JmhSetup
+    def setup(): Unit = {
+        val candidates = new java.util.HashMap[Host, IPv4Addr]()
+        for (_ <- 0 until Hosts) {
+            candidates.put(createHost().toBuilder
+                               .setFloodingProxyWeight(1 + random.nextInt(2))
+                               .build(), IPv4Addr.random)
+        }
+        proxies = FloodingProxyCalculator.calculate(tzId, candidates,
+                                                    maxProxies)
+
+        // Every network is bound to a few VTEPs, and floods a BUM rate that
+        // follows a long tail, replicated by the proxy to each of the VTEPs.
+        networks = Array.fill(Vteps * NetworksPerVtep / 4)(UUID.randomUUID())
+        val load = new java.util.HashMap[FloodingProxy, Double]()
+        for (nwId <- networks) {
+            val vteps = 1 + random.nextInt(7)
+            val rate = 1.0 / (1.0 - random.nextDouble())
+            val fp = proxies.proxyFor(nwId).get
+            load.put(fp, load.getOrDefault(fp, 0.0) + rate * vteps)
+        }
+        val loads = proxies.proxies.map(load.getOrDefault(_, 0.0))
+        val spread = loads.max / (loads.sum / loads.size)
+
+        val failed = proxies.proxies.head
+        val remaining = FloodingProxyCalculator.calculate(
+            tzId, without(candidates, failed.hostId), maxProxies)
+        val moved = networks.count { nwId =>
+            proxies.proxyFor(nwId) != remaining.proxyFor(nwId)
+        }
+
+        println(s"\nFlooding proxies: ${proxies.proxies.size} load max/mean: " +
+                f"$spread%.3f networks moved on failure: " +
+                f"${moved.toDouble / networks.length}%.3f")
+    }
+
+    private def without(candidates: java.util.Map[Host, IPv4Addr],
+                        hostId: UUID): java.util.Map[Host, IPv4Addr] = {
+        val map = new java.util.HashMap[Host, IPv4Addr](candidates)
+        val iterator = map.keySet().iterator()
+        while (iterator.hasNext) {
+            if (fromProto(iterator.next().getId) == hostId) {
+                iterator.remove()
+            }
+        }
+        map
+    }
+
+    @Benchmark
+    def proxyFor(): Option[FloodingProxy] = {
+        index = (index + 1) % networks.length
+        proxies.proxyFor(networks(index))
+    }
+}
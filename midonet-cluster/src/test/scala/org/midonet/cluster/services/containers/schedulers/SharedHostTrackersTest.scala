@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.containers.schedulers
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FlatSpec, GivenWhenThen, Matchers}
+
+import rx.observers.TestObserver
+
+import org.midonet.cluster.util.UUIDUtil._
+
+@RunWith(classOf[JUnitRunner])
+class SharedHostTrackersTest extends FlatSpec with SchedulersTest
+                             with BeforeAndAfter with Matchers
+                             with GivenWhenThen {
+
+    "Shared host trackers" should "share the state of a host" in {
+        Given("A host with a container service status")
+        val host = createHost()
+        val status = createHostStatus(host.getId)
+
+        And("The shared trackers")
+        val trackers = new SharedHostTrackers(context)
+
+        When("Two trackers for the host subscribe")
+        val tracker1 = new HostTracker(host.getId, context, trackers)
+        val tracker2 = new HostTracker(host.getId, context, trackers)
+        val obs1 = new TestObserver[HostEvent]
+        val obs2 = new TestObserver[HostEvent]
+        val sub1 = tracker1.observable subscribe obs1
+        tracker2.observable subscribe obs2
+
+        Then("Both observers should receive the host state")
+        obs1.getOnNextEvents should contain only HostEvent(running = true,
+                                                           status)
+        obs2.getOnNextEvents should contain only HostEvent(running = true,
+                                                           status)
+        tracker2.isReady shouldBe true
+
+        And("The trackers share the subscription to the host state")
+        trackers.size shouldBe 1
+        trackers.refs(host.getId) shouldBe 2
+
+        When("The host state changes")
+        val status2 = createHostStatus(host.getId)
+
+        Then("Both observers should receive the new state")
+        obs1.getOnNextEvents.get(1) shouldBe HostEvent(running = true, status2)
+        obs2.getOnNextEvents.get(1) shouldBe HostEvent(running = true, status2)
+
+        When("The first tracker unsubscribes")
+        sub1.unsubscribe()
+
+        Then("The second tracker keeps the subscription")
+        trackers.refs(host.getId) shouldBe 1
+
+        When("The second tracker completes")
+        tracker2.complete()
+
+        Then("The subscription to the host state is released")
+        obs2.getOnCompletedEvents should have size 1
+        trackers.size shouldBe 0
+    }
+
+    "Shared host trackers" should "emit the last state to new trackers" in {
+        Given("A host with a container service status")
+        val host = createHost()
+        val status = createHostStatus(host.getId)
+
+        And("A tracker subscribed to the shared trackers")
+        val trackers = new SharedHostTrackers(context)
+        new HostTracker(host.getId, context, trackers).observable
+            .subscribe(new TestObserver[HostEvent])
+
+        When("A second tracker subscribes")
+        val obs = new TestObserver[HostEvent]
+        val tracker = new HostTracker(host.getId, context, trackers)
+        tracker.observable subscribe obs
+
+        Then("The observer should receive the last state")
+        obs.getOnNextEvents should contain only HostEvent(running = true,
+                                                          status)
+        tracker.last shouldBe HostEvent(running = true, status)
+    }
+
+    "Shared host trackers" should "resubscribe after a release" in {
+        Given("A host with a container service status")
+        val host = createHost()
+        createHostStatus(host.getId)
+        val trackers = new SharedHostTrackers(context)
+
+        When("A tracker subscribes and unsubscribes")
+        new HostTracker(host.getId, context, trackers).observable
+            .subscribe(new TestObserver[HostEvent]).unsubscribe()
+        trackers.size shouldBe 0
+
+        And("The host state is removed")
+        deleteHostStatus(host.getId)
+
+        And("A new tracker subscribes")
+        val obs = new TestObserver[HostEvent]
+        new HostTracker(host.getId, context, trackers).observable subscribe obs
+
+        Then("The observer should receive the current state")
+        obs.getOnNextEvents should contain only HostEvent(running = false)
+        trackers.refs(host.getId) shouldBe 1
+    }
+
+    "Shared host trackers" should "be used by the host selectors" in {
+        Given("Two hosts with a container service status")
+        val host1 = createHost()
+        val host2 = createHost()
+        createHostStatus(host1.getId)
+        createHostStatus(host2.getId)
+
+        And("A host group and an anywhere selector sharing the trackers")
+        val trackers = new SharedHostTrackers(context)
+        val hostGroup = createHostGroup(host1.getId, host2.getId)
+        val selector = new AnywhereHostSelector(context, trackers)
+        val tracker = new HostGroupTracker(hostGroup.getId, context, trackers)
+
+        When("Subscribing to both")
+        val obs1 = new TestObserver[HostsEvent]
+        val obs2 = new TestObserver[HostGroupEvent]
+        selector.observable subscribe obs1
+        tracker.observable subscribe obs2
+
+        Then("Both should emit the hosts")
+        obs1.getOnNextEvents.get(obs1.getOnNextEvents.size - 1) should have size 2
+        obs2.getOnNextEvents.get(obs2.getOnNextEvents.size - 1)
+            .hosts should have size 2
+
+        And("There should be one subscription per host")
+        trackers.size shouldBe 2
+        trackers.refs(host1.getId) shouldBe 2
+        trackers.refs(host2.getId) shouldBe 2
+    }
+}
@@ -23,6 +23,7 @@ import scala.util.Try
 
 import com.codahale.metrics.MetricRegistry
 import com.typesafe.config.ConfigFactory
+import com.typesafe.scalalogging.Logger
 
 import org.apache.curator.framework.CuratorFramework
 import org.apache.curator.framework.state.ConnectionState
@@ -30,6 +31,7 @@ import org.apache.zookeeper.data.Stat
 import org.junit.runner.RunWith
 import org.scalatest.junit.JUnitRunner
 import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+import org.slf4j.LoggerFactory
 
 import rx.Observable
 import rx.observers.TestObserver
@@ -129,6 +131,8 @@ class RecyclerTest extends FeatureSpec with MidonetBackendTest with Matchers
               |cluster.recycler.enabled : true
               |cluster.recycler.interval : 1h
               |cluster.recycler.throttling_rate : 1000000001
+              |cluster.recycler.worker_threads : 4
+              |cluster.recycler.delete_batch_size : 4
               |cluster.recycler.shutdown_interval : 10s
             """.stripMargin)
         )
@@ -754,4 +758,134 @@ class RecyclerTest extends FeatureSpec with MidonetBackendTest with Matchers
             curator.checkExists().forPath(path) should not be null
         }
     }
+
+    feature("Recycler deletes orphans in batches") {
+        scenario("Many orphan objects for the same host") {
+            Given("A recycling service")
+            val recycler = newRecycler()
+            recycler.mockedClock.time = System.currentTimeMillis() +
+                                        clusterConfig.recycler.interval.toMillis
+
+            And("Several nodes for object state exceeding the batch size")
+            val namespace = UUID.randomUUID().toString
+            curator.create().forPath(store.objectPath(classOf[Host], namespace))
+            val paths = for (index <- 0 until 10) yield {
+                val path = store.stateObjectPath(namespace, classOf[Port],
+                                                 UUID.randomUUID())
+                curator.create()
+                       .creatingParentContainersIfNeeded()
+                       .forPath(s"$path/value")
+                path
+            }
+            paths.foreach(path => waitForExpiry(s"$path/value"))
+
+            When("The recycler starts")
+            recycler.startAsync().awaitRunning()
+
+            Then("The recycler should run the recycling task")
+            val result = recycler.tasks.toBlocking.first()
+
+            And("All orphan object state should be deleted")
+            result.isSuccess shouldBe true
+            result.get.totalObjects shouldBe 10
+            result.get.deletedObjects shouldBe 10
+            result.get.skippedObjects shouldBe 0
+
+            And("The recycler stops")
+            recycler.stopAsync().awaitTerminated()
+
+            And("The object state paths should be deleted")
+            for (path <- paths) {
+                curator.checkExists().forPath(path) shouldBe null
+            }
+        }
+
+        scenario("An orphan namespace exceeding the batch size") {
+            Given("A recycling service")
+            val recycler = newRecycler()
+            recycler.mockedClock.time = System.currentTimeMillis() +
+                                        clusterConfig.recycler.interval.toMillis
+
+            And("A namespace with more nodes than the batch size")
+            val namespace = UUID.randomUUID().toString
+            val path = store.stateNamespacePath(namespace)
+            curator.create().forPath(path)
+            for (index <- 0 until 10) {
+                curator.create().forPath(s"$path/child$index")
+                curator.create().forPath(s"$path/child$index/value")
+            }
+            waitForExpiry(s"$path/child9/value")
+
+            When("The recycler starts")
+            recycler.startAsync().awaitRunning()
+
+            Then("The recycler should run the recycling task")
+            val result = recycler.tasks.toBlocking.first()
+
+            And("The namespace should be recycled")
+            result.isSuccess shouldBe true
+            result.get.deletedNamespaces shouldBe 1
+            result.get.skippedNamespaces shouldBe 0
+
+            And("The recycler stops")
+            recycler.stopAsync().awaitTerminated()
+
+            And("The namespace should be deleted")
+            curator.checkExists().forPath(path) shouldBe null
+        }
+    }
+
+    feature("Recycler skips unchanged paths") {
+        def newContext(marks: RecyclingMarks): RecyclingContext = {
+            val clock = new MockUnixClock
+            clock.time = System.currentTimeMillis() +
+                         clusterConfig.recycler.interval.toMillis
+            new RecyclingContext(clusterConfig.recycler, curator, store,
+                                 new SameThreadButAfterExecutorService, marks,
+                                 clock, Logger(LoggerFactory.getLogger(getClass)),
+                                 clusterConfig.recycler.interval)
+        }
+
+        scenario("Paths are marked after recycling") {
+            Given("A node for an object state of an existing object")
+            val namespace = UUID.randomUUID().toString
+            val portId = UUID.randomUUID()
+            curator.create().forPath(store.objectPath(classOf[Host], namespace))
+            curator.create().forPath(store.objectPath(classOf[Port], portId))
+            curator.create()
+                   .creatingParentContainersIfNeeded()
+                   .forPath(store.stateObjectPath(namespace, classOf[Port],
+                                                  portId))
+
+            When("Recycling the NSDB")
+            val marks = new RecyclingMarks
+            val context1 = newContext(marks)
+            context1.recycle()
+
+            Then("The object state path should be marked")
+            val pathStat = new Stat
+            val modelStat = new Stat
+            val path = store.stateClassPath(namespace, classOf[Port])
+            curator.getData.storingStatIn(pathStat).forPath(path)
+            curator.getData.storingStatIn(modelStat)
+                   .forPath(store.classPath(classOf[Port]))
+            marks.isClean(path, pathStat.getPzxid,
+                          modelStat.getPzxid) shouldBe true
+
+            When("The object is deleted")
+            curator.delete().forPath(store.objectPath(classOf[Port], portId))
+            waitForExpiry(store.stateObjectPath(namespace, classOf[Port],
+                                                portId))
+
+            And("Recycling the NSDB again")
+            val context2 = newContext(marks)
+            context2.recycle()
+
+            Then("The recycler should delete the object state")
+            context2.deletedObjects shouldBe 1
+            curator.checkExists()
+                   .forPath(store.stateObjectPath(namespace, classOf[Port],
+                                                  portId)) shouldBe null
+        }
+    }
 }
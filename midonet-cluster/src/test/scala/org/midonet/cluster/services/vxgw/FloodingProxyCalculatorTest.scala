@@ -27,6 +27,7 @@ import org.scalatest.{BeforeAndAfter, FlatSpec, GivenWhenThen, Matchers}
 
 import org.midonet.cluster.models.Topology.Host
 import org.midonet.cluster.services.vxgw.FloodingProxyCalculator.calculate
+import org.midonet.cluster.services.vxgw.FloodingProxyHerald.FloodingProxies
 import org.midonet.cluster.topology.TopologyBuilder
 import org.midonet.cluster.util.UUIDUtil
 import org.midonet.packets.IPv4Addr
@@ -60,4 +61,58 @@ class FloodingProxyCalculatorTest extends FlatSpec with Matchers
         fpHost.orNull.getFloodingProxyWeight shouldBe >(0)
     }
 
+    private def candidates(weights: Int*): java.util.Map[Host, IPv4Addr] = {
+        val map = new java.util.HashMap[Host, IPv4Addr]()
+        weights foreach { w =>
+            map.put(createHost().toBuilder.setFloodingProxyWeight(w).build(),
+                    IPv4Addr.random)
+        }
+        map
+    }
+
+    private def load(fps: FloodingProxies, networks: Seq[UUID])
+    : Map[UUID, Int] = {
+        networks.groupBy(fps.proxyFor(_).get.hostId).mapValues(_.size)
+    }
+
+    "Several flooding proxies" should "be the eligible hosts by rank" in {
+        val hosts = candidates(0, 1, 1, 1, 1)
+        val fps = calculate(id, hosts, maxProxies = 3)
+        fps.proxies should have size 3
+        fps.proxies.map(_.weight) shouldBe Seq(1, 1, 1)
+        fps.primary shouldBe calculate(id, hosts)
+
+        And("The election is deterministic")
+        calculate(id, hosts, maxProxies = 3) shouldBe fps
+
+        And("There are no more proxies than eligible hosts")
+        calculate(id, hosts, maxProxies = 10).proxies should have size 4
+    }
+
+    "Networks" should "be shared among the proxies by weight" in {
+        val fps = calculate(id, candidates(1, 1, 2), maxProxies = 3)
+        val networks = 1 to 30000 map { _ => UUID.randomUUID() }
+        val loads = load(fps, networks)
+
+        loads should have size 3
+        for (fp <- fps.proxies) {
+            val expected = networks.size * fp.weight / 4
+            loads(fp.hostId) shouldBe expected +- expected / 10
+        }
+    }
+
+    "Removing a proxy" should "only move the networks of that proxy" in {
+        val hosts = candidates(1, 1, 1, 1)
+        val fps = calculate(id, hosts, maxProxies = 4)
+        val removed = fps.proxies(1)
+        val remaining = FloodingProxies(id, fps.proxies.filterNot(_ == removed))
+        val networks = 1 to 1000 map { _ => UUID.randomUUID() }
+
+        for (nwId <- networks) {
+            val before = fps.proxyFor(nwId).get
+            val after = remaining.proxyFor(nwId).get
+            if (before != removed) after shouldBe before
+        }
+    }
+
 }
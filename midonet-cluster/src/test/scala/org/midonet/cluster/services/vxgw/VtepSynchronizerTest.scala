@@ -39,7 +39,7 @@ import org.midonet.cluster.data.storage.{InMemoryStorage, StateTableStorage}
 import org.midonet.cluster.data.storage.StateTable.Update
 import org.midonet.cluster.data.vtep.model.{LogicalSwitch, MacLocation}
 import org.midonet.cluster.services.MidonetBackend
-import org.midonet.cluster.services.vxgw.FloodingProxyHerald.FloodingProxy
+import org.midonet.cluster.services.vxgw.FloodingProxyHerald.{FloodingProxies, FloodingProxy}
 import org.midonet.packets.MAC
 import org.midonet.southbound.vtep.ConnectionState
 import org.midonet.util.MidonetEventually
@@ -67,7 +67,7 @@ class VtepSynchronizerTest extends FeatureSpec with Matchers
     // Some mocks
     var fpHerald: FloodingProxyHerald = _
     var stateTableStorage: StateTableStorage = _
-    var fpObservable: PublishSubject[FloodingProxy] = _
+    var fpObservable: PublishSubject[FloodingProxies] = _
 
     before {
         store = new InMemoryStorage
@@ -90,7 +90,8 @@ class VtepSynchronizerTest extends FeatureSpec with Matchers
         // connection events.
         fpObservable = PublishSubject.create()
         Mockito.when(fpHerald.lookup(any())).thenReturn(None)
-        Mockito.when(fpHerald.observable)
+        Mockito.when(fpHerald.lookup(any[UUID](), any[UUID]())).thenReturn(None)
+        Mockito.when(fpHerald.proxiesObservable)
                .thenReturn(fpObservable.asObservable())
     }
 
@@ -258,7 +259,9 @@ class VtepSynchronizerTest extends FeatureSpec with Matchers
     def updateFpTo(fp: FloodingProxy): Unit = {
         val retVal = if (fp.tunnelIp == null) None else Some(fp)
         Mockito.when(fpHerald.lookup(vtep1Fix.tzId)).thenReturn(retVal)
-        fpObservable.onNext(fp)
+        Mockito.when(fpHerald.lookup(Eq(vtep1Fix.tzId), any[UUID]()))
+               .thenReturn(retVal)
+        fpObservable.onNext(FloodingProxies(fp.tunnelZoneId, retVal.toIndexedSeq))
         eventually {
             fpHerald.lookup(vtep1Fix.tzId) shouldBe retVal
         }
@@ -19,6 +19,8 @@ package org.midonet.cluster.services.vxgw
 import java.util.UUID
 import java.util.concurrent.{CountDownLatch, TimeUnit}
 
+import scala.collection.JavaConverters._
+
 import org.apache.curator.framework.CuratorFramework
 import org.apache.curator.framework.state.ConnectionState
 import org.junit.runner.RunWith
@@ -38,7 +40,7 @@ import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.services.MidonetBackend.FloodingProxyKey
 import org.midonet.cluster.services.discovery.{FakeDiscovery, MidonetDiscovery}
 import org.midonet.cluster.services.state.client.StateTableClient
-import org.midonet.cluster.services.vxgw.FloodingProxyHerald.FloodingProxy
+import org.midonet.cluster.services.vxgw.FloodingProxyHerald.{FloodingProxies, FloodingProxy}
 import org.midonet.cluster.topology.TopologyBuilder
 import org.midonet.cluster.util.UUIDUtil.fromProto
 import org.midonet.packets.IPv4Addr
@@ -99,6 +101,59 @@ class WritableFloodingProxyHeraldTest extends FeatureSpec
                                                fp.tunnelIp).toString
         }
 
+        scenario("Multiple flooding proxies serialization") {
+            val tzId = randId()
+            val fps = FloodingProxies(
+                tzId, IndexedSeq(FloodingProxy(tzId, randId(), IPv4Addr.random, 2),
+                                 FloodingProxy(tzId, randId(), IPv4Addr.random)))
+            val restored = FloodingProxyHerald.deserializeAll(tzId,
+                                                              fps.serialize)
+            restored shouldBe fps
+            restored.proxies.map(_.weight) shouldBe Seq(2, 1)
+
+            // The first proxy is read by the single proxy deserializer
+            FloodingProxyHerald.deserialize(tzId, fps.serialize) shouldBe
+                fps.proxies.head
+
+            // A single proxy without a weight is deserialized
+            val fp = fps.proxies(1)
+            FloodingProxyHerald.deserializeAll(tzId, fp.toString) shouldBe
+                FloodingProxies(tzId, IndexedSeq(fp))
+
+            // Different weights are different flooding proxies
+            fps should not be FloodingProxies(
+                tzId, fps.proxies.map(_.copy(weight = 1)))
+        }
+
+        scenario("The herald exposes the proxy of each network") {
+            val stateInjector = PublishSubject.create[StateKey]
+            when (
+                _stateStore.keyObservable(anyObject(), anyObject(), anyObject())
+            ).thenReturn(stateInjector)
+            when(
+                _store.observable(anyObject[Class[TunnelZone]]())
+            ).thenReturn(tzsObservable.asObservable())
+
+            val (_, herald) = heralds()
+            tzsObservable.onNext(Observable.just(vtepTz))
+
+            val fps = FloodingProxies(
+                tzId, IndexedSeq(FloodingProxy(tzId, h1Id, IPv4Addr.random),
+                                 FloodingProxy(tzId, h2Id, IPv4Addr.random)))
+            stateInjector.onNext(SingleValueKey(FloodingProxyKey,
+                                                Some(fps.serialize), 0))
+
+            herald.lookup(tzId) shouldBe fps.primary
+            herald.lookupAll(tzId) shouldBe Some(fps)
+            herald.all.asScala should contain theSameElementsAs fps.proxies
+            val nwId = randId()
+            herald.lookup(tzId, nwId) shouldBe fps.proxyFor(nwId)
+
+            stateInjector.onNext(SingleValueKey(FloodingProxyKey, None, 0))
+            herald.lookupAll(tzId) shouldBe None
+            herald.lookup(tzId, nwId) shouldBe None
+        }
+
         scenario("Happy case of the fp lifecycle") {
 
             val initialFp = FloodingProxy(randId(), h1Id, IPv4Addr.random)
@@ -127,7 +182,8 @@ class WritableFloodingProxyHeraldTest extends FeatureSpec
             stateInjector.onNext(initialState)
 
             val fp = FloodingProxy(tzId, h2Id, IPv4Addr.random)
-            wherald.announce(fp, inocuousRetrier)
+            wherald.announce(FloodingProxies(tzId, IndexedSeq(fp)),
+                             inocuousRetrier)
             // mock the NSDB notifying back
             stateInjector.onNext(SingleValueKey(FloodingProxyKey,
                                                 Some(fp.toString), 0))
@@ -176,7 +232,8 @@ class WritableFloodingProxyHeraldTest extends FeatureSpec
 
             val fp = FloodingProxy(tunnelZoneId = randId(), h2Id,
                                    IPv4Addr.random)
-            wherald.announce(fp, retry)
+            wherald.announce(FloodingProxies(fp.tunnelZoneId, IndexedSeq(fp)),
+                             retry)
 
             latch.await(1, TimeUnit.SECONDS) shouldBe true
 
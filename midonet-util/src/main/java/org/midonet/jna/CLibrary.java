@@ -111,6 +111,10 @@ public final class CLibrary {
     public static final int NETLINK_BROADCAST_ERROR = 4;
     public static final int NETLINK_NO_ENOBUFS = 5;
 
+    public static final int MSG_TRUNC = 0x20;
+    public static final int MSG_DONTWAIT = 0x40;
+    public static final int MSG_WAITFORONE = 0x10000;
+
     public static final int MCL_CURRENT = 1;
     public static final int MCL_FUTURE = 2;
 
@@ -348,6 +352,26 @@ public final class CLibrary {
                                   int len,
                                   int flags);
 
+    /**
+     * Receives multiple messages from a socket using a single system call.
+     * @param fd The socket file descriptor.
+     * @param msgvec A direct buffer with an array of `struct mmsghdr`. The
+     *               method sets the `msg_len` field of each header to the
+     *               number of bytes received for that message.
+     * @param vlen The number of headers in the array.
+     * @param flags Operation flags, see:
+     *              http://man7.org/linux/man-pages/man2/recvmmsg.2.html
+     * @param timeout A pointer to a `struct timespec` with the timeout of
+     *                the receive operation, or null for no timeout.
+     * @return The number of messages received, if successful. On error, it
+     * returns -1 and errno indicates the last error.
+     */
+    public static native int recvmmsg(int fd,
+                                      ByteBuffer msgvec,
+                                      int vlen,
+                                      int flags,
+                                      Pointer timeout);
+
     /**
      * Returns the number of bytes in a memory page.
      */
@@ -28,6 +28,14 @@ import org.slf4j.LoggerFactory;
  * bucket.prepare();
  * while (bucket.consumeToken() && readPacket() > 0) { ... }
  * bucket.done();
+ *
+ * The Bucket is a local token cache for the thread reading a channel: it
+ * takes up to `refill` tokens at a time from its leaf token bucket, so that
+ * the leaf, and the distribution that fills it, are accessed less often. As
+ * it only takes tokens from its own leaf, the fairness among the leaves is
+ * that of the token bucket hierarchy. The unconsumed tokens are returned to
+ * the counter slot at `index`, which the caller should stripe across the
+ * reading threads to avoid contention.
  */
 public class Bucket {
     private static final Logger log =
@@ -36,6 +44,7 @@ public class Bucket {
 
     private final TokenBucket tb;
     private final int multiplier;
+    private final int refill;
     private final StatisticalCounter counter;
     private final int index;
     private final boolean atomic;
@@ -44,8 +53,15 @@ public class Bucket {
     public Bucket(TokenBucket tb, int multiplier,
                   StatisticalCounter counter, int index,
                   boolean atomic) {
+        this(tb, multiplier, 1, counter, index, atomic);
+    }
+
+    public Bucket(TokenBucket tb, int multiplier, int refill,
+                  StatisticalCounter counter, int index,
+                  boolean atomic) {
         this.tb = tb;
         this.multiplier = multiplier;
+        this.refill = refill;
         this.counter = counter;
         this.index = index;
         this.atomic = atomic;
@@ -55,7 +71,7 @@ public class Bucket {
      * for symmetry.
      */
     public void prepare() {
-        tokens = tb.tryGet(1) * multiplier;
+        tokens = tb.tryGet(refill) * multiplier;
     }
 
     /* Tries to consume a token from the bucket, returning true or
@@ -71,8 +87,9 @@ public class Bucket {
             return true;
         }
 
-        if (tb.tryGet(1) == 1) {
-            tokens = multiplier - 1;
+        int acquired = tb.tryGet(refill);
+        if (acquired > 0) {
+            tokens = acquired * multiplier - 1;
             return true;
         }
 
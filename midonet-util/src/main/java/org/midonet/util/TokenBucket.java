@@ -16,6 +16,9 @@
 
 package org.midonet.util;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,6 +31,12 @@ import static java.util.Arrays.copyOf;
  * recursively among the root's children. When all the buckets in a level of
  * the hierarchy are full, they accumulate in the parent bucket. Tokens can
  * only be retrieved from the leaf buckets.
+ *
+ * Linking, unlinking and resizing buckets do not block: the children of a
+ * bucket are an immutable snapshot that is replaced with a compare-and-set,
+ * and a distribution works on the snapshots it finds when it starts. The
+ * tokens a distribution reserves for a bucket that is concurrently unlinked
+ * are given back to the root.
  */
 public class TokenBucket {
     public static final int UNLINKED = -1;
@@ -35,20 +44,78 @@ public class TokenBucket {
     static final Logger log = LoggerFactory.getLogger("org.midonet.io.htb");
     static final boolean isTraceEnabled = log.isTraceEnabled();
 
+    private static final AtomicReferenceFieldUpdater<TokenBucket, Children>
+        CHILDREN = AtomicReferenceFieldUpdater.newUpdater(
+            TokenBucket.class, Children.class, "children");
+    private static final AtomicIntegerFieldUpdater<TokenBucket> CAPACITY =
+        AtomicIntegerFieldUpdater.newUpdater(TokenBucket.class, "capacity");
+
+    /* An immutable set of children. As we ensure the size of the array is
+     * always a power of 2, we can use the bitwise & operator to implement the
+     * modulo operation instead of the much more expensive % operator. We do
+     * that by doing a bitwise & between the index and the mask.
+     */
+    static final class Children {
+        static final Children EMPTY = new Children(new TokenBucket[0], 0);
+
+        final TokenBucket[] buckets;
+        final int count;
+        final int mask;
+
+        private Children(TokenBucket[] buckets, int count) {
+            this.buckets = buckets;
+            this.count = count;
+            this.mask = buckets.length - 1;
+        }
+
+        Children with(TokenBucket tb) {
+            TokenBucket[] array;
+            int idx = indexOf(null);
+            if (idx < 0) {
+                idx = buckets.length;
+                array = copyOf(buckets, Math.max(4, buckets.length << 1));
+            } else {
+                array = buckets.clone();
+            }
+            array[idx] = tb;
+            return new Children(array, count + 1);
+        }
+
+        /* Returns the children without the specified bucket, or null if the
+         * bucket is not a child.
+         */
+        Children without(TokenBucket tb) {
+            int idx = indexOf(tb);
+            if (idx < 0)
+                return null;
+            TokenBucket[] array = buckets.clone();
+            array[idx] = null;
+            return new Children(array, count - 1);
+        }
+
+        private int indexOf(TokenBucket tb) {
+            for (int i = 0; i < buckets.length; ++i) {
+                if (buckets[i] == tb)
+                    return i;
+            }
+            return -1;
+        }
+    }
+
     final PaddedAtomicInteger numTokens = new PaddedAtomicInteger();
     protected final String name;
     private final RootTokenBucket root;
     private final TokenBucket parent;
 
-    protected int capacity;
-    private int numChildren;
-    protected TokenBucket[] children = new TokenBucket[0];
-    /* As we ensure the size of the children array is always a multiple of 2,
-     * we can use the bitwise & operator to implement the modulo operation
-     * instead of the much more expensive % operator. We do that by doing a
-     * bitwise & between the index and the mask.f
+    protected volatile int capacity;
+    protected volatile Children children = Children.EMPTY;
+
+    /* The children this bucket distributes tokens to during the current
+     * distribution, such that the reserved tokens are applied to the same
+     * buckets they were reserved for, even if the bucket's children change
+     * in the meantime. Only accessed by the distributing thread.
      */
-    private int mask;
+    private Children distributing;
 
     /* To amortize the costs of having multiple distribution iterations, we keep
      * this distribution-private counter at each bucket where we accumulate this
@@ -79,7 +146,7 @@ public class TokenBucket {
     public void dumpToLog() {
         log.info("name:{} cap:{} tokens:{}", name, capacity, numTokens.get());
 
-        for (TokenBucket child : children) {
+        for (TokenBucket child : children.buckets) {
             if (child != null)
                 child.dumpToLog();
         }
@@ -88,49 +155,34 @@ public class TokenBucket {
     /* Creates a new TokenBucket and links it as a child of this bucket.
      */
     public final TokenBucket link(int capacity, String name) {
-        root.lock();
-        try {
-            String n = this.name + "/" + name;
-            TokenBucket ntb = new TokenBucket(capacity, n, this);
-            int idx = findFreeIndex();
-            if (idx < 0) {
-                idx = children.length;
-                growArray();
-            }
-
-            children[idx] = ntb;
-            numChildren += 1;
+        TokenBucket ntb = new TokenBucket(capacity, this.name + "/" + name, this);
+        Children current;
+        do {
+            current = children;
+        } while (!CHILDREN.compareAndSet(this, current, current.with(ntb)));
 
-            return ntb;
-        } finally {
-            root.unlock();
-            root.tryDistribute();
-        }
+        root.tryDistribute();
+        return ntb;
     }
 
     /* Unlinks this TokenBucket from its parent and returns the amount of
      * tokens that it held.
      */
     public final int unlink() {
-        root.lock();
-        try {
-            if (isUnlinked() || parent == null)
-                return 0;
+        if (parent == null)
+            return 0;
 
-            TokenBucket[] siblings = parent.children;
-            for (int i = 0; i < siblings.length; ++i) {
-                if (siblings[i] == this) {
-                    siblings[i] = null;
-                    parent.numChildren -= 1;
-                    return numTokens.getAndSet(UNLINKED);
-                }
-            }
+        Children current, next;
+        do {
+            current = parent.children;
+            next = current.without(this);
+            if (next == null)
+                return 0;
+        } while (!CHILDREN.compareAndSet(parent, current, next));
 
-            return 0;
-        } finally {
-            root.unlock();
-            root.tryDistribute();
-        }
+        int tokens = numTokens.getAndSet(UNLINKED);
+        root.tryDistribute();
+        return Math.max(0, tokens);
     }
 
     public final int getCapacity() {
@@ -138,17 +190,21 @@ public class TokenBucket {
     }
 
     public final void setCapacity(int capacity) {
-        root.lock();
-        try {
-            this.capacity = capacity;
-            int ts;
-            do {
-                ts = numTokens.get();
-            } while (ts > capacity && !numTokens.compareAndSet(ts, capacity));
-        } finally {
-            root.unlock();
-            root.tryDistribute();
-        }
+        this.capacity = capacity;
+        clampTokens(capacity);
+        root.tryDistribute();
+    }
+
+    /* Atomically sets the capacity of this bucket to the specified value, if
+     * the current capacity equals the expected value.
+     */
+    public final boolean compareAndSetCapacity(int expect, int update) {
+        if (!CAPACITY.compareAndSet(this, expect, update))
+            return false;
+
+        clampTokens(update);
+        root.tryDistribute();
+        return true;
     }
 
     public final String getName() {
@@ -168,7 +224,7 @@ public class TokenBucket {
      * [0, tokens]. The method is thread-safe and wait-free.
      */
     public int tryGet(int tokens) {
-        if (numChildren > 0)
+        if (children.count > 0)
             throw new IllegalArgumentException("Can only get tokens " +
                                                "from leaf buckets");
 
@@ -202,21 +258,11 @@ public class TokenBucket {
         return tokens;
     }
 
-    private void growArray() {
-        children = copyOf(children, Math.max(4, children.length << 1));
-        mask = children.length - 1;
-    }
-
-    private int findFreeIndex() {
-        for (int i = 0; i < children.length; ++i) {
-            if (children[i] == null)
-                return i;
-        }
-        return -1;
-    }
-
-    private boolean isUnlinked() {
-        return numTokens.get() == UNLINKED;
+    private void clampTokens(int capacity) {
+        int ts;
+        do {
+            ts = numTokens.get();
+        } while (ts > capacity && !numTokens.compareAndSet(ts, capacity));
     }
 
     private int tryTakeTokens(int tokens) {
@@ -230,18 +276,19 @@ public class TokenBucket {
     }
 
     /* This method performs a distribution of the specified amount of tokens
-     * among this bucket's children. It returns any excess tokens that couldn't
-     * be distributed.
+     * among the specified children of this bucket. It returns any excess
+     * tokens that couldn't be distributed.
      */
-    final int doDistribution(int tokens) {
+    final int doDistribution(Children children, int tokens) {
+        TokenBucket[] buckets = children.buckets;
         boolean hasNonFullChildren;
         do {
             /* Give tokens to each non-full bucket. Note that a full bucket
              * may concurrently become non-full.
              */
             hasNonFullChildren = false;
-            for (int i = 0; i < children.length; ++i) {
-                TokenBucket tb = children[(distributionIndex + i) & mask];
+            for (int i = 0; i < buckets.length; ++i) {
+                TokenBucket tb = buckets[(distributionIndex + i) & children.mask];
                 if (tb != null && tb.reserve()) {
                     hasNonFullChildren = true;
                     if ((tokens -= 1) == 0) {
@@ -263,10 +310,19 @@ public class TokenBucket {
      * so we can save atomic instructions.
      */
     private boolean reserve() {
-        if (numChildren > 0) {
+        Children snapshot = distributing;
+        if (snapshot == null)
+            distributing = snapshot = children;
+
+        int ts = numTokens.get();
+        if (ts == UNLINKED)
+            return false;
+
+        int capacity = this.capacity;
+        if (snapshot.count > 0) {
             int tokens = 1 + getAndClearAccumulatedTokens() +
                          getAndClearReservedTokens();
-            int toAccumulate = doDistribution(tokens);
+            int toAccumulate = doDistribution(snapshot, tokens);
 
             // We can only go over capacity by one
             if (toAccumulate > capacity) {
@@ -277,7 +333,7 @@ public class TokenBucket {
             return true;
         }
 
-        if (reservedTokens + numTokens.get() == capacity)
+        if (reservedTokens + ts >= capacity)
             return false;
         reservedTokens += 1;
         return true;
@@ -285,41 +341,58 @@ public class TokenBucket {
 
     /* This method adds the reserved tokens to the running token counter.
      * As only one distribution happens at a time, we are guaranteed there
-     * will be space for the reserved tokens. We are also guaranteed buckets
-     * aren't concurrently unlinked.
+     * will be space for the reserved tokens, unless the capacity was reduced
+     * concurrently. The method returns the tokens that were reserved for
+     * buckets concurrently unlinked, which the caller must give back.
      */
-    final void applyReserved() {
+    final int applyReserved() {
+        Children snapshot = distributing;
+        if (snapshot == null)
+            return 0;
+        distributing = null;
+
         if (isTraceEnabled) {
             log.trace("[{}|{}] got {} new tokens",
                     Thread.currentThread().getId(), name, reservedTokens);
         }
 
+        int unapplied = 0;
         if (reservedTokens > 0) {
-            if (numChildren > 0) {
-                // This is called under the distribution lock, so we don't need
-                // atomic operations on numTokens.
-                numTokens.set(reservedTokens);
-            }
-            else {
-                numTokens.addAndGet(reservedTokens);
-            }
-
+            int ts;
+            do {
+                ts = numTokens.get();
+                if (ts == UNLINKED) {
+                    unapplied = reservedTokens;
+                    break;
+                }
+                // The accumulated tokens of a bucket with children were
+                // cleared when reserving, so we replace them.
+            } while (!numTokens.compareAndSet(
+                         ts, snapshot.count > 0 ? reservedTokens
+                                                : ts + reservedTokens));
             reservedTokens = 0;
         }
 
-        for (TokenBucket tb : children) {
+        return unapplied + applyReserved(snapshot);
+    }
+
+    static int applyReserved(Children children) {
+        int unapplied = 0;
+        for (TokenBucket tb : children.buckets) {
             if (tb != null)
-                tb.applyReserved();
+                unapplied += tb.applyReserved();
         }
+        return unapplied;
     }
 
     private int getAndClearAccumulatedTokens() {
-        // This is called under the distribution lock, so we don't need
-        // atomic operations on numTokens.
-        int tokens = numTokens.get();
-        if (tokens > 0)
-            numTokens.set(0);
-        return tokens;
+        // Only distributions, which are serialized, and unlinks modify the
+        // tokens of a bucket with children.
+        int ts;
+        do {
+            ts = numTokens.get();
+        } while (ts > 0 && !numTokens.compareAndSet(ts, 0));
+        return Math.max(0, ts);
     }
 
     private int getAndClearReservedTokens() {
@@ -427,20 +500,19 @@ final class RootTokenBucket extends TokenBucket {
      */
     final void tryDistribute() {
         if (tryLock()) {
-            int newTokens = rate.getNewTokens() + numTokens.get();
+            int newTokens = rate.getNewTokens() + numTokens.getAndSet(0);
             if (newTokens > 0) {
                 if (isTraceEnabled) {
                     log.trace("[{}|{}] distributing {} new tokens",
                               Thread.currentThread().getId(), name, newTokens);
                 }
 
-                int excess = doDistribution(newTokens);
-                numTokens.set(Math.min(excess, capacity));
-
-                for (TokenBucket tb : children) {
-                    if (tb != null)
-                        tb.applyReserved();
-                }
+                Children snapshot = children;
+                int excess = doDistribution(snapshot, newTokens);
+                excess += applyReserved(snapshot);
+                // Tokens may have been added concurrently, so we add the
+                // excess rather than setting it.
+                addTokens(excess);
 
                 if (isTraceEnabled) {
                     log.trace("[{}|{}] finished distribution with {} excess tokens",
@@ -461,14 +533,6 @@ final class RootTokenBucket extends TokenBucket {
         }
     }
 
-    /* Prevents distributions from happening. Note that concurrent tryGet
-     * operations are still possible.
-     */
-    final void lock() {
-        while (!tryLock())
-            Thread.yield();
-    }
-
     final boolean tryLock() {
         return distributionInProgress.compareAndSet(0, 1);
     }
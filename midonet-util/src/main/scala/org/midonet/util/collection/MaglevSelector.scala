@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.util.collection
+
+import scala.reflect.ClassTag
+
+/**
+ * Constructs a MaglevSelector for a traversable collection of objects with
+ * weights. Every object must have a stable key, which determines the position
+ * of the object in the lookup table: selectors built from the same objects
+ * and keys, in any order, have the same lookup table.
+ *
+ * Throws an IllegalArgumentException if ts has no element with weight > 0.
+ */
+object MaglevSelector {
+
+    /** The prime size of every lookup table. The size does not depend on
+      * the number of objects, since changing it would remap almost every
+      * hash when objects are added or removed. */
+    final val TableSize = 65537
+
+    def apply[T <: HasWeight : ClassTag](ts: Traversable[T])(key: T => Long)
+    : MaglevSelector[T] = {
+        val objects = ts.filter(_.weight > 0).toArray.sortBy(key)
+        if (objects.isEmpty)
+            throw new IllegalArgumentException(
+                "Ts must have at least one element with weight > 0.")
+
+        new MaglevSelector[T](objects, buildTable(objects, TableSize, key))
+    }
+
+    /**
+     * Builds the lookup table using the population algorithm from the Maglev
+     * paper: every object has a permutation of the table entries, determined
+     * by an offset and a skip derived from its key, and the objects take
+     * turns to claim their next preferred entry that is still empty. An
+     * object claims as many entries per turn as its weight divided by the
+     * greatest common divisor of all weights.
+     */
+    private def buildTable[T <: HasWeight](objects: Array[T], size: Int,
+                                           key: T => Long): Array[Int] = {
+        val count = objects.length
+        val offsets = new Array[Long](count)
+        val skips = new Array[Long](count)
+        val next = new Array[Long](count)
+        val turns = new Array[Int](count)
+
+        var divisor = 0
+        var index = 0
+        while (index < count) {
+            divisor = gcd(divisor, objects(index).weight)
+            index += 1
+        }
+
+        index = 0
+        while (index < count) {
+            val k = key(objects(index))
+            offsets(index) = Math.floorMod(mix(k ^ 0x9E3779B97F4A7C15L), size)
+            skips(index) = Math.floorMod(mix(k ^ 0xC2B2AE3D27D4EB4FL),
+                                         size - 1) + 1
+            turns(index) = objects(index).weight / divisor
+            index += 1
+        }
+
+        val table = Array.fill(size)(-1)
+        var filled = 0
+        while (filled < size) {
+            index = 0
+            while (index < count && filled < size) {
+                var turn = 0
+                while (turn < turns(index) && filled < size) {
+                    var entry = ((offsets(index) + next(index) * skips(index)) %
+                                 size).toInt
+                    while (table(entry) >= 0) {
+                        next(index) += 1
+                        entry = ((offsets(index) + next(index) * skips(index)) %
+                                 size).toInt
+                    }
+                    table(entry) = index
+                    next(index) += 1
+                    filled += 1
+                    turn += 1
+                }
+                index += 1
+            }
+        }
+        table
+    }
+
+    /** The 64-bit finalizer of MurmurHash3. */
+    private def mix(value: Long): Long = {
+        var h = value
+        h ^= h >>> 33
+        h *= 0xFF51AFD7ED558CCDL
+        h ^= h >>> 33
+        h *= 0xC4CEB9FE1A85EC53L
+        h ^= h >>> 33
+        h
+    }
+
+    private def gcd(a: Int, b: Int): Int = if (b == 0) a else gcd(b, a % b)
+}
+
+/**
+ * Performs consistent hash selection from a Maglev lookup table. Unlike the
+ * [[WeightedSelector]], the same hash always selects the same object, and
+ * adding or removing an object changes the selection for approximately the
+ * fraction of hashes that map to that object. Constructor is private; use
+ * companion object to create instances.
+ */
+class MaglevSelector[T] private (objects: Array[T], table: Array[Int]) {
+
+    /** The number of entries in the lookup table. */
+    def size: Int = table.length
+
+    /** Selects the object for the given hash. */
+    def select(hash: Int): T = {
+        objects(table((hash & Int.MaxValue) % table.length))
+    }
+}
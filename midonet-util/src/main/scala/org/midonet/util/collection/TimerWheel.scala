@@ -0,0 +1,346 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.util.collection
+
+import java.lang.{Long => JLong}
+
+object TimerWheel {
+
+    final val SlotBits = 8
+    final val Slots = 1 << SlotBits
+    final val SlotMask = Slots - 1
+    final val Levels = 4
+
+    private final val WordsPerLevel = Slots / 64
+
+    /**
+      * A timer that can be scheduled in a [[TimerWheel]]. A timer can be
+      * scheduled in at most one wheel at a time, and it is unlinked from
+      * the wheel before its [[Timer.expire()]] method is called, such that
+      * the method may schedule the timer again.
+      */
+    abstract class Timer {
+
+        private[TimerWheel] var wheelDeadline = 0L
+        private[TimerWheel] var wheelTick = 0L
+        private[TimerWheel] var wheelList: TimerList = null
+        private[TimerWheel] var wheelPrev: Timer = null
+        private[TimerWheel] var wheelNext: Timer = null
+
+        /**
+          * Called by the wheel when the timer expires.
+          */
+        def expire(): Unit
+
+        /**
+          * @return True if the timer is scheduled in a wheel.
+          */
+        def isScheduled: Boolean = wheelList ne null
+
+        /**
+          * @return The deadline of the timer when it was last scheduled.
+          */
+        def timerDeadline: Long = wheelDeadline
+
+        /**
+          * Cancels the timer, if it is scheduled. This is an O(1) operation.
+          */
+        def cancel(): Unit = {
+            if (wheelList ne null) wheelList.remove(this)
+        }
+    }
+
+    /**
+      * An intrusive doubly-linked list of timers, used for the wheel slots.
+      */
+    private[TimerWheel] final class TimerList(wheel: TimerWheel,
+                                              val level: Int,
+                                              val slot: Int) {
+        var head: Timer = null
+
+        def isEmpty: Boolean = head eq null
+
+        def add(timer: Timer): Unit = {
+            if (head eq null) wheel.occupy(level, slot)
+            timer.wheelList = this
+            timer.wheelPrev = null
+            timer.wheelNext = head
+            if (head ne null) head.wheelPrev = timer
+            head = timer
+            wheel.count += 1
+        }
+
+        def remove(timer: Timer): Unit = {
+            if (timer.wheelPrev ne null) timer.wheelPrev.wheelNext = timer.wheelNext
+            else head = timer.wheelNext
+            if (timer.wheelNext ne null) timer.wheelNext.wheelPrev = timer.wheelPrev
+            timer.wheelList = null
+            timer.wheelPrev = null
+            timer.wheelNext = null
+            if (head eq null) wheel.release(level, slot)
+            wheel.count -= 1
+        }
+
+        /**
+          * Removes all timers from the list, returning its former head.
+          */
+        def detach(): Timer = {
+            var timer = head
+            val first = head
+            while (timer ne null) {
+                timer.wheelList = null
+                timer = timer.wheelNext
+                wheel.count -= 1
+            }
+            head = null
+            if (first ne null) wheel.release(level, slot)
+            first
+        }
+    }
+}
+
+/**
+  * A hierarchical timer wheel, which schedules and cancels timers in O(1)
+  * time, and whose expiration cost is proportional to the number of expired
+  * timers rather than to the number of scheduled timers.
+  *
+  * The wheel has [[TimerWheel.Levels]] levels of [[TimerWheel.Slots]] slots
+  * each, where a slot at level `k` spans `Slots^k` ticks of `resolution`
+  * milliseconds. A timer is placed at the lowest level whose range covers its
+  * deadline, and it is moved to the lower levels as the wheel advances, such
+  * that it expires at the tick of its deadline. With the default resolution
+  * of one millisecond the wheel covers about 49 days, and the timers beyond
+  * that range are kept in an overflow list until they come into range.
+  *
+  * Timers expire at most `resolution - 1` milliseconds after their deadline,
+  * and never before it. The wheel skips over the empty slots using a bitmap
+  * of the occupied slots, such that advancing an idle wheel is cheap
+  * regardless of the elapsed time.
+  *
+  * This class is not thread-safe.
+  */
+final class TimerWheel(startTime: Long, resolution: Long = 1L) {
+
+    import TimerWheel._
+
+    require(resolution > 0, "The resolution must be positive")
+
+    private var currentTick = startTime / resolution
+    private[collection] var count = 0
+
+    private val wheel = Array.tabulate(Levels, Slots) {
+        (level, slot) => new TimerList(this, level, slot)
+    }
+    private val occupied = new Array[Long](Levels * WordsPerLevel)
+    private val overflow = new TimerList(this, Levels, 0)
+    private val expired = new TimerList(this, Levels + 1, 0)
+
+    /**
+      * @return The number of scheduled timers.
+      */
+    def size: Int = count
+
+    def isEmpty: Boolean = count == 0
+
+    /**
+      * @return The time the wheel has advanced to.
+      */
+    def time: Long = currentTick * resolution
+
+    /**
+      * Schedules the timer to expire at the given deadline, rescheduling it
+      * if already scheduled. A deadline in the past expires the timer on the
+      * next call to [[advance()]].
+      */
+    def schedule(timer: Timer, deadline: Long): Unit = {
+        timer.cancel()
+        timer.wheelDeadline = deadline
+        // Round up, such that a timer never expires before its deadline.
+        timer.wheelTick =
+            if (deadline >= Long.MaxValue - resolution) Long.MaxValue
+            else Math.floorDiv(deadline + resolution - 1, resolution)
+        place(timer)
+    }
+
+    /**
+      * Returns a lower bound for the deadline of the next timer to expire,
+      * or [[Long.MaxValue]] if there are no scheduled timers. The bound is
+      * exact for the timers that are within one level-0 revolution of the
+      * current time, and otherwise it is the start of the slot that holds
+      * the timer.
+      */
+    def nextDeadline: Long = {
+        if (count == 0) Long.MaxValue
+        else if (!expired.isEmpty) time
+        else {
+            val tick = nextTick()
+            if (tick == Long.MaxValue || tick > Long.MaxValue / resolution)
+                Long.MaxValue
+            else tick * resolution
+        }
+    }
+
+    /**
+      * Advances the wheel to the given time, expiring all timers whose
+      * deadline is at or before that time. The timers expire in the order
+      * of their ticks, and the timers scheduled during the expiration of
+      * other timers expire in the same call if they are due.
+      *
+      * @return The number of expired timers.
+      */
+    def advance(now: Long): Int = {
+        val target = Math.floorDiv(now, resolution)
+        var fired = expireList(expired.detach())
+        while (currentTick < target) {
+            if (count == 0) {
+                currentTick = target
+            } else {
+                val next = nextTick()
+                if (next > target) {
+                    currentTick = target
+                } else {
+                    currentTick = next
+                    cascade()
+                    fired += expireList(
+                        wheel(0)(slotIndex(currentTick, 0)).detach())
+                }
+            }
+            fired += expireList(expired.detach())
+        }
+        fired
+    }
+
+    private def slotIndex(tick: Long, level: Int): Int =
+        ((tick >>> (level * SlotBits)) & SlotMask).toInt
+
+    private def place(timer: Timer): Unit = {
+        val tick = timer.wheelTick
+        if (tick <= currentTick) {
+            expired.add(timer)
+            return
+        }
+        var level = 0
+        while (level < Levels) {
+            val shift = (level + 1) * SlotBits
+            if ((tick >>> shift) == (currentTick >>> shift)) {
+                wheel(level)(slotIndex(tick, level)).add(timer)
+                return
+            }
+            level += 1
+        }
+        overflow.add(timer)
+    }
+
+    /**
+      * Moves the timers in the slots starting at the current tick to the
+      * lower levels, from the highest level down, such that the level 0
+      * slot of the current tick holds all timers expiring at this tick.
+      */
+    private def cascade(): Unit = {
+        if ((currentTick & ((1L << (Levels * SlotBits)) - 1)) == 0) {
+            replace(overflow.detach())
+        }
+        var level = Levels - 1
+        while (level > 0) {
+            if ((currentTick & ((1L << (level * SlotBits)) - 1)) == 0) {
+                replace(wheel(level)(slotIndex(currentTick, level)).detach())
+            }
+            level -= 1
+        }
+    }
+
+    private def replace(head: Timer): Unit = {
+        var timer = head
+        while (timer ne null) {
+            val next = timer.wheelNext
+            timer.wheelPrev = null
+            timer.wheelNext = null
+            place(timer)
+            timer = next
+        }
+    }
+
+    private def expireList(head: Timer): Int = {
+        var fired = 0
+        var timer = head
+        while (timer ne null) {
+            val next = timer.wheelNext
+            timer.wheelPrev = null
+            timer.wheelNext = null
+            fired += 1
+            timer.expire()
+            timer = next
+        }
+        fired
+    }
+
+    /**
+      * Returns the first tick after the current tick at which a slot must
+      * be processed, or [[Long.MaxValue]] if there are no such ticks.
+      */
+    private def nextTick(): Long = {
+        var result = Long.MaxValue
+        var level = 0
+        while (level < Levels) {
+            val slot = nextOccupied(level, slotIndex(currentTick, level) + 1)
+            if (slot >= 0) {
+                val shift = level * SlotBits
+                val base = (currentTick >>> (shift + SlotBits)) <<
+                           (shift + SlotBits)
+                val tick = base | (slot.toLong << shift)
+                if (tick < result) result = tick
+            }
+            level += 1
+        }
+        if (!overflow.isEmpty) {
+            val shift = Levels * SlotBits
+            val tick = ((currentTick >>> shift) + 1) << shift
+            if (tick < result) result = tick
+        }
+        result
+    }
+
+    /**
+      * Returns the index of the first occupied slot at the given level
+      * starting from the given slot, or -1 if there are no such slots.
+      */
+    private def nextOccupied(level: Int, from: Int): Int = {
+        if (from >= Slots) return -1
+        var word = from >>> 6
+        var bits = occupied(level * WordsPerLevel + word) & (-1L << (from & 63))
+        while (bits == 0) {
+            word += 1
+            if (word == WordsPerLevel) return -1
+            bits = occupied(level * WordsPerLevel + word)
+        }
+        (word << 6) + JLong.numberOfTrailingZeros(bits)
+    }
+
+    private[collection] def occupy(level: Int, slot: Int): Unit = {
+        if (level < Levels) {
+            val index = level * WordsPerLevel + (slot >>> 6)
+            occupied(index) |= 1L << (slot & 63)
+        }
+    }
+
+    private[collection] def release(level: Int, slot: Int): Unit = {
+        if (level < Levels) {
+            val index = level * WordsPerLevel + (slot >>> 6)
+            occupied(index) &= ~(1L << (slot & 63))
+        }
+    }
+}
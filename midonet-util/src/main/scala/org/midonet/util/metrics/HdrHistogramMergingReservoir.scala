@@ -0,0 +1,56 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.util.metrics
+
+import java.util.concurrent.CopyOnWriteArrayList
+
+import com.codahale.metrics.{Reservoir, Snapshot}
+import org.HdrHistogram.Histogram
+
+/*
+ * Metrics latency reservoir that merges, when read, the time windows of a
+ * set of sliding time window reservoirs, such as the reservoirs that each
+ * packet worker updates without contention. The reservoir does not record
+ * values of its own.
+ */
+class HdrHistogramMergingReservoir extends Reservoir {
+    private val reservoirs =
+        new CopyOnWriteArrayList[HdrHistogramSlidingTimeWindowReservoir]()
+
+    private val snapshotHistogram = new Histogram(3600000000L, 3)
+    private val snapshot = new HdrHistogramSnapshot(snapshotHistogram)
+
+    def add(reservoir: HdrHistogramSlidingTimeWindowReservoir): Unit =
+        reservoirs.add(reservoir)
+
+    def remove(reservoir: HdrHistogramSlidingTimeWindowReservoir): Unit =
+        reservoirs.remove(reservoir)
+
+    override def size: Int = getSnapshot.size
+
+    override def update(value: Long): Unit =
+        throw new UnsupportedOperationException(
+            "Values must be recorded in the merged reservoirs")
+
+    override def getSnapshot: Snapshot = synchronized {
+        snapshotHistogram.reset()
+        val iterator = reservoirs.iterator()
+        while (iterator.hasNext) {
+            iterator.next().addTo(snapshotHistogram)
+        }
+        snapshot
+    }
+}
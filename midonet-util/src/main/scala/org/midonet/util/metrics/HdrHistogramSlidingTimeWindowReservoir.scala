@@ -56,23 +56,7 @@ class HdrHistogramSlidingTimeWindowReservoir(window: Long, unit: TimeUnit,
 
     val snapshotHistogram = new Histogram(3600000000L, 3)
     val tmpHistogram = new Histogram(3600000000L, 3)
-    val snapshot = new Snapshot() {
-        def getValue(quantile: Double): Double =
-            snapshotHistogram.getValueAtPercentile(quantile)
-
-        def size: Int = snapshotHistogram.getTotalCount.toInt
-        def getMax: Long = snapshotHistogram.getMaxValue
-        def getMean: Double = snapshotHistogram.getMean
-        def getMin: Long = snapshotHistogram.getMinValue
-        def getStdDev: Double = snapshotHistogram.getStdDeviation
-
-        // this is a noop, because you can't get all values from hdr histogram
-        val getValues: Array[Long] = new Array[Long](0)
-
-        def dump(output: OutputStream): Unit = {
-            // noop, you can't get all values from hdr histogram
-        }
-    }
+    val snapshot = new HdrHistogramSnapshot(snapshotHistogram)
 
     override def size: Int = getSnapshot.size
 
@@ -83,7 +67,15 @@ class HdrHistogramSlidingTimeWindowReservoir(window: Long, unit: TimeUnit,
 
     override def getSnapshot: Snapshot = {
         snapshotHistogram.reset()
+        addTo(snapshotHistogram)
+        snapshot
+    }
 
+    /**
+     * Adds the values of the current time window to the given histogram,
+     * such that the windows of several reservoirs can be merged on read.
+     */
+    def addTo(histogram: Histogram): Unit = {
         snapshotLock.lock()
         try {
             val currentTimeSlot = clock.getTick() >> stepShift
@@ -95,22 +87,20 @@ class HdrHistogramSlidingTimeWindowReservoir(window: Long, unit: TimeUnit,
 
             val bucket = (currentTimeSlot & bucketsMask).toInt
             measurements(bucket).add(tmpHistogram)
-            snapshotHistogram.add(measurements(bucket))
+            histogram.add(measurements(bucket))
 
             // copy previous buckets that make up window into snapshot
             var i = (currentTimeSlot - bucketsPerWindow) + 1
             while (i < currentTimeSlot) {
                 val bucket = (i & bucketsMask).toInt
                 if (measurements(bucket).getTotalCount > 0) {
-                    snapshotHistogram.add(measurements(bucket))
+                    histogram.add(measurements(bucket))
                 }
                 i += 1
             }
         } finally {
             snapshotLock.unlock()
         }
-
-        snapshot
     }
 
     private def getCurrentRecorder(currentTimeSlot: Long): Recorder = {
@@ -149,3 +139,25 @@ class HdrHistogramSlidingTimeWindowReservoir(window: Long, unit: TimeUnit,
         }
     }
 }
+
+/*
+ * Metrics snapshot of the values recorded in a HdrHistogram.
+ */
+class HdrHistogramSnapshot(histogram: Histogram) extends Snapshot {
+    // metrics quantiles are in [0, 1], hdr histogram percentiles in [0, 100]
+    def getValue(quantile: Double): Double =
+        histogram.getValueAtPercentile(quantile * 100)
+
+    def size: Int = histogram.getTotalCount.toInt
+    def getMax: Long = histogram.getMaxValue
+    def getMean: Double = histogram.getMean
+    def getMin: Long = histogram.getMinValue
+    def getStdDev: Double = histogram.getStdDeviation
+
+    // this is a noop, because you can't get all values from hdr histogram
+    val getValues: Array[Long] = new Array[Long](0)
+
+    def dump(output: OutputStream): Unit = {
+        // noop, you can't get all values from hdr histogram
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the contention on the hierarchical token bucket when many input
+ * threads read packets from their own channels. Each thread owns a leaf
+ * bucket, under the root or under the VMs bucket, and every read event
+ * consumes up to a batch of tokens, which the processed packets return to
+ * the thread's slot of the system counter.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenBucketBenchmark {
+    final static int MULTIPLIER = 8;
+    final static int BATCH = 32;
+    final static int SLOTS = 64;
+
+    final AtomicInteger threadIndex = new AtomicInteger(0);
+
+    @Param({"1", "4"})
+    public int refill;
+
+    StatisticalCounter counter;
+    TokenBucket root;
+    TokenBucket vms;
+
+    @Setup
+    public void setup() {
+        counter = new StatisticalCounter(SLOTS);
+        root = TokenBucket.create(1024, "root",
+                                  new TokenBucketSystemRate(counter, MULTIPLIER));
+        root.addTokens(root.getCapacity());
+        vms = root.link(0, "vms");
+    }
+
+    @State(Scope.Thread)
+    public static class Channel {
+        int index;
+        Bucket bucket;
+
+        @Setup
+        public void setup(TokenBucketBenchmark b) {
+            index = b.threadIndex.getAndIncrement() % SLOTS;
+            TokenBucket parent = index % 2 == 0 ? b.root : b.vms;
+            bucket = new Bucket(parent.link(32, "channel-" + index),
+                                MULTIPLIER, b.refill, b.counter, index, true);
+        }
+    }
+
+    int readEvent(Channel channel) {
+        channel.bucket.prepare();
+        int packets = 0;
+        while (packets < BATCH && channel.bucket.consumeToken()) {
+            packets++;
+        }
+        channel.bucket.done();
+        // The packet workers return the tokens of the processed packets.
+        counter.addAndGetAtomic(channel.index, packets);
+        return packets;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int threads01(Channel channel) {
+        return readEvent(channel);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public int threads02(Channel channel) {
+        return readEvent(channel);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int threads04(Channel channel) {
+        return readEvent(channel);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public int threads08(Channel channel) {
+        return readEvent(channel);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public int threads16(Channel channel) {
+        return readEvent(channel);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public int threads32(Channel channel) {
+        return readEvent(channel);
+    }
+
+    // Measures linking and unlinking channels while other channels read.
+    @Benchmark
+    @Threads(8)
+    public int linkUnlink(Channel channel) {
+        if (channel.index % 4 == 0) {
+            TokenBucket tb = vms.link(32, "port");
+            return tb.unlink();
+        }
+        return readEvent(channel);
+    }
+}
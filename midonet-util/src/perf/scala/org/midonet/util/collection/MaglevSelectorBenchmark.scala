@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.util.collection
+
+import java.util.concurrent.TimeUnit
+
+import scala.util.Random
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+object MaglevSelectorBenchmark {
+    case class Member(key: Long, weight: Int) extends HasWeight
+}
+
+/**
+ * Compares the selection cost of the [[MaglevSelector]] with the
+ * [[WeightedSelector]], and measures the cost of building the Maglev table,
+ * which is paid every time the members of a pool change.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+@org.openjdk.jmh.annotations.Threads(1)
+class MaglevSelectorBenchmark {
+
+    import MaglevSelectorBenchmark._
+
+    @Param(Array("2", "8", "32", "128"))
+    var members: Int = _
+
+    private var objects: Seq[Member] = _
+    private var maglev: MaglevSelector[Member] = _
+    private var weighted: WeightedSelector[Member] = _
+    private var hash = 0
+
+    @JmhSetup
+    def setup(): Unit = {
+        val random = new Random(members)
+        objects = for (_ <- 0 until members) yield
+            Member(random.nextLong(), 1 + random.nextInt(4))
+        maglev = MaglevSelector(objects)(_.key)
+        weighted = WeightedSelector(objects)
+    }
+
+    @Benchmark
+    def weightedSelect(): Member = {
+        weighted.select()
+    }
+
+    @Benchmark
+    def maglevSelect(): Member = {
+        hash += 0x9E3779B9
+        maglev.select(hash)
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    def maglevBuild(): MaglevSelector[Member] = {
+        MaglevSelector(objects)(_.key)
+    }
+}
@@ -295,6 +295,64 @@ class TokenBucketTest extends FeatureSpec with Matchers {
             privateCounters.sum / multiplier - totalTokens should be < multiplier.toLong
         }
     }
+
+    feature("Bucket caches tokens") {
+        scenario("A bucket takes tokens in bulk from its leaf") {
+            val multiplier = 2
+            val c = new StatisticalCounter(1)
+            val tb = TokenBucket.create(100, "root", new TokenBucketTestRate)
+                                .link(100, "bucket")
+            val bucket = new org.midonet.util.Bucket(tb, multiplier, 4, c, 0,
+                                                     false)
+
+            tb.addTokens(6)
+            bucket.prepare()
+            tb.getNumTokens should be (2)
+
+            for (_ <- 0 until 4 * multiplier) {
+                bucket.consumeToken() should be (true)
+            }
+            tb.getNumTokens should be (2)
+
+            bucket.consumeToken() should be (true)
+            tb.getNumTokens should be (0)
+
+            bucket.done()
+            c.getValue should be (2 * multiplier - 1)
+        }
+    }
+
+    feature("Buckets are linked and unlinked concurrently") {
+        scenario("Tokens are neither created nor lost") {
+            val totalTokens = 100000
+            val rate = new TokenBucketTestRate
+            rate.setNewTokens(totalTokens)
+            val root = TokenBucket.create(1 << 30, "root", rate)
+            val vms = root.link(0, "vms")
+
+            val consumed = new Array[Long](4)
+            val returned = new Array[Long](4)
+            val threads = (0 until 4) map { i =>
+                new Thread() {
+                    override def run(): Unit = {
+                        val random = ThreadLocalRandom.current()
+                        val parent = if (i % 2 == 0) root else vms
+                        for (n <- 0 until 5000) {
+                            val tb = parent.link(16, s"bucket-$i-$n")
+                            consumed(i) += tb.tryGet(random.nextInt(1, 8))
+                            returned(i) += tb.unlink()
+                        }
+                    }
+                }
+            }
+            threads foreach (_.start())
+            threads foreach (_.join())
+
+            consumed.sum should be > 0L
+            consumed.sum + returned.sum + root.getNumTokens +
+                vms.getNumTokens shouldBe totalTokens
+        }
+    }
 }
 
 object TokenBucketTest {
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.util.collection
+
+import scala.util.Random
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, Matchers}
+
+@RunWith(classOf[JUnitRunner])
+class MaglevSelectorTest extends FeatureSpec with Matchers {
+
+    private case class KeyedObject(key: Long, weight: Int) extends HasWeight
+
+    private def objects(count: Int, weight: Int = 1): Seq[KeyedObject] = {
+        val random = new Random(count)
+        for (_ <- 0 until count) yield KeyedObject(random.nextLong(), weight)
+    }
+
+    private def selector(objs: Seq[KeyedObject]) =
+        MaglevSelector(objs)(_.key)
+
+    private def distribution(ms: MaglevSelector[KeyedObject])
+    : Map[KeyedObject, Int] = {
+        (0 until ms.size).map(ms.select).groupBy(identity).mapValues(_.size)
+    }
+
+    feature("Table construction") {
+        scenario("Attempt to create a MaglevSelector with an empty list") {
+            intercept[IllegalArgumentException] {
+                selector(Seq())
+            }
+            intercept[IllegalArgumentException] {
+                selector(Seq(KeyedObject(1L, 0)))
+            }
+        }
+
+        scenario("The table size does not depend on the number of objects") {
+            selector(objects(1)).size shouldBe MaglevSelector.TableSize
+            selector(objects(10)).size shouldBe MaglevSelector.TableSize
+            selector(objects(1000)).size shouldBe MaglevSelector.TableSize
+        }
+
+        scenario("The table does not depend on the object order") {
+            val objs = objects(10)
+            val ms1 = selector(objs)
+            val ms2 = selector(Random.shuffle(objs))
+            for (hash <- 0 until ms1.size) {
+                ms1.select(hash) shouldBe ms2.select(hash)
+            }
+        }
+
+        scenario("Objects with zero weight are never selected") {
+            val objs = objects(5) :+ KeyedObject(0L, 0)
+            distribution(selector(objs)).keySet shouldBe objs.take(5).toSet
+        }
+    }
+
+    feature("Selection") {
+        scenario("Objects with the same weight get a similar share") {
+            val ms = selector(objects(10))
+            for (count <- distribution(ms).values) {
+                count.toDouble / ms.size shouldBe 0.1 +- 0.01
+            }
+        }
+
+        scenario("Objects get a share proportional to their weight") {
+            val objs = objects(4, weight = 1) ++ objects(4, weight = 3)
+            val ms = selector(objs)
+            val shares = distribution(ms)
+            for (obj <- objs) {
+                shares(obj).toDouble / ms.size shouldBe
+                    obj.weight / 16d +- 0.01
+            }
+        }
+
+        scenario("Negative hashes select an object") {
+            val objs = objects(3)
+            objs should contain (selector(objs).select(Int.MinValue))
+            objs should contain (selector(objs).select(-1))
+        }
+    }
+
+    feature("Disruption") {
+        scenario("Removing an object moves mostly the hashes of that object") {
+            val objs = objects(10)
+            val before = selector(objs)
+            val after = selector(objs.tail)
+
+            val hashes = 0 until 100000
+            val moved = hashes.count { hash =>
+                before.select(hash) != objs.head &&
+                before.select(hash) != after.select(hash)
+            }
+            // Besides the hashes of the removed object, Maglev moves only a
+            // small fraction of hashes.
+            moved.toDouble / hashes.size should be < 0.05
+        }
+
+        scenario("Adding an object takes a fair share of hashes") {
+            val objs = objects(10)
+            val before = selector(objs.tail)
+            val after = selector(objs)
+
+            val hashes = 0 until 100000
+            val moved = hashes.count { hash =>
+                before.select(hash) != after.select(hash)
+            }
+            moved.toDouble / hashes.size should be < 0.15
+        }
+
+        scenario("Small pools keep most hashes when an object is added") {
+            for (count <- Seq(2, 5)) {
+                val objs = objects(count + 1)
+                val before = selector(objs.take(count))
+                val after = selector(objs)
+
+                val hashes = 0 until 100000
+                val moved = hashes.count { hash =>
+                    before.select(hash) != after.select(hash)
+                }
+                // The new object takes its fair share, and few other hashes
+                // move.
+                moved.toDouble / hashes.size should be <
+                    1d / (count + 1) + 0.05
+            }
+        }
+    }
+}
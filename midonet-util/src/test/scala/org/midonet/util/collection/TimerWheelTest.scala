@@ -0,0 +1,162 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.util.collection
+
+import scala.collection.mutable
+import scala.util.Random
+
+import org.junit.runner.RunWith
+import org.scalatest.{FeatureSpec, Matchers}
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.util.collection.TimerWheel.Timer
+
+@RunWith(classOf[JUnitRunner])
+class TimerWheelTest extends FeatureSpec with Matchers {
+
+    class TestTimer(expired: mutable.Buffer[TestTimer]) extends Timer {
+        override def expire(): Unit = expired += this
+    }
+
+    private def timers(wheel: TimerWheel, expired: mutable.Buffer[TestTimer],
+                       deadlines: Long*): Seq[TestTimer] = {
+        for (deadline <- deadlines) yield {
+            val timer = new TestTimer(expired)
+            wheel.schedule(timer, deadline)
+            timer
+        }
+    }
+
+    feature("Timer wheel expires timers") {
+        scenario("Timers expire at their deadline") {
+            val wheel = new TimerWheel(0L)
+            val expired = mutable.Buffer[TestTimer]()
+            val Seq(t1, t2, t3) = timers(wheel, expired, 10L, 20L, 20L)
+
+            wheel.size shouldBe 3
+            wheel.nextDeadline shouldBe 10L
+
+            wheel.advance(9L) shouldBe 0
+            expired shouldBe empty
+
+            wheel.advance(10L) shouldBe 1
+            expired shouldBe Seq(t1)
+            t1.isScheduled shouldBe false
+            wheel.nextDeadline shouldBe 20L
+
+            wheel.advance(100L) shouldBe 2
+            expired.toSet shouldBe Set(t1, t2, t3)
+            wheel.isEmpty shouldBe true
+            wheel.nextDeadline shouldBe Long.MaxValue
+        }
+
+        scenario("Timers at higher levels expire in order") {
+            val wheel = new TimerWheel(0L)
+            val expired = mutable.Buffer[TestTimer]()
+            val random = new Random(1L)
+            val deadlines = Seq.fill(10000)(random.nextInt(1 << 26).toLong)
+            val scheduled = timers(wheel, expired, deadlines: _*)
+
+            var now = 0L
+            while (!wheel.isEmpty) {
+                val next = wheel.nextDeadline
+                next should be > now
+                now = next
+                val count = expired.size
+                wheel.advance(now)
+                for (timer <- expired.drop(count)) {
+                    timer.timerDeadline shouldBe now
+                }
+            }
+            expired.map(_.timerDeadline) shouldBe deadlines.sorted
+            expired.toSet shouldBe scheduled.toSet
+        }
+
+        scenario("Timers beyond the wheel range expire") {
+            val wheel = new TimerWheel(1000L)
+            val expired = mutable.Buffer[TestTimer]()
+            val Seq(t1) = timers(wheel, expired, 1000L + (1L << 34))
+
+            wheel.advance(1000L + (1L << 34) - 1) shouldBe 0
+            wheel.advance(1000L + (1L << 34)) shouldBe 1
+            expired shouldBe Seq(t1)
+        }
+
+        scenario("Timers in the past expire on the next advance") {
+            val wheel = new TimerWheel(100L)
+            val expired = mutable.Buffer[TestTimer]()
+            val Seq(t1) = timers(wheel, expired, 50L)
+
+            wheel.nextDeadline shouldBe 100L
+            wheel.advance(100L) shouldBe 1
+            expired shouldBe Seq(t1)
+        }
+
+        scenario("Timers expire no earlier than their deadline") {
+            val wheel = new TimerWheel(0L, resolution = 10L)
+            val expired = mutable.Buffer[TestTimer]()
+            val Seq(t1) = timers(wheel, expired, 15L)
+
+            wheel.advance(15L) shouldBe 0
+            wheel.advance(20L) shouldBe 1
+            expired shouldBe Seq(t1)
+        }
+
+        scenario("Timers can reschedule themselves") {
+            val wheel = new TimerWheel(0L)
+            var count = 0
+            val timer = new Timer {
+                override def expire(): Unit = {
+                    count += 1
+                    if (count < 5) wheel.schedule(this, wheel.time + 100L)
+                }
+            }
+            wheel.schedule(timer, 100L)
+            wheel.advance(10000L)
+            count shouldBe 5
+            wheel.isEmpty shouldBe true
+        }
+    }
+
+    feature("Timer wheel cancels timers") {
+        scenario("Cancelled timers do not expire") {
+            val wheel = new TimerWheel(0L)
+            val expired = mutable.Buffer[TestTimer]()
+            val Seq(t1, t2, t3) = timers(wheel, expired, 10L, 1000L, 100000L)
+
+            t1.cancel()
+            t3.cancel()
+            t1.isScheduled shouldBe false
+            wheel.size shouldBe 1
+
+            wheel.advance(1000000L) shouldBe 1
+            expired shouldBe Seq(t2)
+        }
+
+        scenario("Rescheduling a timer replaces its deadline") {
+            val wheel = new TimerWheel(0L)
+            val expired = mutable.Buffer[TestTimer]()
+            val Seq(t1) = timers(wheel, expired, 10L)
+
+            wheel.schedule(t1, 5000L)
+            wheel.size shouldBe 1
+            wheel.advance(4999L) shouldBe 0
+            wheel.advance(5000L) shouldBe 1
+            expired shouldBe Seq(t1)
+        }
+    }
+}
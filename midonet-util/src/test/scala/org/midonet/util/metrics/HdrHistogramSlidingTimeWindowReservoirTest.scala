@@ -67,7 +67,7 @@ class HdrHistogramSlidingTimeWindowReservoirTest extends FeatureSpec with Matche
             snap.getMin shouldBe 30
             snap.getMean shouldBe 30.0
             snap.getStdDev shouldBe 0
-            snap.getValue(50) shouldBe 30.0
+            snap.getValue(0.5) shouldBe 30.0
             reservoir.size shouldBe 1
         }
 
@@ -97,4 +97,52 @@ class HdrHistogramSlidingTimeWindowReservoirTest extends FeatureSpec with Matche
             snap.getMin shouldBe 0
         }
     }
+
+    feature("Merging histogram") {
+        scenario("Merges the windows of several reservoirs") {
+            val clock = new TestClock()
+            val reservoir1 = new HdrHistogramSlidingTimeWindowReservoir(
+                1, TimeUnit.MINUTES, 10, TimeUnit.SECONDS, clock)
+            val reservoir2 = new HdrHistogramSlidingTimeWindowReservoir(
+                1, TimeUnit.MINUTES, 10, TimeUnit.SECONDS, clock)
+            val merged = new HdrHistogramMergingReservoir
+            merged.add(reservoir1)
+            merged.add(reservoir2)
+
+            merged.getSnapshot.size shouldBe 0
+
+            clock.nanoTime = 1
+            var i = 1
+            while (i <= 100) {
+                if (i % 2 == 0) reservoir1.update(i) else reservoir2.update(i)
+                i += 1
+            }
+
+            var snap = merged.getSnapshot
+            snap.size shouldBe 100
+            snap.getMin shouldBe 1
+            snap.getMax shouldBe 100
+            snap.getValue(0.5) shouldBe 50.0
+            snap.getValue(0.99) shouldBe 99.0
+
+            // the merged reservoirs keep their own values
+            reservoir1.getSnapshot.size shouldBe 50
+            reservoir1.getSnapshot.getMin shouldBe 2
+            merged.getSnapshot.size shouldBe 100
+
+            clock.nanoTime += TimeUnit.NANOSECONDS.convert(2, TimeUnit.MINUTES)
+            reservoir1.update(1000)
+            merged.remove(reservoir2)
+
+            snap = merged.getSnapshot
+            snap.size shouldBe 1
+            snap.getMax shouldBe 1000
+        }
+
+        scenario("Does not record values") {
+            intercept[UnsupportedOperationException] {
+                new HdrHistogramMergingReservoir().update(1)
+            }
+        }
+    }
 }
@@ -66,6 +66,10 @@ public abstract class AbstractNetlinkConnection {
     private ByteBuffer reply =
         BytesUtil.instance.allocateDirect(NETLINK_READ_BUFSIZE);
 
+    // When set, the connection reads batches of messages into this ring
+    // with a single system call, instead of one message per read.
+    private MessageRing readRing = null;
+
     private final BufferPool requestPool;
     private final NetlinkMetrics metrics;
     private final NetlinkChannel channel;
@@ -135,6 +139,27 @@ public abstract class AbstractNetlinkConnection {
         return this.maxBatchIoOps;
     }
 
+    /**
+     * Sets the message ring used to read batches of messages from the
+     * channel. The ring may be shared with other connections only if all
+     * are read from the same thread. A null ring reads one message at a time.
+     */
+    public synchronized void setReadRing(MessageRing ring) {
+        this.readRing = ring;
+    }
+
+    /**
+     * Creates a message ring suitable for reading batches of the given
+     * number of messages from a netlink connection, or returns null if
+     * the platform does not support batched reads.
+     */
+    public static MessageRing createReadRing(int batchSize) {
+        if (batchSize > 1 && MessageRing.isSupported()) {
+            return new MessageRing(batchSize, NETLINK_READ_BUFSIZE);
+        }
+        return null;
+    }
+
     public SelectorInputQueue<NetlinkRequest> getSendQueue() {
         return writeQueue;
     }
@@ -356,7 +381,10 @@ public abstract class AbstractNetlinkConnection {
     public void handleReadEvent(final Bucket bucket) throws IOException {
         try {
             bucket.prepare();
-            for (int i = 0; i < maxBatchIoOps; i++) {
+            // With a read ring, the batch limit counts the messages rather
+            // than the system calls.
+            int i = 0;
+            while (i < maxBatchIoOps) {
                 final int ret = processReadFromChannel(bucket);
                 if (ret <= 0) {
                     if (ret < 0) {
@@ -365,6 +393,7 @@ public abstract class AbstractNetlinkConnection {
                     }
                     break;
                 }
+                i += readRing == null ? 1 : ret;
             }
         } catch (IOException e) {
             log.error("NETLINK read() exception: {}", e);
@@ -378,43 +407,71 @@ public abstract class AbstractNetlinkConnection {
 
     protected void endBatch() {}
 
+    /**
+     * Reads from the channel and processes the read messages.
+     *
+     * @return The number of bytes read or, when reading into a ring, the
+     * number of messages read.
+     */
     private synchronized int processReadFromChannel(final Bucket bucket)
             throws IOException {
 
+        if (readRing != null) {
+            int count = channel.read(readRing);
+            for (int index = 0; index < count; index++) {
+                if (readRing.isTruncated(index)) {
+                    log.warn("Dropping netlink message truncated to {} bytes",
+                             readRing.bufferSize());
+                    continue;
+                }
+                processReply(readRing.get(index), bucket);
+            }
+            return count;
+        }
+
         reply.clear();
         int nbytes = channel.read(reply);
 
         reply.flip(); // sets the effective final limit for any number of msgs
-        reply.mark();
-        int finalLimit = reply.limit();
+        processReply(reply, bucket);
+        return nbytes;
+    }
+
+    /**
+     * Processes the netlink messages between the position and the limit of
+     * the given buffer.
+     */
+    private void processReply(ByteBuffer buffer, final Bucket bucket) {
+        buffer.mark();
+        int finalLimit = buffer.limit();
 
-        while (reply.remaining() >= NETLINK_HEADER_LEN) {
+        while (buffer.remaining() >= NETLINK_HEADER_LEN) {
             // read the nlmsghdr and check for error
-            int position = reply.position();
+            int position = buffer.position();
 
-            int len = reply.getInt();           // length
-            short type = reply.getShort();      // type
-            short flags = reply.getShort();     // flags
-            int seq = reply.getInt();           // sequence no.
-            int pid = reply.getInt();           // pid
+            int len = buffer.getInt();           // length
+            short type = buffer.getShort();      // type
+            short flags = buffer.getShort();     // flags
+            int seq = buffer.getInt();           // sequence no.
+            int pid = buffer.getInt();           // pid
 
             int nextPosition = position + len;
-            reply.limit(nextPosition);          // "slice" the buffer to avoid
-                                                // reads on the next msg.
+            buffer.limit(nextPosition);          // "slice" the buffer to avoid
+                                                 // reads on the next msg.
             switch (type) {
                 case NLMessageType.NOOP:
                     // skip to the next message
                     break;
 
                 case NLMessageType.ERROR:
-                    int error = reply.getInt();
+                    int error = buffer.getInt();
 
                     // read header which caused the error
-                    int errLen = reply.getInt();        // length
-                    short errType = reply.getShort();   // type of error
-                    short errFlags = reply.getShort();  // flags of the error
-                    int errSeq = reply.getInt();        // sequence of the error
-                    int errPid = reply.getInt();        // pid of the error
+                    int errLen = buffer.getInt();        // length
+                    short errType = buffer.getShort();   // type of error
+                    short errFlags = buffer.getShort();  // flags of the error
+                    int errSeq = buffer.getInt();        // sequence of the error
+                    int errPid = buffer.getInt();        // pid of the error
 
                     if (seq == 0) break; // should not happen
 
@@ -434,9 +491,9 @@ public abstract class AbstractNetlinkConnection {
 
                 default:
                     // read genl header
-                    byte cmd = reply.get();      // command
-                    byte ver = reply.get();      // version
-                    reply.getShort();            // reserved
+                    byte cmd = buffer.get();      // command
+                    byte ver = buffer.get();      // version
+                    buffer.getShort();            // reserved
 
                     metrics.netlinkNotifications().mark();
                     if (seq == 0) {
@@ -444,7 +501,7 @@ public abstract class AbstractNetlinkConnection {
                         if (bucket.consumeToken()) {
                             try {
                                 if (!handleNotification(type, cmd, seq,
-                                                        pid, reply)) {
+                                                        pid, buffer)) {
                                     bucket.giveBack();
                                 }
                             } catch (Throwable e) {
@@ -457,14 +514,13 @@ public abstract class AbstractNetlinkConnection {
                         }
                     } else  {
                         // otherwise we are processing an answer to a request.
-                        processRequestAnswer(seq, flags, reply);
+                        processRequestAnswer(seq, flags, buffer);
                     }
             }
 
-            reply.limit(finalLimit);
-            reply.position(nextPosition);
+            buffer.limit(finalLimit);
+            buffer.position(nextPosition);
         }
-        return nbytes;
     }
 
     private void processSuccessfulRequest(NetlinkRequest request) {
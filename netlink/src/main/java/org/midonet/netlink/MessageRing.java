@@ -0,0 +1,175 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.netlink;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+
+import org.midonet.jna.CLibrary;
+
+/**
+ * A ring of direct buffers for receiving a batch of messages from a socket
+ * with a single recvmmsg() system call. The ring pre-registers the native
+ * addresses of its buffers in an array of `struct mmsghdr`, such that a
+ * receive does not allocate or copy any memory.
+ *
+ * After a receive, the i-th message is available in the buffer returned by
+ * get(i), with its limit set to the length of the message. The buffers are
+ * overwritten by the next receive, and therefore a ring can be shared only
+ * by channels that are read from the same thread.
+ */
+public final class MessageRing {
+
+    /* The layout of `struct iovec` and `struct mmsghdr` on 64-bit Linux. */
+    private static final int IOVEC_SIZE = 16;
+    private static final int IOV_BASE = 0;
+    private static final int IOV_LEN = 8;
+
+    private static final int MMSGHDR_SIZE = 64;
+    private static final int MSG_IOV = 16;
+    private static final int MSG_IOVLEN = 24;
+    private static final int MSG_FLAGS = 48;
+    private static final int MSG_LEN = 56;
+
+    private final ByteBuffer[] buffers;
+    private final ByteBuffer headers;
+    private final ByteBuffer iovecs;
+    private final int bufferSize;
+    private int size = 0;
+
+    public MessageRing(int capacity, int bufferSize) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException(
+                "Multiple message receive is not supported on this platform");
+        }
+        if (capacity <= 0 || bufferSize <= 0) {
+            throw new IllegalArgumentException(
+                "The ring capacity and buffer size must be positive");
+        }
+        this.bufferSize = bufferSize;
+        buffers = new ByteBuffer[capacity];
+        headers = ByteBuffer.allocateDirect(capacity * MMSGHDR_SIZE)
+                            .order(ByteOrder.nativeOrder());
+        iovecs = ByteBuffer.allocateDirect(capacity * IOVEC_SIZE)
+                           .order(ByteOrder.nativeOrder());
+
+        long iovecsAddress = address(iovecs);
+        for (int index = 0; index < capacity; index++) {
+            buffers[index] = BytesUtil.instance.allocateDirect(bufferSize);
+            iovecs.putLong(index * IOVEC_SIZE + IOV_BASE,
+                           address(buffers[index]));
+            iovecs.putLong(index * IOVEC_SIZE + IOV_LEN, bufferSize);
+            headers.putLong(index * MMSGHDR_SIZE + MSG_IOV,
+                            iovecsAddress + index * IOVEC_SIZE);
+            headers.putLong(index * MMSGHDR_SIZE + MSG_IOVLEN, 1L);
+        }
+    }
+
+    /**
+     * Indicates whether the current platform supports receiving multiple
+     * messages with a message ring.
+     */
+    public static boolean isSupported() {
+        return Platform.isLinux() && Native.POINTER_SIZE == 8 &&
+               Native.LONG_SIZE == 8;
+    }
+
+    private static long address(ByteBuffer buffer) {
+        return Pointer.nativeValue(Native.getDirectBufferPointer(buffer));
+    }
+
+    /**
+     * @return The maximum number of messages received in one call.
+     */
+    public int capacity() {
+        return buffers.length;
+    }
+
+    /**
+     * @return The size of each message buffer.
+     */
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return The number of messages received by the last receive.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the buffer of the i-th message received by the last receive.
+     */
+    public ByteBuffer get(int index) {
+        if (index >= size)
+            throw new IndexOutOfBoundsException();
+        return buffers[index];
+    }
+
+    /**
+     * Indicates whether the i-th message was truncated because it did not
+     * fit in its buffer.
+     */
+    public boolean isTruncated(int index) {
+        if (index >= size)
+            throw new IndexOutOfBoundsException();
+        return (headers.getInt(index * MMSGHDR_SIZE + MSG_FLAGS) &
+                CLibrary.MSG_TRUNC) != 0;
+    }
+
+    /**
+     * Receives up to capacity() messages from the given socket.
+     *
+     * @return The number of received messages, or -1 on error, in which case
+     * errno indicates the last error.
+     */
+    int receive(int fd, int flags) {
+        size = 0;
+        int count = CLibrary.recvmmsg(fd, headers, buffers.length, flags, null);
+        for (int index = 0; index < count; index++) {
+            ByteBuffer buffer = buffers[index];
+            buffer.clear();
+            buffer.limit(headers.getInt(index * MMSGHDR_SIZE + MSG_LEN));
+        }
+        if (count > 0)
+            size = count;
+        return count;
+    }
+
+    /**
+     * Appends a message to the ring, returning its cleared buffer, or null if
+     * the ring is full. Used by the channels that do not read from a socket.
+     */
+    ByteBuffer next() {
+        if (size == buffers.length)
+            return null;
+        ByteBuffer buffer = buffers[size];
+        headers.putInt(size * MMSGHDR_SIZE + MSG_FLAGS, 0);
+        size++;
+        buffer.clear();
+        return buffer;
+    }
+
+    void reset() {
+        size = 0;
+    }
+}
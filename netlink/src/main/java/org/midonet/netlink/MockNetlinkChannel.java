@@ -78,6 +78,17 @@ public class MockNetlinkChannel extends NetlinkChannel {
         return nbytes;
     }
 
+    @Override
+    public int read(MessageRing ring) throws IOException {
+        ring.reset();
+        ByteBuffer dst;
+        while (!toRead.isEmpty() && (dst = ring.next()) != null) {
+            dst.put(toRead.poll());
+            dst.flip();
+        }
+        return ring.size();
+    }
+
     @Override
     public int write(ByteBuffer src) throws IOException {
         final int size = src.remaining();
@@ -41,6 +41,7 @@ import sun.nio.ch.NativeThread;
 import sun.nio.ch.Net;
 import sun.nio.ch.SelectionKeyImpl;
 
+import org.midonet.ErrorCode;
 import org.midonet.jna.CLibrary;
 import org.midonet.netlink.hacks.IOUtil;
 import org.midonet.netlink.hacks.NativeDispatcher;
@@ -221,6 +222,50 @@ public abstract class UnixChannel<Address> extends AbstractSelectableChannel
         }
     }
 
+    /**
+     * Reads a batch of messages into the given ring, with a single system
+     * call. In blocking mode, the method waits for at least one message.
+     *
+     * @return The number of messages read, or zero if no messages were
+     * available.
+     */
+    public int read(MessageRing ring) throws IOException {
+        if (ring == null)
+            throw new NullPointerException();
+
+        synchronized (recvLock) {
+            ensureConnected();
+            ring.reset();
+            int n = 0;
+            try {
+                if (!prepareRead())
+                    return n;
+                int flags = isBlocking() ? CLibrary.MSG_WAITFORONE
+                                         : CLibrary.MSG_DONTWAIT;
+                int errno;
+                do {
+                    n = ring.receive(fdVal, flags);
+                    errno = n < 0 ? Native.getLastError() : 0;
+                } while (n < 0 && errno == ErrorCode.EINTR.ordinal() &&
+                         isOpen());
+                if (n < 0) {
+                    if (errno == ErrorCode.EAGAIN.ordinal()) {
+                        n = IOStatus.UNAVAILABLE;
+                    } else {
+                        throw new IOException("recvmmsg() failed: " +
+                                              CLibrary.strerror(errno));
+                    }
+                }
+                for (int index = 0; index < ring.size(); index++) {
+                    rxBytes += ring.get(index).remaining();
+                }
+                return IOStatus.normalize(n);
+            } finally {
+                finishRead(n);
+            }
+        }
+    }
+
     private boolean prepareWrite() {
         begin();
         if (isOpen()) {
@@ -243,10 +243,10 @@ public class FlowMask implements NetlinkSerializable, AttributeHandler {
             exactMatchInKey(IPv4);
         } else if (ethertype == org.midonet.packets.ARP.ETHERTYPE){
             FlowKeyARP arp = key(ARP);
-            if (fmatch.isSeen(FlowMatch.Field.NetworkSrc)) {
+            if (isSeenOrPrefixSeen(fmatch, FlowMatch.Field.NetworkSrc)) {
                 arp.arp_sip = EXACT_32;
             }
-            if (fmatch.isSeen(FlowMatch.Field.NetworkDst)) {
+            if (isSeenOrPrefixSeen(fmatch, FlowMatch.Field.NetworkDst)) {
                 arp.arp_tip = EXACT_32;
             }
             if (fmatch.isSeen(FlowMatch.Field.NetworkProto)) {
@@ -261,10 +261,10 @@ public class FlowMask implements NetlinkSerializable, AttributeHandler {
     private void maskIPv6(FlowMatch fmatch, short highestLayer) {
         FlowKeyIPv6 ipv6 = key(IPv6);
         ipv6.ipv6_frag = EXACT_8;
-        if (fmatch.isSeen(FlowMatch.Field.NetworkSrc)) {
+        if (isSeenOrPrefixSeen(fmatch, FlowMatch.Field.NetworkSrc)) {
             Arrays.fill(ipv6.ipv6_src, EXACT_32);
         }
-        if (fmatch.isSeen(FlowMatch.Field.NetworkDst)) {
+        if (isSeenOrPrefixSeen(fmatch, FlowMatch.Field.NetworkDst)) {
             Arrays.fill(ipv6.ipv6_dst, EXACT_32);
         }
         if (fmatch.isSeen(FlowMatch.Field.NetworkTOS)) {
@@ -286,9 +286,13 @@ public class FlowMask implements NetlinkSerializable, AttributeHandler {
         ipv4.ipv4_frag = EXACT_8;
         if (fmatch.isSeen(FlowMatch.Field.NetworkSrc)) {
             ipv4.ipv4_src = EXACT_32;
+        } else if (fmatch.isPrefixSeen(FlowMatch.Field.NetworkSrc)) {
+            ipv4.ipv4_src = prefixMask(fmatch.getNetworkSrcPrefixSeen());
         }
         if (fmatch.isSeen(FlowMatch.Field.NetworkDst)) {
             ipv4.ipv4_dst = EXACT_32;
+        } else if (fmatch.isPrefixSeen(FlowMatch.Field.NetworkDst)) {
+            ipv4.ipv4_dst = prefixMask(fmatch.getNetworkDstPrefixSeen());
         }
         if (fmatch.isSeen(FlowMatch.Field.NetworkTOS)) {
             ipv4.ipv4_tos = EXACT_8;
@@ -304,6 +308,23 @@ public class FlowMask implements NetlinkSerializable, AttributeHandler {
         }
     }
 
+    private static boolean isSeenOrPrefixSeen(FlowMatch fmatch,
+                                              FlowMatch.Field field) {
+        return fmatch.isSeen(field) || fmatch.isPrefixSeen(field);
+    }
+
+    /**
+     * Returns the mask of an IPv4 address that matches only the first
+     * prefixLength bits of the address.
+     */
+    private static int prefixMask(int prefixLength) {
+        if (prefixLength <= 0)
+            return 0;
+        if (prefixLength >= 32)
+            return EXACT_32;
+        return EXACT_32 << (32 - prefixLength);
+    }
+
     private void maskLayer4(FlowMatch fmatch) {
         byte proto = fmatch.getNetworkProto();
         if (proto == org.midonet.packets.UDP.PROTOCOL_NUMBER) {
@@ -368,6 +368,13 @@ public class FlowMatch {
     private long usedFields = 0;
     private long seenFields = 0;
 
+    // The network address fields that have only been read through their
+    // prefix accessors, and the longest prefixes read, such that the flow
+    // mask may wildcard the remaining bits of the addresses.
+    private long prefixSeenFields = 0;
+    private int networkSrcPrefixSeen = 0;
+    private int networkDstPrefixSeen = 0;
+
     private final ArrayList<FlowKey> keys = new ArrayList<>();
     private int hashCode = 0;
     private int connectionHash = 0;
@@ -413,10 +420,18 @@ public class FlowMatch {
 
     public final void fieldUnseen(Field field) {
         seenFields &= ~(1L << field.ordinal());
+        prefixSeenFields &= ~(1L << field.ordinal());
     }
 
     public final void clearSeenFields() {
         seenFields = 0;
+        clearPrefixSeenFields();
+    }
+
+    private void clearPrefixSeenFields() {
+        prefixSeenFields = 0;
+        networkSrcPrefixSeen = 0;
+        networkDstPrefixSeen = 0;
     }
 
     /**
@@ -430,6 +445,34 @@ public class FlowMatch {
         return (seenFields & usedFields & (1L << field.ordinal())) != 0;
     }
 
+    /**
+     * Informs whether only a prefix of the specified field has been seen,
+     * that is, whether the field is used and it has been read through a
+     * prefix accessor but not as a whole.
+     */
+    public boolean isPrefixSeen(Field field) {
+        long bit = 1L << field.ordinal();
+        return (prefixSeenFields & ~seenFields & usedFields & bit) != 0;
+    }
+
+    /**
+     * @return the longest prefix of the network source address read through
+     * getNetworkSrcIP(int), which is only relevant if the network source is
+     * not seen as a whole.
+     */
+    public int getNetworkSrcPrefixSeen() {
+        return networkSrcPrefixSeen;
+    }
+
+    /**
+     * @return the longest prefix of the network destination address read
+     * through getNetworkDstIP(int), which is only relevant if the network
+     * destination is not seen as a whole.
+     */
+    public int getNetworkDstPrefixSeen() {
+        return networkDstPrefixSeen;
+    }
+
     public void doTrackSeenFields() {
         trackSeenFields = 1;
     }
@@ -450,7 +493,7 @@ public class FlowMatch {
      * srcPort was seen, it'll return 4. Returns 0 if no field was seen.
      */
     public short highestLayerSeen() {
-        return highestLayer(seenFields & usedFields);
+        return highestLayer((seenFields | prefixSeenFields) & usedFields);
     }
 
     public boolean userspaceFieldsSeen() {
@@ -463,10 +506,16 @@ public class FlowMatch {
 
     public void propagateSeenFieldsFrom(FlowMatch that) {
         seenFields |= that.seenFields;
+        prefixSeenFields |= that.prefixSeenFields;
+        networkSrcPrefixSeen = Math.max(networkSrcPrefixSeen,
+                                        that.networkSrcPrefixSeen);
+        networkDstPrefixSeen = Math.max(networkDstPrefixSeen,
+                                        that.networkDstPrefixSeen);
     }
 
     public void allFieldsSeen() {
         seenFields = usedFields;
+        clearPrefixSeenFields();
     }
 
     /**
@@ -528,6 +577,9 @@ public class FlowMatch {
         usedFields = that.usedFields;
         trackSeenFields = that.trackSeenFields;
         seenFields = that.seenFields;
+        prefixSeenFields = that.prefixSeenFields;
+        networkSrcPrefixSeen = that.networkSrcPrefixSeen;
+        networkDstPrefixSeen = that.networkDstPrefixSeen;
 
         resetWith(that.keys, keys);
         invalidateHashCode();
@@ -548,6 +600,7 @@ public class FlowMatch {
         this.usedFields = 0;
         this.trackSeenFields = 1;
         this.seenFields = 0;
+        clearPrefixSeenFields();
         keys.clear();
         invalidateHashCode();
     }
@@ -689,6 +742,20 @@ public class FlowMatch {
         return networkSrc;
     }
 
+    /**
+     * Gets the network source address when only its first prefixLength bits
+     * are relevant, for instance to check whether it belongs to a subnet.
+     * Unlike getNetworkSrcIP(), this only marks the prefix as seen.
+     */
+    @Nullable
+    public IPAddr getNetworkSrcIP(int prefixLength) {
+        if (trackSeenFields != 0) {
+            prefixSeenFields |= 1L << Field.NetworkSrc.ordinal();
+            networkSrcPrefixSeen = Math.max(networkSrcPrefixSeen, prefixLength);
+        }
+        return networkSrc;
+    }
+
     /**
      * @param addr doesn't support network range, just host IP
      * @return
@@ -706,6 +773,20 @@ public class FlowMatch {
         return networkDst;
     }
 
+    /**
+     * Gets the network destination address when only its first prefixLength
+     * bits are relevant, for instance to check whether it belongs to a
+     * subnet. Unlike getNetworkDstIP(), this only marks the prefix as seen.
+     */
+    @Nullable
+    public IPAddr getNetworkDstIP(int prefixLength) {
+        if (trackSeenFields != 0) {
+            prefixSeenFields |= 1L << Field.NetworkDst.ordinal();
+            networkDstPrefixSeen = Math.max(networkDstPrefixSeen, prefixLength);
+        }
+        return networkDst;
+    }
+
     @Nonnull
     public FlowMatch setNetworkProto(byte networkProto) {
         fieldUsed(Field.NetworkProto);
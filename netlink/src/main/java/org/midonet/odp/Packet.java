@@ -47,6 +47,9 @@ public class Packet {
     // user field used by midolman packet pipeline to track time statistics,
     // ignored in equals() and hashCode()
     public long startTimeNanos = 0;
+    // time spent building this packet from the datapath upcall, also
+    // ignored in equals() and hashCode()
+    public long parseNanos = 0;
 
     public Packet(Ethernet eth, FlowMatch match, int len) {
         this.eth = eth;
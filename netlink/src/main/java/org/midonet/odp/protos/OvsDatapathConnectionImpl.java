@@ -133,9 +133,11 @@ public class OvsDatapathConnectionImpl extends OvsDatapathConnection {
             (packetFamily.contextMiss.command() == cmd ||
                 packetFamily.contextAction.command() == cmd)) {
             if (notificationHandler != null) {
+                long parseStart = System.nanoTime();
                 Packet packet = builder.buildFrom(buffer);
                 if (packet == null)
                     return false;
+                packet.parseNanos = System.nanoTime() - parseStart;
 
                 if (packetFamily.contextAction.command() == cmd) {
                     packet.setReason(Packet.Reason.FlowActionUserspace);
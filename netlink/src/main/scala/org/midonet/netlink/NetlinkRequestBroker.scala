@@ -32,6 +32,12 @@ object NetlinkRequestBroker {
     val FULL = -1
     private val NO_TIMEOUT = -1L
 
+    /**
+     * The maximum size of a batch of requests written as a single Netlink
+     * datagram, which is well below the default socket send buffer.
+     */
+    private val MAX_BATCH_BYTES = 32 * 1024
+
     private val NOOP = new Observer[ByteBuffer] {
         override def onCompleted(): Unit = { }
         override def onError(e: Throwable): Unit = { }
@@ -73,6 +79,15 @@ object NetlinkRequestBroker {
  * requests that have been published. After it's done, it updates that sequence
  * so that waiting publisher threads can progress.
  *
+ * Batching:
+ *
+ * When maxBatchSize is greater than one, the writer gathers up to that many
+ * consecutive published requests and writes them with a single gathering
+ * write, which the kernel receives as one datagram and processes message by
+ * message, replying to each request individually. The replies complete each
+ * request through its own observer, as for requests written one by one. If
+ * the write of a batch fails, all the requests in the batch fail.
+ *
  * The reader thread reads the replies from the kernel. We optimize for the case
  * where the requests are received in the order they are written. A publisher
  * trying to claim a sequence has thus to wait for the reply to the oldest
@@ -106,7 +121,8 @@ final class NetlinkRequestBroker(writer: NetlinkBlockingWriter,
                                  maxRequestSize: Int,
                                  readBuf: ByteBuffer,
                                  clock: NanoClock,
-                                 val timeout: Duration = 1 minute) {
+                                 val timeout: Duration = 1 minute,
+                                 val maxBatchSize: Int = 1) {
     import NetlinkRequestBroker._
 
     val capacity = Util.findNextPositivePowerOfTwo(maxPendingRequests)
@@ -135,6 +151,15 @@ final class NetlinkRequestBroker(writer: NetlinkBlockingWriter,
         }
     }
 
+    /**
+     * The buffer arrays for the gathering writes, indexed by batch size.
+     */
+    private val batches =
+        Array.tabulate(Math.max(1, Math.min(maxBatchSize, capacity)) + 1) {
+            new Array[ByteBuffer](_)
+        }
+    private val batchLimit = batches.length - 1
+
     /**
      * The highest published sequence for writing. Used to synchronize between
      * the producer thread and the write thread.
@@ -227,40 +252,100 @@ final class NetlinkRequestBroker(writer: NetlinkBlockingWriter,
     }
 
     /**
-     * Writes all the new published requests. Returns the number of
-     * bytes written.
+     * Writes the new published requests, up to the specified maximum number
+     * of requests. Returns the number of bytes written.
      */
-    def writePublishedRequests(): Int = {
+    def writePublishedRequests(maxRequests: Int = Int.MaxValue): Int = {
         var seq = writtenSequence
         var nbytes = 0
-        while (isAvailable(seq)) {
-            val pos = position(seq)
-            val buf = buffers(pos)
-            try {
-                expirations(pos) = {
-                    val timeout = clock.tick + timeoutNanos
-                    if (timeout == NO_TIMEOUT)
-                        timeout + 1
-                    else
-                        timeout
-                }
-                buf.putInt(buf.position() + NetlinkMessage.NLMSG_SEQ_OFFSET, pos)
-                nbytes += writer.write(buf)
-            } catch { case e: Throwable =>
-                val obs = observers(pos)
-                freeObserver(pos)
-                obs.onError(e)
-            } finally {
-                // IOUtil modifies the buffer's position after the write has
-                // been performed, so this method is the best place to clear it.
-                buf.clear()
-            }
-            seq += 1
+        var requests = 0
+        while (requests < maxRequests && isAvailable(seq)) {
+            val count = batchSize(seq, maxRequests - requests)
+            nbytes += (if (count == 1) writeRequest(seq)
+                       else writeBatch(seq, count))
+            seq += count
+            requests += count
         }
         writtenSequence = seq
         nbytes
     }
 
+    /**
+     * Returns the number of consecutive published requests starting at the
+     * specified sequence that fit in a batch.
+     */
+    private def batchSize(seq: Long, maxRequests: Int): Int = {
+        val limit = Math.min(batchLimit, maxRequests)
+        var count = 1
+        var bytes = buffers(position(seq)).remaining()
+        while (count < limit && isAvailable(seq + count) && {
+                   bytes += buffers(position(seq + count)).remaining()
+                   bytes <= MAX_BATCH_BYTES }) {
+            count += 1
+        }
+        count
+    }
+
+    private def writeRequest(seq: Long): Int = {
+        val pos = position(seq)
+        val buf = buffers(pos)
+        try {
+            prepareRequest(pos)
+            writer.write(buf)
+        } catch { case e: Throwable =>
+            failRequest(pos, e)
+            0
+        } finally {
+            // IOUtil modifies the buffer's position after the write has
+            // been performed, so this method is the best place to clear it.
+            buf.clear()
+        }
+    }
+
+    private def writeBatch(seq: Long, count: Int): Int = {
+        val batch = batches(count)
+        var i = 0
+        while (i < count) {
+            val pos = position(seq + i)
+            prepareRequest(pos)
+            batch(i) = buffers(pos)
+            i += 1
+        }
+        try {
+            writer.write(batch).toInt
+        } catch { case e: Throwable =>
+            i = 0
+            while (i < count) {
+                failRequest(position(seq + i), e)
+                i += 1
+            }
+            0
+        } finally {
+            i = 0
+            while (i < count) {
+                batch(i).clear()
+                i += 1
+            }
+        }
+    }
+
+    private def prepareRequest(pos: Int): Unit = {
+        expirations(pos) = {
+            val timeout = clock.tick + timeoutNanos
+            if (timeout == NO_TIMEOUT)
+                timeout + 1
+            else
+                timeout
+        }
+        val buf = buffers(pos)
+        buf.putInt(buf.position() + NetlinkMessage.NLMSG_SEQ_OFFSET, pos)
+    }
+
+    private def failRequest(pos: Int, e: Throwable): Unit = {
+        val obs = observers(pos)
+        freeObserver(pos)
+        obs.onError(e)
+    }
 
     /**
      * Processes a reply - a stream of ByteBuffers - if one is available.
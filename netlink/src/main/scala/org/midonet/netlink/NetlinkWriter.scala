@@ -35,6 +35,16 @@ class NetlinkWriter(val channel: NetlinkChannel) {
     @throws(classOf[IOException])
     def write(src: ByteBuffer): Int =
         channel.write(src)
+
+    /**
+     * Writes the source buffers into the channel with a single gathering
+     * write, such that they are sent in one Netlink datagram. Returns the
+     * amount of bytes written. We assume each buffer contains one or more
+     * correctly formatted Netlink messages.
+     */
+    @throws(classOf[IOException])
+    def write(srcs: Array[ByteBuffer]): Long =
+        channel.write(srcs)
 }
 
 class NetlinkBlockingWriter(channel: NetlinkChannel) extends NetlinkWriter(channel) {
@@ -55,6 +65,30 @@ class NetlinkBlockingWriter(channel: NetlinkChannel) extends NetlinkWriter(chann
         nbytes
     }
 
+    /**
+     * Writes the buffers into the underlying channel with a single gathering
+     * write, blocking regardless of the channel mode while the write doesn't
+     * succeed.
+     */
+    @throws(classOf[IOException])
+    override def write(srcs: Array[ByteBuffer]): Long = {
+        var nbytes = 0L
+        do {
+            nbytes = super.write(srcs)
+        } while (nbytes == 0 && hasRemaining(srcs) && waitForChannel())
+        nbytes
+    }
+
+    private def hasRemaining(srcs: Array[ByteBuffer]): Boolean = {
+        var i = 0
+        while (i < srcs.length) {
+            if (srcs(i).hasRemaining)
+                return true
+            i += 1
+        }
+        false
+    }
+
     private def waitForChannel(): Boolean =
         channel.isOpen && {
             channel.register(selector, SelectionKey.OP_WRITE)
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.netlink
+
+import java.nio.ByteBuffer
+import java.util.concurrent.TimeUnit
+
+import com.codahale.metrics.MetricRegistry
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.util.Bucket
+
+/**
+  * Measures the number of upcalls per second that a single input thread
+  * reads and decodes from a netlink connection, reading either one message
+  * per system call or a batch of messages per system call into a message
+  * ring. A NETLINK_USERSOCK socket pair stands in for the datapath, and each
+  * operation includes sending the upcall from the stand-in.
+  */
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+class UpcallReadBenchmark {
+
+    private final val Upcalls = 64
+    private final val MessageType: Short = 0x20
+
+    @Param(Array("1", "8", "32", "64"))
+    var batchSize: Int = _
+
+    @Param(Array("256"))
+    var upcallSize: Int = _
+
+    private var sockets: UserSocketPair = _
+    private var connection: AbstractNetlinkConnection = _
+    private var checksum = 0L
+    private val message = BytesUtil.instance.allocateDirect(64 * 1024)
+
+    @JmhSetup
+    def setup(): Unit = {
+        sockets = new UserSocketPair()
+        connection = new AbstractNetlinkConnection(
+                sockets.receiver, new BufferPool(1, 1, 1024),
+                new NetlinkMetrics(new MetricRegistry)) {
+            override def handleNotification(`type`: Short, cmd: Byte,
+                                            seq: Int, pid: Int,
+                                            buffer: ByteBuffer) = {
+                checksum += buffer.getLong
+                true
+            }
+        }
+        connection.setMaxBatchIoOps(Upcalls)
+        connection.setReadRing(
+            AbstractNetlinkConnection.createReadRing(batchSize))
+        NetlinkMessage.writeHeader(message, upcallSize, MessageType, 0, 0,
+                                   0, 1, 1)
+    }
+
+    @TearDown
+    def teardown(): Unit = {
+        sockets.close()
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(64)
+    def readUpcalls(): Long = {
+        var i = 0
+        while (i < Upcalls) {
+            message.clear().limit(upcallSize)
+            sockets.send(message)
+            i += 1
+        }
+        connection.handleReadEvent(Bucket.BOTTOMLESS)
+        checksum
+    }
+}
@@ -270,3 +270,139 @@ class FlowCreateAndDeleteWithBroker {
 
 @Threads(2)
 class ConcurrentFlowCreate2 extends FlowCreate
+
+/**
+ * Measures the time to delete 100000 datapath flows through a request broker
+ * that writes the deletions in batches of batchSize requests, and at most
+ * roundLimit requests before creating a new flow, as the flow processor does
+ * when many flows are invalidated at once. The teardown prints the average
+ * and the maximum time a new flow waited for a round of deletions, which is
+ * the delay the invalidation adds to the concurrent flow setup.
+ */
+@BenchmarkMode(Array(Mode.SingleShotTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+class FlowInvalidation {
+    import OvsBenchmark._
+
+    final val Flows = 100000
+
+    @Param(Array("1", "8", "32"))
+    var batchSize: Int = _
+
+    @Param(Array("128", "2147483647"))
+    var roundLimit: Int = _
+
+    private val deleteChannel = new NetlinkChannelFactory().create(blocking = false)
+    private val deleteProtocol = new OvsProtocol(
+        deleteChannel.getLocalAddress.getPid, families)
+    private var broker: NetlinkRequestBroker = _
+
+    private val flowBuf = BytesUtil.instance.allocateDirect(512)
+    private val flowDelBuf = BytesUtil.instance.allocateDirect(512)
+    private var ethSrcIdx = 0
+    private var delEthSrcIdx = 0
+    private var nextFlow = 0
+
+    private var completed = 0
+    private val obs = new Observer[ByteBuffer]() {
+        override def onCompleted(): Unit = completed += 1
+        override def onError(e: Throwable): Unit = completed += 1
+        override def onNext(t: ByteBuffer): Unit = { }
+    }
+
+    private var rounds = 0L
+    private var roundNanos = 0L
+    private var maxRoundNanos = 0L
+
+    @Setup(Level.Trial)
+    def setupTemplates(dp: DatapathState): Unit = {
+        broker = new NetlinkRequestBroker(
+            new NetlinkBlockingWriter(deleteChannel),
+            new NetlinkReader(deleteChannel),
+            maxPendingRequests = 512,
+            maxRequestSize = 512,
+            readBuf = BytesUtil.instance.allocateDirect(64 * 1024),
+            clock = NanoClock.DEFAULT,
+            maxBatchSize = batchSize)
+
+        val payload = ({ eth src MAC.fromAddress(new Array[Byte](6)) dst MAC.random } <<
+                       { ip4 src IPv4Addr.random dst IPv4Addr.random } <<
+                       { tcp src 80 dst 1001 }).packet
+        val wcmatch = FlowMatches.fromEthernetPacket(payload)
+        val actions: ju.List[FlowAction] = List(FlowActions.output(portNumber))
+
+        protocol.prepareFlowCreate(dp.datapath.getIndex, wcmatch.getKeys,
+                                   actions, null, flowBuf)
+        ethSrcIdx = FlowHolder.findEthSrc(flowBuf)
+        flowBuf.flip()
+        deleteProtocol.prepareFlowDelete(dp.datapath.getIndex,
+                                         wcmatch.getKeys, flowDelBuf)
+        delEthSrcIdx = FlowHolder.findEthSrc(flowDelBuf)
+        flowDelBuf.flip()
+    }
+
+    @Setup(Level.Iteration)
+    def createFlows(): Unit = {
+        nextFlow += Flows
+        var i = 0
+        while (i < Flows) {
+            createFlow(nextFlow - Flows + i)
+            i += 1
+        }
+        completed = 0
+    }
+
+    @TearDown(Level.Trial)
+    def printFlowSetupDelay(): Unit = {
+        deleteChannel.close()
+        println(s"\nRounds: $rounds, average flow setup delay: " +
+                s"${roundNanos / Math.max(rounds, 1) / 1000} us, maximum: " +
+                s"${maxRoundNanos / 1000} us")
+    }
+
+    private def createFlow(id: Int): Unit = {
+        flowBuf.putInt(ethSrcIdx, id)
+        writer.write(flowBuf)
+        flowBuf.rewind()
+    }
+
+    private def publishDeletions(first: Int, published: Int): Int = {
+        var count = published
+        var seq = 0L
+        while (count < Flows &&
+               { seq = broker.nextSequence(); seq } != NetlinkRequestBroker.FULL) {
+            val buf = broker.get(seq)
+            buf.put(flowDelBuf.duplicate())
+            buf.flip()
+            buf.putInt(delEthSrcIdx, first + count)
+            broker.publishRequest(seq, obs)
+            count += 1
+        }
+        count
+    }
+
+    @Benchmark
+    def invalidate(): Int = {
+        val first = nextFlow - Flows
+        var published = 0
+        while (completed < Flows) {
+            published = publishDeletions(first, published)
+            if (broker.hasRequestsToWrite) {
+                val start = NanoClock.DEFAULT.tick
+                broker.writePublishedRequests(roundLimit)
+                createFlow(nextFlow)
+                nextFlow += 1
+                val nanos = NanoClock.DEFAULT.tick - start
+                rounds += 1
+                roundNanos += nanos
+                maxRoundNanos = Math.max(maxRoundNanos, nanos)
+            }
+            while (broker.readReply() > 0) { }
+        }
+        completed
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.netlink
+
+import java.nio.ByteBuffer
+
+import scala.collection.mutable
+
+import com.codahale.metrics.MetricRegistry
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.util.Bucket
+
+@RunWith(classOf[JUnitRunner])
+class MessageRingTest extends FeatureSpec with BeforeAndAfter
+                      with GivenWhenThen with Matchers {
+
+    private val MessageType: Short = 0x20
+    private val MessageSize = 24
+
+    private var sockets: UserSocketPair = _
+
+    before {
+        assume(MessageRing.isSupported)
+        sockets = new UserSocketPair()
+    }
+
+    after {
+        if (sockets ne null) sockets.close()
+    }
+
+    private def message(value: Int): ByteBuffer = {
+        val buf = BytesUtil.instance.allocateDirect(MessageSize)
+        NetlinkMessage.writeHeader(buf, MessageSize, MessageType, 0, 0, 0,
+                                   1, 1)
+        buf.putInt(MessageSize - 4, value)
+        buf
+    }
+
+    private def send(values: Int*): Unit = {
+        for (value <- values) {
+            sockets.send(message(value)) shouldBe MessageSize
+        }
+    }
+
+    private def valuesIn(ring: MessageRing): Seq[Int] = {
+        for (index <- 0 until ring.size) yield {
+            val buf = ring.get(index)
+            buf.remaining() shouldBe MessageSize
+            buf.getInt(buf.position() + MessageSize - 4)
+        }
+    }
+
+    private def newConnection(values: mutable.Buffer[Int]) =
+        new AbstractNetlinkConnection(sockets.receiver,
+                                      new BufferPool(1, 1, 1024),
+                                      new NetlinkMetrics(new MetricRegistry)) {
+            override def handleNotification(`type`: Short, cmd: Byte, seq: Int,
+                                            pid: Int, buffer: ByteBuffer) = {
+                values += buffer.getInt()
+                true
+            }
+        }
+
+    feature("A channel reads batches of messages into a ring") {
+        scenario("Messages are read in batches of up to the ring capacity") {
+            Given("A ring with capacity for 8 messages")
+            val ring = new MessageRing(8, 1024)
+
+            When("Sending 10 messages")
+            send(0 until 10: _*)
+
+            Then("The first read returns 8 messages")
+            sockets.receiver.read(ring) shouldBe 8
+            valuesIn(ring) shouldBe (0 until 8)
+
+            And("The second read returns the remaining messages")
+            sockets.receiver.read(ring) shouldBe 2
+            valuesIn(ring) shouldBe Seq(8, 9)
+
+            And("A third read returns no messages")
+            sockets.receiver.read(ring) shouldBe 0
+            ring.size shouldBe 0
+
+            And("The channel counts the received bytes")
+            sockets.receiver.rxBytes shouldBe 10 * MessageSize
+        }
+
+        scenario("Messages larger than the ring buffers are truncated") {
+            Given("A ring with small buffers")
+            val ring = new MessageRing(4, 16)
+
+            When("Sending a message larger than the buffers")
+            send(1)
+
+            Then("The read message is truncated")
+            sockets.receiver.read(ring) shouldBe 1
+            ring.isTruncated(0) shouldBe true
+            ring.get(0).remaining() shouldBe 16
+        }
+    }
+
+    feature("A connection processes batches of notifications") {
+        scenario("Notifications read into a ring are all handled") {
+            Given("A connection reading into a ring")
+            val values = mutable.Buffer[Int]()
+            val connection = newConnection(values)
+            connection.setReadRing(AbstractNetlinkConnection.createReadRing(4))
+
+            When("Sending 10 notifications")
+            send(0 until 10: _*)
+
+            And("Handling the read event")
+            connection.handleReadEvent(Bucket.BOTTOMLESS)
+
+            Then("The connection handles all notifications in order")
+            values shouldBe (0 until 10)
+        }
+
+        scenario("Truncated notifications are dropped") {
+            Given("A connection reading into a ring with small buffers")
+            val values = mutable.Buffer[Int]()
+            val connection = newConnection(values)
+            connection.setReadRing(new MessageRing(4, 16))
+
+            When("Sending a notification larger than the buffers")
+            send(1)
+            connection.handleReadEvent(Bucket.BOTTOMLESS)
+
+            Then("The connection does not handle the notification")
+            values shouldBe empty
+        }
+    }
+}
@@ -280,6 +280,70 @@ class NetlinkRequestBrokerTest extends FeatureSpec
         }
     }
 
+    feature ("Requests are written in batches") {
+        val broker = new NetlinkRequestBroker(writer, reader, maxRequests, 512,
+                                              ByteBuffer.allocate(1024), clock,
+                                              maxBatchSize = 4)
+
+        def publish(obs: Observer[ByteBuffer]): Long = {
+            val seq = broker.nextSequence()
+            val buf = broker.get(seq)
+            NetlinkMessage.writeHeader(buf, 64, 1, 2, 0, 4, 5, 6)
+            buf.limit(64)
+            broker.publishRequest(seq, obs)
+            seq
+        }
+
+        scenario ("Consecutive requests are written with a single write") {
+            val seqs = (0 until 6) map { _ => publish(null) }
+            broker.writePublishedRequests() should be (6 * 64)
+            writer.writes should be (2)
+            seqs foreach { seq =>
+                broker.get(seq).getInt(NetlinkMessage.NLMSG_SEQ_OFFSET) should be (seq)
+                broker.get(seq).position() should be (0)
+            }
+        }
+
+        scenario ("The number of requests written can be limited") {
+            (0 until 6) foreach { _ => publish(null) }
+            broker.writePublishedRequests(3) should be (3 * 64)
+            writer.writes should be (1)
+            broker.hasRequestsToWrite should be (true)
+            broker.writePublishedRequests(3) should be (3 * 64)
+            broker.hasRequestsToWrite should be (false)
+        }
+
+        scenario ("Batched requests complete individually") {
+            val obs1 = new CountingObserver
+            val obs2 = new CountingObserver
+            val seq1 = publish(obs1)
+            val seq2 = publish(obs2)
+            broker.writePublishedRequests()
+
+            val size = NetlinkMessage.HEADER_SIZE
+            NetlinkMessage.writeHeader(replyBuf, size, 0, 0, seq2.toInt, 0, 0, 0)
+            replyBuf.limit(size)
+            broker.readReply()
+            obs1.onCompletedCalls should be (0)
+            obs2.onCompletedCalls should be (1)
+
+            replyBuf.clear()
+            NetlinkMessage.writeHeader(replyBuf, size, 0, 0, seq1.toInt, 0, 0, 0)
+            replyBuf.limit(size)
+            broker.readReply()
+            obs1.onCompletedCalls should be (1)
+        }
+
+        scenario ("Errors are communicated to all the requests in a batch") {
+            writer.shouldThrow = true
+            val obs = new CountingObserver
+            (0 until 3) foreach { _ => publish(obs) }
+            broker.writePublishedRequests() should be (0)
+            obs.onErrorCalls should be (3)
+            broker.nextSequence() should be (3)
+        }
+    }
+
     feature ("Requests expire") {
         scenario ("Expirations are processed after a reply") {
             val obs = new CountingObserver
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.netlink
+
+import java.io.IOException
+import java.nio.ByteBuffer
+
+import com.sun.jna.Native
+import com.sun.jna.ptr.IntByReference
+
+import org.midonet.jna.{CLibrary, Socket}
+import org.midonet.netlink.NetlinkProtocol.NETLINK_USERSOCK
+
+/**
+ * A pair of NETLINK_USERSOCK sockets that stands in for the datapath: the
+ * messages sent with `send` are received by the `receiver` channel in the
+ * same way as the upcalls sent by the kernel. The sender is a plain socket,
+ * since the receiver only accepts messages from the address it is connected
+ * to, and it must be bound before the receiver connects.
+ */
+class UserSocketPair(blocking: Boolean = false) {
+
+    private val senderFd = CLibrary.socket(Socket.AF_NETLINK, CLibrary.SOCK_RAW,
+                                           NETLINK_USERSOCK.value)
+
+    private val senderPid = {
+        val address = new CLibrary.NetlinkSockAddress()
+        address.nl_family = Socket.AF_NETLINK.toShort
+        check(CLibrary.bind(senderFd, address, address.size()), "bind")
+        check(CLibrary.getsockname(senderFd, address,
+                                   new IntByReference(address.size())),
+              "getsockname")
+        address.nl_pid
+    }
+
+    val receiver = Netlink.selectorProvider
+                          .openNetlinkSocketChannel(NETLINK_USERSOCK)
+    receiver.connect(new Netlink.Address(senderPid))
+    receiver.configureBlocking(blocking)
+
+    {
+        val address = new CLibrary.NetlinkSockAddress()
+        address.nl_family = Socket.AF_NETLINK.toShort
+        address.nl_pid = receiver.getLocalAddress.getPid
+        check(CLibrary.connect(senderFd, address, address.size()), "connect")
+    }
+
+    /**
+     * Sends the remaining bytes of the buffer as one message, without
+     * blocking when the receive queue is full.
+     */
+    def send(buffer: ByteBuffer): Int = {
+        val n = CLibrary.send(senderFd, buffer, buffer.remaining(),
+                              CLibrary.MSG_DONTWAIT)
+        if (n > 0) buffer.position(buffer.position() + n)
+        n
+    }
+
+    def close(): Unit = {
+        receiver.close()
+        CLibrary.close(senderFd)
+    }
+
+    private def check(ret: Int, call: String): Unit = {
+        if (ret < 0) {
+            throw new IOException(s"$call() failed: " +
+                                  CLibrary.strerror(Native.getLastError))
+        }
+    }
+}
@@ -232,4 +232,52 @@ class FlowMaskTest  extends FlatSpec with ShouldMatchers {
             OpenVSwitch.FlowKey.Attr.IPv4).asInstanceOf[FlowKeyIPv4]
         allOnes(ipv4MaskedKey.ipv4_proto)
     }
+
+    "Network addresses seen through a prefix" should "only match the prefix" in {
+        val fmatch = new FlowMatch()
+        fmatch.addKey(FlowKeys.inPort(9))
+        fmatch.addKey(FlowKeys.etherType(IPv4.ETHERTYPE))
+        fmatch.addKey(FlowKeys.ethernet(MAC.random().getAddress, MAC.random().getAddress))
+        fmatch.addKey(FlowKeys.ipv4(IPv4Addr.random, IPv4Addr.random, IpProtocol.TCP))
+        fmatch.getNetworkSrcIP(24)
+        fmatch.getNetworkDstIP(8)
+        fmatch.getNetworkDstIP(16)
+        fmatch.highestLayerSeen() should be (3)
+
+        val mask = new FlowMask()
+        mask.calculateFor(fmatch, new ArrayList[FlowAction])
+        val ethertypeMaskedKey = mask.getMaskFor(
+            OpenVSwitch.FlowKey.Attr.Ethertype).asInstanceOf[FlowKeyEtherType]
+        allOnes(ethertypeMaskedKey.etherType)
+        val ipv4MaskedKey = mask.getMaskFor(
+            OpenVSwitch.FlowKey.Attr.IPv4).asInstanceOf[FlowKeyIPv4]
+        ipv4MaskedKey.ipv4_src should be (0xffffff00)
+        ipv4MaskedKey.ipv4_dst should be (0xffff0000)
+        ipv4MaskedKey.ipv4_proto should be (0)
+        allOnes(ipv4MaskedKey.ipv4_frag)
+    }
+
+    "Network addresses seen as a whole" should "match exactly" in {
+        val fmatch = new FlowMatch()
+        fmatch.addKey(FlowKeys.inPort(9))
+        fmatch.addKey(FlowKeys.etherType(IPv4.ETHERTYPE))
+        fmatch.addKey(FlowKeys.ethernet(MAC.random().getAddress, MAC.random().getAddress))
+        fmatch.addKey(FlowKeys.ipv4(IPv4Addr.random, IPv4Addr.random, IpProtocol.TCP))
+        fmatch.getNetworkSrcIP(24)
+        fmatch.getNetworkSrcIP
+        fmatch.isPrefixSeen(FlowMatch.Field.NetworkSrc) should be (false)
+
+        val propagated = new FlowMatch()
+        propagated.reset(fmatch)
+        propagated.clearSeenFields()
+        propagated.getNetworkDstIP(20)
+        fmatch.propagateSeenFieldsFrom(propagated)
+
+        val mask = new FlowMask()
+        mask.calculateFor(fmatch, new ArrayList[FlowAction])
+        val ipv4MaskedKey = mask.getMaskFor(
+            OpenVSwitch.FlowKey.Attr.IPv4).asInstanceOf[FlowKeyIPv4]
+        allOnes(ipv4MaskedKey.ipv4_src)
+        ipv4MaskedKey.ipv4_dst should be (0xfffff000)
+    }
 }
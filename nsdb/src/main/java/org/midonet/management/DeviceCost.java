@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.management;
+
+import java.beans.ConstructorProperties;
+
+public class DeviceCost {
+    /** The identifier of the device or rule. */
+    public String id;
+
+    /** The type of the device: port, bridge, router, chain or rule. */
+    public String type;
+
+    /** Number of sampled invocations. */
+    public long invocations;
+
+    /** Time spent in the sampled invocations, in nanoseconds. */
+    public long nanos;
+
+    @ConstructorProperties({"id", "type", "invocations", "nanos"})
+    public DeviceCost(String id, String type, long invocations, long nanos) {
+        this.id = id;
+        this.type = type;
+        this.invocations = invocations;
+        this.nanos = nanos;
+    }
+
+    public void add(long deltaInvocations, long deltaNanos) {
+        invocations += deltaInvocations;
+        nanos += deltaNanos;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public long getInvocations() {
+        return invocations;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceCost{" +
+            "id=" + id +
+            ", type=" + type +
+            ", invocations=" + invocations +
+            ", nanos=" + nanos +
+            '}';
+    }
+}
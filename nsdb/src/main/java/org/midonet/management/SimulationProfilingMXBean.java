@@ -0,0 +1,37 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.management;
+
+/**
+ * Exposes the cost of simulating the virtual devices and the chain rules, as
+ * sampled by the simulation profilers of the packet workers.
+ */
+public interface SimulationProfilingMXBean {
+    String NAME = "org.midonet.midolman:type=SimulationProfiling";
+
+    /** The fraction of the simulated packets that are profiled. */
+    double getSamplingRate();
+    void setSamplingRate(double rate);
+
+    /** The devices with the highest simulation time, across all workers. */
+    DeviceCost[] getTopDevices(int count);
+
+    /** The chain rules with the highest processing time. */
+    DeviceCost[] getTopRules(int count);
+
+    /** Discards the accumulated costs. */
+    void reset();
+}
@@ -24,7 +24,7 @@ import scala.collection.JavaConversions._
 import scala.collection.concurrent.TrieMap
 
 import com.google.common.base.Defaults
-import com.google.protobuf.Descriptors.{EnumDescriptor, EnumValueDescriptor}
+import com.google.protobuf.Descriptors.{Descriptor, EnumDescriptor, EnumValueDescriptor, FieldDescriptor}
 import com.google.protobuf.GeneratedMessage.Builder
 import com.google.protobuf.{ByteString, Descriptors, Message}
 
@@ -61,10 +61,44 @@ object ZoomConvert {
     private type ProtoBuilder = Builder[_ <: Builder[_ <: AnyRef]]
 
     private case class ConverterKey(clazz: Class[_], converter: Class[_])
-    private case class FieldInfo(field: Field, zoomField: ZoomField)
-    private case class ClassInfo(clazz: Class[_], zoomClass: ZoomClass,
-                                 zoomOneOf: ZoomOneOf,
-                                 fieldsInfo: Seq[FieldInfo])
+    private case class PlanKey(clazz: Class[_], descriptor: Descriptor)
+
+    /**
+      * The compiled conversion plan for a class field or a constructor
+      * parameter annotated with [[ZoomField]]. The message field and the
+      * converter are resolved once, when the plan is compiled, such that
+      * they are not looked up for every converted object.
+      */
+    private final class FieldPlan(val field: Field,
+                                  val zoomField: ZoomField,
+                                  val fieldType: Class[_],
+                                  val genericType: Type,
+                                  val protoField: FieldDescriptor,
+                                  val converter: Converter[_,_]) {
+        /** Indicates whether the field is converted from a message even when
+          * the message does not have the field set. */
+        val alwaysFrom = protoField.isRepeated || protoField.hasDefaultValue
+    }
+
+    /**
+      * The compiled conversion plan for one level of a Java class inheritance
+      * hierarchy, relative to the type of the top-level message. The plan
+      * references the plan of the super class, if the super class fields are
+      * converted, and the one-of message field, if the class is annotated with
+      * [[ZoomOneOf]].
+      */
+    private final class ClassPlan(val clazz: Class[_],
+                                  val superPlan: ClassPlan,
+                                  val oneOfField: FieldDescriptor,
+                                  val descriptor: Descriptor,
+                                  val fields: Array[FieldPlan])
+
+    /**
+      * The compiled conversion plan for a class that is created using the
+      * [[Zoom]] annotated constructor.
+      */
+    private final class ConstructorPlan(val constructor: Constructor[_],
+                                        val params: Array[FieldPlan])
 
     private val converters =
         new TrieMap[Class[_ <: Converter[_,_]], Converter[_,_]]
@@ -78,6 +112,31 @@ object ZoomConvert {
 
     private val factories = new TrieMap[Class[_ <: Factory[_,_]], Factory[_,_]]
 
+    private val classPlans = new TrieMap[PlanKey, ClassPlan]
+    private val constructorPlans = new TrieMap[PlanKey, ConstructorPlan]
+    private val defaultConstructors = new TrieMap[Class[_], Boolean]
+    private val builderMethods = new TrieMap[Class[_], Method]
+
+    /**
+      * Compiles and caches the conversion plans between the specified Java
+      * class and Protocol Buffers message class. Calling this method is
+      * optional, because the plans are otherwise compiled on first use, but
+      * it allows the callers to pay the compilation cost and to validate the
+      * field mapping before the first conversion.
+      *
+      * @param pojoClass The Java object class.
+      * @param protoClass The Protocol Buffers message class.
+      */
+    def register[T <: ZoomObject, U <: Message]
+        (pojoClass: Class[T], protoClass: Class[U]): Unit = {
+        val descriptor = newBuilder(protoClass).getDescriptorForType
+        if (hasDefaultConstructor(pojoClass)) {
+            classPlan(pojoClass, descriptor)
+        } else {
+            constructorPlan(pojoClass, descriptor)
+        }
+    }
+
     /**
      * Converts a Java object to a Protocol Buffers message.
      *
@@ -123,8 +182,7 @@ object ZoomConvert {
             return null
         }
         val clazz = newFactory(proto, pojoClass)
-        val defaultConstructor = getDefaultConstructor(clazz)
-        if (defaultConstructor ne null) {
+        if (hasDefaultConstructor(clazz)) {
             val pojo = clazz.newInstance().asInstanceOf[T]
             from(proto, pojo, pojo.getClass)
             pojo.afterFromProto(proto)
@@ -174,8 +232,8 @@ object ZoomConvert {
 
     /**
      * Internal method to convert a Java object to the corresponding Protocol
-     * Buffers message. The method is called recursively to convert the fields
-     * from all classes in the object's inheritance hierarchy.
+     * Buffers message, using the conversion plan for the given class and the
+     * type of the top-level message.
      *
      * @param pojo The Java object.
      * @param clazz The Java object class, representing the level in the
@@ -185,74 +243,80 @@ object ZoomConvert {
      */
     private def to[T <: ZoomObject, U <: Message](
             pojo: T, clazz: Class[_], topBuilder: ProtoBuilder): ProtoBuilder = {
+        to(pojo, classPlan(clazz, topBuilder.getDescriptorForType), topBuilder)
+    }
 
-        val zoomClass = clazz.getAnnotation(classOf[ZoomClass])
+    /**
+     * Internal method to convert a Java object to the corresponding Protocol
+     * Buffers message. The method is called recursively to convert the fields
+     * from all classes in the object's inheritance hierarchy.
+     *
+     * @param pojo The Java object.
+     * @param plan The conversion plan for the level in the object's
+     *             inheritance hierarchy at which the conversion is performed.
+     * @param topBuilder The Protocol Buffers builder for the final message.
+     */
+    private def to(pojo: ZoomObject, plan: ClassPlan,
+                   topBuilder: ProtoBuilder): ProtoBuilder = {
         // Recursively iterate over all superclasses in the objects inheritance
         // hierarchy, and get the corresponding Protocol Buffers message.
         val superBuilder =
-            if (clazz != classOf[ZoomObject] &&
-                clazz.getSuperclass != classOf[ZoomObject] &&
-                (zoomClass == null || !zoomClass.skipSuper))
-                to(pojo, clazz.getSuperclass, topBuilder)
+            if (plan.superPlan ne null) to(pojo, plan.superPlan, topBuilder)
             else topBuilder
 
         // If the class has a one-of annotation, get the builder from the one-of
         // field.
-        val zoomOneOf = clazz.getAnnotation(classOf[ZoomOneOf])
-        val thisBuilder = if (zoomOneOf ne null) {
-            val superDescriptor = superBuilder.getDescriptorForType
-            val oneOfField = superDescriptor.findFieldByName(zoomOneOf.name)
-            if (oneOfField eq null) {
-                throw new ConvertException(
-                    s"Message ${superDescriptor.getName} does not have a " +
-                    s"one-of field ${zoomOneOf.name}")
-            }
-            superBuilder.getFieldBuilder(oneOfField).asInstanceOf[ProtoBuilder]
-        } else superBuilder
-
-        // Get the descriptor for the current builder.
-        val descriptor = thisBuilder.getDescriptorForType
-
-        for (pojoField <- clazz.getDeclaredFields;
-             zoomField = pojoField.getAnnotation(classOf[ZoomField])
-             if zoomField ne null) {
-            val protoField = descriptor.findFieldByName(zoomField.name)
-
-            // Verify the field exists.
-            if (protoField eq null) {
-                throw new ConvertException(
-                    s"Message ${descriptor.getName} does not have a " +
-                    s"field with name ${zoomField.name}")
-            }
+        val thisBuilder =
+            if (plan.oneOfField ne null)
+                superBuilder.getFieldBuilder(plan.oneOfField)
+                            .asInstanceOf[ProtoBuilder]
+            else superBuilder
+
+        var index = 0
+        while (index < plan.fields.length) {
+            val fieldPlan = plan.fields(index)
             try {
                 // Get the field value.
-                val pojoValue = pojo.getField(pojoField)
+                val pojoValue = fieldPlan.field.get(pojo)
                 // Ignore the null fields.
                 if (null != pojoValue) {
-                    val converter = getConverter(pojoField.getType,
-                                                 pojoField.getGenericType,
-                                                 protoField, zoomField)
-                    val protoValue = converter.to(pojoValue,
-                                                  pojoField.getGenericType)
-                    thisBuilder.setField(protoField, protoValue)
+                    val protoValue = fieldPlan.converter.to(
+                        pojoValue, fieldPlan.genericType)
+                    thisBuilder.setField(fieldPlan.protoField, protoValue)
                 }
             } catch {
                 case e @ (_ : InstantiationException |
                           _ : IllegalAccessException |
                           _ : IllegalArgumentException |
                           _ : ClassCastException) =>
-                    val msg = s"Class $clazz failed to convert field " +
-                              s"${zoomField.name} from Java type " +
-                              s"${pojoField.getType} to Protocol Buffers " +
-                              s"type ${protoField.getType}"
+                    val msg = s"Class ${plan.clazz} failed to convert field " +
+                              s"${fieldPlan.zoomField.name} from Java type " +
+                              s"${fieldPlan.fieldType} to Protocol Buffers " +
+                              s"type ${fieldPlan.protoField.getType}"
                     log.error(msg, e)
                     throw new ConvertException(msg, e)
             }
+            index += 1
         }
 
         thisBuilder
     }
 
+    /**
+     * Internal method to convert a Protocol Buffers message to the
+     * corresponding Java object, using the conversion plan for the given class
+     * and the type of the message.
+     *
+     * @param proto The Protocol Buffers message.
+     * @param pojo The Java object.
+     * @param clazz The Java class corresponding to the current inheritance
+     *              level.
+     */
+    private def from[T <: ZoomObject, U <: Message]
+                    (proto: U, pojo: T, clazz: Class[_]): Message = {
+        from(proto, pojo, classPlan(clazz, proto.getDescriptorForType))
+    }
+
     /**
      * Internal method to convert a Protocol Buffers message to the
      * corresponding Java object. The method is called recursively to convert
@@ -262,70 +326,36 @@ object ZoomConvert {
      * and [[ZoomOneOf]] annotations.
      *
      * @param proto The Protocol Buffers message.
-     * @param pojo The Java object class, representing the level in the object's
+     * @param pojo The Java object.
+     * @param plan The conversion plan for the level in the object's
      *             inheritance hierarchy at which the conversion is performed.
-     * @param clazz The Java class corresponding to the current inheritance
-     *              level.
      */
-    private def from[T <: ZoomObject, U <: Message]
-                    (proto: U, pojo: T, clazz: Class[_]): Message = {
-        val zoomClass = clazz.getAnnotation(classOf[ZoomClass])
-
+    private def from(proto: Message, pojo: ZoomObject,
+                     plan: ClassPlan): Message = {
         // Recursively iterate over all superclasses in the objects inheritance
         // hierarchy, and get the corresponding Protocol Buffers message.
-        var message =
-            if (clazz != classOf[ZoomObject] &&
-                clazz.getSuperclass != classOf[ZoomObject] &&
-                (zoomClass == null || !zoomClass.skipSuper))
-                from(proto, pojo, clazz.getSuperclass)
+        val superMessage =
+            if (plan.superPlan ne null) from(proto, pojo, plan.superPlan)
             else proto
 
-        // Get the descriptor for the current message.
-        var descriptor = message.getDescriptorForType
-
         // If the class has a one-of annotation, extract the message from
         // the one-of field.
-        val zoomOneOf = clazz.getAnnotation(classOf[ZoomOneOf])
-        if (zoomOneOf ne null) {
-            val oneOfField = descriptor.findFieldByName(zoomOneOf.name)
-            message = if (oneOfField eq null) {
-                throw new ConvertException(
-                    s"Message ${descriptor.getName} does not have a " +
-                    s"one-of field ${zoomOneOf.name}")
-            } else message.getField(oneOfField) match {
-                case msg: Message =>
-                    descriptor = msg.getDescriptorForType
-                    msg
-                case _ =>
-                    throw new ConvertException(
-                        s"Message ${descriptor.getName} one-of field " +
-                        s"${zoomOneOf.name} is not a Protocol Buffers " +
-                        s"message")
-            }
-        }
-
-        for (pojoField <- clazz.getDeclaredFields;
-             zoomField = pojoField.getAnnotation(classOf[ZoomField])
-             if zoomField ne null) {
-            val protoField = descriptor.findFieldByName(zoomField.name)
-
-            // Verify the field exists.
-            if (protoField eq null) {
-                throw new ConvertException(
-                    s"Message ${descriptor.getName} does not have a " +
-                    s"field ${zoomField.name}")
-            } else if (protoField.isRepeated || protoField.hasDefaultValue ||
-                       message.hasField(protoField)) {
-                // We ignore unset message fields, and let the corresponding
-                // Java object field set to the its type-default value.
+        val message =
+            if (plan.oneOfField ne null)
+                superMessage.getField(plan.oneOfField).asInstanceOf[Message]
+            else superMessage
+
+        var index = 0
+        while (index < plan.fields.length) {
+            val fieldPlan = plan.fields(index)
+            // We ignore unset message fields, and let the corresponding
+            // Java object field set to the its type-default value.
+            if (fieldPlan.alwaysFrom || message.hasField(fieldPlan.protoField)) {
                 try {
-                    val protoValue = message.getField(protoField)
-                    val converter = getConverter(pojoField.getType,
-                                                 pojoField.getGenericType,
-                                                 protoField, zoomField)
-                    val pojoValue = converter.from(protoValue,
-                                                   pojoField.getGenericType)
-                    pojo.setField(pojoField, pojoValue)
+                    val protoValue = message.getField(fieldPlan.protoField)
+                    val pojoValue = fieldPlan.converter.from(
+                        protoValue, fieldPlan.genericType)
+                    fieldPlan.field.set(pojo, pojoValue)
                 } catch {
                     case e @ (_ : InstantiationException |
                               _ : IllegalAccessException |
@@ -333,11 +363,13 @@ object ZoomConvert {
                               _ : NullPointerException) =>
                         throw new ConvertException(
                             s"Class ${pojo.getClass} failed to convert " +
-                            s"field ${zoomField.name} from Protocol Buffers " +
-                            s"type ${protoField.getType} to Java type " +
-                            s"${pojoField.getType}", e)
+                            s"field ${fieldPlan.zoomField.name} from " +
+                            s"Protocol Buffers type " +
+                            s"${fieldPlan.protoField.getType} to Java type " +
+                            s"${fieldPlan.fieldType}", e)
                 }
             }
+            index += 1
         }
 
         message
@@ -353,43 +385,20 @@ object ZoomConvert {
      */
     private def fromNew[T <: ZoomObject, U <: Message]
                        (proto: U, clazz: Class[T]): T = {
-        val constructor = getZoomConstructor(clazz)
-
-        // Get the descriptor for the current message.
-        val descriptor = proto.getDescriptorForType
-
-        val paramTypes = constructor.getParameterTypes
-        val paramGenericTypes = constructor.getGenericParameterTypes
-        val paramAnnotations = constructor.getParameterAnnotations
-        val params = new Array[Object](paramTypes.length)
-
-        for (index <- params.indices) {
-            val zoomField = paramAnnotations(index)
-                .find(_.annotationType() == classOf[ZoomField])
-                .getOrElse(throw new ConvertException(
-                    s"Constructor parameter $index requires a ZoomField " +
-                    s"annotation"))
-                .asInstanceOf[ZoomField]
+        val plan = constructorPlan(clazz, proto.getDescriptorForType)
+        val params = new Array[Object](plan.params.length)
 
-            val protoField = descriptor.findFieldByName(zoomField.name)
-
-            // Verify the field exists.
-            if (protoField eq null) {
-                throw new ConvertException(
-                    s"Message ${descriptor.getName} does not have a " +
-                    s"field ${zoomField.name}")
-            } else if (protoField.isRepeated || protoField.hasDefaultValue ||
-                       proto.hasField(protoField)) {
+        var index = 0
+        while (index < params.length) {
+            val paramPlan = plan.params(index)
+            if (paramPlan.alwaysFrom || proto.hasField(paramPlan.protoField)) {
                 // We ignore unset message fields, and let the corresponding
                 // Java object field set to the its type-default value.
                 try {
-                    val protoValue = proto.getField(protoField)
-                    val converter = getConverter(paramTypes(index),
-                                                 paramGenericTypes(index),
-                                                 protoField, zoomField)
-                    params(index) = converter.from(protoValue,
-                                                   paramGenericTypes(index))
-                                             .asInstanceOf[AnyRef]
+                    val protoValue = proto.getField(paramPlan.protoField)
+                    params(index) = paramPlan.converter
+                        .from(protoValue, paramPlan.genericType)
+                        .asInstanceOf[AnyRef]
                 } catch {
                     case e @ (_ : InstantiationException |
                               _ : IllegalAccessException |
@@ -397,17 +406,151 @@ object ZoomConvert {
                               _ : NullPointerException) =>
                         throw new ConvertException(
                             s"Class $clazz failed to convert constructor" +
-                            s"parameter ${zoomField.name} from Protocol Buffers " +
-                            s"type ${protoField.getType} to Java type " +
-                            s"${paramTypes(index)}", e)
+                            s"parameter ${paramPlan.zoomField.name} from " +
+                            s"Protocol Buffers type " +
+                            s"${paramPlan.protoField.getType} to Java type " +
+                            s"${paramPlan.fieldType}", e)
                 }
             } else {
-                params(index) = Defaults.defaultValue(paramTypes(index))
+                params(index) = Defaults.defaultValue(paramPlan.fieldType)
                                         .asInstanceOf[Object]
             }
+            index += 1
         }
 
-        constructor.newInstance(params: _*).asInstanceOf[T]
+        plan.constructor.newInstance(params: _*).asInstanceOf[T]
+    }
+
+    /**
+     * Gets the conversion plan for the given Java class and message type,
+     * compiling the plan if it does not exist.
+     */
+    private def classPlan(clazz: Class[_], descriptor: Descriptor): ClassPlan = {
+        val key = PlanKey(clazz, descriptor)
+        classPlans.get(key) match {
+            case Some(plan) => plan
+            case None =>
+                val plan = compileClassPlan(clazz, descriptor)
+                classPlans.putIfAbsent(key, plan).getOrElse(plan)
+        }
+    }
+
+    /**
+     * Compiles the conversion plan for the given Java class and the type of
+     * the top-level message. The method is called recursively to compile the
+     * plans for all classes in the object's inheritance hierarchy.
+     */
+    private def compileClassPlan(clazz: Class[_], descriptor: Descriptor)
+    : ClassPlan = {
+        val zoomClass = clazz.getAnnotation(classOf[ZoomClass])
+        val superPlan =
+            if (clazz != classOf[ZoomObject] &&
+                clazz.getSuperclass != classOf[ZoomObject] &&
+                (zoomClass == null || !zoomClass.skipSuper))
+                classPlan(clazz.getSuperclass, descriptor)
+            else null
+        val superDescriptor =
+            if (superPlan ne null) superPlan.descriptor else descriptor
+
+        // If the class has a one-of annotation, the fields are converted from
+        // the message of the one-of field.
+        val zoomOneOf = clazz.getAnnotation(classOf[ZoomOneOf])
+        val oneOfField = if (zoomOneOf ne null) {
+            val field = superDescriptor.findFieldByName(zoomOneOf.name)
+            if (field eq null) {
+                throw new ConvertException(
+                    s"Message ${superDescriptor.getName} does not have a " +
+                    s"one-of field ${zoomOneOf.name}")
+            }
+            if (field.getJavaType != FieldDescriptor.JavaType.MESSAGE) {
+                throw new ConvertException(
+                    s"Message ${superDescriptor.getName} one-of field " +
+                    s"${zoomOneOf.name} is not a Protocol Buffers message")
+            }
+            field
+        } else null
+        val thisDescriptor =
+            if (oneOfField ne null) oneOfField.getMessageType
+            else superDescriptor
+
+        val fields = for (pojoField <- clazz.getDeclaredFields;
+                          zoomField = pojoField.getAnnotation(classOf[ZoomField])
+                          if zoomField ne null) yield {
+            pojoField.setAccessible(true)
+            compileFieldPlan(pojoField, pojoField.getType,
+                             pojoField.getGenericType, zoomField,
+                             thisDescriptor)
+        }
+
+        new ClassPlan(clazz, superPlan, oneOfField, thisDescriptor, fields)
+    }
+
+    /**
+     * Gets the conversion plan for the [[Zoom]] constructor of the given Java
+     * class and message type, compiling the plan if it does not exist.
+     */
+    private def constructorPlan(clazz: Class[_], descriptor: Descriptor)
+    : ConstructorPlan = {
+        val key = PlanKey(clazz, descriptor)
+        constructorPlans.get(key) match {
+            case Some(plan) => plan
+            case None =>
+                val plan = compileConstructorPlan(clazz, descriptor)
+                constructorPlans.putIfAbsent(key, plan).getOrElse(plan)
+        }
+    }
+
+    /**
+     * Compiles the conversion plan for the [[Zoom]] constructor of the given
+     * Java class and message type.
+     */
+    private def compileConstructorPlan(clazz: Class[_], descriptor: Descriptor)
+    : ConstructorPlan = {
+        val constructor = getZoomConstructor(clazz)
+
+        val paramTypes = constructor.getParameterTypes
+        val paramGenericTypes = constructor.getGenericParameterTypes
+        val paramAnnotations = constructor.getParameterAnnotations
+
+        val params = for (index <- paramTypes.indices.toArray) yield {
+            val zoomField = paramAnnotations(index)
+                .find(_.annotationType() == classOf[ZoomField])
+                .getOrElse(throw new ConvertException(
+                    s"Constructor parameter $index requires a ZoomField " +
+                    s"annotation"))
+                .asInstanceOf[ZoomField]
+            compileFieldPlan(null, paramTypes(index), paramGenericTypes(index),
+                             zoomField, descriptor)
+        }
+
+        new ConstructorPlan(constructor, params)
+    }
+
+    /**
+     * Compiles the conversion plan for a field or constructor parameter.
+     */
+    private def compileFieldPlan(field: Field, fieldType: Class[_],
+                                 genericType: Type, zoomField: ZoomField,
+                                 descriptor: Descriptor): FieldPlan = {
+        val protoField = descriptor.findFieldByName(zoomField.name)
+
+        // Verify the field exists.
+        if (protoField eq null) {
+            throw new ConvertException(
+                s"Message ${descriptor.getName} does not have a " +
+                s"field ${zoomField.name}")
+        }
+        val converter = try {
+            getConverter(fieldType, genericType, protoField, zoomField)
+        } catch {
+            case e @ (_ : InstantiationException |
+                      _ : IllegalAccessException) =>
+                throw new ConvertException(
+                    s"Cannot create converter for field ${zoomField.name} " +
+                    s"of Java type $fieldType", e)
+        }
+        new FieldPlan(field, zoomField, fieldType, genericType, protoField,
+                      converter)
     }
 
     /**
@@ -417,7 +560,8 @@ object ZoomConvert {
      */
     private def newBuilder[U <: Message](clazz: Class[U]): ProtoBuilder = {
         try {
-            clazz.getMethod(ZoomConvert.BuilderMethod)
+            builderMethods.getOrElseUpdate(
+                clazz, clazz.getMethod(ZoomConvert.BuilderMethod))
                 .invoke(null).asInstanceOf[ProtoBuilder]
         } catch {
             case e @ (_ : NoSuchMethodException |
@@ -458,16 +602,17 @@ object ZoomConvert {
     }
 
     /**
-     * Returns the default constructor for the given class.
+     * Returns whether the given class has a default constructor.
      */
-    private def getDefaultConstructor(clazz: Class[_]): Constructor[_] = {
-        try {
-            val c = clazz.getDeclaredConstructor()
-            c.setAccessible(true)
-            c
-        } catch {
-            case ex: NoSuchMethodException => null
-        }
+    private def hasDefaultConstructor(clazz: Class[_]): Boolean = {
+        defaultConstructors.getOrElseUpdate(clazz, {
+            try {
+                clazz.getDeclaredConstructor()
+                true
+            } catch {
+                case ex: NoSuchMethodException => false
+            }
+        })
     }
 
     /**
@@ -51,6 +51,7 @@ object MidonetBackend {
     final val FloodingProxyKey = "flooding_proxy"
     final val HostKey = "host"
     final val RoutesKey = "routes"
+    final val RouteBatchesKey = "route_batches"
     final val StatusKey = "status"
     final val VtepConfig = "config"
     final val VtepConnState = "connection_state"
@@ -275,6 +276,7 @@ object MidonetBackend {
         stateStore.registerKey(classOf[Port], ActiveKey, SingleLastWriteWins)
         stateStore.registerKey(classOf[Port], BgpKey, SingleLastWriteWins)
         stateStore.registerKey(classOf[Port], RoutesKey, Multiple)
+        stateStore.registerKey(classOf[Port], RouteBatchesKey, Multiple)
         stateStore.registerKey(classOf[TunnelZone], FloodingProxyKey, SingleLastWriteWins)
         stateStore.registerKey(classOf[Vtep], VtepConfig, SingleLastWriteWins)
         stateStore.registerKey(classOf[Vtep], VtepConnState, SingleLastWriteWins)
@@ -32,7 +32,7 @@ import org.midonet.cluster.models.Topology.{Host, TunnelZone}
 import org.midonet.cluster.models.Topology.TunnelZone.Type.VTEP
 import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.services.MidonetBackend.FloodingProxyKey
-import org.midonet.cluster.services.vxgw.FloodingProxyHerald.FloodingProxy
+import org.midonet.cluster.services.vxgw.FloodingProxyHerald.{FloodingProxies, FloodingProxy}
 import org.midonet.cluster.util.UUIDUtil._
 import org.midonet.cluster.util.{selfHealingEntityObservable, selfHealingTypeObservable}
 import org.midonet.packets.IPv4Addr
@@ -40,19 +40,61 @@ import org.midonet.util.functors.{makeAction0, makeAction1, makeFunc1}
 
 object FloodingProxyHerald {
 
-    /** Deserializes a state string into a FloodingProxy object for the given
+    /** Deserializes a state string into the first FloodingProxy for the given
       * tunnel zone.
       */
     def deserialize(tunnelZoneId: UUID, s: String): FloodingProxy = {
-        val split = s.split("#")
-        FloodingProxy(tunnelZoneId, UUID.fromString(split(0)),
-                      IPv4Addr.fromString(split(1)))
+        deserializeAll(tunnelZoneId, s).proxies.head
+    }
+
+    /** Deserializes a state string into the FloodingProxies of the given
+      * tunnel zone. The string contains one or more proxies separated by
+      * `;`, each as `hostId#tunnelIp#weight`, where the weight is optional.
+      * Agents that only know a single flooding proxy per tunnel zone read the
+      * first proxy of the string.
+      */
+    def deserializeAll(tunnelZoneId: UUID, s: String): FloodingProxies = {
+        val entries = s.split(";")
+        val proxies = new Array[FloodingProxy](entries.length)
+        var index = 0
+        while (index < entries.length) {
+            val split = entries(index).split("#")
+            val weight = if (split.length > 2) split(2).toInt else 1
+            proxies(index) = FloodingProxy(tunnelZoneId,
+                                           UUID.fromString(split(0)),
+                                           IPv4Addr.fromString(split(1)),
+                                           weight)
+            index += 1
+        }
+        FloodingProxies(tunnelZoneId, proxies.toIndexedSeq)
+    }
+
+    /** Returns the score of a node for the given key in a weighted rendezvous
+      * hash, where the node with the highest score is chosen for the key.
+      * The probability of choosing a node is proportional to its weight, and
+      * adding or removing a node only moves the keys of that node.
+      */
+    def rendezvousScore(key: UUID, node: UUID, weight: Int): Double = {
+        var hash = mix(key.getMostSignificantBits)
+        hash = mix(hash ^ key.getLeastSignificantBits)
+        hash = mix(hash ^ node.getMostSignificantBits)
+        hash = mix(hash ^ node.getLeastSignificantBits)
+        // A uniform value in (0, 1) from the upper 53 bits of the hash.
+        val uniform = ((hash >>> 11) + 0.5) / (1L << 53).toDouble
+        -weight / Math.log(uniform)
+    }
+
+    private def mix(value: Long): Long = {
+        var z = value + 0x9e3779b97f4a7c15L
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL
+        z ^ (z >>> 31)
     }
 
     // Note that IPv4 is intentional, as this feature is only for VxGW, and
     // here IPv6 is not supported.
     case class FloodingProxy(tunnelZoneId: UUID, hostId: UUID,
-                             tunnelIp: IPv4Addr) {
+                             tunnelIp: IPv4Addr, weight: Int = 1) {
         private val serialized = s"$hostId#$tunnelIp"
         override def toString = serialized
 
@@ -65,6 +107,58 @@ object FloodingProxyHerald {
             case _ => false
         }
     }
+
+    /** The flooding proxies of a tunnel zone, by decreasing rank. Every
+      * network flooding through the tunnel zone uses one of the proxies,
+      * chosen by a rendezvous hash of the network identifier weighted by the
+      * flooding proxy weight of the hosts, such that the flooded traffic is
+      * shared among the proxies, and only the networks of a proxy move when
+      * the proxy is removed.
+      */
+    case class FloodingProxies(tunnelZoneId: UUID,
+                               proxies: IndexedSeq[FloodingProxy]) {
+
+        def isEmpty: Boolean = proxies.isEmpty
+
+        /** The flooding proxy with the highest rank, if any. */
+        def primary: Option[FloodingProxy] = proxies.headOption
+
+        /** Returns the flooding proxy for the specified network. */
+        def proxyFor(networkId: UUID): Option[FloodingProxy] = {
+            var chosen: FloodingProxy = null
+            var maxScore = Double.NegativeInfinity
+            var index = 0
+            while (index < proxies.size) {
+                val proxy = proxies(index)
+                val score = rendezvousScore(networkId, proxy.hostId,
+                                            proxy.weight)
+                if (score > maxScore) {
+                    chosen = proxy
+                    maxScore = score
+                }
+                index += 1
+            }
+            Option(chosen)
+        }
+
+        def serialize: String = {
+            proxies.map(p => s"${p.hostId}#${p.tunnelIp}#${p.weight}")
+                   .mkString(";")
+        }
+
+        override def toString = s"FloodingProxies [tunnelZoneId=$tunnelZoneId " +
+                                s"proxies=$serialize]"
+
+        override def equals(o: Any): Boolean = o match {
+            case that: FloodingProxies =>
+                Objects.equals(tunnelZoneId, that.tunnelZoneId) &&
+                    proxies == that.proxies &&
+                    proxies.map(_.weight) == that.proxies.map(_.weight)
+            case _ => false
+        }
+
+        override def hashCode = Objects.hash(tunnelZoneId, proxies)
+    }
 }
 
 /** This class can be used to retrieve flooding proxies from any component in
@@ -74,44 +168,68 @@ object FloodingProxyHerald {
 class FloodingProxyHerald(backend: MidonetBackend, hostFilter: Option[UUID]) {
 
     protected val log = Logger(getLogger("org.midonet.cluster.flooding-proxies"))
-    @volatile private var fpIndex = Map[UUID, FloodingProxy]()
+    @volatile private var fpIndex = Map[UUID, FloodingProxies]()
     @volatile private var floodingProxies = new JArrayList[FloodingProxy]
     private var tunnelZones = Map[UUID, Subscription]()
 
-    private val updateStream = PublishSubject.create[FloodingProxy]()
+    private val updateStream = PublishSubject.create[FloodingProxies]()
+
+    /** Exposes the latest flooding proxies for each VTEP tunnel zone, which
+      * are empty when the tunnel zone has no flooding proxy.  Do not worry
+      * about errors, we won't emit any.
+      */
+    val proxiesObservable = updateStream.asObservable().distinctUntilChanged()
+
+    /** Exposes the latest primary flooding proxy for each VTEP tunnel zone.
+      * Do not worry about errors, we won't emit any.
+      */
+    val observable = proxiesObservable.map[FloodingProxy](
+        makeFunc1 { fps: FloodingProxies =>
+            fps.primary.getOrElse(FloodingProxy(fps.tunnelZoneId, null, null))
+        }).distinctUntilChanged()
 
-    /** Exposes the latest flooding proxy for each VTEP tunnel zone.  Do not
-      * worry about errors, we won't emit any.
+    /** Returns the current primary flooding proxy for this tunnel zone.  This
+      * method works off a local cache so consider that a lookup here may not
+      * have the latest value if the notification from storage hasn't been
+      * processed yet.
       */
-    val observable = updateStream.asObservable().distinctUntilChanged()
+    def lookup(tzId: UUID): Option[FloodingProxy] =
+        fpIndex.get(tzId).flatMap(_.primary)
 
-    /** Returns the current flooding proxy for this tunnel zone.  This method
-      * works off a local cache so consider that a lookup here may not have the
-      * latest value if the notification from storage hasn't been processed yet.
+    /** Returns the current flooding proxy of the given network for this
+      * tunnel zone, with the same caveats as [[lookup]].
       */
-    def lookup(tzId: UUID): Option[FloodingProxy] = fpIndex.get(tzId)
+    def lookup(tzId: UUID, networkId: UUID): Option[FloodingProxy] =
+        fpIndex.get(tzId).flatMap(_.proxyFor(networkId))
 
+    /** Returns all current flooding proxies for this tunnel zone. */
+    def lookupAll(tzId: UUID): Option[FloodingProxies] = fpIndex.get(tzId)
+
+    /** Returns the flooding proxies of all tunnel zones. */
     def all: JArrayList[FloodingProxy] = floodingProxies
 
     private def updateFps(): Unit = {
-        val newFps = new JArrayList[FloodingProxy](fpIndex.values.asJavaCollection)
+        val newFps = new JArrayList[FloodingProxy]()
+        for (fps <- fpIndex.values) {
+            newFps.addAll(fps.proxies.asJavaCollection)
+        }
         floodingProxies = newFps
     }
 
-    private def addFp(tzId: UUID, fp: FloodingProxy): Unit = {
-        log.debug("Zone {} new flooding proxy {} at {}", tzId, fp.hostId, fp.tunnelIp)
-        fpIndex += tzId -> fp
+    private def addFp(tzId: UUID, fps: FloodingProxies): Unit = {
+        log.debug(s"Zone $tzId new flooding proxies $fps")
+        fpIndex += tzId -> fps
         updateFps()
-        updateStream.onNext(fp)
+        updateStream.onNext(fps)
     }
 
     private def removeFp(tzId: UUID): Unit = {
         fpIndex.get(tzId) match {
-            case Some(oldFp) =>
+            case Some(oldFps) =>
                 fpIndex -= tzId
                 updateFps()
-                log.debug(s"Zone $tzId loses flooding proxy (was: $oldFp)")
-                updateStream.onNext(new FloodingProxy(tzId, null, null))
+                log.debug(s"Zone $tzId loses flooding proxies (was: $oldFps)")
+                updateStream.onNext(FloodingProxies(tzId, IndexedSeq.empty))
             case None =>
         }
     }
@@ -125,7 +243,7 @@ class FloodingProxyHerald(backend: MidonetBackend, hostFilter: Option[UUID]) {
             override def onNext(t: StateKey): Unit =
                 t match {
                     case SingleValueKey(_, Some(v), _) =>
-                        addFp(tzId, FloodingProxyHerald.deserialize(tzId, v))
+                        addFp(tzId, FloodingProxyHerald.deserializeAll(tzId, v))
                     case SingleValueKey(_, None, _) =>
                         removeFp(tzId)
                     case _ =>
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.management
+
+import javax.management.remote.{JMXConnectorFactory, JMXServiceURL}
+import javax.management.{JMX, ObjectName}
+
+import scala.util.{Failure, Success, Try}
+
+import org.rogach.scallop._
+
+object ProfileCommand {
+    val SUCCESS = 0
+    val FAILURE = 1
+
+    def print(costs: Array[DeviceCost]): Unit = {
+        val typeHeader = "type"
+        val idHeader = "id"
+        val invocationsHeader = "invocations"
+        val timeHeader = "time(us)"
+        val meanHeader = "mean(ns)"
+        System.out.println(f"$typeHeader%-6s $idHeader%-36s " +
+                           f"$invocationsHeader%12s $timeHeader%12s " +
+                           f"$meanHeader%10s")
+        for (cost <- costs) {
+            val mean = if (cost.invocations > 0) cost.nanos / cost.invocations
+                       else 0L
+            System.out.println(f"${cost.`type`}%-6s ${cost.id}%-36s " +
+                               f"${cost.invocations}%12d " +
+                               f"${cost.nanos / 1000}%12d $mean%10d")
+        }
+    }
+}
+
+trait ProfileCommand {
+    def run(profilingProxy: SimulationProfilingMXBean): Int
+}
+
+object TopDevices extends Subcommand("devices") with ProfileCommand {
+    descr("list the virtual devices that take most simulation time")
+
+    val count = opt[Int]("count", short = 'n', default = Some(20),
+                         descr = "number of devices to list")
+
+    override def run(profilingProxy: SimulationProfilingMXBean): Int = {
+        ProfileCommand.print(profilingProxy.getTopDevices(count.get.get))
+        ProfileCommand.SUCCESS
+    }
+}
+
+object TopRules extends Subcommand("rules") with ProfileCommand {
+    descr("list the chain rules that take most simulation time")
+
+    val count = opt[Int]("count", short = 'n', default = Some(20),
+                         descr = "number of rules to list")
+
+    override def run(profilingProxy: SimulationProfilingMXBean): Int = {
+        ProfileCommand.print(profilingProxy.getTopRules(count.get.get))
+        ProfileCommand.SUCCESS
+    }
+}
+
+object SamplingRate extends Subcommand("rate") with ProfileCommand {
+    descr("show or set the fraction of the packets that are profiled")
+
+    val rate = trailArg[Double](required = false,
+                                descr = "the new sampling rate, between 0 " +
+                                        "(disabled) and 1 (every packet)")
+
+    override def run(profilingProxy: SimulationProfilingMXBean): Int = {
+        rate.get match {
+            case Some(value) if value < 0.0 || value > 1.0 =>
+                System.err.println("The sampling rate must be between 0 and 1")
+                ProfileCommand.FAILURE
+            case Some(value) =>
+                profilingProxy.setSamplingRate(value)
+                System.out.println(profilingProxy.getSamplingRate)
+                ProfileCommand.SUCCESS
+            case None =>
+                System.out.println(profilingProxy.getSamplingRate)
+                ProfileCommand.SUCCESS
+        }
+    }
+}
+
+object ResetProfile extends Subcommand("reset") with ProfileCommand {
+    descr("discard the accumulated simulation costs")
+
+    override def run(profilingProxy: SimulationProfilingMXBean): Int = {
+        profilingProxy.reset()
+        ProfileCommand.SUCCESS
+    }
+}
+
+object MidolmanProfile extends App {
+    System.setProperty("logback.configurationFile", "logback-disabled.xml")
+
+    private def getProfilingBean(host: String, port: Int)
+    : Try[SimulationProfilingMXBean] = {
+        try {
+            val url = new JMXServiceURL(
+                s"service:jmx:rmi:///jndi/rmi://$host:$port/jmxrmi")
+            val jmxc = JMXConnectorFactory.connect(url, null)
+
+            val mbsc = jmxc.getMBeanServerConnection
+
+            val name = new ObjectName(SimulationProfilingMXBean.NAME)
+            Success(JMX.newMXBeanProxy(mbsc, name,
+                                       classOf[SimulationProfilingMXBean], true))
+        } catch {
+            case e: Exception =>
+                Failure(new Exception(
+                    "[mm-profile] Failed to connect to remote agent: " +
+                    e.getMessage))
+        }
+    }
+
+    val opts = new ScallopConf(args) {
+        val port = opt[Int]("port", short = 'p', default = Option(7200),
+                            descr = "JMX port",
+                            required = true)
+        val host = opt[String]("host", short = 'h', default = Option("localhost"),
+                               descr = "Host")
+
+        val devices = TopDevices
+        val rules = TopRules
+        val rate = SamplingRate
+        val reset = ResetProfile
+
+        printedName = "mm-profile"
+        footer("Copyright (c) 2016 Midokura SARL, All Rights Reserved.")
+    }
+
+    val ret = (opts.subcommand flatMap {
+        case subcommand: ProfileCommand =>
+            for {host <- opts.host.get
+                 port <- opts.port.get} yield { (subcommand, host, port) }
+        case _ =>
+            None
+    } match {
+        case Some((subcommand, host, port)) =>
+            getProfilingBean(host, port) map { bean => subcommand.run(bean) }
+        case _ =>
+            Failure(new Exception("[mm-profile] must specify a valid command"))
+    }) match {
+        case Success(retcode) =>
+            retcode
+        case Failure(e) =>
+            System.err.println("[mm-profile] Failed: " + e.getMessage)
+            1
+    }
+
+    System.exit(ret)
+}
@@ -91,6 +91,9 @@ object MidolmanMetricCatalog {
     val BASE = "metrics:name=org.midonet.midolman.monitoring.metrics"
     val DP_FLOWS_GAUGE = s"$BASE.FlowTablesGauge"
     val SIM_LATENCY = s"$BASE.PacketPipelineHistogram"
+    val STAGE_LATENCY = s"$SIM_LATENCY.stages"
+    val STAGES = List("queue", "parse", "simulation", "wait", "translation",
+                      "flowCreate", "execute")
 
     val CMS_GC= "java.lang:type=GarbageCollector,name=G1 Old Generation"
     val NEW_GC= "java.lang:type=GarbageCollector,name=G1 Young Generation"
@@ -122,7 +125,7 @@ object MidolmanMetricCatalog {
 
         def getColumns = List(
             new StatColumn("dpflows", 7, dpFlowsGauge.get),
-            buildLatencies,
+            buildLatencies) ::: buildStageLatencies ::: List(
             new StatColumn("gc time", 8, gc.getDelta),
             edenGroup, survivorGroup, oldGroup)
 
@@ -174,6 +177,20 @@ object MidolmanMetricCatalog {
             new ColumnGroup(latencyColumnGroupName, allColumns)
         }
 
+        // The 99th percentile of every pipeline stage across all workers, if
+        // the agent exposes the stage latencies.
+        private def buildStageLatencies: List[Column] = {
+            if (mbsc.isRegistered(new ObjectName(s"$STAGE_LATENCY.queue"))) {
+                val columns = for (stage <- STAGES) yield {
+                    val latency = new Histogram(mbsc, s"$STAGE_LATENCY.$stage")
+                    new StatColumn(stage, 6, latency.get99th, 1000)
+                }
+                List(new ColumnGroup("stage 99th (microsecs)", columns))
+            } else {
+                Nil
+            }
+        }
+
         private def getNumWorkers = {
             var beanName = SIM_LATENCY + "*packetsProcessed"
             val objectPattern = new ObjectName(beanName)
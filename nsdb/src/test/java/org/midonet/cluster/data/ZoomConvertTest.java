@@ -375,6 +375,28 @@ public class ZoomConvertTest {
         assertTrue(obj.equals(top));
     }
 
+    /**
+     * Conversion of a registered Top class to Protobufs and back to Top class
+     * should succeed, and should use the same conversion for every object.
+     */
+    @Test
+    public void testRegisteredTopClassToTopClass() {
+        ZoomConvert.register(Top.class, TestFlatMessage.class);
+
+        for (int index = 0; index < 4; index++) {
+            Top obj = new Top();
+
+            TestFlatMessage proto =
+                ZoomConvert.toProto(obj, TestFlatMessage.class);
+
+            assertTrue(obj.compare(proto));
+
+            Top top = ZoomConvert.fromProto(proto, Top.class);
+
+            assertTrue(obj.equals(top));
+        }
+    }
+
     /**
      * Conversion of a Top class to a message considering only the fields from
      * a base class.